@@ -0,0 +1,32 @@
+package com.interviews.uag.bench;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with JMH's usual command-line options, and always with the GC profiler, so that every result
+ * comes with its allocation rate per operation ({@code gc.alloc.rate.norm}).
+ * <p>
+ * For example, to compare flat and deep hierarchies with a million users:
+ * </p>
+ * <pre><code>
+ *     java -jar target/benchmarks.jar MembershipBenchmark -p users=1000000 -p depth=2,8 -p fanOut=4
+ * </code></pre>
+ */
+public final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListProfilers()
+                || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,53 @@
+package com.interviews.uag.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures membership checks on every available processor, alone and while another thread keeps changing
+ * memberships.  Compare the results with the single-threaded {@link MembershipBenchmark} to see how reads scale.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentMembershipBenchmark {
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean isUserInGroup(DirectoryState state) {
+        return state.services.getMembershipService().isUserInGroup(state.randomUser(), state.randomGroup(1));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean isGroupInGroup(DirectoryState state) {
+        return state.services.getMembershipService().isGroupInGroup(state.randomLeaf(), state.randomGroup(1));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public boolean mixedReader(DirectoryState state) {
+        return state.services.getMembershipService().isUserInGroup(state.randomUser(), state.randomGroup(1));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedWriter(DirectoryState state, WriterState writer) {
+        final com.interviews.uag.api.Group group = state.randomLeaf();
+        state.services.getMembershipService().addUserToGroup(writer.user, group);
+        state.services.getMembershipService().removeUserFromGroup(writer.user, group);
+    }
+}
@@ -0,0 +1,49 @@
+package com.interviews.uag.bench;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.User;
+import com.interviews.uag.api.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every {@link UserService} and {@link GroupService} operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryBenchmark {
+    @Benchmark
+    public User findUserByName(DirectoryState state) {
+        return state.services.getUserService().findByName(state.randomUser().getName());
+    }
+
+    @Benchmark
+    public Group findGroupByName(DirectoryState state) {
+        return state.services.getGroupService().findByName(state.randomLeaf().getName());
+    }
+
+    @Benchmark
+    public void createAndDeleteUser(DirectoryState state, WriterState writer) {
+        final UserService userService = state.services.getUserService();
+        userService.create(writer.scratchUser);
+        userService.delete(writer.scratchUser);
+    }
+
+    @Benchmark
+    public void createAndDeleteGroup(DirectoryState state, WriterState writer) {
+        final GroupService groupService = state.services.getGroupService();
+        groupService.create(writer.scratchGroup);
+        groupService.delete(writer.scratchGroup);
+    }
+}
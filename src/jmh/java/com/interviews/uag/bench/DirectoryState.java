@@ -0,0 +1,58 @@
+package com.interviews.uag.bench;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.User;
+import com.interviews.uag.core.ServiceFactory;
+import com.interviews.uag.core.Services;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A synthetic directory shared by every benchmark thread.  Override the shape with JMH's {@code -p} option, for
+ * example {@code -p users=1000000 -p depth=8}.
+ */
+@State(Scope.Benchmark)
+public class DirectoryState {
+    @Param("100000")
+    public int users;
+
+    @Param("8")
+    public int fanOut;
+
+    @Param("4")
+    public int depth;
+
+    @Param({"0.0", "0.1"})
+    public double diamondDensity;
+
+    Services services;
+    SyntheticDirectory directory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        services = ServiceFactory.createServices();
+        directory = SyntheticDirectory.generate(services, users, fanOut, depth, diamondDensity, 42);
+    }
+
+    User randomUser() {
+        return directory.users[ThreadLocalRandom.current().nextInt(directory.users.length)];
+    }
+
+    Group randomLeaf() {
+        final Group[] leaves = directory.leaves();
+        return leaves[ThreadLocalRandom.current().nextInt(leaves.length)];
+    }
+
+    /**
+     * Returns a random group on the given level, where level {@code 0} is the root.
+     */
+    Group randomGroup(int level) {
+        final Group[] groups = directory.levels[level];
+        return groups[ThreadLocalRandom.current().nextInt(groups.length)];
+    }
+}
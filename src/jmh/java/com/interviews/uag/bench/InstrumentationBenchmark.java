@@ -0,0 +1,57 @@
+package com.interviews.uag.bench;
+
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.metrics.InstrumentedServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link InstrumentedServices} by comparing the same checks with and without it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstrumentationBenchmark {
+    @State(Scope.Benchmark)
+    public static class Instrumented {
+        MembershipService membershipService;
+
+        @Setup(Level.Trial)
+        public void setUp(DirectoryState state) {
+            membershipService = InstrumentedServices.wrap(state.services).getMembershipService();
+        }
+    }
+
+    @Benchmark
+    public boolean isUserInGroup(DirectoryState state) {
+        return state.services.getMembershipService().isUserInGroup(state.randomUser(), state.randomGroup(1));
+    }
+
+    @Benchmark
+    public boolean isUserInGroupInstrumented(DirectoryState state, Instrumented instrumented) {
+        return instrumented.membershipService.isUserInGroup(state.randomUser(), state.randomGroup(1));
+    }
+
+    @Benchmark
+    public boolean isGroupInGroup(DirectoryState state) {
+        return state.services.getMembershipService().isGroupInGroup(state.randomLeaf(), state.randomGroup(1));
+    }
+
+    @Benchmark
+    public boolean isGroupInGroupInstrumented(DirectoryState state, Instrumented instrumented) {
+        return instrumented.membershipService.isGroupInGroup(state.randomLeaf(), state.randomGroup(1));
+    }
+}
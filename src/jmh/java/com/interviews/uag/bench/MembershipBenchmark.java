@@ -0,0 +1,118 @@
+package com.interviews.uag.bench;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static com.interviews.uag.api.MembershipQuery.membersOf;
+
+/**
+ * Measures every {@link MembershipService} operation on a single thread.  Run with {@code -t} to use more.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MembershipBenchmark {
+    @Benchmark
+    public boolean isUserInRootGroup(DirectoryState state) {
+        return state.services.getMembershipService().isUserInGroup(state.randomUser(), state.directory.root);
+    }
+
+    @Benchmark
+    public boolean isUserInLeafGroup(DirectoryState state) {
+        return state.services.getMembershipService().isUserInGroup(state.randomUser(), state.randomLeaf());
+    }
+
+    @Benchmark
+    public boolean isGroupInRootGroup(DirectoryState state) {
+        return state.services.getMembershipService().isGroupInGroup(state.randomLeaf(), state.directory.root);
+    }
+
+    /**
+     * Asks about two groups on the first level, which is the worst case for a traversal that fails: the whole
+     * subtree of the parent is explored.
+     */
+    @Benchmark
+    public boolean isGroupInSiblingGroup(DirectoryState state) {
+        return state.services.getMembershipService().isGroupInGroup(state.randomLeaf(), state.randomGroup(1));
+    }
+
+    @Benchmark
+    public void getUsersInGroup(DirectoryState state, Blackhole blackhole) {
+        for (User user : state.services.getMembershipService().getUsersInGroup(state.randomLeaf())) {
+            blackhole.consume(user);
+        }
+    }
+
+    @Benchmark
+    public void getGroupsForUser(DirectoryState state, Blackhole blackhole) {
+        for (Group group : state.services.getMembershipService().getGroupsForUser(state.randomUser())) {
+            blackhole.consume(group);
+        }
+    }
+
+    @Benchmark
+    public void getEffectiveGroupsForUser(DirectoryState state, Blackhole blackhole) {
+        for (Group group : state.services.getMembershipService().getEffectiveGroupsForUser(state.randomUser())) {
+            blackhole.consume(group);
+        }
+    }
+
+    @Benchmark
+    public int getUsersMatching(DirectoryState state) {
+        return state.services.getMembershipService()
+                .getUsersMatching(membersOf(state.randomGroup(1)).andNot(membersOf(state.randomGroup(2))))
+                .size();
+    }
+
+    @Benchmark
+    public void addAndRemoveUser(DirectoryState state, WriterState writer) {
+        final MembershipService membershipService = state.services.getMembershipService();
+        final Group group = state.randomLeaf();
+        membershipService.addUserToGroup(writer.user, group);
+        membershipService.removeUserFromGroup(writer.user, group);
+    }
+
+    @Benchmark
+    public void addAndRemoveUsers(DirectoryState state, WriterState writer) {
+        final MembershipService membershipService = state.services.getMembershipService();
+        final Group group = state.randomLeaf();
+        membershipService.addUsersToGroup(Collections.singleton(writer.user), group);
+        membershipService.removeUsersFromGroup(Collections.singleton(writer.user), group);
+    }
+
+    /**
+     * Nests a group that has one member beneath a random group, which updates the effective memberships of that
+     * member, and then removes it again.
+     */
+    @Benchmark
+    public void addAndRemoveGroup(DirectoryState state, WriterState writer) {
+        final MembershipService membershipService = state.services.getMembershipService();
+        final Group parent = state.randomLeaf();
+        membershipService.addUserToGroup(writer.user, writer.group);
+        membershipService.addGroupToGroup(writer.group, parent);
+        membershipService.removeGroupFromGroup(writer.group, parent);
+        membershipService.removeGroup(writer.group);
+    }
+
+    @Benchmark
+    public void addAndRemoveGroups(DirectoryState state, WriterState writer) {
+        final MembershipService membershipService = state.services.getMembershipService();
+        final Group parent = state.randomLeaf();
+        membershipService.addGroupsToGroup(Collections.singleton(writer.group), parent);
+        membershipService.removeGroupFromGroup(writer.group, parent);
+    }
+}
@@ -0,0 +1,74 @@
+package com.interviews.uag.bench;
+
+import com.interviews.uag.memory.MemoryMembershipService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rebuilding the effective memberships of the whole directory, and of the users under one group on the
+ * first level, on one thread and on every core.  The ratio of the two is the speedup of the parallel rebuild.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecomputeBenchmark {
+    /**
+     * A pool with one thread, for the single-threaded baseline.
+     */
+    @State(Scope.Benchmark)
+    public static class SingleThread {
+        ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pool = new ForkJoinPool(1);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void recomputeAll_singleThread(DirectoryState state, SingleThread single) {
+        membershipService(state).recomputeEffectiveMemberships(single.pool);
+    }
+
+    @Benchmark
+    public void recomputeAll_allCores(DirectoryState state) {
+        membershipService(state).recomputeEffectiveMemberships(ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public void recomputeRegion_singleThread(DirectoryState state, SingleThread single) {
+        membershipService(state).recomputeEffectiveMemberships(
+                Collections.singleton(state.randomGroup(1)), single.pool);
+    }
+
+    @Benchmark
+    public void recomputeRegion_allCores(DirectoryState state) {
+        membershipService(state).recomputeEffectiveMemberships(
+                Collections.singleton(state.randomGroup(1)), ForkJoinPool.commonPool());
+    }
+
+    private static MemoryMembershipService membershipService(DirectoryState state) {
+        return (MemoryMembershipService) state.services.getMembershipService();
+    }
+}
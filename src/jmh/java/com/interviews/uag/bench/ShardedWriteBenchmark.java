@@ -0,0 +1,75 @@
+package com.interviews.uag.bench;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.User;
+import com.interviews.uag.core.ServiceFactory;
+import com.interviews.uag.core.Services;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures concurrent writes to one group by users that are spread over the shards.  Writes about different users
+ * go to different shards, which have separate locks, so with enough processors the throughput grows with the number
+ * of shards; compare {@code -p shards=1} with the other counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedWriteBenchmark {
+    /**
+     * Sharded services with one group that every thread writes to.
+     */
+    @State(Scope.Benchmark)
+    public static class ShardedState {
+        @Param({"1", "4"})
+        public int shards;
+
+        Services services;
+        final Group group = new Group("everyone");
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            services = ServiceFactory.createShardedServices(shards);
+            services.getGroupService().create(group);
+        }
+    }
+
+    /**
+     * A user that belongs to one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        User user;
+
+        @Setup(Level.Trial)
+        public void setUp(ShardedState state) {
+            user = new User("writer-" + THREADS.incrementAndGet());
+            state.services.getUserService().create(user);
+        }
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void addAndRemoveUser(ShardedState state, Writer writer) {
+        state.services.getMembershipService().addUserToGroup(writer.user, state.group);
+        state.services.getMembershipService().removeUserFromGroup(writer.user, state.group);
+    }
+}
@@ -0,0 +1,98 @@
+package com.interviews.uag.bench;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.User;
+import com.interviews.uag.core.Services;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a reproducible directory of users and nested groups for benchmarks.
+ * <p>
+ * The groups form a hierarchy of {@code depth} levels below a single root, in which every group has
+ * {@code fanOut} child groups.  With probability {@code diamondDensity}, a group below the first level is also
+ * added to a second, randomly chosen parent on the level above, which turns the tree into a DAG with diamonds.
+ * Every user is a direct member of one randomly chosen group on the lowest level.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+final class SyntheticDirectory {
+    final User[] users;
+    final Group root;
+    final Group[][] levels;
+
+    private SyntheticDirectory(User[] users, Group root, Group[][] levels) {
+        this.users = users;
+        this.root = root;
+        this.levels = levels;
+    }
+
+    /**
+     * Returns the groups on the lowest level, which hold the users.
+     */
+    Group[] leaves() {
+        return levels[levels.length - 1];
+    }
+
+    static SyntheticDirectory generate(Services services, int userCount, int fanOut, int depth,
+                                       double diamondDensity, long seed) {
+        final Random random = new Random(seed);
+
+        final Group root = new Group("g0");
+        services.getGroupService().create(root);
+        final Group[][] levels = new Group[depth + 1][];
+        levels[0] = new Group[]{root};
+        int groupCount = 1;
+        for (int level = 1; level <= depth; level++) {
+            final Group[] above = levels[level - 1];
+            final Group[] groups = new Group[above.length * fanOut];
+            for (int p = 0; p < above.length; p++) {
+                final List<Group> children = new ArrayList<>(fanOut);
+                for (int c = 0; c < fanOut; c++) {
+                    final Group group = new Group("g" + groupCount++);
+                    services.getGroupService().create(group);
+                    groups[p * fanOut + c] = group;
+                    children.add(group);
+                }
+                services.getMembershipService().addGroupsToGroup(children, above[p]);
+            }
+            if (level > 1) {
+                for (Group group : groups) {
+                    if (random.nextDouble() < diamondDensity) {
+                        services.getMembershipService().addGroupToGroup(group, above[random.nextInt(above.length)]);
+                    }
+                }
+            }
+            levels[level] = groups;
+        }
+
+        final User[] users = new User[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users[i] = new User("u" + i);
+            services.getUserService().create(users[i]);
+        }
+        final Group[] leaves = levels[depth];
+        final int[] leafOf = new int[userCount];
+        final int[] counts = new int[leaves.length];
+        for (int i = 0; i < userCount; i++) {
+            leafOf[i] = random.nextInt(leaves.length);
+            counts[leafOf[i]]++;
+        }
+        final User[][] members = new User[leaves.length][];
+        for (int l = 0; l < leaves.length; l++) {
+            members[l] = new User[counts[l]];
+        }
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < userCount; i++) {
+            members[leafOf[i]][counts[leafOf[i]]++] = users[i];
+        }
+        for (int l = 0; l < leaves.length; l++) {
+            services.getMembershipService().addUsersToGroup(Arrays.asList(members[l]), leaves[l]);
+        }
+        return new SyntheticDirectory(users, root, levels);
+    }
+}
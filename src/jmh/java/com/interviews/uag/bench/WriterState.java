@@ -0,0 +1,42 @@
+package com.interviews.uag.bench;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.User;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A user and a group that belong to one benchmark thread, so that write benchmarks on several threads do not
+ * collide.  Each write benchmark undoes its own change, so the directory keeps its shape.
+ */
+@State(Scope.Thread)
+public class WriterState {
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    User user;
+    Group group;
+    User scratchUser;
+    Group scratchGroup;
+
+    @Setup(Level.Trial)
+    public void setUp(DirectoryState state) {
+        final int thread = THREADS.incrementAndGet();
+        user = new User("writer-" + thread);
+        group = new Group("writer-" + thread);
+        scratchUser = new User("scratch-" + thread);
+        scratchGroup = new Group("scratch-" + thread);
+        state.services.getUserService().create(user);
+        state.services.getGroupService().create(group);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(DirectoryState state) {
+        state.services.getGroupService().delete(group);
+        state.services.getUserService().delete(user);
+    }
+}
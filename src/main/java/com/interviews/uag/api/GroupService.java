@@ -17,6 +17,26 @@ public interface GroupService {
     @Nullable
     Group findByName(String name);
 
+    /**
+     * Finds the groups whose names start with the given prefix, one page at a time, for search-as-you-type.
+     * <p>
+     * The groups are returned in the order of their names, which is the order of {@link String#compareTo(String)}.
+     * If {@code ignoreCase} is set, both the prefix and the names are folded with
+     * {@link String#toLowerCase(java.util.Locale)} in {@link java.util.Locale#ROOT} before they are compared, and the
+     * groups are ordered by folded name and then by name.  Each page comes with an opaque cursor to fetch the next
+     * one; groups that are created or deleted meanwhile may or may not be returned.
+     * </p>
+     *
+     * @param prefix     the start of the names to find; the empty prefix finds every group
+     * @param ignoreCase whether to ignore the case of the prefix and the names
+     * @param cursor     the cursor of the previous page, or {@code null} to fetch the first page
+     * @param pageSize   the most groups to return; must be positive
+     * @return the page, with a {@code null} cursor if it is the last one
+     * @throws IllegalArgumentException if {@code pageSize} is not positive or {@code cursor} is not a cursor that
+     *                                  this service returned for the same search
+     */
+    Page<Group> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize);
+
     /**
      * Creates the given group.
      *
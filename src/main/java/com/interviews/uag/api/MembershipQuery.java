@@ -0,0 +1,172 @@
+package com.interviews.uag.api;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A set-algebra expression over group memberships, evaluated by {@link MembershipService#getUsersMatching}.
+ * <p>
+ * Queries start from the members of one group and are combined with {@link #and}, {@link #or} and {@link #andNot}.
+ * For example, the users who are engineers and on call but who are not contractors are found with:
+ * </p>
+ * <pre><code>
+ *     membersOf(ENGINEERING).and(membersOf(ONCALL)).andNot(membersOf(CONTRACTORS))
+ * </code></pre>
+ * <p>
+ * Queries are immutable and may be reused.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+public abstract class MembershipQuery {
+    /**
+     * Evaluates the parts of a query.  Each method receives the results of evaluating its operands.
+     *
+     * @param <R> the type of an intermediate result
+     */
+    public interface Visitor<R> {
+        /**
+         * Evaluates the members of a single group.
+         *
+         * @param group     the group whose members are selected
+         * @param effective {@code true} to include users who belong to the group through nested groups, or
+         *                  {@code false} for only the direct members
+         * @return the members
+         */
+        R members(Group group, boolean effective);
+
+        R and(R left, R right);
+
+        R or(R left, R right);
+
+        R andNot(R left, R right);
+    }
+
+    MembershipQuery() {
+    }
+
+    /**
+     * Selects every user for which {@link MembershipService#isUserInGroup(User, Group)} is {@code true},
+     * including those who belong to the group through nested groups.
+     *
+     * @param group the group whose members are selected
+     * @return the query
+     */
+    public static MembershipQuery membersOf(Group group) {
+        return new Members(group, true);
+    }
+
+    /**
+     * Selects the users that were added to the group directly, as returned by
+     * {@link MembershipService#getUsersInGroup(Group)}.
+     *
+     * @param group the group whose members are selected
+     * @return the query
+     */
+    public static MembershipQuery directMembersOf(Group group) {
+        return new Members(group, false);
+    }
+
+    /**
+     * Selects the users that match both this query and the other one.
+     *
+     * @param other the query to intersect with
+     * @return the intersection
+     */
+    public MembershipQuery and(MembershipQuery other) {
+        return new Combination(Operator.AND, this, other);
+    }
+
+    /**
+     * Selects the users that match either this query or the other one.
+     *
+     * @param other the query to unite with
+     * @return the union
+     */
+    public MembershipQuery or(MembershipQuery other) {
+        return new Combination(Operator.OR, this, other);
+    }
+
+    /**
+     * Selects the users that match this query but not the other one.
+     *
+     * @param other the query whose matches are excluded
+     * @return the difference
+     */
+    public MembershipQuery andNot(MembershipQuery other) {
+        return new Combination(Operator.AND_NOT, this, other);
+    }
+
+    /**
+     * Evaluates this query bottom-up with the given visitor.
+     *
+     * @param visitor the visitor that evaluates each part of the query
+     * @param <R>     the type of the result
+     * @return the result of evaluating the whole query
+     */
+    public abstract <R> R accept(Visitor<R> visitor);
+
+    private enum Operator {
+        AND(" and "), OR(" or "), AND_NOT(" and not ");
+
+        private final String text;
+
+        Operator(String text) {
+            this.text = text;
+        }
+    }
+
+    private static final class Members extends MembershipQuery {
+        private final Group group;
+        private final boolean effective;
+
+        Members(Group group, boolean effective) {
+            this.group = requireNonNull(group, "group");
+            this.effective = effective;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.members(group, effective);
+        }
+
+        @Override
+        @Nonnull
+        public String toString() {
+            return (effective ? "membersOf(" : "directMembersOf(") + group + ')';
+        }
+    }
+
+    private static final class Combination extends MembershipQuery {
+        private final Operator operator;
+        private final MembershipQuery left;
+        private final MembershipQuery right;
+
+        Combination(Operator operator, MembershipQuery left, MembershipQuery right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = requireNonNull(right, "other");
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            final R l = left.accept(visitor);
+            final R r = right.accept(visitor);
+            switch (operator) {
+                case AND:
+                    return visitor.and(l, r);
+                case OR:
+                    return visitor.or(l, r);
+                default:
+                    return visitor.andNot(l, r);
+            }
+        }
+
+        @Override
+        @Nonnull
+        public String toString() {
+            return '(' + left.toString() + operator.text + right + ')';
+        }
+    }
+}
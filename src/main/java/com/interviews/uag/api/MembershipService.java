@@ -1,7 +1,11 @@
 package com.interviews.uag.api;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * A service that associates users with the groups that they belong to.
@@ -19,6 +23,21 @@ public interface MembershipService {
      */
     void addUserToGroup(User user, Group group);
 
+    /**
+     * Adds all of the given users to the given group as one atomic change.
+     * Users that already belong to the group are silently ignored.
+     * <p>
+     * Each distinct user is checked for existence once, and either all of the users are added or, if any of them
+     * does not exist, none are.
+     * </p>
+     *
+     * @param users the users to add to the group; must not be {@code null} or contain {@code null}
+     * @param group the group that the users will be added to; must not be {@code null}
+     * @throws IllegalArgumentException if {@code group} or any of the {@code users} does not exist according to
+     *                                  the {@code UserService} and {@code GroupService}
+     */
+    void addUsersToGroup(Collection<User> users, Group group);
+
     /**
      * Adds the given child group the the given parent group.
      * <p>
@@ -46,14 +65,31 @@ public interface MembershipService {
      * groups as well.
      * </p>
      * <p>
-     * <strong>WARNING: Inheritance isn't fully implemented yet!</strong>
+     * The hierarchy must stay acyclic: a group cannot be nested in itself, nor in any group that is nested
+     * beneath it.
      * </p>
      *
      * @param child the group that inherits from the parent
      * @param parent the group that is inherited by the child
+     * @throws IllegalArgumentException if either {@code child} or {@code parent} does not exist according to the
+     *                                  {@code GroupService}, or if nesting them would create a cycle
      */
     void addGroupToGroup(Group child, Group parent);
 
+    /**
+     * Adds all of the given child groups to the given parent group as one atomic change.
+     * Children that are already nested directly in the parent are silently ignored.
+     *
+     * @param children the groups that will inherit from the parent; must not be {@code null} or contain
+     *                 {@code null}
+     * @param parent   the group that will be inherited by the children; must not be {@code null}
+     * @throws IllegalArgumentException if {@code parent} or any of the {@code children} does not exist according
+     *                                  to the {@code GroupService}, or if nesting any of them would create a
+     *                                  cycle, in which case none of them are added
+     * @see #addGroupToGroup(Group, Group)
+     */
+    void addGroupsToGroup(Collection<Group> children, Group parent);
+
     /**
      * Returns whether or not the given user is a member of the given group.
      *
@@ -63,6 +99,37 @@ public interface MembershipService {
      */
     boolean isUserInGroup(User user, Group group);
 
+    /**
+     * Returns whether or not the given user is a member of at least one of the given groups, which is the same as
+     * {@link #isUserInGroup(User, Group)} for each group but resolves the user's memberships only once and stops
+     * at the first match.
+     *
+     * @param user   the user whose group memberships are to be checked
+     * @param groups the groups to check for
+     * @return {@code true} if {@code user} is a member of any of the {@code groups}; {@code false} if there are
+     * none
+     */
+    boolean isUserInAnyGroup(User user, Collection<Group> groups);
+
+    /**
+     * Returns whether or not the given user is a member of every one of the given groups, resolving the user's
+     * memberships only once and stopping at the first group that the user is not a member of.
+     *
+     * @param user   the user whose group memberships are to be checked
+     * @param groups the groups to check for
+     * @return {@code true} if {@code user} is a member of all of the {@code groups}, including when there are none
+     */
+    boolean isUserInAllGroups(User user, Collection<Group> groups);
+
+    /**
+     * Checks the given user against many groups at once, resolving the user's memberships only once.
+     *
+     * @param user   the user whose group memberships are to be checked
+     * @param groups the groups to check for
+     * @return a bit set in which bit {@code i} is set if {@code user} is a member of {@code groups.get(i)}
+     */
+    BitSet checkMany(User user, List<Group> groups);
+
     /**
      * Returns whether or not the given child is inheriting from the given parent.
      * <p>
@@ -83,6 +150,64 @@ public interface MembershipService {
      */
     Collection<User> getUsersInGroup(Group group);
 
+    /**
+     * Returns one page of the users that belong directly to the specified group.
+     * <p>
+     * The users are returned in a stable order, and each page comes with an opaque cursor to fetch the next one.
+     * Cursors stay valid while the group changes: every user that belongs to the group for the whole time it is
+     * being paged through is returned exactly once, while users that are added or removed meanwhile may or may
+     * not be.
+     * </p>
+     *
+     * @param group    the group for which to retrieve the members; must not be {@code null}
+     * @param cursor   the cursor of the previous page, or {@code null} to fetch the first page
+     * @param pageSize the most users to return; must be positive
+     * @return the page, with a {@code null} cursor if it is the last one
+     * @throws IllegalArgumentException if {@code pageSize} is not positive or {@code cursor} is not a cursor that
+     *                                  this service returned
+     */
+    Page<User> getUsersInGroup(Group group, @Nullable String cursor, int pageSize);
+
+    /**
+     * Returns every user that belongs to the specified group, either directly or by inheritance through nested
+     * groups, without collecting them first.
+     * <p>
+     * The nested groups are expanded as the iterator advances, so the first users are available before the whole
+     * hierarchy has been walked.  Each user is returned once, however many of the nested groups it belongs to.
+     * The iterator does not support {@link Iterator#remove()}.
+     * </p>
+     *
+     * @param group the group for which to retrieve all effective members; must not be {@code null}
+     * @return the users for which {@link #isUserInGroup(User, Group)} is {@code true}
+     */
+    Iterator<User> getEffectiveUsersInGroup(Group group);
+
+    /**
+     * Returns the groups that the specified user has been added to directly.
+     *
+     * @param user the user for which to retrieve the direct group memberships
+     * @return the groups that the user was added to with {@link #addUserToGroup(User, Group)}
+     */
+    Collection<Group> getGroupsForUser(User user);
+
+    /**
+     * Returns every group that the specified user belongs to, either directly or by inheritance
+     * through nested groups.
+     *
+     * @param user the user for which to retrieve all effective group memberships
+     * @return the groups for which {@link #isUserInGroup(User, Group)} is {@code true}
+     */
+    Collection<Group> getEffectiveGroupsForUser(User user);
+
+    /**
+     * Returns the users that match a set-algebra query over group memberships, such as the users who belong to
+     * one group and another but not a third.
+     *
+     * @param query the query to evaluate
+     * @return the users that match the query
+     */
+    Collection<User> getUsersMatching(MembershipQuery query);
+
     /**
      * Removes a user from a group.
      * If the user does not belong to that group, then the request is silently ignored.
@@ -92,6 +217,15 @@ public interface MembershipService {
      */
     void removeUserFromGroup(User user, Group group);
 
+    /**
+     * Removes all of the given users from a group as one atomic change.
+     * Users that do not belong to that group are silently ignored.
+     *
+     * @param users the users to remove from the group; must not be {@code null} or contain {@code null}
+     * @param group the group that the users will be removed from; must not be {@code null}
+     */
+    void removeUsersFromGroup(Collection<User> users, Group group);
+
     /**
      * Removes a nested group membership.
      * <p>
@@ -110,4 +244,12 @@ public interface MembershipService {
      */
     void removeGroup(Group group);
 
+    /**
+     * Removes every group membership of the given user, as when the user is deleted.
+     * If the user does not belong to any group, then the request is silently ignored.
+     *
+     * @param user the user whose memberships will be removed; must not be {@code null}
+     */
+    void removeUser(User user);
+
 }
@@ -0,0 +1,63 @@
+package com.interviews.uag.api;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * One page of the results of a paged query, together with the cursor to fetch the next page with.
+ *
+ * @param <T> the type of the results
+ */
+@ParametersAreNonnullByDefault
+public final class Page<T> {
+    private final List<T> items;
+    @Nullable
+    private final String nextCursor;
+
+    /**
+     * Creates a page.
+     *
+     * @param items      the results on this page, in order; they are copied
+     * @param nextCursor the cursor to fetch the next page with, or {@code null} if this is the last page
+     */
+    public Page(List<? extends T> items, @Nullable String nextCursor) {
+        this.items = Collections.unmodifiableList(new ArrayList<>(requireNonNull(items, "items")));
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Returns the results on this page.
+     *
+     * @return an unmodifiable list of the results, in order
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns the opaque cursor to pass to the same query to fetch the next page.
+     *
+     * @return the cursor, or {@code null} if there are no more results
+     */
+    @Nullable
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return whether there may be more results after this page
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    @Override
+    public String toString() {
+        return items.size() + " items" + (nextCursor != null ? ", next " + nextCursor : "");
+    }
+}
@@ -17,6 +17,26 @@ public interface UserService {
     @Nullable
     User findByName(String name);
 
+    /**
+     * Finds the users whose names start with the given prefix, one page at a time, for search-as-you-type.
+     * <p>
+     * The users are returned in the order of their names, which is the order of {@link String#compareTo(String)}.
+     * If {@code ignoreCase} is set, both the prefix and the names are folded with
+     * {@link String#toLowerCase(java.util.Locale)} in {@link java.util.Locale#ROOT} before they are compared, and the
+     * users are ordered by folded name and then by name.  Each page comes with an opaque cursor to fetch the next
+     * one; users that are created or deleted meanwhile may or may not be returned.
+     * </p>
+     *
+     * @param prefix     the start of the names to find; the empty prefix finds every user
+     * @param ignoreCase whether to ignore the case of the prefix and the names
+     * @param cursor     the cursor of the previous page, or {@code null} to fetch the first page
+     * @param pageSize   the most users to return; must be positive
+     * @return the page, with a {@code null} cursor if it is the last one
+     * @throws IllegalArgumentException if {@code pageSize} is not positive or {@code cursor} is not a cursor that
+     *                                  this service returned for the same search
+     */
+    Page<User> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize);
+
     /**
      * Creates the given user.
      *
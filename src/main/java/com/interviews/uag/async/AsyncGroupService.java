@@ -0,0 +1,37 @@
+package com.interviews.uag.async;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.Page;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The asynchronous form of {@link GroupService}.  Each method returns at once; the future completes with the result
+ * of the corresponding {@code GroupService} method, or exceptionally with whatever that method threw.
+ */
+@ParametersAreNonnullByDefault
+public interface AsyncGroupService {
+    /**
+     * @see GroupService#findByName(String)
+     */
+    CompletableFuture<Group> findByName(String name);
+
+    /**
+     * @see GroupService#findByNamePrefix(String, boolean, String, int)
+     */
+    CompletableFuture<Page<Group>> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor,
+                                                  int pageSize);
+
+    /**
+     * @see GroupService#create(Group)
+     */
+    CompletableFuture<Void> create(Group group);
+
+    /**
+     * @see GroupService#delete(Group)
+     */
+    CompletableFuture<Void> delete(Group group);
+}
@@ -0,0 +1,128 @@
+package com.interviews.uag.async;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.MembershipQuery;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The asynchronous form of {@link MembershipService}.  Each method returns at once; the future completes with the
+ * result of the corresponding {@code MembershipService} method, or exceptionally with whatever that method threw.
+ * <p>
+ * Changes that are submitted concurrently may be applied in any order.  A caller that needs one change to follow
+ * another should wait for the first future before submitting the second.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+public interface AsyncMembershipService {
+    /**
+     * @see MembershipService#addUserToGroup(User, Group)
+     */
+    CompletableFuture<Void> addUserToGroup(User user, Group group);
+
+    /**
+     * @see MembershipService#addUsersToGroup(Collection, Group)
+     */
+    CompletableFuture<Void> addUsersToGroup(Collection<User> users, Group group);
+
+    /**
+     * @see MembershipService#addGroupToGroup(Group, Group)
+     */
+    CompletableFuture<Void> addGroupToGroup(Group child, Group parent);
+
+    /**
+     * @see MembershipService#addGroupsToGroup(Collection, Group)
+     */
+    CompletableFuture<Void> addGroupsToGroup(Collection<Group> children, Group parent);
+
+    /**
+     * @see MembershipService#isUserInGroup(User, Group)
+     */
+    CompletableFuture<Boolean> isUserInGroup(User user, Group group);
+
+    /**
+     * @see MembershipService#isUserInAnyGroup(User, Collection)
+     */
+    CompletableFuture<Boolean> isUserInAnyGroup(User user, Collection<Group> groups);
+
+    /**
+     * @see MembershipService#isUserInAllGroups(User, Collection)
+     */
+    CompletableFuture<Boolean> isUserInAllGroups(User user, Collection<Group> groups);
+
+    /**
+     * @see MembershipService#checkMany(User, List)
+     */
+    CompletableFuture<BitSet> checkMany(User user, List<Group> groups);
+
+    /**
+     * @see MembershipService#isGroupInGroup(Group, Group)
+     */
+    CompletableFuture<Boolean> isGroupInGroup(Group child, Group parent);
+
+    /**
+     * @see MembershipService#getUsersInGroup(Group)
+     */
+    CompletableFuture<Collection<User>> getUsersInGroup(Group group);
+
+    /**
+     * @see MembershipService#getUsersInGroup(Group, String, int)
+     */
+    CompletableFuture<Page<User>> getUsersInGroup(Group group, @Nullable String cursor, int pageSize);
+
+    /**
+     * Returns the iterator once the walk has started.  Advancing the iterator is still synchronous.
+     *
+     * @see MembershipService#getEffectiveUsersInGroup(Group)
+     */
+    CompletableFuture<Iterator<User>> getEffectiveUsersInGroup(Group group);
+
+    /**
+     * @see MembershipService#getGroupsForUser(User)
+     */
+    CompletableFuture<Collection<Group>> getGroupsForUser(User user);
+
+    /**
+     * @see MembershipService#getEffectiveGroupsForUser(User)
+     */
+    CompletableFuture<Collection<Group>> getEffectiveGroupsForUser(User user);
+
+    /**
+     * @see MembershipService#getUsersMatching(MembershipQuery)
+     */
+    CompletableFuture<Collection<User>> getUsersMatching(MembershipQuery query);
+
+    /**
+     * @see MembershipService#removeUserFromGroup(User, Group)
+     */
+    CompletableFuture<Void> removeUserFromGroup(User user, Group group);
+
+    /**
+     * @see MembershipService#removeUsersFromGroup(Collection, Group)
+     */
+    CompletableFuture<Void> removeUsersFromGroup(Collection<User> users, Group group);
+
+    /**
+     * @see MembershipService#removeGroupFromGroup(Group, Group)
+     */
+    CompletableFuture<Void> removeGroupFromGroup(Group child, Group parent);
+
+    /**
+     * @see MembershipService#removeGroup(Group)
+     */
+    CompletableFuture<Void> removeGroup(Group group);
+
+    /**
+     * @see MembershipService#removeUser(User)
+     */
+    CompletableFuture<Void> removeUser(User user);
+}
@@ -0,0 +1,584 @@
+package com.interviews.uag.async;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.MembershipQuery;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import com.interviews.uag.api.UserService;
+import com.interviews.uag.core.Services;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An asynchronous facade over any {@link Services}: every method returns a {@link CompletableFuture} at once and
+ * runs the blocking call on an executor.
+ * <p>
+ * Reads that are identical to one already in flight, meaning the same method with equal arguments, do not run
+ * again: they complete with the result of the call in flight.  A burst of the same membership check thus costs one
+ * call to the underlying services.  Writes are never combined, and once a write completes, reads join only those
+ * that started after it, so a caller always reads its own writes.
+ * </p>
+ * <p>
+ * By default the calls run on virtual threads, one per call, when the JVM supports them (Java 21 and later), so
+ * thousands of calls can block at once on a handful of carrier threads.  On older JVMs they run on a fixed pool
+ * with one daemon thread per processor.  Either can be replaced by passing an executor to
+ * {@link #wrap(Services, Executor)}.
+ * </p>
+ * <pre><code>
+ *     final AsyncServices services = AsyncServices.wrap(ServiceFactory.createServices());
+ *     services.getMembershipService().isUserInGroup(user, group).thenAccept(...);
+ * </code></pre>
+ */
+@ParametersAreNonnullByDefault
+public class AsyncServices implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncServices.class);
+
+    private final Executor executor;
+    @Nullable
+    private final ExecutorService ownExecutor;
+    private final ConcurrentMap<Call<?>, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+
+    private final AsyncUserService userService;
+    private final AsyncGroupService groupService;
+    private final AsyncMembershipService membershipService;
+
+    private AsyncServices(Services services, Executor executor, @Nullable ExecutorService ownExecutor) {
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        userService = new AsyncUserServiceImpl(services.getUserService());
+        groupService = new AsyncGroupServiceImpl(services.getGroupService());
+        membershipService = new AsyncMembershipServiceImpl(services.getMembershipService());
+    }
+
+    /**
+     * Wraps the given services, running calls on the default executor.  {@link #close()} shuts that executor
+     * down.
+     *
+     * @param services the services to call
+     * @return the asynchronous services
+     */
+    public static AsyncServices wrap(Services services) {
+        requireNonNull(services, "services");
+        final ExecutorService executor = newDefaultExecutor();
+        return new AsyncServices(services, executor, executor);
+    }
+
+    /**
+     * Wraps the given services, running calls on the given executor.  The executor is not shut down by
+     * {@link #close()}.
+     *
+     * @param services the services to call
+     * @param executor the executor to run the calls on
+     * @return the asynchronous services
+     */
+    public static AsyncServices wrap(Services services, Executor executor) {
+        requireNonNull(services, "services");
+        requireNonNull(executor, "executor");
+        return new AsyncServices(services, executor, null);
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per task, if the JVM supports them, or else a fixed pool of
+     * daemon threads, one per processor.
+     *
+     * @return the executor
+     */
+    public static ExecutorService newDefaultExecutor() {
+        try {
+            // Looked up reflectively, so that this class still compiles and runs on Java 8
+            final Object executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOG.debug("Using virtual threads");
+            return (ExecutorService) executor;
+        } catch (ReflectiveOperationException e) {
+            LOG.debug("Virtual threads are not available; using a fixed pool");
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "async-services-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public AsyncUserService getUserService() {
+        return userService;
+    }
+
+    public AsyncGroupService getGroupService() {
+        return groupService;
+    }
+
+    public AsyncMembershipService getMembershipService() {
+        return membershipService;
+    }
+
+    /**
+     * Shuts down the default executor, if these services created it.  Calls already submitted still complete.
+     */
+    @Override
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Runs a read, or joins an identical one that is already running.  Each caller gets its own dependent future,
+     * so that one caller completing or cancelling its future does not affect the others.
+     */
+    private <T> CompletableFuture<T> read(final Call<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<T> running = (CompletableFuture<T>) inFlight.putIfAbsent(call, future);
+        if (running != null) {
+            return running.thenApply(Function.<T>identity());
+        }
+        submit(call, future, true);
+        return future.thenApply(Function.<T>identity());
+    }
+
+    /**
+     * Runs a write.  The reads in flight may have started before it, so they are forgotten before the caller sees
+     * the write complete, and later reads run again instead of joining them.
+     */
+    private <T> CompletableFuture<T> write(Call<T> call) {
+        return unshared(call).whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable failure) {
+                inFlight.clear();
+            }
+        });
+    }
+
+    /**
+     * Runs a call on its own, without joining any other.
+     */
+    private <T> CompletableFuture<T> unshared(Call<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        submit(call, future, false);
+        return future;
+    }
+
+    private <T> void submit(final Call<T> call, final CompletableFuture<T> future, final boolean shared) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    T result = null;
+                    Throwable failure = null;
+                    try {
+                        result = call.call();
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                    // Later callers must start a new call rather than join one that has finished
+                    if (shared) {
+                        inFlight.remove(call, future);
+                    }
+                    if (failure != null) {
+                        future.completeExceptionally(failure);
+                    } else {
+                        future.complete(result);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (shared) {
+                inFlight.remove(call, future);
+            }
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * A call to one of the services.  Calls are equal if they are to the same method with equal arguments, so that
+     * they can be used as keys of the reads in flight.
+     */
+    private abstract static class Call<T> {
+        private final String method;
+        private final Object[] arguments;
+
+        Call(String method, Object... arguments) {
+            this.method = method;
+            this.arguments = arguments;
+        }
+
+        abstract T call();
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Call)) {
+                return false;
+            }
+            final Call<?> other = (Call<?>) obj;
+            return method.equals(other.method) && Arrays.equals(arguments, other.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * method.hashCode() + Arrays.hashCode(arguments);
+        }
+
+        @Override
+        public String toString() {
+            return method + Arrays.toString(arguments);
+        }
+    }
+
+    private final class AsyncUserServiceImpl implements AsyncUserService {
+        private final UserService delegate;
+
+        AsyncUserServiceImpl(UserService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletableFuture<User> findByName(final String name) {
+            return read(new Call<User>("UserService.findByName", name) {
+                @Override
+                User call() {
+                    return delegate.findByName(name);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Page<User>> findByNamePrefix(final String prefix, final boolean ignoreCase,
+                                                              @Nullable final String cursor, final int pageSize) {
+            return read(new Call<Page<User>>("UserService.findByNamePrefix", prefix, ignoreCase, cursor,
+                    pageSize) {
+                @Override
+                Page<User> call() {
+                    return delegate.findByNamePrefix(prefix, ignoreCase, cursor, pageSize);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> create(final User user) {
+            return write(new Call<Void>("UserService.create", user) {
+                @Override
+                Void call() {
+                    delegate.create(user);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(final User user) {
+            return write(new Call<Void>("UserService.delete", user) {
+                @Override
+                Void call() {
+                    delegate.delete(user);
+                    return null;
+                }
+            });
+        }
+    }
+
+    private final class AsyncGroupServiceImpl implements AsyncGroupService {
+        private final GroupService delegate;
+
+        AsyncGroupServiceImpl(GroupService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletableFuture<Group> findByName(final String name) {
+            return read(new Call<Group>("GroupService.findByName", name) {
+                @Override
+                Group call() {
+                    return delegate.findByName(name);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Page<Group>> findByNamePrefix(final String prefix, final boolean ignoreCase,
+                                                               @Nullable final String cursor, final int pageSize) {
+            return read(new Call<Page<Group>>("GroupService.findByNamePrefix", prefix, ignoreCase, cursor,
+                    pageSize) {
+                @Override
+                Page<Group> call() {
+                    return delegate.findByNamePrefix(prefix, ignoreCase, cursor, pageSize);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> create(final Group group) {
+            return write(new Call<Void>("GroupService.create", group) {
+                @Override
+                Void call() {
+                    delegate.create(group);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(final Group group) {
+            return write(new Call<Void>("GroupService.delete", group) {
+                @Override
+                Void call() {
+                    delegate.delete(group);
+                    return null;
+                }
+            });
+        }
+    }
+
+    private final class AsyncMembershipServiceImpl implements AsyncMembershipService {
+        private final MembershipService delegate;
+
+        AsyncMembershipServiceImpl(MembershipService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletableFuture<Void> addUserToGroup(final User user, final Group group) {
+            return write(new Call<Void>("MembershipService.addUserToGroup", user, group) {
+                @Override
+                Void call() {
+                    delegate.addUserToGroup(user, group);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> addUsersToGroup(final Collection<User> users, final Group group) {
+            return write(new Call<Void>("MembershipService.addUsersToGroup", users, group) {
+                @Override
+                Void call() {
+                    delegate.addUsersToGroup(users, group);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> addGroupToGroup(final Group child, final Group parent) {
+            return write(new Call<Void>("MembershipService.addGroupToGroup", child, parent) {
+                @Override
+                Void call() {
+                    delegate.addGroupToGroup(child, parent);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> addGroupsToGroup(final Collection<Group> children, final Group parent) {
+            return write(new Call<Void>("MembershipService.addGroupsToGroup", children, parent) {
+                @Override
+                Void call() {
+                    delegate.addGroupsToGroup(children, parent);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Boolean> isUserInGroup(final User user, final Group group) {
+            return read(new Call<Boolean>("MembershipService.isUserInGroup", user, group) {
+                @Override
+                Boolean call() {
+                    return delegate.isUserInGroup(user, group);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Boolean> isUserInAnyGroup(final User user, final Collection<Group> groups) {
+            return read(new Call<Boolean>("MembershipService.isUserInAnyGroup", user, groups) {
+                @Override
+                Boolean call() {
+                    return delegate.isUserInAnyGroup(user, groups);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Boolean> isUserInAllGroups(final User user, final Collection<Group> groups) {
+            return read(new Call<Boolean>("MembershipService.isUserInAllGroups", user, groups) {
+                @Override
+                Boolean call() {
+                    return delegate.isUserInAllGroups(user, groups);
+                }
+            });
+        }
+
+        /**
+         * Not combined with identical calls, since each caller needs a bit set of its own.
+         */
+        @Override
+        public CompletableFuture<BitSet> checkMany(final User user, final List<Group> groups) {
+            return unshared(new Call<BitSet>("MembershipService.checkMany", user, groups) {
+                @Override
+                BitSet call() {
+                    return delegate.checkMany(user, groups);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Boolean> isGroupInGroup(final Group child, final Group parent) {
+            return read(new Call<Boolean>("MembershipService.isGroupInGroup", child, parent) {
+                @Override
+                Boolean call() {
+                    return delegate.isGroupInGroup(child, parent);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Collection<User>> getUsersInGroup(final Group group) {
+            return read(new Call<Collection<User>>("MembershipService.getUsersInGroup", group) {
+                @Override
+                Collection<User> call() {
+                    return delegate.getUsersInGroup(group);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Page<User>> getUsersInGroup(final Group group, @Nullable final String cursor,
+                                                             final int pageSize) {
+            return read(new Call<Page<User>>("MembershipService.getUsersInGroupPage", group, cursor, pageSize) {
+                @Override
+                Page<User> call() {
+                    return delegate.getUsersInGroup(group, cursor, pageSize);
+                }
+            });
+        }
+
+        /**
+         * Not combined with identical calls, since each caller needs an iterator of its own.
+         */
+        @Override
+        public CompletableFuture<Iterator<User>> getEffectiveUsersInGroup(final Group group) {
+            return unshared(new Call<Iterator<User>>("MembershipService.getEffectiveUsersInGroup", group) {
+                @Override
+                Iterator<User> call() {
+                    return delegate.getEffectiveUsersInGroup(group);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Collection<Group>> getGroupsForUser(final User user) {
+            return read(new Call<Collection<Group>>("MembershipService.getGroupsForUser", user) {
+                @Override
+                Collection<Group> call() {
+                    return delegate.getGroupsForUser(user);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Collection<Group>> getEffectiveGroupsForUser(final User user) {
+            return read(new Call<Collection<Group>>("MembershipService.getEffectiveGroupsForUser", user) {
+                @Override
+                Collection<Group> call() {
+                    return delegate.getEffectiveGroupsForUser(user);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Collection<User>> getUsersMatching(final MembershipQuery query) {
+            return read(new Call<Collection<User>>("MembershipService.getUsersMatching", query) {
+                @Override
+                Collection<User> call() {
+                    return delegate.getUsersMatching(query);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> removeUserFromGroup(final User user, final Group group) {
+            return write(new Call<Void>("MembershipService.removeUserFromGroup", user, group) {
+                @Override
+                Void call() {
+                    delegate.removeUserFromGroup(user, group);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> removeUsersFromGroup(final Collection<User> users, final Group group) {
+            return write(new Call<Void>("MembershipService.removeUsersFromGroup", users, group) {
+                @Override
+                Void call() {
+                    delegate.removeUsersFromGroup(users, group);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> removeGroupFromGroup(final Group child, final Group parent) {
+            return write(new Call<Void>("MembershipService.removeGroupFromGroup", child, parent) {
+                @Override
+                Void call() {
+                    delegate.removeGroupFromGroup(child, parent);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> removeGroup(final Group group) {
+            return write(new Call<Void>("MembershipService.removeGroup", group) {
+                @Override
+                Void call() {
+                    delegate.removeGroup(group);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> removeUser(final User user) {
+            return write(new Call<Void>("MembershipService.removeUser", user) {
+                @Override
+                Void call() {
+                    delegate.removeUser(user);
+                    return null;
+                }
+            });
+        }
+    }
+}
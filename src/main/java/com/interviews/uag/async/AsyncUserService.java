@@ -0,0 +1,37 @@
+package com.interviews.uag.async;
+
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import com.interviews.uag.api.UserService;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The asynchronous form of {@link UserService}.  Each method returns at once; the future completes with the result
+ * of the corresponding {@code UserService} method, or exceptionally with whatever that method threw.
+ */
+@ParametersAreNonnullByDefault
+public interface AsyncUserService {
+    /**
+     * @see UserService#findByName(String)
+     */
+    CompletableFuture<User> findByName(String name);
+
+    /**
+     * @see UserService#findByNamePrefix(String, boolean, String, int)
+     */
+    CompletableFuture<Page<User>> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor,
+                                                 int pageSize);
+
+    /**
+     * @see UserService#create(User)
+     */
+    CompletableFuture<Void> create(User user);
+
+    /**
+     * @see UserService#delete(User)
+     */
+    CompletableFuture<Void> delete(User user);
+}
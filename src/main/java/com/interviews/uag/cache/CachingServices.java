@@ -0,0 +1,465 @@
+package com.interviews.uag.cache;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.MembershipQuery;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import com.interviews.uag.api.UserService;
+import com.interviews.uag.core.Services;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Wraps any {@link Services} to answer repeated {@code findByName}, {@code isUserInGroup} and
+ * {@code isGroupInGroup} calls from memory, which pays off when the services are backed by slower storage.
+ * <p>
+ * Positive and negative answers are both cached, in size-bounded caches that evict the least recently used entry.
+ * Nothing expires by time; instead, every write through these services bumps an epoch counter for the data it
+ * changed, and a cached answer is only used while the epochs it was loaded at are current:
+ * </p>
+ * <ul>
+ * <li>nesting a group or removing a group bumps the hierarchy epoch, which invalidates every membership answer;</li>
+ * <li>adding or removing a user's memberships bumps the epoch of that user only, so answers about other users
+ * stay cached;</li>
+ * <li>creating or deleting a user or group bumps the epoch of its name only.</li>
+ * </ul>
+ * <p>
+ * Users and names are mapped to a fixed number of epoch stripes, so a bump occasionally invalidates an unrelated
+ * entry as well, but never misses one.  Concurrent misses on the same answer share a single call to the wrapped
+ * services.
+ * </p>
+ * <p>
+ * Writes that do not go through these services, such as another process changing a shared database, are not
+ * seen until the entry is evicted.
+ * </p>
+ * <pre><code>
+ *     final CachingServices services = CachingServices.wrap(JdbcServices.open(path));
+ * </code></pre>
+ */
+@ParametersAreNonnullByDefault
+public class CachingServices implements Services {
+    private static final int DEFAULT_CAPACITY = 100000;
+    private static final int STRIPES = 4096;
+
+    private final AtomicLong hierarchyEpoch = new AtomicLong();
+    private final AtomicLongArray userEpochs = new AtomicLongArray(STRIPES);
+    private final AtomicLongArray userNameEpochs = new AtomicLongArray(STRIPES);
+    private final AtomicLongArray groupNameEpochs = new AtomicLongArray(STRIPES);
+
+    private final EpochCache<String, User> users;
+    private final EpochCache<String, Group> groups;
+    private final EpochCache<UserInGroup, Boolean> userInGroup;
+    private final EpochCache<GroupInGroup, Boolean> groupInGroup;
+
+    private final UserService userService;
+    private final GroupService groupService;
+    private final MembershipService membershipService;
+
+    private CachingServices(Services services, int capacity) {
+        users = new EpochCache<>(capacity);
+        groups = new EpochCache<>(capacity);
+        userInGroup = new EpochCache<>(capacity);
+        groupInGroup = new EpochCache<>(capacity);
+        userService = new CachingUserService(services.getUserService());
+        groupService = new CachingGroupService(services.getGroupService());
+        membershipService = new CachingMembershipService(services.getMembershipService());
+    }
+
+    /**
+     * Wraps the given services, caching up to 100000 answers of each kind.
+     *
+     * @param services the services to cache the answers of
+     * @return the caching services
+     */
+    public static CachingServices wrap(Services services) {
+        return wrap(services, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Wraps the given services.
+     *
+     * @param services the services to cache the answers of
+     * @param capacity the most answers to cache of each kind: users and groups by name, and memberships of users
+     *                 and of groups; must be positive
+     * @return the caching services
+     */
+    public static CachingServices wrap(Services services, int capacity) {
+        requireNonNull(services, "services");
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        return new CachingServices(services, capacity);
+    }
+
+    public GroupService getGroupService() {
+        return groupService;
+    }
+
+    public UserService getUserService() {
+        return userService;
+    }
+
+    public MembershipService getMembershipService() {
+        return membershipService;
+    }
+
+    /**
+     * @return the number of lookups that were answered from the caches
+     */
+    public long getHits() {
+        return users.getHits() + groups.getHits() + userInGroup.getHits() + groupInGroup.getHits();
+    }
+
+    /**
+     * @return the number of lookups that went to the wrapped services, or joined another lookup that did
+     */
+    public long getMisses() {
+        return users.getMisses() + groups.getMisses() + userInGroup.getMisses() + groupInGroup.getMisses();
+    }
+
+    private static int stripe(Object key) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Both epochs only increase, so their sum changes whenever either of them does.
+     */
+    private long membershipStamp(User user) {
+        return hierarchyEpoch.get() + userEpochs.get(stripe(user));
+    }
+
+    private void usersChanged(Collection<User> changed) {
+        final BitSet bumped = new BitSet(STRIPES);
+        for (User user : changed) {
+            final int stripe = stripe(user);
+            if (!bumped.get(stripe)) {
+                bumped.set(stripe);
+                userEpochs.incrementAndGet(stripe);
+            }
+        }
+    }
+
+    private final class CachingUserService implements UserService {
+        private final UserService delegate;
+
+        CachingUserService(UserService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Nullable
+        @Override
+        public User findByName(final String name) {
+            requireNonNull(name, "name");
+            return users.get(name, userNameEpochs.get(stripe(name)), new EpochCache.Loader<User>() {
+                @Override
+                public User load() {
+                    return delegate.findByName(name);
+                }
+            });
+        }
+
+        /**
+         * Not cached, since each keystroke of a search asks for a different prefix.
+         */
+        @Override
+        public Page<User> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+            return delegate.findByNamePrefix(prefix, ignoreCase, cursor, pageSize);
+        }
+
+        @Override
+        public void create(User user) {
+            try {
+                delegate.create(user);
+            } finally {
+                userNameEpochs.incrementAndGet(stripe(user.getName()));
+            }
+        }
+
+        /**
+         * Deleting a user also removes its memberships, so their answers are invalidated too.
+         */
+        @Override
+        public void delete(User user) {
+            try {
+                delegate.delete(user);
+            } finally {
+                userNameEpochs.incrementAndGet(stripe(user.getName()));
+                userEpochs.incrementAndGet(stripe(user));
+            }
+        }
+    }
+
+    private final class CachingGroupService implements GroupService {
+        private final GroupService delegate;
+
+        CachingGroupService(GroupService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Nullable
+        @Override
+        public Group findByName(final String name) {
+            requireNonNull(name, "name");
+            return groups.get(name, groupNameEpochs.get(stripe(name)), new EpochCache.Loader<Group>() {
+                @Override
+                public Group load() {
+                    return delegate.findByName(name);
+                }
+            });
+        }
+
+        /**
+         * Not cached, since each keystroke of a search asks for a different prefix.
+         */
+        @Override
+        public Page<Group> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+            return delegate.findByNamePrefix(prefix, ignoreCase, cursor, pageSize);
+        }
+
+        @Override
+        public void create(Group group) {
+            try {
+                delegate.create(group);
+            } finally {
+                groupNameEpochs.incrementAndGet(stripe(group.getName()));
+            }
+        }
+
+        /**
+         * Deleting a group also removes it from the hierarchy, so every membership answer is invalidated.
+         */
+        @Override
+        public void delete(Group group) {
+            try {
+                delegate.delete(group);
+            } finally {
+                groupNameEpochs.incrementAndGet(stripe(group.getName()));
+                hierarchyEpoch.incrementAndGet();
+            }
+        }
+    }
+
+    private final class CachingMembershipService implements MembershipService {
+        private final MembershipService delegate;
+
+        CachingMembershipService(MembershipService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void addUserToGroup(User user, Group group) {
+            try {
+                delegate.addUserToGroup(user, group);
+            } finally {
+                usersChanged(Collections.singleton(user));
+            }
+        }
+
+        @Override
+        public void addUsersToGroup(Collection<User> users, Group group) {
+            try {
+                delegate.addUsersToGroup(users, group);
+            } finally {
+                usersChanged(users);
+            }
+        }
+
+        @Override
+        public void addGroupToGroup(Group child, Group parent) {
+            try {
+                delegate.addGroupToGroup(child, parent);
+            } finally {
+                hierarchyEpoch.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void addGroupsToGroup(Collection<Group> children, Group parent) {
+            try {
+                delegate.addGroupsToGroup(children, parent);
+            } finally {
+                hierarchyEpoch.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean isUserInGroup(final User user, final Group group) {
+            requireNonNull(user, "user");
+            requireNonNull(group, "group");
+            return userInGroup.get(new UserInGroup(user, group), membershipStamp(user),
+                    new EpochCache.Loader<Boolean>() {
+                        @Override
+                        public Boolean load() {
+                            return delegate.isUserInGroup(user, group);
+                        }
+                    });
+        }
+
+        /**
+         * Not cached, since the wrapped services already answer a batch in about one lookup.
+         */
+        @Override
+        public boolean isUserInAnyGroup(User user, Collection<Group> groups) {
+            return delegate.isUserInAnyGroup(user, groups);
+        }
+
+        @Override
+        public boolean isUserInAllGroups(User user, Collection<Group> groups) {
+            return delegate.isUserInAllGroups(user, groups);
+        }
+
+        @Override
+        public BitSet checkMany(User user, List<Group> groups) {
+            return delegate.checkMany(user, groups);
+        }
+
+        @Override
+        public boolean isGroupInGroup(final Group child, final Group parent) {
+            requireNonNull(child, "child");
+            requireNonNull(parent, "parent");
+            return groupInGroup.get(new GroupInGroup(child, parent), hierarchyEpoch.get(),
+                    new EpochCache.Loader<Boolean>() {
+                        @Override
+                        public Boolean load() {
+                            return delegate.isGroupInGroup(child, parent);
+                        }
+                    });
+        }
+
+        @Override
+        public Collection<User> getUsersInGroup(Group group) {
+            return delegate.getUsersInGroup(group);
+        }
+
+        @Override
+        public Page<User> getUsersInGroup(Group group, @Nullable String cursor, int pageSize) {
+            return delegate.getUsersInGroup(group, cursor, pageSize);
+        }
+
+        @Override
+        public Iterator<User> getEffectiveUsersInGroup(Group group) {
+            return delegate.getEffectiveUsersInGroup(group);
+        }
+
+        @Override
+        public Collection<Group> getGroupsForUser(User user) {
+            return delegate.getGroupsForUser(user);
+        }
+
+        @Override
+        public Collection<Group> getEffectiveGroupsForUser(User user) {
+            return delegate.getEffectiveGroupsForUser(user);
+        }
+
+        @Override
+        public Collection<User> getUsersMatching(MembershipQuery query) {
+            return delegate.getUsersMatching(query);
+        }
+
+        @Override
+        public void removeUserFromGroup(User user, Group group) {
+            try {
+                delegate.removeUserFromGroup(user, group);
+            } finally {
+                usersChanged(Collections.singleton(user));
+            }
+        }
+
+        @Override
+        public void removeUsersFromGroup(Collection<User> users, Group group) {
+            try {
+                delegate.removeUsersFromGroup(users, group);
+            } finally {
+                usersChanged(users);
+            }
+        }
+
+        @Override
+        public void removeGroupFromGroup(Group child, Group parent) {
+            try {
+                delegate.removeGroupFromGroup(child, parent);
+            } finally {
+                hierarchyEpoch.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void removeGroup(Group group) {
+            try {
+                delegate.removeGroup(group);
+            } finally {
+                hierarchyEpoch.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void removeUser(User user) {
+            try {
+                delegate.removeUser(user);
+            } finally {
+                usersChanged(Collections.singleton(user));
+            }
+        }
+    }
+
+    private static final class UserInGroup {
+        private final User user;
+        private final Group group;
+
+        UserInGroup(User user, Group group) {
+            this.user = user;
+            this.group = group;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof UserInGroup)) {
+                return false;
+            }
+            final UserInGroup other = (UserInGroup) obj;
+            return user.equals(other.user) && group.equals(other.group);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * user.hashCode() + group.hashCode();
+        }
+    }
+
+    private static final class GroupInGroup {
+        private final Group child;
+        private final Group parent;
+
+        GroupInGroup(Group child, Group parent) {
+            this.child = child;
+            this.parent = parent;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof GroupInGroup)) {
+                return false;
+            }
+            final GroupInGroup other = (GroupInGroup) obj;
+            return child.equals(other.child) && parent.equals(other.parent);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * child.hashCode() + parent.hashCode();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.interviews.uag.cache;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded, least-recently-used cache whose entries are only valid for the stamp they were loaded at.
+ * <p>
+ * The caller passes the current stamp with every lookup, derived from epoch counters that writes bump, and an entry
+ * with a different stamp is treated as a miss.  Invalidation therefore costs one increment, however many entries it
+ * affects, and stale entries are simply evicted in time.  Stamps must never decrease.
+ * </p>
+ * <p>
+ * Concurrent misses on the same key and stamp share one load: the first caller runs the loader and the others wait
+ * for its result, or its exception.  A caller never joins a load that started at an older stamp, so a thread that
+ * has just made a write never receives an answer that was loaded before it.
+ * </p>
+ * <p>
+ * The entries are spread over independently locked segments, each of which evicts its own least recently used
+ * entry when it is full.
+ * </p>
+ *
+ * @param <K> the type of the keys, which must implement {@code equals} and {@code hashCode}
+ * @param <V> the type of the values, which may be {@code null}
+ */
+@ParametersAreNonnullByDefault
+final class EpochCache<K, V> {
+    private static final int SEGMENTS = 16;
+
+    /**
+     * Loads the value for a key that is missing from the cache.
+     *
+     * @param <V> the type of the value
+     */
+    interface Loader<V> {
+        @Nullable
+        V load();
+    }
+
+    private final Segment<K, V>[] segments;
+    private final ConcurrentMap<K, Load<V>> loads = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity the most entries to keep; must be positive
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    EpochCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        final int segmentCount = Math.min(SEGMENTS, capacity);
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // Spread the remainder so that the segments add up to the capacity
+            segments[i] = new Segment<>(capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * Returns the value for the key at the given stamp, loading it if it is missing or was loaded at another stamp.
+     *
+     * @param key    the key
+     * @param stamp  the current stamp of the key
+     * @param loader loads the value on a miss; its exceptions are thrown to every caller that shares the load
+     * @return the value
+     */
+    @Nullable
+    V get(K key, long stamp, Loader<V> loader) {
+        final Segment<K, V> segment = segmentFor(key);
+        final Entry<V> entry = segment.get(key);
+        if (entry != null && entry.stamp == stamp) {
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+
+        final Load<V> load = new Load<>(stamp);
+        final Load<V> running = loads.putIfAbsent(key, load);
+        if (running != null) {
+            if (running.stamp == stamp) {
+                return running.await();
+            }
+            if (running.stamp > stamp || !loads.replace(key, running, load)) {
+                // Racing with a newer stamp; load without sharing rather than wait on the wrong answer
+                return loader.load();
+            }
+        }
+        try {
+            final V value = loader.load();
+            segment.put(key, new Entry<>(stamp, value));
+            load.future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            load.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    /**
+     * @return the number of entries, which may include entries with an old stamp
+     */
+    int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        final int hash = key.hashCode();
+        return segments[((hash ^ (hash >>> 16)) & 0x7fffffff) % segments.length];
+    }
+
+    private static final class Entry<V> {
+        final long stamp;
+        @Nullable
+        final V value;
+
+        Entry(long stamp, @Nullable V value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+
+    private static final class Load<V> {
+        final long stamp;
+        final CompletableFuture<V> future = new CompletableFuture<>();
+
+        Load(long stamp) {
+            this.stamp = stamp;
+        }
+
+        @Nullable
+        V await() {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * One lock-protected part of the cache, kept in access order so that the eldest entry is the least recently
+     * used one.
+     */
+    private static final class Segment<K, V> {
+        private final LinkedHashMap<K, Entry<V>> entries;
+
+        Segment(final int capacity) {
+            entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, EpochCache.Entry<V>> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        @Nullable
+        synchronized Entry<V> get(K key) {
+            return entries.get(key);
+        }
+
+        /**
+         * Stores the entry, unless one with a newer stamp has been stored meanwhile.
+         */
+        synchronized void put(K key, Entry<V> entry) {
+            final Entry<V> current = entries.get(key);
+            if (current == null || current.stamp <= entry.stamp) {
+                entries.put(key, entry);
+            }
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
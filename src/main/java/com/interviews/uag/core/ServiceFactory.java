@@ -6,6 +6,7 @@ import com.interviews.uag.api.UserService;
 import com.interviews.uag.memory.MemoryGroupService;
 import com.interviews.uag.memory.MemoryMembershipService;
 import com.interviews.uag.memory.MemoryUserService;
+import com.interviews.uag.memory.ShardedMembershipService;
 
 /**
  * Factory for building a new memory-based users-and-groups service.
@@ -16,13 +17,30 @@ public class ServiceFactory implements Services {
     private final MembershipService membershipService;
 
     public static Services createServices() {
-        return new ServiceFactory();
+        return new ServiceFactory(1);
     }
 
-    private ServiceFactory() {
+    /**
+     * Builds memory-based services whose memberships are partitioned by user over several shards.
+     *
+     * @param shardCount the number of shards; must be positive, and one builds the same services as
+     *                   {@link #createServices()}
+     * @return the services
+     * @see ShardedMembershipService
+     */
+    public static Services createShardedServices(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        return new ServiceFactory(shardCount);
+    }
+
+    private ServiceFactory(int shardCount) {
         groupService = new MemoryGroupService(this);
         userService = new MemoryUserService(this);
-        membershipService = new MemoryMembershipService(this);
+        membershipService = shardCount == 1
+                ? new MemoryMembershipService(this)
+                : new ShardedMembershipService(this, shardCount);
     }
 
     public GroupService getGroupService() {
@@ -0,0 +1,78 @@
+package com.interviews.uag.core;
+
+/**
+ * Collects how much of the group hierarchy a service call explored, for instrumentation.
+ * <p>
+ * A caller that wants the figures for a call brackets it with {@link #start()} and {@link #stop()}; service
+ * implementations report each traversal they make with {@link #record(int, int)}.  When no traversal has been
+ * started on the calling thread, recording costs one thread-local lookup and is otherwise ignored.
+ * </p>
+ * <p>
+ * Each thread reuses a single instance, so that measuring a call does not allocate.
+ * </p>
+ */
+public final class Traversal {
+    private static final ThreadLocal<Traversal> CURRENT = new ThreadLocal<Traversal>() {
+        @Override
+        protected Traversal initialValue() {
+            return new Traversal();
+        }
+    };
+
+    private boolean active;
+    private int depth;
+    private int nodes;
+
+    private Traversal() {
+    }
+
+    /**
+     * Starts collecting the traversals of the calling thread, discarding any figures that were collected before.
+     */
+    public static void start() {
+        final Traversal traversal = CURRENT.get();
+        traversal.active = true;
+        traversal.depth = 0;
+        traversal.nodes = 0;
+    }
+
+    /**
+     * Reports a traversal of the hierarchy, if the calling thread is collecting them.
+     *
+     * @param depth the number of levels that were descended or ascended
+     * @param nodes the number of groups that were visited
+     */
+    public static void record(int depth, int nodes) {
+        final Traversal traversal = CURRENT.get();
+        if (traversal.active) {
+            traversal.depth = Math.max(traversal.depth, depth);
+            traversal.nodes += nodes;
+        }
+    }
+
+    /**
+     * Stops collecting the traversals of the calling thread.  The figures remain available until the next
+     * {@link #start()} on the same thread.
+     *
+     * @return the collector
+     */
+    public static Traversal stop() {
+        final Traversal traversal = CURRENT.get();
+        traversal.active = false;
+        return traversal;
+    }
+
+    /**
+     * @return the deepest level reached by any of the recorded traversals
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the total number of groups visited by the recorded traversals
+     */
+    public int getNodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,32 @@
+package com.interviews.uag.durable;
+
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.UserService;
+import com.interviews.uag.core.Services;
+import com.interviews.uag.memory.MemoryGroupService;
+import com.interviews.uag.memory.MemoryMembershipService;
+import com.interviews.uag.memory.MemoryUserService;
+
+/**
+ * The memory-based services that hold the state of {@link DurableServices} or of a {@link ReplicaServices}.
+ * They refer to each other directly, so that the changes they make to each other, such as removing a deleted
+ * group's memberships, are not logged or replicated twice.
+ */
+final class Backing implements Services {
+    final MemoryUserService userService = new MemoryUserService(this);
+    final MemoryGroupService groupService = new MemoryGroupService(this);
+    final MemoryMembershipService membershipService = new MemoryMembershipService(this);
+
+    public GroupService getGroupService() {
+        return groupService;
+    }
+
+    public UserService getUserService() {
+        return userService;
+    }
+
+    public MembershipService getMembershipService() {
+        return membershipService;
+    }
+}
@@ -0,0 +1,478 @@
+package com.interviews.uag.durable;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.MembershipQuery;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import com.interviews.uag.api.UserService;
+import com.interviews.uag.core.Services;
+import com.interviews.uag.memory.MemoryMembershipService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Memory-based services that survive a restart.
+ * <p>
+ * Every create, delete, add and remove is applied to the memory-based services and then appended to an
+ * {@link OperationLog}; the call returns once the operation is on disk.  Concurrent writers share each
+ * {@code fsync} through the log's group commit.  Reads go straight to the memory-based services.
+ * </p>
+ * <p>
+ * Visibility comes before durability: the memory-based services are what checks an operation, so a change is
+ * visible to readers as soon as it is applied, before it has been synced, and a crash in between loses a change
+ * that others may have seen but whose writer was never told it succeeded.  Replicas are only sent a change once
+ * it has been synced, so they never hold one that a restarted leader has lost.  If
+ * the log cannot be written, the operation that failed stays applied in memory but not on disk, so from then on
+ * every write is rejected with an {@link UncheckedIOException} and the services must be reopened, which recovers
+ * the state as of the last operation that was logged.
+ * </p>
+ * <p>
+ * Every {@code checkpointInterval} operations, a compacted snapshot of the whole state is written in the
+ * background and the log segments that it covers are deleted.  On {@link #open(Path)}, the latest snapshot is
+ * loaded and only the operations logged after it are replayed, so the time taken to restart depends on the changes
+ * since the last snapshot rather than on the whole history.
+ * </p>
+ * <p>
+ * The operations can also be streamed to read-only {@link ReplicaServices} on other hosts; see
+ * {@link #startReplication(InetSocketAddress)}.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+public class DurableServices implements Services, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(DurableServices.class);
+
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 100000;
+    private static final int DEFAULT_REPLICATION_BACKLOG = 100000;
+
+    private final Path directory;
+    private final int checkpointInterval;
+    private final Backing backing = new Backing();
+    private final OperationLog log;
+
+    /**
+     * Held while an operation is applied and appended, so that the log order matches the order in which the
+     * operations were applied, and while a checkpoint captures the state.
+     */
+    private final Object applyLock = new Object();
+    private final Object checkpointLock = new Object();
+    private final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+    private final ExecutorService checkpointer;
+
+    // Guarded by applyLock
+    private long lastCheckpoint;
+    /**
+     * The first failure to write the log, after which memory may be ahead of the log and no more writes are taken.
+     */
+    @Nullable
+    private IOException failure;
+    @Nullable
+    private ReplicationServer replication;
+
+    private final UserService userService = new JournaledUserService();
+    private final GroupService groupService = new JournaledGroupService();
+    private final MembershipService membershipService = new JournaledMembershipService();
+
+    private DurableServices(Path directory, int checkpointInterval) throws IOException {
+        this.directory = directory;
+        this.checkpointInterval = checkpointInterval;
+
+        final long start = System.nanoTime();
+        Files.createDirectories(directory);
+        final long snapshot = SnapshotFile.load(directory, backing.userService, backing.groupService,
+                backing.membershipService);
+        final long last = OperationLog.replay(directory, snapshot, new OperationLog.Consumer() {
+            @Override
+            public void accept(long sequence, Operation operation) {
+                try {
+                    operation.applyTo(backing);
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Operation {} {} was rejected on replay: {}", sequence, operation, e.getMessage());
+                }
+            }
+        });
+        LOG.debug("Recovered {} from snapshot {} and {} logged operations in {} ms", directory, snapshot,
+                last - snapshot, (System.nanoTime() - start) / 1000000);
+
+        lastCheckpoint = snapshot;
+        log = OperationLog.open(directory, last);
+        checkpointer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "checkpoint-" + DurableServices.this.directory);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Opens the services stored in the given directory, creating it if it does not exist.
+     *
+     * @param directory the directory that holds the snapshot and the log
+     * @return the services, as they were when they were last changed
+     * @throws IOException if the directory cannot be read or the stored state is corrupt
+     */
+    public static DurableServices open(Path directory) throws IOException {
+        return open(directory, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Opens the services stored in the given directory, creating it if it does not exist.
+     *
+     * @param directory          the directory that holds the snapshot and the log
+     * @param checkpointInterval the number of operations after which a new snapshot is written
+     * @return the services, as they were when they were last changed
+     * @throws IOException if the directory cannot be read or the stored state is corrupt
+     */
+    public static DurableServices open(Path directory, int checkpointInterval) throws IOException {
+        requireNonNull(directory, "directory");
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("checkpointInterval must be positive: " + checkpointInterval);
+        }
+        return new DurableServices(directory, checkpointInterval);
+    }
+
+    public GroupService getGroupService() {
+        return groupService;
+    }
+
+    public UserService getUserService() {
+        return userService;
+    }
+
+    public MembershipService getMembershipService() {
+        return membershipService;
+    }
+
+    /**
+     * @return the sequence number of the last operation applied, which a {@link ReplicaServices} can wait for to
+     * read the writes made so far
+     */
+    public long getLastSequence() {
+        synchronized (applyLock) {
+            return log.getLastSequence();
+        }
+    }
+
+    /**
+     * Starts streaming every operation from now on to the {@link ReplicaServices} that connect to the given
+     * address, keeping the last 100000 operations for followers that reconnect.
+     *
+     * @param address the address to listen on; port {@code 0} picks a free port
+     * @return the server, which is closed along with these services
+     * @throws IOException if the address cannot be bound
+     */
+    public ReplicationServer startReplication(InetSocketAddress address) throws IOException {
+        return startReplication(address, DEFAULT_REPLICATION_BACKLOG);
+    }
+
+    /**
+     * Starts streaming every operation from now on to the {@link ReplicaServices} that connect to the given
+     * address.
+     *
+     * @param address     the address to listen on; port {@code 0} picks a free port
+     * @param backlogSize the number of recent operations to keep in memory; a follower that is further behind
+     *                    than this is sent a snapshot instead
+     * @return the server, which is closed along with these services
+     * @throws IOException if the address cannot be bound
+     */
+    public ReplicationServer startReplication(InetSocketAddress address, int backlogSize) throws IOException {
+        requireNonNull(address, "address");
+        if (backlogSize < 1) {
+            throw new IllegalArgumentException("backlogSize must be positive: " + backlogSize);
+        }
+        synchronized (applyLock) {
+            if (replication != null) {
+                throw new IllegalStateException("Already replicating on " + replication.getAddress());
+            }
+            replication = new ReplicationServer(new ReplicationServer.State() {
+                @Override
+                public ReplicationServer.Snapshot capture() throws IOException {
+                    final ReplicationServer.Snapshot snapshot;
+                    synchronized (applyLock) {
+                        snapshot = new ReplicationServer.Snapshot(log.getLastSequence(),
+                                new ArrayList<>(backing.userService.getUsers()),
+                                new ArrayList<>(backing.groupService.getGroups()),
+                                backing.membershipService.getRelationships());
+                    }
+                    log.sync(snapshot.sequence);
+                    return snapshot;
+                }
+            }, address, log.getLastSequence(), backlogSize);
+            return replication;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current state and deletes the log segments that it covers.
+     * Writers are only blocked while the state is captured, not while the snapshot is written.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            final long sequence;
+            final List<User> users;
+            final List<Group> groups;
+            final MemoryMembershipService.Relationships relationships;
+            synchronized (applyLock) {
+                sequence = log.getLastSequence();
+                if (sequence == lastCheckpoint) {
+                    return;
+                }
+                users = new ArrayList<>(backing.userService.getUsers());
+                groups = new ArrayList<>(backing.groupService.getGroups());
+                relationships = backing.membershipService.getRelationships();
+                log.roll();
+                lastCheckpoint = sequence;
+            }
+            SnapshotFile.write(directory, sequence, users, groups, relationships);
+            log.deleteThrough(sequence);
+        }
+    }
+
+    /**
+     * Stops replicating, syncs the log and stops the background checkpoints.  The services must not be used
+     * afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        final ReplicationServer server;
+        synchronized (applyLock) {
+            server = replication;
+            replication = null;
+        }
+        if (server != null) {
+            server.close();
+        }
+        checkpointer.shutdown();
+        try {
+            checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    /**
+     * Applies an operation and makes it durable.  An operation that the services reject is not logged.
+     */
+    private void write(Operation operation) {
+        final long sequence;
+        final boolean checkpointDue;
+        final ReplicationServer server;
+        synchronized (applyLock) {
+            if (failure != null) {
+                throw new UncheckedIOException("The log of " + directory
+                        + " failed, so no more writes are accepted; reopen the services to recover", failure);
+            }
+            operation.applyTo(backing);
+            try {
+                sequence = log.append(operation);
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException("Cannot log " + operation, e);
+            }
+            server = replication;
+            if (server != null) {
+                server.append(sequence, operation);
+            }
+            checkpointDue = sequence - lastCheckpoint >= checkpointInterval;
+        }
+        try {
+            log.sync(sequence);
+        } catch (IOException e) {
+            synchronized (applyLock) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            throw new UncheckedIOException("Cannot log " + operation, e);
+        }
+        if (server != null) {
+            server.durable(sequence);
+        }
+        if (checkpointDue && checkpointScheduled.compareAndSet(false, true)) {
+            checkpointer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        checkpoint();
+                    } catch (IOException | RuntimeException e) {
+                        LOG.warn("Checkpoint of " + directory + " failed", e);
+                    } finally {
+                        checkpointScheduled.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private final class JournaledUserService implements UserService {
+        @Nullable
+        public User findByName(String name) {
+            return backing.userService.findByName(name);
+        }
+
+        public Page<User> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+            return backing.userService.findByNamePrefix(prefix, ignoreCase, cursor, pageSize);
+        }
+
+        public void create(User user) {
+            requireNonNull(user, "user");
+            write(Operation.createUser(user));
+        }
+
+        public void delete(User user) {
+            requireNonNull(user, "user");
+            write(Operation.deleteUser(user));
+        }
+    }
+
+    private final class JournaledGroupService implements GroupService {
+        @Nullable
+        public Group findByName(String name) {
+            return backing.groupService.findByName(name);
+        }
+
+        public Page<Group> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+            return backing.groupService.findByNamePrefix(prefix, ignoreCase, cursor, pageSize);
+        }
+
+        public void create(Group group) {
+            requireNonNull(group, "group");
+            write(Operation.createGroup(group));
+        }
+
+        public void delete(Group group) {
+            requireNonNull(group, "group");
+            write(Operation.deleteGroup(group));
+        }
+    }
+
+    private final class JournaledMembershipService implements MembershipService {
+        private MembershipService delegate() {
+            return backing.membershipService;
+        }
+
+        public void addUserToGroup(User user, Group group) {
+            requireNonNull(user, "user");
+            requireNonNull(group, "group");
+            write(Operation.addUsersToGroup(Collections.singleton(user), group));
+        }
+
+        public void addUsersToGroup(Collection<User> users, Group group) {
+            requireNonNull(users, "users");
+            requireNonNull(group, "group");
+            write(Operation.addUsersToGroup(users, group));
+        }
+
+        public void addGroupToGroup(Group child, Group parent) {
+            requireNonNull(child, "child");
+            requireNonNull(parent, "parent");
+            write(Operation.addGroupsToGroup(Collections.singleton(child), parent));
+        }
+
+        public void addGroupsToGroup(Collection<Group> children, Group parent) {
+            requireNonNull(children, "children");
+            requireNonNull(parent, "parent");
+            write(Operation.addGroupsToGroup(children, parent));
+        }
+
+        public boolean isUserInGroup(User user, Group group) {
+            return delegate().isUserInGroup(user, group);
+        }
+
+        public boolean isUserInAnyGroup(User user, Collection<Group> groups) {
+            return delegate().isUserInAnyGroup(user, groups);
+        }
+
+        public boolean isUserInAllGroups(User user, Collection<Group> groups) {
+            return delegate().isUserInAllGroups(user, groups);
+        }
+
+        public BitSet checkMany(User user, List<Group> groups) {
+            return delegate().checkMany(user, groups);
+        }
+
+        public boolean isGroupInGroup(Group child, Group parent) {
+            return delegate().isGroupInGroup(child, parent);
+        }
+
+        public Collection<User> getUsersInGroup(Group group) {
+            return delegate().getUsersInGroup(group);
+        }
+
+        public Page<User> getUsersInGroup(Group group, @Nullable String cursor, int pageSize) {
+            return delegate().getUsersInGroup(group, cursor, pageSize);
+        }
+
+        public Iterator<User> getEffectiveUsersInGroup(Group group) {
+            return delegate().getEffectiveUsersInGroup(group);
+        }
+
+        public Collection<Group> getGroupsForUser(User user) {
+            return delegate().getGroupsForUser(user);
+        }
+
+        public Collection<Group> getEffectiveGroupsForUser(User user) {
+            return delegate().getEffectiveGroupsForUser(user);
+        }
+
+        public Collection<User> getUsersMatching(MembershipQuery query) {
+            return delegate().getUsersMatching(query);
+        }
+
+        public void removeUserFromGroup(User user, Group group) {
+            requireNonNull(user, "user");
+            requireNonNull(group, "group");
+            write(Operation.removeUsersFromGroup(Collections.singleton(user), group));
+        }
+
+        public void removeUsersFromGroup(Collection<User> users, Group group) {
+            requireNonNull(users, "users");
+            requireNonNull(group, "group");
+            write(Operation.removeUsersFromGroup(users, group));
+        }
+
+        public void removeGroupFromGroup(Group child, Group parent) {
+            requireNonNull(child, "child");
+            requireNonNull(parent, "parent");
+            write(Operation.removeGroupFromGroup(child, parent));
+        }
+
+        public void removeGroup(Group group) {
+            requireNonNull(group, "group");
+            write(Operation.removeGroup(group));
+        }
+
+        public void removeUser(User user) {
+            requireNonNull(user, "user");
+            write(Operation.removeUser(user));
+        }
+    }
+}
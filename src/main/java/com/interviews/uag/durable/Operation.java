@@ -0,0 +1,277 @@
+package com.interviews.uag.durable;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.User;
+import com.interviews.uag.core.Services;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * One change to the users, groups or memberships, as recorded in an {@link OperationLog}.
+ * <p>
+ * Operations are immutable and can be encoded to and decoded from a compact binary form, so that they can be
+ * written to disk or shipped to another process and then replayed against any {@link Services}.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+public final class Operation {
+    /**
+     * The kinds of change.  The ordinal is part of the binary form, so new kinds must be added at the end.
+     */
+    public enum Type {
+        CREATE_USER,
+        DELETE_USER,
+        CREATE_GROUP,
+        DELETE_GROUP,
+        ADD_USERS_TO_GROUP,
+        ADD_GROUPS_TO_GROUP,
+        REMOVE_USERS_FROM_GROUP,
+        REMOVE_GROUP_FROM_GROUP,
+        REMOVE_GROUP,
+        REMOVE_USER
+    }
+
+    private static final Type[] TYPES = Type.values();
+
+    private final Type type;
+    private final String target;
+    private final List<String> names;
+
+    private Operation(Type type, String target, List<String> names) {
+        this.type = type;
+        this.target = target;
+        this.names = names;
+    }
+
+    public static Operation createUser(User user) {
+        return new Operation(Type.CREATE_USER, user.getName(), Collections.<String>emptyList());
+    }
+
+    public static Operation deleteUser(User user) {
+        return new Operation(Type.DELETE_USER, user.getName(), Collections.<String>emptyList());
+    }
+
+    public static Operation createGroup(Group group) {
+        return new Operation(Type.CREATE_GROUP, group.getName(), Collections.<String>emptyList());
+    }
+
+    public static Operation deleteGroup(Group group) {
+        return new Operation(Type.DELETE_GROUP, group.getName(), Collections.<String>emptyList());
+    }
+
+    public static Operation addUsersToGroup(Collection<User> users, Group group) {
+        return new Operation(Type.ADD_USERS_TO_GROUP, group.getName(), userNames(users));
+    }
+
+    public static Operation addGroupsToGroup(Collection<Group> children, Group parent) {
+        return new Operation(Type.ADD_GROUPS_TO_GROUP, parent.getName(), groupNames(children));
+    }
+
+    public static Operation removeUsersFromGroup(Collection<User> users, Group group) {
+        return new Operation(Type.REMOVE_USERS_FROM_GROUP, group.getName(), userNames(users));
+    }
+
+    public static Operation removeGroupFromGroup(Group child, Group parent) {
+        return new Operation(Type.REMOVE_GROUP_FROM_GROUP, parent.getName(),
+                Collections.singletonList(child.getName()));
+    }
+
+    public static Operation removeGroup(Group group) {
+        return new Operation(Type.REMOVE_GROUP, group.getName(), Collections.<String>emptyList());
+    }
+
+    public static Operation removeUser(User user) {
+        return new Operation(Type.REMOVE_USER, user.getName(), Collections.<String>emptyList());
+    }
+
+    private static List<String> userNames(Collection<User> users) {
+        final List<String> names = new ArrayList<>(users.size());
+        for (User user : users) {
+            names.add(requireNonNull(user, "user").getName());
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    private static List<String> groupNames(Collection<Group> groups) {
+        final List<String> names = new ArrayList<>(groups.size());
+        for (Group group : groups) {
+            names.add(requireNonNull(group, "group").getName());
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the name of the user or group that the operation changes; for membership changes, this is the
+     * (parent) group.
+     *
+     * @return the name of the target
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Returns the names of the users or child groups that are added to or removed from the target group.
+     *
+     * @return the names, which are empty for operations that only involve the target
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Applies this operation to the given services.
+     *
+     * @param services the services to change
+     * @throws IllegalArgumentException if the services reject the change
+     */
+    public void applyTo(Services services) {
+        switch (type) {
+            case CREATE_USER:
+                services.getUserService().create(new User(target));
+                break;
+            case DELETE_USER:
+                services.getUserService().delete(new User(target));
+                break;
+            case CREATE_GROUP:
+                services.getGroupService().create(new Group(target));
+                break;
+            case DELETE_GROUP:
+                services.getGroupService().delete(new Group(target));
+                break;
+            case ADD_USERS_TO_GROUP:
+                services.getMembershipService().addUsersToGroup(users(), new Group(target));
+                break;
+            case ADD_GROUPS_TO_GROUP:
+                services.getMembershipService().addGroupsToGroup(groups(), new Group(target));
+                break;
+            case REMOVE_USERS_FROM_GROUP:
+                services.getMembershipService().removeUsersFromGroup(users(), new Group(target));
+                break;
+            case REMOVE_GROUP_FROM_GROUP:
+                services.getMembershipService().removeGroupFromGroup(new Group(names.get(0)), new Group(target));
+                break;
+            case REMOVE_GROUP:
+                services.getMembershipService().removeGroup(new Group(target));
+                break;
+            case REMOVE_USER:
+                services.getMembershipService().removeUser(new User(target));
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation " + type);
+        }
+    }
+
+    private List<User> users() {
+        final List<User> users = new ArrayList<>(names.size());
+        for (String name : names) {
+            users.add(new User(name));
+        }
+        return users;
+    }
+
+    private List<Group> groups() {
+        final List<Group> groups = new ArrayList<>(names.size());
+        for (String name : names) {
+            groups.add(new Group(name));
+        }
+        return groups;
+    }
+
+    /**
+     * Writes the binary form of this operation.
+     *
+     * @param out the output to write to
+     * @throws IOException if the output cannot be written
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        writeString(out, target);
+        out.writeInt(names.size());
+        for (String name : names) {
+            writeString(out, name);
+        }
+    }
+
+    /**
+     * Reads an operation that was written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in the input to read from
+     * @return the operation
+     * @throws IOException if the input cannot be read or does not hold an operation
+     */
+    public static Operation readFrom(DataInput in) throws IOException {
+        final int ordinal = in.readUnsignedByte();
+        if (ordinal >= TYPES.length) {
+            throw new IOException("Unknown operation type " + ordinal);
+        }
+        final String target = readString(in);
+        final int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid name count " + count);
+        }
+        final List<String> names = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            names.add(readString(in));
+        }
+        return new Operation(TYPES[ordinal], target, Collections.unmodifiableList(names));
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes.  Unlike {@link DataOutput#writeUTF(String)},
+     * this has no length limit.
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Operation)) {
+            return false;
+        }
+        final Operation other = (Operation) obj;
+        return type == other.type && target.equals(other.target) && names.equals(other.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return (type.hashCode() * 31 + target.hashCode()) * 31 + names.hashCode();
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        return names.isEmpty() ? type + "(" + target + ')' : type + "(" + target + ", " + names + ')';
+    }
+}
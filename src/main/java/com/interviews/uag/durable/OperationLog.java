@@ -0,0 +1,329 @@
+package com.interviews.uag.durable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An append-only log of {@link Operation}s, numbered by consecutive sequence numbers, with group commit.
+ * <p>
+ * {@link #append(Operation)} only encodes the operation into memory, in the order of the calls.
+ * {@link #sync(long)} then makes everything appended so far durable with one write and one {@code fsync}: while one
+ * thread is syncing, the operations appended by other threads accumulate, and the next sync covers them all.  Under
+ * load, the cost of an {@code fsync} is thus shared by every writer that was waiting for it.
+ * </p>
+ * <p>
+ * The log is split into segment files named after the sequence number of their first operation, so that segments
+ * covered by a snapshot can be deleted.  Each record holds its length, a CRC-32 checksum and the sequence number,
+ * so that a record torn by a crash is detected and dropped on recovery.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+public class OperationLog implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(OperationLog.class);
+
+    private static final String PREFIX = "log-";
+    private static final String SUFFIX = ".wal";
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Receives the operations read back from a log.
+     */
+    public interface Consumer {
+        void accept(long sequence, Operation operation);
+    }
+
+    private final Path directory;
+    private final Object syncLock = new Object();
+
+    // Guarded by this
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private final ByteArrayOutputStream scratch = new ByteArrayOutputStream(256);
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+    private final CRC32 crc = new CRC32();
+    private long lastSequence;
+    private IOException failure;
+
+    // Guarded by syncLock
+    private FileChannel channel;
+
+    private volatile long durableSequence;
+
+    private OperationLog(Path directory, long lastSequence) throws IOException {
+        this.directory = directory;
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+        this.channel = openSegment(lastSequence + 1);
+    }
+
+    /**
+     * Opens the log for appending.  Operations are appended to a new segment, so the existing segments must
+     * already have been {@linkplain #replay replayed}.
+     *
+     * @param directory    the directory that holds the segments
+     * @param lastSequence the sequence number of the last operation in the existing segments, or of the snapshot
+     *                     that covers them
+     * @return the log
+     * @throws IOException if the segment cannot be created
+     */
+    public static OperationLog open(Path directory, long lastSequence) throws IOException {
+        requireNonNull(directory, "directory");
+        Files.createDirectories(directory);
+        return new OperationLog(directory, lastSequence);
+    }
+
+    private FileChannel openSegment(long firstSequence) throws IOException {
+        final Path file = segmentPath(directory, firstSequence);
+        final FileChannel segment = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        LOG.debug("Opened log segment {}", file);
+        return segment;
+    }
+
+    /**
+     * Adds an operation to the end of the log.  The operation is not durable until {@link #sync(long)} returns.
+     *
+     * @param operation the operation to append
+     * @return the sequence number of the operation
+     * @throws IOException if an earlier write to the log failed
+     */
+    public synchronized long append(Operation operation) throws IOException {
+        requireNonNull(operation, "operation");
+        if (failure != null) {
+            throw new IOException("The log is no longer writable", failure);
+        }
+        final long sequence = lastSequence + 1;
+        scratch.reset();
+        scratchOut.writeLong(sequence);
+        operation.writeTo(scratchOut);
+
+        crc.reset();
+        crc.update(scratch.toByteArray(), 0, scratch.size());
+        final DataOutputStream out = new DataOutputStream(pending);
+        out.writeInt(scratch.size());
+        out.writeInt((int) crc.getValue());
+        scratch.writeTo(pending);
+
+        lastSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * Returns the sequence number of the last operation that was appended.
+     *
+     * @return the sequence number
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Waits until the operation with the given sequence number, and every one before it, is on disk.
+     *
+     * @param sequence the sequence number returned by {@link #append(Operation)}
+     * @throws IOException if the log cannot be written
+     */
+    public void sync(long sequence) throws IOException {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durableSequence < sequence) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes and forces everything appended so far.  Must be called while holding {@link #syncLock}.
+     *
+     * @return the sequence number of the last operation that was written
+     */
+    private long flush() throws IOException {
+        final byte[] bytes;
+        final long upTo;
+        synchronized (this) {
+            if (failure != null) {
+                throw new IOException("The log is no longer writable", failure);
+            }
+            bytes = pending.toByteArray();
+            pending.reset();
+            upTo = lastSequence;
+        }
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+            }
+            throw e;
+        }
+        durableSequence = upTo;
+        return upTo;
+    }
+
+    /**
+     * Syncs the log and starts a new segment, so that the current ones can be deleted once a snapshot covers them.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public void roll() throws IOException {
+        synchronized (syncLock) {
+            final long last = flush();
+            channel.close();
+            channel = openSegment(last + 1);
+        }
+    }
+
+    /**
+     * Deletes the segments that hold only operations up to the given sequence number.  The current segment is
+     * never deleted.
+     *
+     * @param sequence the sequence number of the last operation that is no longer needed
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void deleteThrough(long sequence) throws IOException {
+        synchronized (syncLock) {
+            final List<Long> segments = listSegments(directory);
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                if (segments.get(i + 1) <= sequence + 1) {
+                    Files.deleteIfExists(segmentPath(directory, segments.get(i)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads back the operations in the log, in order.  A record that was torn by a crash at the end of the last
+     * segment is removed.
+     *
+     * @param directory the directory that holds the segments
+     * @param after     the sequence number of the last operation to skip, for example because a snapshot covers it
+     * @param consumer  the consumer to call for each of the remaining operations
+     * @return the sequence number of the last operation in the log, or {@code after} if there are none after it
+     * @throws IOException if a segment cannot be read, or a segment other than the last one is corrupt
+     */
+    public static long replay(Path directory, long after, Consumer consumer) throws IOException {
+        requireNonNull(directory, "directory");
+        requireNonNull(consumer, "consumer");
+        long last = after;
+        final List<Long> segments = listSegments(directory);
+        for (int i = 0; i < segments.size(); i++) {
+            final Path file = segmentPath(directory, segments.get(i));
+            final boolean isLast = i == segments.size() - 1;
+            if (isLast || segments.get(i + 1) > after + 1) {
+                last = Math.max(last, replaySegment(file, after, isLast, consumer));
+            }
+        }
+        return last;
+    }
+
+    private static long replaySegment(Path file, long after, boolean isLast, Consumer consumer) throws IOException {
+        long last = after;
+        try (FileChannel segment = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(
+                     Channels.newInputStream(segment), 64 * 1024))) {
+            final CRC32 crc = new CRC32();
+            long valid = 0;
+            while (true) {
+                final byte[] record;
+                try {
+                    final int length = in.readInt();
+                    final int checksum = in.readInt();
+                    if (length < 8 || length > segment.size() - valid - HEADER_SIZE) {
+                        throw new EOFException();
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    crc.reset();
+                    crc.update(record, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new EOFException();
+                    }
+                } catch (EOFException e) {
+                    if (valid == segment.size()) {
+                        break;
+                    }
+                    if (!isLast) {
+                        throw new IOException("Log segment " + file + " is corrupt at byte " + valid);
+                    }
+                    LOG.warn("Dropping torn record at byte {} of {}", valid, file);
+                    segment.truncate(valid);
+                    segment.force(true);
+                    break;
+                }
+                final DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+                final long sequence = recordIn.readLong();
+                if (sequence > after) {
+                    consumer.accept(sequence, Operation.readFrom(recordIn));
+                    last = sequence;
+                }
+                valid += HEADER_SIZE + record.length;
+            }
+        }
+        return last;
+    }
+
+    private static Path segmentPath(Path directory, long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX));
+    }
+
+    /**
+     * Returns the first sequence numbers of the segments in the directory, in ascending order.
+     */
+    private static List<Long> listSegments(Path directory) throws IOException {
+        final List<Long> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unexpected file {}", file);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+}
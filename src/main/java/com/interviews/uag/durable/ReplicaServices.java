@@ -0,0 +1,364 @@
+package com.interviews.uag.durable;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.MembershipQuery;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import com.interviews.uag.api.UserService;
+import com.interviews.uag.core.Services;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A read-only, memory-based copy of a {@link DurableServices} leader that follows its changes over TCP.
+ * <p>
+ * The replica connects to the leader's {@link ReplicationServer}, is brought up to date with a snapshot if
+ * needed, and then applies the leader's operations in order as they arrive.  If the connection is lost, the
+ * replica keeps answering from the state it has and reconnects, resuming after the last operation it applied.
+ * </p>
+ * <p>
+ * Reads may lag behind the leader.  To read your own writes, take {@link DurableServices#getLastSequence()} after
+ * writing to the leader and pass it to {@link #awaitSequence(long, long, TimeUnit)} before reading here.
+ * Writes throw {@link UnsupportedOperationException}.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+public class ReplicaServices implements Services, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicaServices.class);
+
+    private static final long RECONNECT_DELAY_MILLIS = 100;
+
+    private final InetSocketAddress leader;
+    private final Thread follower;
+
+    /**
+     * Replaced as a whole when a snapshot arrives, so that readers never see a partially loaded state.
+     */
+    private volatile Backing backing = new Backing();
+
+    private final Object progress = new Object();
+    // Guarded by progress
+    private long appliedSequence;
+    private boolean closed;
+    @Nullable
+    private Socket socket;
+
+    private final UserService userService = new ReplicaUserService();
+    private final GroupService groupService = new ReplicaGroupService();
+    private final MembershipService membershipService = new ReplicaMembershipService();
+
+    private ReplicaServices(InetSocketAddress leader) {
+        this.leader = leader;
+        follower = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                follow();
+            }
+        }, "replica-of-" + leader);
+        follower.setDaemon(true);
+    }
+
+    /**
+     * Starts following a leader.  Returns straight away; the replica is empty until it has caught up.
+     *
+     * @param leader the address of the leader's {@link ReplicationServer}
+     * @return the replica
+     */
+    public static ReplicaServices connect(InetSocketAddress leader) {
+        requireNonNull(leader, "leader");
+        final ReplicaServices replica = new ReplicaServices(leader);
+        replica.follower.start();
+        return replica;
+    }
+
+    public GroupService getGroupService() {
+        return groupService;
+    }
+
+    public UserService getUserService() {
+        return userService;
+    }
+
+    public MembershipService getMembershipService() {
+        return membershipService;
+    }
+
+    /**
+     * @return the sequence number of the last of the leader's operations that this replica has applied
+     */
+    public long getAppliedSequence() {
+        synchronized (progress) {
+            return appliedSequence;
+        }
+    }
+
+    /**
+     * Waits until this replica has applied the leader's operations up to the given sequence number.
+     *
+     * @param sequence the sequence number to wait for, such as {@link DurableServices#getLastSequence()}
+     * @param timeout  the longest time to wait
+     * @param unit     the unit of the timeout
+     * @return {@code true} if the replica has caught up, or {@code false} if the time ran out or it was closed
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean awaitSequence(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        requireNonNull(unit, "unit");
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (progress) {
+            while (appliedSequence < sequence) {
+                final long remaining = deadline - System.nanoTime();
+                if (closed || remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(progress, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Disconnects from the leader.  The replica keeps answering reads from the state it had.
+     */
+    @Override
+    public void close() throws IOException {
+        final Socket current;
+        synchronized (progress) {
+            closed = true;
+            current = socket;
+            progress.notifyAll();
+        }
+        if (current != null) {
+            current.close();
+        }
+        follower.interrupt();
+        try {
+            follower.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void follow() {
+        while (true) {
+            final Socket connection = new Socket();
+            synchronized (progress) {
+                if (closed) {
+                    return;
+                }
+                socket = connection;
+            }
+            try {
+                connection.setTcpNoDelay(true);
+                connection.connect(leader);
+                receive(connection);
+            } catch (IOException e) {
+                LOG.debug("Lost leader {}: {}", leader, e.getMessage());
+            } finally {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    LOG.debug("Could not close connection to {}", leader, e);
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void receive(Socket connection) throws IOException {
+        final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+        out.writeInt(ReplicationServer.MAGIC);
+        out.writeLong(getAppliedSequence());
+        out.flush();
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(),
+                64 * 1024));
+        while (true) {
+            final byte frame = in.readByte();
+            if (frame == ReplicationServer.SNAPSHOT) {
+                final Backing loaded = new Backing();
+                final long sequence = SnapshotFile.read(in, loaded.userService, loaded.groupService,
+                        loaded.membershipService);
+                backing = loaded;
+                advance(sequence);
+                LOG.debug("Loaded snapshot {} from {}", sequence, leader);
+            } else if (frame == ReplicationServer.OPERATIONS) {
+                final long first = in.readLong();
+                final int count = in.readInt();
+                final long expected = getAppliedSequence() + 1;
+                if (first != expected) {
+                    throw new IOException("Expected sequence " + expected + " but was " + first);
+                }
+                final Backing current = backing;
+                for (int i = 0; i < count; i++) {
+                    final Operation operation = Operation.readFrom(in);
+                    try {
+                        operation.applyTo(current);
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("Operation {} {} was rejected on replica: {}", first + i, operation, e.getMessage());
+                    }
+                }
+                advance(first + count - 1);
+            } else {
+                throw new IOException("Unknown frame " + frame);
+            }
+        }
+    }
+
+    private void advance(long sequence) {
+        synchronized (progress) {
+            appliedSequence = sequence;
+            progress.notifyAll();
+        }
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Replicas are read-only; write to the leader instead");
+    }
+
+    private final class ReplicaUserService implements UserService {
+        @Nullable
+        public User findByName(String name) {
+            return backing.userService.findByName(name);
+        }
+
+        public Page<User> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+            return backing.userService.findByNamePrefix(prefix, ignoreCase, cursor, pageSize);
+        }
+
+        public void create(User user) {
+            throw readOnly();
+        }
+
+        public void delete(User user) {
+            throw readOnly();
+        }
+    }
+
+    private final class ReplicaGroupService implements GroupService {
+        @Nullable
+        public Group findByName(String name) {
+            return backing.groupService.findByName(name);
+        }
+
+        public Page<Group> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+            return backing.groupService.findByNamePrefix(prefix, ignoreCase, cursor, pageSize);
+        }
+
+        public void create(Group group) {
+            throw readOnly();
+        }
+
+        public void delete(Group group) {
+            throw readOnly();
+        }
+    }
+
+    private final class ReplicaMembershipService implements MembershipService {
+        private MembershipService delegate() {
+            return backing.membershipService;
+        }
+
+        public void addUserToGroup(User user, Group group) {
+            throw readOnly();
+        }
+
+        public void addUsersToGroup(Collection<User> users, Group group) {
+            throw readOnly();
+        }
+
+        public void addGroupToGroup(Group child, Group parent) {
+            throw readOnly();
+        }
+
+        public void addGroupsToGroup(Collection<Group> children, Group parent) {
+            throw readOnly();
+        }
+
+        public boolean isUserInGroup(User user, Group group) {
+            return delegate().isUserInGroup(user, group);
+        }
+
+        public boolean isUserInAnyGroup(User user, Collection<Group> groups) {
+            return delegate().isUserInAnyGroup(user, groups);
+        }
+
+        public boolean isUserInAllGroups(User user, Collection<Group> groups) {
+            return delegate().isUserInAllGroups(user, groups);
+        }
+
+        public BitSet checkMany(User user, List<Group> groups) {
+            return delegate().checkMany(user, groups);
+        }
+
+        public boolean isGroupInGroup(Group child, Group parent) {
+            return delegate().isGroupInGroup(child, parent);
+        }
+
+        public Collection<User> getUsersInGroup(Group group) {
+            return delegate().getUsersInGroup(group);
+        }
+
+        public Page<User> getUsersInGroup(Group group, @Nullable String cursor, int pageSize) {
+            return delegate().getUsersInGroup(group, cursor, pageSize);
+        }
+
+        public Iterator<User> getEffectiveUsersInGroup(Group group) {
+            return delegate().getEffectiveUsersInGroup(group);
+        }
+
+        public Collection<Group> getGroupsForUser(User user) {
+            return delegate().getGroupsForUser(user);
+        }
+
+        public Collection<Group> getEffectiveGroupsForUser(User user) {
+            return delegate().getEffectiveGroupsForUser(user);
+        }
+
+        public Collection<User> getUsersMatching(MembershipQuery query) {
+            return delegate().getUsersMatching(query);
+        }
+
+        public void removeUserFromGroup(User user, Group group) {
+            throw readOnly();
+        }
+
+        public void removeUsersFromGroup(Collection<User> users, Group group) {
+            throw readOnly();
+        }
+
+        public void removeGroupFromGroup(Group child, Group parent) {
+            throw readOnly();
+        }
+
+        public void removeGroup(Group group) {
+            throw readOnly();
+        }
+
+        public void removeUser(User user) {
+            throw readOnly();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.interviews.uag.durable;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.User;
+import com.interviews.uag.memory.MemoryMembershipService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Streams the operations of a {@link DurableServices} leader to {@link ReplicaServices} followers over TCP, as
+ * started by {@link DurableServices#startReplication(InetSocketAddress)}.
+ * <p>
+ * The most recent operations are kept in a bounded in-memory backlog, but only the ones that the leader has made
+ * durable are shipped: a follower never holds an operation that a crashed leader could lose and then reuse the
+ * sequence number of.  A follower connects and sends the sequence
+ * number of the last operation it has applied; if the backlog still holds the operations after it, the follower
+ * resumes from there, and otherwise it is first sent a snapshot of the whole state and then the operations after
+ * the snapshot.  A follower that falls behind by more than the backlog while connected is brought up to date the
+ * same way.
+ * </p>
+ * <p>
+ * Each follower has a thread of its own that ships whatever operations are waiting as one batch, without waiting
+ * for the follower to acknowledge the previous ones, and only flushes the socket once it has caught up.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+public final class ReplicationServer implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationServer.class);
+
+    static final int MAGIC = 0x55414752;
+    static final byte SNAPSHOT = 1;
+    static final byte OPERATIONS = 2;
+
+    /**
+     * The most operations that are shipped as one batch.
+     */
+    private static final int MAX_BATCH = 4096;
+
+    /**
+     * Captures the state of the leader, consistently with the sequence numbers of its operations.
+     */
+    interface State {
+        /**
+         * @return the state, as of an operation that is durable by the time this returns
+         * @throws IOException if the state cannot be made durable
+         */
+        Snapshot capture() throws IOException;
+    }
+
+    /**
+     * The state of the leader as of one sequence number, ready to be written.
+     */
+    static final class Snapshot {
+        final long sequence;
+        final Collection<User> users;
+        final Collection<Group> groups;
+        final MemoryMembershipService.Relationships relationships;
+
+        Snapshot(long sequence, Collection<User> users, Collection<Group> groups,
+                 MemoryMembershipService.Relationships relationships) {
+            this.sequence = sequence;
+            this.users = users;
+            this.groups = groups;
+            this.relationships = relationships;
+        }
+    }
+
+    private final State state;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final Set<Socket> followers = new CopyOnWriteArraySet<>();
+
+    /**
+     * The recent operations, by sequence number modulo the capacity.
+     */
+    private final Operation[] backlog;
+    // Guarded by backlog
+    private long lastSequence;
+    /**
+     * The last operation that the leader has made durable; only operations up to it are shipped.
+     */
+    private long durableSequence;
+    private int size;
+    private boolean closed;
+
+    ReplicationServer(State state, InetSocketAddress address, long lastSequence, int backlogSize)
+            throws IOException {
+        this.state = state;
+        this.lastSequence = lastSequence;
+        // Followers behind this are sent a snapshot, which is made durable before it is sent
+        durableSequence = lastSequence;
+        backlog = new Operation[backlogSize];
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "replication-" + serverSocket.getLocalSocketAddress());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOG.debug("Replicating on {} from sequence {}", serverSocket.getLocalSocketAddress(), lastSequence);
+    }
+
+    /**
+     * @return the address that followers connect to, with the actual port if it was chosen automatically
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * @return the number of followers that are currently connected
+     */
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    /**
+     * Adds an operation to the backlog.  Must be called in the order of the sequence numbers, with no gaps.
+     */
+    void append(long sequence, Operation operation) {
+        synchronized (backlog) {
+            if (sequence != lastSequence + 1) {
+                throw new IllegalStateException("Expected sequence " + (lastSequence + 1) + " but was " + sequence);
+            }
+            backlog[(int) (sequence % backlog.length)] = operation;
+            lastSequence = sequence;
+            size = Math.min(size + 1, backlog.length);
+            backlog.notifyAll();
+        }
+    }
+
+    /**
+     * Allows the operations up to the given sequence number to be shipped, once the leader has made them durable.
+     */
+    void durable(long sequence) {
+        synchronized (backlog) {
+            if (sequence > durableSequence) {
+                durableSequence = sequence;
+                backlog.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting followers and disconnects the current ones.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (backlog) {
+            closed = true;
+            backlog.notifyAll();
+        }
+        serverSocket.close();
+        for (Socket follower : followers) {
+            follower.close();
+        }
+        try {
+            acceptor.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOG.warn("Stopped accepting followers on {}", serverSocket.getLocalSocketAddress(), e);
+                }
+                return;
+            }
+            followers.add(socket);
+            final Thread shipper = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ship(socket);
+                    } catch (IOException e) {
+                        LOG.debug("Follower {} disconnected: {}", socket.getRemoteSocketAddress(), e.getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        followers.remove(socket);
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            LOG.debug("Could not close {}", socket.getRemoteSocketAddress(), e);
+                        }
+                    }
+                }
+            }, "replication-" + socket.getRemoteSocketAddress());
+            shipper.setDaemon(true);
+            shipper.start();
+        }
+    }
+
+    private void ship(Socket socket) throws IOException, InterruptedException {
+        socket.setTcpNoDelay(true);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+                64 * 1024));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a follower");
+        }
+        final long applied = in.readLong();
+        LOG.debug("Follower {} has applied sequence {}", socket.getRemoteSocketAddress(), applied);
+
+        long next = applied + 1;
+        final List<Operation> batch = new ArrayList<>();
+        while (true) {
+            boolean snapshot = false;
+            boolean more;
+            synchronized (backlog) {
+                // Everything that was written has been flushed by now
+                while (!closed && next == durableSequence + 1) {
+                    backlog.wait();
+                }
+                if (closed) {
+                    return;
+                }
+                if (next > durableSequence + 1 || next <= lastSequence - size) {
+                    // The follower is ahead of the leader or too far behind for the backlog
+                    snapshot = true;
+                } else {
+                    for (long sequence = next; sequence <= durableSequence && batch.size() < MAX_BATCH;
+                         sequence++) {
+                        batch.add(backlog[(int) (sequence % backlog.length)]);
+                    }
+                }
+                more = next + batch.size() <= durableSequence;
+            }
+
+            if (snapshot) {
+                final Snapshot captured = state.capture();
+                out.writeByte(SNAPSHOT);
+                SnapshotFile.write(out, captured.sequence, captured.users, captured.groups,
+                        captured.relationships);
+                out.flush();
+                LOG.debug("Sent snapshot {} to {}", captured.sequence, socket.getRemoteSocketAddress());
+                next = captured.sequence + 1;
+                continue;
+            }
+            out.writeByte(OPERATIONS);
+            out.writeLong(next);
+            out.writeInt(batch.size());
+            for (Operation operation : batch) {
+                operation.writeTo(out);
+            }
+            next += batch.size();
+            batch.clear();
+            if (!more) {
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.interviews.uag.durable;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.User;
+import com.interviews.uag.memory.MemoryGroupService;
+import com.interviews.uag.memory.MemoryMembershipService;
+import com.interviews.uag.memory.MemoryUserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes compacted snapshots: every user, every group and every direct relationship as of one sequence
+ * number of the {@link OperationLog}.
+ * <p>
+ * A snapshot is written to a temporary file and then renamed, so a crash never leaves a partial snapshot behind.
+ * The content ends with a CRC-32 checksum that is verified on load.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+final class SnapshotFile {
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotFile.class);
+
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final int MAGIC = 0x55414753;
+    private static final int FORMAT = 1;
+
+    /**
+     * The number of relationships to collect before handing them to the membership service on load.
+     */
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Writes a snapshot to the directory and then deletes the older ones.
+     */
+    static void write(Path directory, long sequence, Collection<User> users, Collection<Group> groups,
+                      MemoryMembershipService.Relationships relationships) throws IOException {
+        final Path file = path(directory, sequence);
+        final Path temporary = directory.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel),
+                    64 * 1024);
+            write(out, sequence, users, groups, relationships);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (long older : list(directory)) {
+            if (older < sequence) {
+                Files.deleteIfExists(path(directory, older));
+            }
+        }
+        LOG.debug("Wrote snapshot {}", file);
+    }
+
+    static void write(OutputStream stream, long sequence, Collection<User> users, Collection<Group> groups,
+                      MemoryMembershipService.Relationships relationships) throws IOException {
+        final CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+        final DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeLong(sequence);
+
+        out.writeInt(users.size());
+        for (User user : users) {
+            Operation.writeString(out, user.getName());
+        }
+        out.writeInt(groups.size());
+        for (Group group : groups) {
+            Operation.writeString(out, group.getName());
+        }
+
+        try {
+            relationships.forEach(new MemoryMembershipService.RelationshipVisitor() {
+                @Override
+                public void visit(Group group, Set<Group> children, Set<User> members) {
+                    try {
+                        out.writeBoolean(true);
+                        Operation.writeString(out, group.getName());
+                        out.writeInt(children.size());
+                        for (Group child : children) {
+                            Operation.writeString(out, child.getName());
+                        }
+                        out.writeInt(members.size());
+                        for (User user : members) {
+                            Operation.writeString(out, user.getName());
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeBoolean(false);
+        out.flush();
+        out.writeLong(checked.getChecksum().getValue());
+        out.flush();
+    }
+
+    /**
+     * Loads the latest snapshot in the directory, if there is one, into the given services.
+     *
+     * @return the sequence number that the snapshot covers, or {@code 0} if there is none
+     */
+    static long load(Path directory, MemoryUserService userService, MemoryGroupService groupService,
+                     MemoryMembershipService membershipService) throws IOException {
+        final List<Long> snapshots = list(directory);
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        final Path file = path(directory, snapshots.get(snapshots.size() - 1));
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            final long sequence = read(in, userService, groupService, membershipService);
+            LOG.debug("Loaded snapshot {}", file);
+            return sequence;
+        } catch (IOException e) {
+            throw new IOException("Cannot load snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    static long read(InputStream stream, MemoryUserService userService, MemoryGroupService groupService,
+                     MemoryMembershipService membershipService) throws IOException {
+        final CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+        final DataInputStream in = new DataInputStream(checked);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a snapshot");
+        }
+        final int format = in.readInt();
+        if (format != FORMAT) {
+            throw new IOException("Unsupported snapshot format " + format);
+        }
+        final long sequence = in.readLong();
+
+        final int userCount = in.readInt();
+        final List<User> users = new ArrayList<>(Math.min(userCount, BATCH_SIZE));
+        for (int i = 0; i < userCount; i++) {
+            users.add(new User(Operation.readString(in)));
+            if (users.size() == BATCH_SIZE) {
+                userService.importUsers(users);
+                users.clear();
+            }
+        }
+        userService.importUsers(users);
+
+        final int groupCount = in.readInt();
+        final List<Group> groups = new ArrayList<>(Math.min(groupCount, BATCH_SIZE));
+        for (int i = 0; i < groupCount; i++) {
+            groups.add(new Group(Operation.readString(in)));
+            if (groups.size() == BATCH_SIZE) {
+                groupService.importGroups(groups);
+                groups.clear();
+            }
+        }
+        groupService.importGroups(groups);
+
+        Map<Group, List<Group>> childrenByParent = new HashMap<>();
+        Map<Group, List<User>> usersByGroup = new HashMap<>();
+        int batched = 0;
+        while (in.readBoolean()) {
+            final Group group = new Group(Operation.readString(in));
+            final int childCount = in.readInt();
+            if (childCount > 0) {
+                final List<Group> children = new ArrayList<>(childCount);
+                for (int i = 0; i < childCount; i++) {
+                    children.add(new Group(Operation.readString(in)));
+                }
+                childrenByParent.put(group, children);
+            }
+            final int memberCount = in.readInt();
+            if (memberCount > 0) {
+                final List<User> members = new ArrayList<>(memberCount);
+                for (int i = 0; i < memberCount; i++) {
+                    members.add(new User(Operation.readString(in)));
+                }
+                usersByGroup.put(group, members);
+            }
+            batched += childCount + memberCount;
+            if (batched >= BATCH_SIZE) {
+                membershipService.importMemberships(childrenByParent, usersByGroup);
+                childrenByParent = new HashMap<>();
+                usersByGroup = new HashMap<>();
+                batched = 0;
+            }
+        }
+        membershipService.importMemberships(childrenByParent, usersByGroup);
+
+        final long expected = checked.getChecksum().getValue();
+        if (in.readLong() != expected) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        return sequence;
+    }
+
+    private static Path path(Path directory, long sequence) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+    }
+
+    /**
+     * Returns the sequence numbers of the complete snapshots in the directory, in ascending order.
+     */
+    private static List<Long> list(Path directory) throws IOException {
+        final List<Long> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    snapshots.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unexpected file {}", file);
+                }
+            }
+        }
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+}
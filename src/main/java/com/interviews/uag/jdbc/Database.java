@@ -0,0 +1,352 @@
+package com.interviews.uag.jdbc;
+
+import com.interviews.uag.api.Page;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The connections to one database, and the schema of the tables in it.
+ * <p>
+ * Connections are pooled, so that concurrent reads each run on a connection of their own.  Writes are serialized
+ * by {@link #write(Work)} and each runs in one transaction, which keeps checks such as the cycle check consistent
+ * with the change that follows them.
+ * </p>
+ * <p>
+ * Users and groups are stored by name with a generated integer id, and the memberships refer to the ids.  Each
+ * kind of membership has its primary key in one direction and an index in the other, so that both "members of"
+ * and "member of" are index range scans.  Deleting a user or a group deletes its memberships through the foreign
+ * keys.  The names are also stored case-folded, with an index, so that prefix searches of either kind are range
+ * scans too.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+final class Database implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Database.class);
+
+    /**
+     * The SQL state of a unique constraint violation.
+     */
+    static final String DUPLICATE_KEY = "23505";
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS uag_user ("
+                    + " id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                    + " name VARCHAR(1024) NOT NULL UNIQUE,"
+                    + " folded_name VARCHAR(1024) NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS uag_user_by_folded_name ON uag_user (folded_name, name)",
+            "CREATE TABLE IF NOT EXISTS uag_group ("
+                    + " id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                    + " name VARCHAR(1024) NOT NULL UNIQUE,"
+                    + " folded_name VARCHAR(1024) NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS uag_group_by_folded_name ON uag_group (folded_name, name)",
+            "CREATE TABLE IF NOT EXISTS uag_user_group ("
+                    + " group_id INT NOT NULL REFERENCES uag_group (id) ON DELETE CASCADE,"
+                    + " user_id INT NOT NULL REFERENCES uag_user (id) ON DELETE CASCADE,"
+                    + " PRIMARY KEY (group_id, user_id))",
+            "CREATE INDEX IF NOT EXISTS uag_user_group_by_user ON uag_user_group (user_id, group_id)",
+            "CREATE TABLE IF NOT EXISTS uag_group_group ("
+                    + " parent_id INT NOT NULL REFERENCES uag_group (id) ON DELETE CASCADE,"
+                    + " child_id INT NOT NULL REFERENCES uag_group (id) ON DELETE CASCADE,"
+                    + " PRIMARY KEY (parent_id, child_id))",
+            "CREATE INDEX IF NOT EXISTS uag_group_group_by_child ON uag_group_group (child_id, parent_id)",
+    };
+
+    private final String url;
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+    /**
+     * Held for the whole life of the database, so that an in-memory database is not dropped while the pool is
+     * empty.
+     */
+    private final Connection keepAlive;
+    private final Object writeLock = new Object();
+    private volatile boolean closed;
+
+    Database(String url) throws SQLException {
+        this.url = url;
+        keepAlive = DriverManager.getConnection(url);
+        try (Statement statement = keepAlive.createStatement()) {
+            for (String sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        }
+        LOG.debug("Opened {}", url);
+    }
+
+    /**
+     * A unit of work on one connection.
+     *
+     * @param <T> the type of the result
+     */
+    interface Work<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Runs a read on a pooled connection, in auto-commit mode.
+     */
+    <T> T read(Work<T> work) {
+        final Connection connection = borrow();
+        try {
+            return work.run(connection);
+        } catch (SQLException e) {
+            throw new JdbcException("Read failed: " + e.getMessage(), e);
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * Runs a write as one transaction, while no other write is running.  If the work throws, the transaction is
+     * rolled back.
+     */
+    <T> T write(Work<T> work) {
+        synchronized (writeLock) {
+            final Connection connection = borrow();
+            try {
+                connection.setAutoCommit(false);
+                final T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException e) {
+                rollback(connection);
+                throw new JdbcException("Write failed: " + e.getMessage(), e);
+            } catch (RuntimeException e) {
+                rollback(connection);
+                throw e;
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                    LOG.warn("Could not reset a connection to {}", url, e);
+                }
+                release(connection);
+            }
+        }
+    }
+
+    /**
+     * Closes every connection.  Reads and writes that are running finish first; later ones fail.
+     */
+    @Override
+    public void close() throws SQLException {
+        closed = true;
+        synchronized (writeLock) {
+            for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+                connection.close();
+            }
+            keepAlive.close();
+        }
+        LOG.debug("Closed {}", url);
+    }
+
+    /**
+     * Looks up the ids of the given names in one query.
+     *
+     * @param table the table to look in, which is either {@code uag_user} or {@code uag_group}
+     * @param names the names to look up
+     * @return the id of each name that exists
+     */
+    static Map<String, Integer> idsOf(Connection connection, String table, Collection<String> names)
+            throws SQLException {
+        final Map<String, Integer> ids = new HashMap<>();
+        if (names.isEmpty()) {
+            return ids;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT name, id FROM " + table + " WHERE name = ANY(?)")) {
+            statement.setArray(1, connection.createArrayOf("VARCHAR", names.toArray()));
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    ids.put(results.getString(1), results.getInt(2));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Folds a name for case-insensitive searches, the same way as the memory-based services.
+     */
+    static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Finds one page of the names that start with a prefix, as one range scan of the name index or of the folded
+     * name index.
+     *
+     * @param table the table to look in, which is either {@code uag_user} or {@code uag_group}
+     * @param cursor the cursor of the previous page, which is the last name on it, or {@code null}
+     * @return the page of names
+     */
+    static Page<String> namesWithPrefix(Connection connection, String table, String prefix, boolean ignoreCase,
+                                        @Nullable String cursor, int pageSize) throws SQLException {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        final String start = ignoreCase ? fold(prefix) : prefix;
+        if (cursor != null && !(ignoreCase ? fold(cursor) : cursor).startsWith(start)) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        final String end = successor(start);
+        final String column = ignoreCase ? "folded_name" : "name";
+
+        final List<Object> parameters = new ArrayList<>();
+        final StringBuilder sql = new StringBuilder("SELECT name FROM ").append(table)
+                .append(" WHERE ").append(column).append(" >= ?");
+        parameters.add(start);
+        if (end != null) {
+            sql.append(" AND ").append(column).append(" < ?");
+            parameters.add(end);
+        }
+        if (cursor != null && ignoreCase) {
+            sql.append(" AND (folded_name > ? OR folded_name = ? AND name > ?)");
+            parameters.add(fold(cursor));
+            parameters.add(fold(cursor));
+            parameters.add(cursor);
+        } else if (cursor != null) {
+            sql.append(" AND name > ?");
+            parameters.add(cursor);
+        }
+        sql.append(ignoreCase ? " ORDER BY folded_name, name" : " ORDER BY name").append(" LIMIT ?");
+        // One more than asked for, to tell whether this is the last page
+        parameters.add(pageSize + 1L);
+
+        final List<String> names = new ArrayList<>(Math.min(pageSize + 1, 1024));
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    names.add(results.getString(1));
+                }
+            }
+        }
+        if (names.size() <= pageSize) {
+            return new Page<>(names, null);
+        }
+        names.remove(pageSize);
+        return new Page<>(names, names.get(pageSize - 1));
+    }
+
+    /**
+     * @return the least string that is greater than every string starting with the prefix, or {@code null} if
+     * there is none
+     */
+    @Nullable
+    private static String successor(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    /**
+     * Looks up the id of one name.
+     *
+     * @return the id, or {@code -1} if the name does not exist
+     */
+    static int idOf(Connection connection, String table, String name) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT id FROM " + table + " WHERE name = ?")) {
+            statement.setString(1, name);
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next() ? results.getInt(1) : -1;
+            }
+        }
+    }
+
+    /**
+     * Runs a statement with the given parameters, and returns whether it found a row.
+     */
+    static boolean exists(Connection connection, String sql, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next();
+            }
+        }
+    }
+
+    /**
+     * Runs one statement for each set of parameters, as a single batch.
+     *
+     * @return the total number of rows changed
+     */
+    static int batch(Connection connection, String sql, Collection<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Object[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    statement.setObject(i + 1, row[i]);
+                }
+                statement.addBatch();
+            }
+            int changed = 0;
+            for (int count : statement.executeBatch()) {
+                changed += Math.max(count, 0);
+            }
+            LOG.debug("Batch of {} changed {} rows: {}", rows.size(), changed, sql);
+            return changed;
+        }
+    }
+
+    private Connection borrow() {
+        if (closed) {
+            throw new IllegalStateException("The database has been closed");
+        }
+        final Connection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
+        try {
+            return DriverManager.getConnection(url);
+        } catch (SQLException e) {
+            throw new JdbcException("Could not connect to " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void release(Connection connection) {
+        idle.offer(connection);
+        if (closed && idle.remove(connection)) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Could not close a connection to {}", url, e);
+            }
+        }
+    }
+
+    private void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            LOG.warn("Could not roll back a transaction on {}", url, e);
+        }
+    }
+}
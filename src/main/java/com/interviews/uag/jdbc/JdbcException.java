@@ -0,0 +1,20 @@
+package com.interviews.uag.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown by the JDBC-backed services when the database fails, since the service interfaces do not declare
+ * {@link SQLException}.
+ */
+public class JdbcException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public JdbcException(String message, SQLException cause) {
+        super(message, cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
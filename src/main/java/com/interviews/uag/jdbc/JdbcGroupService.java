@@ -0,0 +1,103 @@
+package com.interviews.uag.jdbc;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.Page;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An implementation of the group service that stores the groups in a database.
+ * It is safe for concurrent use by multiple threads.
+ */
+@ParametersAreNonnullByDefault
+final class JdbcGroupService implements GroupService {
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcGroupService.class);
+
+    private final Database database;
+
+    JdbcGroupService(Database database) {
+        this.database = database;
+    }
+
+    @Override
+    public Group findByName(final String name) {
+        requireNonNull(name, "name");
+        return database.read(new Database.Work<Group>() {
+            @Override
+            public Group run(Connection connection) throws SQLException {
+                return Database.idOf(connection, "uag_group", name) >= 0 ? new Group(name) : null;
+            }
+        });
+    }
+
+    @Override
+    public Page<Group> findByNamePrefix(final String prefix, final boolean ignoreCase, @Nullable final String cursor,
+                                    final int pageSize) {
+        requireNonNull(prefix, "prefix");
+        final Page<String> names = database.read(new Database.Work<Page<String>>() {
+            @Override
+            public Page<String> run(Connection connection) throws SQLException {
+                return Database.namesWithPrefix(connection, "uag_group", prefix, ignoreCase, cursor, pageSize);
+            }
+        });
+        final List<Group> groups = new ArrayList<>(names.getItems().size());
+        for (String name : names.getItems()) {
+            groups.add(new Group(name));
+        }
+        return new Page<>(groups, names.getNextCursor());
+    }
+
+    @Override
+    public void create(final Group group) {
+        requireNonNull(group, "group");
+        database.write(new Database.Work<Void>() {
+            @Override
+            public Void run(Connection connection) throws SQLException {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO uag_group (name, folded_name) VALUES (?, ?)")) {
+                    statement.setString(1, group.getName());
+                    statement.setString(2, Database.fold(group.getName()));
+                    statement.executeUpdate();
+                } catch (SQLException e) {
+                    if (Database.DUPLICATE_KEY.equals(e.getSQLState())) {
+                        throw new IllegalArgumentException("Group " + group.getName() + " already exists");
+                    }
+                    throw e;
+                }
+                return null;
+            }
+        });
+        LOG.debug("Created group: {}", group.getName());
+    }
+
+    /**
+     * Deletes the given group, together with its members and its nested group memberships.
+     */
+    @Override
+    public void delete(final Group group) {
+        requireNonNull(group, "group");
+        database.write(new Database.Work<Void>() {
+            @Override
+            public Void run(Connection connection) throws SQLException {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "DELETE FROM uag_group WHERE name = ?")) {
+                    statement.setString(1, group.getName());
+                    statement.executeUpdate();
+                }
+                return null;
+            }
+        });
+        LOG.debug("Deleted group: {}", group.getName());
+    }
+}
@@ -0,0 +1,589 @@
+package com.interviews.uag.jdbc;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.MembershipQuery;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An implementation of the membership service that stores the memberships in a database.
+ * It is safe for concurrent use by multiple threads.
+ * <p>
+ * Nested memberships are resolved by the database with one recursive query per call, however deep the hierarchy
+ * is: {@link #isUserInGroup} and {@link #isGroupInGroup} walk up from the user's groups or the child group through
+ * the index on child groups, and the effective members of a group are found by walking down through the primary
+ * key.  Bulk changes are sent as one batch of prepared statements in a single transaction.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+final class JdbcMembershipService implements MembershipService {
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcMembershipService.class);
+
+    /**
+     * The number of users fetched at a time by {@link #getEffectiveUsersInGroup(Group)}.
+     */
+    private static final int FETCH_SIZE = 1024;
+
+    /**
+     * Every group that the user belongs to, directly or through nesting.
+     */
+    private static final String GROUPS_OF_USER = "WITH RECURSIVE member_of (id) AS ("
+            + " SELECT ug.group_id FROM uag_user_group ug JOIN uag_user u ON u.id = ug.user_id WHERE u.name = ?"
+            + " UNION"
+            + " SELECT gg.parent_id FROM uag_group_group gg JOIN member_of m ON gg.child_id = m.id) ";
+
+    /**
+     * Every group that the child is nested beneath, not including the child itself.
+     */
+    private static final String GROUPS_ABOVE_GROUP = "WITH RECURSIVE above (id) AS ("
+            + " SELECT gg.parent_id FROM uag_group_group gg JOIN uag_group c ON c.id = gg.child_id WHERE c.name = ?"
+            + " UNION"
+            + " SELECT gg.parent_id FROM uag_group_group gg JOIN above a ON gg.child_id = a.id) ";
+
+    /**
+     * The group, and every group nested beneath it.
+     */
+    private static final String GROUPS_BELOW_GROUP = "WITH RECURSIVE below (id) AS ("
+            + " SELECT id FROM uag_group WHERE name = ?"
+            + " UNION"
+            + " SELECT gg.child_id FROM uag_group_group gg JOIN below b ON gg.parent_id = b.id) ";
+
+    private static final String IS_USER_IN_GROUP = GROUPS_OF_USER
+            + "SELECT 1 FROM member_of m JOIN uag_group g ON g.id = m.id WHERE g.name = ?";
+    private static final String USER_IN_GROUPS = GROUPS_OF_USER
+            + "SELECT g.name FROM member_of m JOIN uag_group g ON g.id = m.id WHERE g.name = ANY(?)";
+    private static final String IS_GROUP_IN_GROUP = GROUPS_ABOVE_GROUP
+            + "SELECT 1 FROM above a JOIN uag_group p ON p.id = a.id WHERE p.name = ?";
+    private static final String EFFECTIVE_GROUPS_FOR_USER = GROUPS_OF_USER
+            + "SELECT g.name FROM member_of m JOIN uag_group g ON g.id = m.id ORDER BY g.id";
+    private static final String EFFECTIVE_USERS_IN_GROUP = GROUPS_BELOW_GROUP
+            + "SELECT DISTINCT u.id, u.name FROM below b"
+            + " JOIN uag_user_group ug ON ug.group_id = b.id JOIN uag_user u ON u.id = ug.user_id"
+            + " WHERE u.id >= ? ORDER BY u.id FETCH FIRST ? ROWS ONLY";
+    private static final String USERS_IN_GROUP = "SELECT u.id, u.name FROM uag_group g"
+            + " JOIN uag_user_group ug ON ug.group_id = g.id JOIN uag_user u ON u.id = ug.user_id"
+            + " WHERE g.name = ? AND ug.user_id >= ? ORDER BY ug.user_id FETCH FIRST ? ROWS ONLY";
+    private static final String GROUPS_FOR_USER = "SELECT g.name FROM uag_user u"
+            + " JOIN uag_user_group ug ON ug.user_id = u.id JOIN uag_group g ON g.id = ug.group_id"
+            + " WHERE u.name = ? ORDER BY ug.group_id";
+
+    /**
+     * Finds which of the given groups the parent is nested beneath, or is.
+     */
+    private static final String CYCLES = "WITH RECURSIVE above (id) AS ("
+            + " SELECT CAST(? AS INT)"
+            + " UNION"
+            + " SELECT gg.parent_id FROM uag_group_group gg JOIN above a ON gg.child_id = a.id) "
+            + "SELECT g.name FROM above a JOIN uag_group g ON g.id = a.id WHERE a.id = ANY(?)";
+
+    private static final String INSERT_USER_GROUP = "INSERT INTO uag_user_group (group_id, user_id)"
+            + " SELECT ?, ? WHERE NOT EXISTS"
+            + " (SELECT 1 FROM uag_user_group WHERE group_id = ? AND user_id = ?)";
+    private static final String INSERT_GROUP_GROUP = "INSERT INTO uag_group_group (parent_id, child_id)"
+            + " SELECT ?, ? WHERE NOT EXISTS"
+            + " (SELECT 1 FROM uag_group_group WHERE parent_id = ? AND child_id = ?)";
+    private static final String DELETE_USER_GROUP = "DELETE FROM uag_user_group"
+            + " WHERE group_id = (SELECT id FROM uag_group WHERE name = ?)"
+            + " AND user_id = (SELECT id FROM uag_user WHERE name = ?)";
+    private static final String DELETE_GROUP_GROUP = "DELETE FROM uag_group_group"
+            + " WHERE parent_id = (SELECT id FROM uag_group WHERE name = ?)"
+            + " AND child_id = (SELECT id FROM uag_group WHERE name = ?)";
+    private static final String DELETE_MEMBERS = "DELETE FROM uag_user_group"
+            + " WHERE group_id = (SELECT id FROM uag_group WHERE name = ?)";
+    private static final String DELETE_NESTING = "DELETE FROM uag_group_group"
+            + " WHERE parent_id = (SELECT id FROM uag_group WHERE name = ?)"
+            + " OR child_id = (SELECT id FROM uag_group WHERE name = ?)";
+    private static final String DELETE_MEMBERSHIPS = "DELETE FROM uag_user_group"
+            + " WHERE user_id = (SELECT id FROM uag_user WHERE name = ?)";
+
+    private final Database database;
+
+    JdbcMembershipService(Database database) {
+        this.database = database;
+    }
+
+    @Override
+    public void addUserToGroup(User user, Group group) {
+        requireNonNull(user, "user");
+        addUsersToGroup(Collections.singleton(user), group);
+    }
+
+    @Override
+    public void addUsersToGroup(Collection<User> users, final Group group) {
+        requireNonNull(users, "users");
+        requireNonNull(group, "group");
+        final Set<User> distinct = new LinkedHashSet<>(users);
+        final List<String> names = new ArrayList<>(distinct.size());
+        for (User user : distinct) {
+            names.add(requireNonNull(user, "user").getName());
+        }
+
+        final int added = database.write(new Database.Work<Integer>() {
+            @Override
+            public Integer run(Connection connection) throws SQLException {
+                final int groupId = requireGroup(connection, group);
+                final Map<String, Integer> ids = Database.idsOf(connection, "uag_user", names);
+                final List<Object[]> rows = new ArrayList<>(names.size());
+                for (String name : names) {
+                    final Integer userId = ids.get(name);
+                    if (userId == null) {
+                        throw new IllegalArgumentException("User '" + name + "' does not exist!");
+                    }
+                    rows.add(new Object[]{groupId, userId, groupId, userId});
+                }
+                return Database.batch(connection, INSERT_USER_GROUP, rows);
+            }
+        });
+        LOG.debug("Added {} users to group {}", added, group);
+    }
+
+    @Override
+    public void addGroupToGroup(Group child, Group parent) {
+        requireNonNull(child, "child");
+        addGroupsToGroup(Collections.singleton(child), parent);
+    }
+
+    @Override
+    public void addGroupsToGroup(Collection<Group> children, final Group parent) {
+        requireNonNull(children, "children");
+        requireNonNull(parent, "parent");
+        final Set<Group> distinct = new LinkedHashSet<>(children);
+        final List<String> names = new ArrayList<>(distinct.size());
+        for (Group child : distinct) {
+            names.add(requireNonNull(child, "child").getName());
+        }
+
+        final int added = database.write(new Database.Work<Integer>() {
+            @Override
+            public Integer run(Connection connection) throws SQLException {
+                final int parentId = requireGroup(connection, parent);
+                final Map<String, Integer> ids = Database.idsOf(connection, "uag_group", names);
+                final List<Object[]> rows = new ArrayList<>(names.size());
+                for (String name : names) {
+                    final Integer childId = ids.get(name);
+                    if (childId == null) {
+                        throw new IllegalArgumentException("Group '" + name + "' does not exist!");
+                    }
+                    rows.add(new Object[]{parentId, childId, parentId, childId});
+                }
+                final String cycle = findCycle(connection, parentId, ids.values());
+                if (cycle != null) {
+                    throw new IllegalArgumentException("Adding group " + cycle + " to group " + parent
+                            + " would create a cycle");
+                }
+                return Database.batch(connection, INSERT_GROUP_GROUP, rows);
+            }
+        });
+        LOG.debug("Added {} child groups to parent group {}", added, parent);
+    }
+
+    @Override
+    public boolean isUserInGroup(final User user, final Group group) {
+        requireNonNull(user, "user");
+        requireNonNull(group, "group");
+        return database.read(new Database.Work<Boolean>() {
+            @Override
+            public Boolean run(Connection connection) throws SQLException {
+                return Database.exists(connection, IS_USER_IN_GROUP, user.getName(), group.getName());
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The user's groups are expanded by one recursive query for the whole batch, which stops at the first match.
+     * </p>
+     */
+    @Override
+    public boolean isUserInAnyGroup(User user, Collection<Group> groups) {
+        requireNonNull(user, "user");
+        return !groupsOfUserAmong(user, groupNames(groups), true).isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The user's groups are expanded by one recursive query for the whole batch.
+     * </p>
+     */
+    @Override
+    public boolean isUserInAllGroups(User user, Collection<Group> groups) {
+        requireNonNull(user, "user");
+        final Set<String> names = groupNames(groups);
+        return groupsOfUserAmong(user, names, false).size() == names.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The user's groups are expanded by one recursive query for the whole batch.
+     * </p>
+     */
+    @Override
+    public BitSet checkMany(User user, List<Group> groups) {
+        requireNonNull(user, "user");
+        final Set<String> found = groupsOfUserAmong(user, groupNames(groups), false);
+        final BitSet result = new BitSet(groups.size());
+        int index = 0;
+        for (Group group : groups) {
+            if (found.contains(group.getName())) {
+                result.set(index);
+            }
+            index++;
+        }
+        return result;
+    }
+
+    /**
+     * @return the names of the given groups that the user belongs to, directly or by inheritance, or just one of
+     * them if {@code first} is set
+     */
+    private Set<String> groupsOfUserAmong(final User user, final Set<String> names, final boolean first) {
+        if (names.isEmpty()) {
+            return names;
+        }
+        return database.read(new Database.Work<Set<String>>() {
+            @Override
+            public Set<String> run(Connection connection) throws SQLException {
+                final Set<String> found = new HashSet<>();
+                try (PreparedStatement statement = connection.prepareStatement(
+                        first ? USER_IN_GROUPS + " FETCH FIRST 1 ROWS ONLY" : USER_IN_GROUPS)) {
+                    statement.setString(1, user.getName());
+                    statement.setArray(2, connection.createArrayOf("VARCHAR", names.toArray()));
+                    try (ResultSet results = statement.executeQuery()) {
+                        while (results.next()) {
+                            found.add(results.getString(1));
+                        }
+                    }
+                }
+                return found;
+            }
+        });
+    }
+
+    private static Set<String> groupNames(Collection<Group> groups) {
+        requireNonNull(groups, "groups");
+        final Set<String> names = new HashSet<>();
+        for (Group group : groups) {
+            names.add(requireNonNull(group, "group").getName());
+        }
+        return names;
+    }
+
+    @Override
+    public boolean isGroupInGroup(final Group child, final Group parent) {
+        requireNonNull(child, "child");
+        requireNonNull(parent, "parent");
+        return database.read(new Database.Work<Boolean>() {
+            @Override
+            public Boolean run(Connection connection) throws SQLException {
+                return Database.exists(connection, IS_GROUP_IN_GROUP, child.getName(), parent.getName());
+            }
+        });
+    }
+
+    @Override
+    public Collection<User> getUsersInGroup(final Group group) {
+        requireNonNull(group, "group");
+        final List<User> users = new ArrayList<>();
+        database.read(new Database.Work<Integer>() {
+            @Override
+            public Integer run(Connection connection) throws SQLException {
+                return fetchUsers(connection, USERS_IN_GROUP, group, 0, Integer.MAX_VALUE, users);
+            }
+        });
+        LOG.debug("Current users in group {}: {}", group, users.size());
+        return Collections.unmodifiableSet(new LinkedHashSet<>(users));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The users are ordered by their ids in the database, and the cursor encodes the id to resume from, so each
+     * page is one range scan of the primary key.
+     * </p>
+     */
+    @Override
+    public Page<User> getUsersInGroup(final Group group, @Nullable String cursor, final int pageSize) {
+        requireNonNull(group, "group");
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        final int from = cursor != null ? parseCursor(cursor) : 0;
+
+        final List<User> users = new ArrayList<>(Math.min(pageSize, 1024));
+        final int last = database.read(new Database.Work<Integer>() {
+            @Override
+            public Integer run(Connection connection) throws SQLException {
+                // One more than asked for, to tell whether this is the last page
+                return fetchUsers(connection, USERS_IN_GROUP, group, from, pageSize + 1L, users);
+            }
+        });
+        if (users.size() <= pageSize) {
+            return new Page<>(users, null);
+        }
+        // The next page starts at the extra user, which is the last one fetched
+        users.remove(pageSize);
+        return new Page<>(users, Integer.toString(last - 1, Character.MAX_RADIX));
+    }
+
+    private static int parseCursor(String cursor) {
+        try {
+            final int from = Integer.parseInt(cursor, Character.MAX_RADIX);
+            if (from >= 0) {
+                return from;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The users are fetched a block at a time in the order of their ids, each block with one recursive query, so
+     * no connection is held between calls to the iterator.  Changes made while iterating may or may not be seen.
+     * </p>
+     */
+    @Override
+    public Iterator<User> getEffectiveUsersInGroup(Group group) {
+        requireNonNull(group, "group");
+        return new EffectiveUserIterator(group);
+    }
+
+    @Override
+    public Collection<Group> getGroupsForUser(User user) {
+        requireNonNull(user, "user");
+        return fetchGroups(GROUPS_FOR_USER, user);
+    }
+
+    @Override
+    public Collection<Group> getEffectiveGroupsForUser(User user) {
+        requireNonNull(user, "user");
+        return fetchGroups(EFFECTIVE_GROUPS_FOR_USER, user);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each group in the query is read with a query of its own, and the results are combined in memory.
+     * </p>
+     */
+    @Override
+    public Collection<User> getUsersMatching(MembershipQuery query) {
+        requireNonNull(query, "query");
+        final Set<User> users = query.accept(new MembershipQuery.Visitor<Set<User>>() {
+            @Override
+            public Set<User> members(Group group, boolean effective) {
+                if (!effective) {
+                    return new LinkedHashSet<>(getUsersInGroup(group));
+                }
+                final Set<User> members = new LinkedHashSet<>();
+                for (Iterator<User> iterator = getEffectiveUsersInGroup(group); iterator.hasNext(); ) {
+                    members.add(iterator.next());
+                }
+                return members;
+            }
+
+            @Override
+            public Set<User> and(Set<User> left, Set<User> right) {
+                left.retainAll(right);
+                return left;
+            }
+
+            @Override
+            public Set<User> or(Set<User> left, Set<User> right) {
+                left.addAll(right);
+                return left;
+            }
+
+            @Override
+            public Set<User> andNot(Set<User> left, Set<User> right) {
+                left.removeAll(right);
+                return left;
+            }
+        });
+        return Collections.unmodifiableSet(users);
+    }
+
+    @Override
+    public void removeUserFromGroup(User user, Group group) {
+        requireNonNull(user, "user");
+        removeUsersFromGroup(Collections.singleton(user), group);
+    }
+
+    @Override
+    public void removeUsersFromGroup(Collection<User> users, Group group) {
+        requireNonNull(users, "users");
+        requireNonNull(group, "group");
+        final List<Object[]> rows = new ArrayList<>(users.size());
+        for (User user : new LinkedHashSet<>(users)) {
+            rows.add(new Object[]{group.getName(), requireNonNull(user, "user").getName()});
+        }
+        final int removed = update(DELETE_USER_GROUP, rows);
+        LOG.debug("Removed {} users from group {}", removed, group);
+    }
+
+    @Override
+    public void removeGroupFromGroup(Group child, Group parent) {
+        requireNonNull(child, "child");
+        requireNonNull(parent, "parent");
+        update(DELETE_GROUP_GROUP, Collections.singletonList(new Object[]{parent.getName(), child.getName()}));
+    }
+
+    @Override
+    public void removeGroup(final Group group) {
+        requireNonNull(group, "group");
+        database.write(new Database.Work<Void>() {
+            @Override
+            public Void run(Connection connection) throws SQLException {
+                Database.batch(connection, DELETE_MEMBERS,
+                        Collections.singletonList(new Object[]{group.getName()}));
+                Database.batch(connection, DELETE_NESTING,
+                        Collections.singletonList(new Object[]{group.getName(), group.getName()}));
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void removeUser(User user) {
+        requireNonNull(user, "user");
+        update(DELETE_MEMBERSHIPS, Collections.singletonList(new Object[]{user.getName()}));
+        LOG.debug("Removed all memberships of user {}", user);
+    }
+
+    private int update(final String sql, final List<Object[]> rows) {
+        return database.write(new Database.Work<Integer>() {
+            @Override
+            public Integer run(Connection connection) throws SQLException {
+                return Database.batch(connection, sql, rows);
+            }
+        });
+    }
+
+    private static int requireGroup(Connection connection, Group group) throws SQLException {
+        final int id = Database.idOf(connection, "uag_group", group.getName());
+        if (id < 0) {
+            throw new IllegalArgumentException("Group '" + group + "' does not exist!");
+        }
+        return id;
+    }
+
+    /**
+     * @return the name of one of the children that the parent is nested beneath or is, or {@code null} if there
+     * are none
+     */
+    @Nullable
+    private static String findCycle(Connection connection, int parentId, Collection<Integer> childIds)
+            throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(CYCLES)) {
+            statement.setInt(1, parentId);
+            statement.setArray(2, connection.createArrayOf("INTEGER", childIds.toArray()));
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next() ? results.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Runs a query for the users of a group, starting from the given user id.
+     *
+     * @return one more than the id of the last user that was fetched, or {@code from} if there were none
+     */
+    private static int fetchUsers(Connection connection, String sql, Group group, int from, long limit,
+                                  List<User> users) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, group.getName());
+            statement.setInt(2, from);
+            statement.setLong(3, limit);
+            int next = from;
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    next = results.getInt(1) + 1;
+                    users.add(new User(results.getString(2)));
+                }
+            }
+            return next;
+        }
+    }
+
+    private Collection<Group> fetchGroups(final String sql, final User user) {
+        return database.read(new Database.Work<Collection<Group>>() {
+            @Override
+            public Collection<Group> run(Connection connection) throws SQLException {
+                final Set<Group> groups = new LinkedHashSet<>();
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    statement.setString(1, user.getName());
+                    try (ResultSet results = statement.executeQuery()) {
+                        while (results.next()) {
+                            groups.add(new Group(results.getString(1)));
+                        }
+                    }
+                }
+                return Collections.unmodifiableSet(groups);
+            }
+        });
+    }
+
+    private final class EffectiveUserIterator implements Iterator<User> {
+        private final Group group;
+        private final List<User> block = new ArrayList<>();
+        private int position;
+        private int from;
+        private boolean exhausted;
+
+        EffectiveUserIterator(Group group) {
+            this.group = group;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (position == block.size() && !exhausted) {
+                block.clear();
+                position = 0;
+                from = database.read(new Database.Work<Integer>() {
+                    @Override
+                    public Integer run(Connection connection) throws SQLException {
+                        return fetchUsers(connection, EFFECTIVE_USERS_IN_GROUP, group, from, FETCH_SIZE, block);
+                    }
+                });
+                exhausted = block.size() < FETCH_SIZE;
+            }
+            return position < block.size();
+        }
+
+        @Override
+        public User next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return block.get(position++);
+        }
+    }
+}
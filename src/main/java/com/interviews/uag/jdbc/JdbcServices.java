@@ -0,0 +1,88 @@
+package com.interviews.uag.jdbc;
+
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.UserService;
+import com.interviews.uag.core.Services;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Services that keep the users, groups and memberships in a relational database rather than in memory, so that
+ * the directory does not have to fit in the heap.
+ * <p>
+ * The tables are created if they do not exist.  The SQL is written for H2, which is used in embedded mode by
+ * {@link #open(Path)}; any other database needs a JDBC driver on the classpath and support for recursive common
+ * table expressions.  Failures of the database are thrown as {@link JdbcException}.
+ * </p>
+ * <pre><code>
+ *     try (JdbcServices services = JdbcServices.open(Paths.get("directory"))) {
+ *         services.getMembershipService().isUserInGroup(user, group);
+ *     }
+ * </code></pre>
+ */
+@ParametersAreNonnullByDefault
+public class JdbcServices implements Services, AutoCloseable {
+    private final Database database;
+    private final UserService userService;
+    private final GroupService groupService;
+    private final MembershipService membershipService;
+
+    private JdbcServices(Database database) {
+        this.database = database;
+        userService = new JdbcUserService(database);
+        groupService = new JdbcGroupService(database);
+        membershipService = new JdbcMembershipService(database);
+    }
+
+    /**
+     * Opens the services stored in an embedded H2 database, creating it if it does not exist.
+     *
+     * @param file the path of the database, without the extension that H2 adds to it
+     * @return the services
+     * @throws SQLException if the database cannot be opened
+     */
+    public static JdbcServices open(Path file) throws SQLException {
+        requireNonNull(file, "file");
+        return open("jdbc:h2:file:" + file.toAbsolutePath());
+    }
+
+    /**
+     * Opens the services stored in the database with the given JDBC URL, such as {@code jdbc:h2:mem:test} for a
+     * private in-memory database.
+     *
+     * @param url the JDBC URL of the database
+     * @return the services
+     * @throws SQLException if the database cannot be opened
+     */
+    public static JdbcServices open(String url) throws SQLException {
+        requireNonNull(url, "url");
+        return new JdbcServices(new Database(url));
+    }
+
+    public GroupService getGroupService() {
+        return groupService;
+    }
+
+    public UserService getUserService() {
+        return userService;
+    }
+
+    public MembershipService getMembershipService() {
+        return membershipService;
+    }
+
+    /**
+     * Closes the connections to the database.  The services must not be used afterwards.
+     *
+     * @throws SQLException if a connection cannot be closed
+     */
+    @Override
+    public void close() throws SQLException {
+        database.close();
+    }
+}
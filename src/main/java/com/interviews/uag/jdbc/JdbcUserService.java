@@ -0,0 +1,103 @@
+package com.interviews.uag.jdbc;
+
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import com.interviews.uag.api.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An implementation of the user service that stores the users in a database.
+ * It is safe for concurrent use by multiple threads.
+ */
+@ParametersAreNonnullByDefault
+final class JdbcUserService implements UserService {
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcUserService.class);
+
+    private final Database database;
+
+    JdbcUserService(Database database) {
+        this.database = database;
+    }
+
+    @Override
+    public User findByName(final String name) {
+        requireNonNull(name, "name");
+        return database.read(new Database.Work<User>() {
+            @Override
+            public User run(Connection connection) throws SQLException {
+                return Database.idOf(connection, "uag_user", name) >= 0 ? new User(name) : null;
+            }
+        });
+    }
+
+    @Override
+    public Page<User> findByNamePrefix(final String prefix, final boolean ignoreCase, @Nullable final String cursor,
+                                    final int pageSize) {
+        requireNonNull(prefix, "prefix");
+        final Page<String> names = database.read(new Database.Work<Page<String>>() {
+            @Override
+            public Page<String> run(Connection connection) throws SQLException {
+                return Database.namesWithPrefix(connection, "uag_user", prefix, ignoreCase, cursor, pageSize);
+            }
+        });
+        final List<User> users = new ArrayList<>(names.getItems().size());
+        for (String name : names.getItems()) {
+            users.add(new User(name));
+        }
+        return new Page<>(users, names.getNextCursor());
+    }
+
+    @Override
+    public void create(final User user) {
+        requireNonNull(user, "user");
+        database.write(new Database.Work<Void>() {
+            @Override
+            public Void run(Connection connection) throws SQLException {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO uag_user (name, folded_name) VALUES (?, ?)")) {
+                    statement.setString(1, user.getName());
+                    statement.setString(2, Database.fold(user.getName()));
+                    statement.executeUpdate();
+                } catch (SQLException e) {
+                    if (Database.DUPLICATE_KEY.equals(e.getSQLState())) {
+                        throw new IllegalArgumentException("User " + user.getName() + " already exists");
+                    }
+                    throw e;
+                }
+                return null;
+            }
+        });
+        LOG.debug("Created user: {}", user.getName());
+    }
+
+    /**
+     * Deletes the given user, together with its group memberships.
+     */
+    @Override
+    public void delete(final User user) {
+        requireNonNull(user, "user");
+        database.write(new Database.Work<Void>() {
+            @Override
+            public Void run(Connection connection) throws SQLException {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "DELETE FROM uag_user WHERE name = ?")) {
+                    statement.setString(1, user.getName());
+                    statement.executeUpdate();
+                }
+                return null;
+            }
+        });
+        LOG.debug("Deleted user: {}", user.getName());
+    }
+}
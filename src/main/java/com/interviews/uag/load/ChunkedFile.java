@@ -0,0 +1,147 @@
+package com.interviews.uag.load;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Splits a text file into byte ranges that can be parsed independently, and reads the lines of a range through a
+ * memory-mapped buffer.
+ */
+@ParametersAreNonnullByDefault
+final class ChunkedFile {
+    /**
+     * The largest range to map at once; mapped buffers are limited to 2 GiB.
+     */
+    private static final long MAX_RANGE = 1L << 30;
+
+    private ChunkedFile() {
+    }
+
+    /**
+     * A half-open range of bytes, {@code [start, end)}, that starts at the beginning of a record.
+     */
+    static final class Range {
+        final long start;
+        final long end;
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Splits the file into roughly {@code parts} ranges, more if that is needed to keep each one mappable.
+     *
+     * @param channel     the file to split
+     * @param parts       the desired number of ranges
+     * @param blankLines  {@code true} to split only after blank lines, so that multi-line records stay whole;
+     *                    {@code false} to split after any line
+     * @return the ranges, in file order, which together cover the whole file
+     */
+    static List<Range> split(FileChannel channel, int parts, boolean blankLines) throws IOException {
+        final long size = channel.size();
+        final long count = Math.max(parts, (size + MAX_RANGE - 1) / MAX_RANGE);
+        final List<Range> ranges = new ArrayList<>();
+        long start = 0;
+        for (long i = 1; i <= count && start < size; i++) {
+            final long target = i == count ? size : Math.max(start, size * i / count);
+            final long end = target >= size ? size : findBoundary(channel, target, blankLines);
+            if (end > start) {
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IOException("Record starting at byte " + start + " is too large");
+                }
+                ranges.add(new Range(start, end));
+                start = end;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Returns the position just after the first line break (or blank line) at or after {@code position - 1}.
+     */
+    private static long findBoundary(FileChannel channel, long position, boolean blankLines) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long offset = Math.max(0, position - 1);
+        boolean lineEmpty = false;
+        while (true) {
+            buffer.clear();
+            final int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                final byte b = buffer.get(i);
+                if (b == '\n') {
+                    if (!blankLines || lineEmpty) {
+                        return offset + i + 1;
+                    }
+                    lineEmpty = true;
+                } else if (b != '\r') {
+                    lineEmpty = false;
+                }
+            }
+            offset += read;
+        }
+    }
+
+    static LineReader open(FileChannel channel, Range range) throws IOException {
+        return new LineReader(channel.map(FileChannel.MapMode.READ_ONLY, range.start, range.end - range.start),
+                range.start);
+    }
+
+    /**
+     * Reads UTF-8 lines from a mapped range, with the line terminators removed.
+     */
+    static final class LineReader {
+        private final MappedByteBuffer buffer;
+        private final long base;
+        private byte[] line = new byte[256];
+        private long lineStart;
+
+        private LineReader(MappedByteBuffer buffer, long base) {
+            this.buffer = buffer;
+            this.base = base;
+        }
+
+        /**
+         * Returns the file offset at which the most recently read line starts.
+         */
+        long lineStart() {
+            return lineStart;
+        }
+
+        @Nullable
+        String readLine() {
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+            lineStart = base + buffer.position();
+            int length = 0;
+            while (buffer.hasRemaining()) {
+                final byte b = buffer.get();
+                if (b == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = b;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return new String(line, 0, length, UTF_8);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.interviews.uag.load;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the CSV format described by {@link DirectoryLoader#loadCsv(java.nio.file.Path)}.
+ */
+@ParametersAreNonnullByDefault
+final class CsvParser {
+    private CsvParser() {
+    }
+
+    static void parse(ChunkedFile.LineReader reader, ImportBatch batch) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final List<String> fields = split(line, reader.lineStart());
+            final String kind = fields.get(0).trim().toLowerCase();
+            switch (kind) {
+                case "user":
+                    require(fields, 2, reader.lineStart());
+                    batch.addUser(fields.get(1));
+                    break;
+                case "group":
+                    require(fields, 2, reader.lineStart());
+                    batch.addGroup(fields.get(1));
+                    break;
+                case "member":
+                    require(fields, 3, reader.lineStart());
+                    batch.addUserToGroup(fields.get(1), fields.get(2));
+                    break;
+                case "subgroup":
+                    require(fields, 3, reader.lineStart());
+                    batch.addGroupToGroup(fields.get(1), fields.get(2));
+                    break;
+                default:
+                    throw new IOException("Unknown record type '" + kind + "' at byte " + reader.lineStart());
+            }
+        }
+    }
+
+    private static void require(List<String> fields, int count, long offset) throws IOException {
+        if (fields.size() != count) {
+            throw new IOException("Expected " + count + " fields but found " + fields.size() + " at byte " + offset);
+        }
+    }
+
+    /**
+     * Splits a line into fields.  A field may be quoted with {@code "}, in which case it may contain commas and
+     * doubled quotes.
+     */
+    static List<String> split(String line, long offset) throws IOException {
+        final List<String> fields = new ArrayList<>(3);
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IOException("Unterminated quote at byte " + offset);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
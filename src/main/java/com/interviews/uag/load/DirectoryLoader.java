@@ -0,0 +1,307 @@
+package com.interviews.uag.load;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.User;
+import com.interviews.uag.core.Services;
+import com.interviews.uag.memory.MemoryGroupService;
+import com.interviews.uag.memory.MemoryMembershipService;
+import com.interviews.uag.memory.MemoryUserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Loads users, groups and memberships from large directory exports into the memory-based services.
+ * <p>
+ * Files are memory-mapped and split into ranges that are parsed in parallel.  Parsed records are handed to the
+ * services in bounded batches, so memory use depends on the batch size rather than on the size of the file, and each
+ * batch becomes visible to readers atomically.
+ * </p>
+ * <p>
+ * The input is trusted: unlike {@link com.interviews.uag.api.MembershipService#addUserToGroup}, loading does not
+ * check that the users and groups named by a membership exist, and records may appear in any order.  Users and
+ * groups that already exist are left as they are.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+public class DirectoryLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectoryLoader.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    private final MemoryUserService userService;
+    private final MemoryGroupService groupService;
+    private final MemoryMembershipService membershipService;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private final LongAdder users = new LongAdder();
+    private final LongAdder groups = new LongAdder();
+    private final LongAdder memberships = new LongAdder();
+    private final LongAdder nestings = new LongAdder();
+
+    public DirectoryLoader(MemoryUserService userService, MemoryGroupService groupService,
+                           MemoryMembershipService membershipService) {
+        this.userService = requireNonNull(userService, "userService");
+        this.groupService = requireNonNull(groupService, "groupService");
+        this.membershipService = requireNonNull(membershipService, "membershipService");
+    }
+
+    /**
+     * Creates a loader for services built by {@link com.interviews.uag.core.ServiceFactory#createServices()}.
+     *
+     * @param services the services to load into
+     * @return the loader
+     * @throws IllegalArgumentException if the services are not memory-based
+     */
+    public static DirectoryLoader of(Services services) {
+        requireNonNull(services, "services");
+        if (!(services.getUserService() instanceof MemoryUserService)
+                || !(services.getGroupService() instanceof MemoryGroupService)
+                || !(services.getMembershipService() instanceof MemoryMembershipService)) {
+            throw new IllegalArgumentException("Bulk loading requires the memory-based services");
+        }
+        return new DirectoryLoader((MemoryUserService) services.getUserService(),
+                (MemoryGroupService) services.getGroupService(),
+                (MemoryMembershipService) services.getMembershipService());
+    }
+
+    /**
+     * Sets the number of threads that parse a file.  The default is the number of available processors.
+     *
+     * @param parallelism the number of threads
+     * @return this loader
+     */
+    public DirectoryLoader withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets the number of records each parsing thread collects before handing them to the services.
+     *
+     * @param batchSize the number of records in a batch
+     * @return this loader
+     */
+    public DirectoryLoader withBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Loads a CSV file with one record per line.  The first field gives the type of the record:
+     * <pre><code>
+     *     user,alice
+     *     group,engineering
+     *     member,alice,engineering
+     *     subgroup,backend,engineering
+     * </code></pre>
+     * <p>
+     * A {@code member} record adds a user to a group, and a {@code subgroup} record adds the first group to the
+     * second.  Fields may be quoted with {@code "} to include commas, and blank lines and lines starting with
+     * {@code #} are ignored.
+     * </p>
+     *
+     * @param file the file to load
+     * @return the number of records of each type that were read
+     * @throws IOException if the file cannot be read or is malformed; the records in batches that were already
+     *                     applied remain loaded
+     */
+    public Result loadCsv(Path file) throws IOException {
+        requireNonNull(file, "file");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (final ChunkedFile.Range range : ChunkedFile.split(channel, parallelism, false)) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        final ImportBatch batch = new ImportBatch(DirectoryLoader.this, batchSize);
+                        CsvParser.parse(ChunkedFile.open(channel, range), batch);
+                        batch.flush();
+                        return null;
+                    }
+                });
+            }
+            return run(file, tasks);
+        }
+    }
+
+    /**
+     * Loads an LDIF file.  Entries with an {@code objectClass} of {@code person}, {@code organizationalPerson},
+     * {@code inetOrgPerson}, {@code user} or {@code posixAccount} are loaded as users, and entries with an
+     * {@code objectClass} of {@code groupOfNames}, {@code groupOfUniqueNames}, {@code group} or {@code posixGroup}
+     * are loaded as groups.  The name of each is the value of the first component of its distinguished name.
+     * <p>
+     * The {@code member} and {@code uniqueMember} values of a group are distinguished names; those that name a group
+     * entry in the same file become nested groups, and the rest become user members.  {@code memberUid} values are
+     * user names.  Base64 values and folded lines are supported, but change records and URL values are not.
+     * </p>
+     * <p>
+     * The file is read twice: once to find the group entries and once to load them.
+     * </p>
+     *
+     * @param file the file to load
+     * @return the number of records of each type that were read
+     * @throws IOException if the file cannot be read or is malformed; the records in batches that were already
+     *                     applied remain loaded
+     */
+    public Result loadLdif(Path file) throws IOException {
+        requireNonNull(file, "file");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final List<ChunkedFile.Range> ranges = ChunkedFile.split(channel, parallelism, true);
+            final Set<String> groupDns = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            final List<Callable<Void>> scans = new ArrayList<>();
+            final List<Callable<Void>> loads = new ArrayList<>();
+            for (final ChunkedFile.Range range : ranges) {
+                scans.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        LdifParser.collectGroups(ChunkedFile.open(channel, range), groupDns);
+                        return null;
+                    }
+                });
+                loads.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        final ImportBatch batch = new ImportBatch(DirectoryLoader.this, batchSize);
+                        LdifParser.load(ChunkedFile.open(channel, range), groupDns, batch);
+                        batch.flush();
+                        return null;
+                    }
+                });
+            }
+            run(file, scans);
+            return run(file, loads);
+        }
+    }
+
+    private Result run(Path file, List<Callable<Void>> tasks) throws IOException {
+        final long start = System.nanoTime();
+        final long usersBefore = users.sum();
+        final long groupsBefore = groups.sum();
+        final long membershipsBefore = memberships.sum();
+        final long nestingsBefore = nestings.sum();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, tasks.size())));
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + file, e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException("Failed to load " + file + ": " + cause.getMessage(), cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final Result result = new Result(users.sum() - usersBefore, groups.sum() - groupsBefore,
+                memberships.sum() - membershipsBefore, nestings.sum() - nestingsBefore);
+        LOG.debug("Loaded {} from {} in {} ms", result, file, (System.nanoTime() - start) / 1000000);
+        return result;
+    }
+
+    /**
+     * Applies one batch of records.  Called concurrently by the parsing threads.
+     */
+    void apply(List<User> users, List<Group> groups, Map<Group, List<Group>> childrenByParent,
+               Map<Group, List<User>> usersByGroup) {
+        userService.importUsers(users);
+        groupService.importGroups(groups);
+        membershipService.importMemberships(childrenByParent, usersByGroup);
+
+        this.users.add(users.size());
+        this.groups.add(groups.size());
+        for (List<User> members : usersByGroup.values()) {
+            memberships.add(members.size());
+        }
+        for (List<Group> children : childrenByParent.values()) {
+            nestings.add(children.size());
+        }
+    }
+
+    /**
+     * The number of records of each type read from a file.
+     */
+    public static final class Result {
+        private final long users;
+        private final long groups;
+        private final long memberships;
+        private final long nestings;
+
+        Result(long users, long groups, long memberships, long nestings) {
+            this.users = users;
+            this.groups = groups;
+            this.memberships = memberships;
+            this.nestings = nestings;
+        }
+
+        public long getUsers() {
+            return users;
+        }
+
+        public long getGroups() {
+            return groups;
+        }
+
+        /**
+         * @return the number of users added to groups
+         */
+        public long getMemberships() {
+            return memberships;
+        }
+
+        /**
+         * @return the number of groups added to other groups
+         */
+        public long getNestings() {
+            return nestings;
+        }
+
+        @Override
+        @Nonnull
+        public String toString() {
+            return "Result[users=" + users + ", groups=" + groups + ", memberships=" + memberships
+                    + ", nestings=" + nestings + ']';
+        }
+    }
+}
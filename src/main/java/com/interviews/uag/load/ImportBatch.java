@@ -0,0 +1,81 @@
+package com.interviews.uag.load;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.User;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the records parsed from one range of a file and hands them to the services in bounded batches,
+ * so that memory use does not grow with the size of the file.
+ */
+@ParametersAreNonnullByDefault
+final class ImportBatch {
+    private final DirectoryLoader loader;
+    private final int capacity;
+
+    private List<User> users = new ArrayList<>();
+    private List<Group> groups = new ArrayList<>();
+    private Map<Group, List<User>> usersByGroup = new HashMap<>();
+    private Map<Group, List<Group>> childrenByParent = new HashMap<>();
+    private int size;
+
+    ImportBatch(DirectoryLoader loader, int capacity) {
+        this.loader = loader;
+        this.capacity = capacity;
+    }
+
+    void addUser(String name) {
+        users.add(new User(name));
+        added();
+    }
+
+    void addGroup(String name) {
+        groups.add(new Group(name));
+        added();
+    }
+
+    void addUserToGroup(String user, String group) {
+        final Group key = new Group(group);
+        List<User> members = usersByGroup.get(key);
+        if (members == null) {
+            members = new ArrayList<>();
+            usersByGroup.put(key, members);
+        }
+        members.add(new User(user));
+        added();
+    }
+
+    void addGroupToGroup(String child, String parent) {
+        final Group key = new Group(parent);
+        List<Group> children = childrenByParent.get(key);
+        if (children == null) {
+            children = new ArrayList<>();
+            childrenByParent.put(key, children);
+        }
+        children.add(new Group(child));
+        added();
+    }
+
+    private void added() {
+        if (++size >= capacity) {
+            flush();
+        }
+    }
+
+    void flush() {
+        if (size == 0) {
+            return;
+        }
+        loader.apply(users, groups, childrenByParent, usersByGroup);
+        users = new ArrayList<>();
+        groups = new ArrayList<>();
+        usersByGroup = new HashMap<>();
+        childrenByParent = new HashMap<>();
+        size = 0;
+    }
+}
@@ -0,0 +1,240 @@
+package com.interviews.uag.load;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Parses the LDIF subset described by {@link DirectoryLoader#loadLdif(java.nio.file.Path)}.
+ */
+@ParametersAreNonnullByDefault
+final class LdifParser {
+    private static final Set<String> GROUP_CLASSES = new HashSet<>(Arrays.asList(
+            "groupofnames", "groupofuniquenames", "group", "posixgroup"));
+    private static final Set<String> USER_CLASSES = new HashSet<>(Arrays.asList(
+            "person", "organizationalperson", "inetorgperson", "user", "posixaccount"));
+
+    /**
+     * Receives the entries of a range, one at a time.
+     */
+    interface EntryHandler {
+        void entry(Entry entry) throws IOException;
+    }
+
+    /**
+     * The attributes of one entry, with attribute names in lower case.
+     */
+    static final class Entry {
+        final long offset;
+        final List<String> names = new ArrayList<>();
+        final List<String> values = new ArrayList<>();
+
+        Entry(long offset) {
+            this.offset = offset;
+        }
+
+        @Nullable
+        String get(String name) {
+            final int index = names.indexOf(name);
+            return index < 0 ? null : values.get(index);
+        }
+
+        boolean hasObjectClass(Set<String> classes) {
+            for (int i = 0; i < names.size(); i++) {
+                if (names.get(i).equals("objectclass") && classes.contains(values.get(i).toLowerCase(Locale.ROOT))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isGroup() {
+            return hasObjectClass(GROUP_CLASSES);
+        }
+
+        boolean isUser() {
+            return hasObjectClass(USER_CLASSES);
+        }
+    }
+
+    private LdifParser() {
+    }
+
+    /**
+     * Collects the normalized distinguished names of the group entries, so that {@code member} values can be told
+     * apart as users or nested groups.
+     */
+    static void collectGroups(ChunkedFile.LineReader reader, final Set<String> groupDns) throws IOException {
+        parse(reader, new EntryHandler() {
+            @Override
+            public void entry(Entry entry) throws IOException {
+                if (entry.isGroup()) {
+                    groupDns.add(normalize(dnOf(entry)));
+                }
+            }
+        });
+    }
+
+    static void load(ChunkedFile.LineReader reader, final Set<String> groupDns, final ImportBatch batch)
+            throws IOException {
+        parse(reader, new EntryHandler() {
+            @Override
+            public void entry(Entry entry) throws IOException {
+                final String dn = dnOf(entry);
+                if (entry.isUser()) {
+                    batch.addUser(firstValue(dn, entry.offset));
+                } else if (entry.isGroup()) {
+                    final String group = firstValue(dn, entry.offset);
+                    batch.addGroup(group);
+                    for (int i = 0; i < entry.names.size(); i++) {
+                        final String name = entry.names.get(i);
+                        final String value = entry.values.get(i);
+                        if (name.equals("member") || name.equals("uniquemember")) {
+                            if (groupDns.contains(normalize(value))) {
+                                batch.addGroupToGroup(firstValue(value, entry.offset), group);
+                            } else {
+                                batch.addUserToGroup(firstValue(value, entry.offset), group);
+                            }
+                        } else if (name.equals("memberuid")) {
+                            batch.addUserToGroup(value, group);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    static void parse(ChunkedFile.LineReader reader, EntryHandler handler) throws IOException {
+        Entry entry = null;
+        StringBuilder value = null;
+        String name = null;
+        boolean base64 = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(" ")) {
+                if (value != null) {
+                    value.append(line, 1, line.length());
+                }
+                continue;
+            }
+            if (name != null) {
+                entry.names.add(name);
+                entry.values.add(decode(value, base64));
+                name = null;
+                value = null;
+            }
+            if (line.isEmpty()) {
+                if (entry != null && entry.get("dn") != null) {
+                    handler.entry(entry);
+                }
+                entry = null;
+                continue;
+            }
+            if (line.startsWith("#")) {
+                continue;
+            }
+
+            final int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Malformed LDIF line at byte " + reader.lineStart());
+            }
+            if (entry == null) {
+                entry = new Entry(reader.lineStart());
+            }
+            name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            int start = colon + 1;
+            base64 = start < line.length() && line.charAt(start) == ':';
+            if (base64) {
+                start++;
+            } else if (start < line.length() && line.charAt(start) == '<') {
+                throw new IOException("URL values are not supported, at byte " + reader.lineStart());
+            }
+            while (start < line.length() && line.charAt(start) == ' ') {
+                start++;
+            }
+            value = new StringBuilder(line.length() - start).append(line, start, line.length());
+        }
+        if (name != null) {
+            entry.names.add(name);
+            entry.values.add(decode(value, base64));
+        }
+        if (entry != null && entry.get("dn") != null) {
+            handler.entry(entry);
+        }
+    }
+
+    private static String decode(StringBuilder value, boolean base64) {
+        return base64 ? new String(Base64.getMimeDecoder().decode(value.toString()), UTF_8) : value.toString();
+    }
+
+    private static String dnOf(Entry entry) {
+        final String dn = entry.get("dn");
+        return dn == null ? "" : dn;
+    }
+
+    /**
+     * Returns the value of the first relative distinguished name, which is used as the user or group name;
+     * for example {@code alice} for {@code cn=alice,ou=people,dc=example,dc=com}.
+     */
+    static String firstValue(String dn, long offset) throws IOException {
+        final int equals = dn.indexOf('=');
+        if (equals < 0) {
+            throw new IOException("Malformed DN '" + dn + "' in entry at byte " + offset);
+        }
+        final StringBuilder value = new StringBuilder();
+        for (int i = equals + 1; i < dn.length(); i++) {
+            final char c = dn.charAt(i);
+            if (c == '\\' && i + 1 < dn.length()) {
+                value.append(dn.charAt(++i));
+            } else if (c == ',' || c == '+') {
+                break;
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString().trim();
+    }
+
+    /**
+     * Normalizes a distinguished name for comparison: case and the spaces around separators are ignored.
+     */
+    static String normalize(String dn) {
+        final StringBuilder normalized = new StringBuilder(dn.length());
+        boolean escaped = false;
+        for (int i = 0; i < dn.length(); i++) {
+            final char c = dn.charAt(i);
+            if (escaped) {
+                normalized.append(c);
+                escaped = false;
+            } else if (c == '\\') {
+                normalized.append(c);
+                escaped = true;
+            } else if (c == ',' || c == '=' || c == '+') {
+                trimTrailingSpaces(normalized);
+                normalized.append(c);
+                while (i + 1 < dn.length() && dn.charAt(i + 1) == ' ') {
+                    i++;
+                }
+            } else {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        trimTrailingSpaces(normalized);
+        return normalized.toString().trim();
+    }
+
+    private static void trimTrailingSpaces(StringBuilder builder) {
+        while (builder.length() > 0 && builder.charAt(builder.length() - 1) == ' ') {
+            builder.setLength(builder.length() - 1);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.interviews.uag.memory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rebuilds the effective memberships of many users at once, on every thread of a {@link ForkJoinPool}.
+ * <p>
+ * First the groups that the users were added to directly, and every group above them, are put in topological
+ * layers: the first layer has the groups without parents, and each later layer has the groups whose parents are
+ * all in earlier layers.  The layers are then processed in order, and the groups within one layer in parallel,
+ * each group's ancestors being the group itself plus the union of its parents' ancestors, which were completed by
+ * an earlier layer.  So every group's ancestors are computed exactly once, from sets that already exist, instead
+ * of by one walk up the hierarchy per group.  Finally the users are split over the pool, and each user's effective
+ * groups are the union of the ancestors of the user's direct groups.
+ * </p>
+ * <p>
+ * With a depth limit, a group's ancestors can not be derived from its parents' ancestors, which may be too far
+ * away, so each group is instead walked up to the limit on its own, still in parallel.
+ * </p>
+ * <p>
+ * This only reads the persistent maps it is given, so the pool's threads need no locking.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+final class EffectiveMemberships {
+    /**
+     * The fewest groups or users that are worth a task of their own.
+     */
+    private static final int MIN_GRAIN = 64;
+
+    private final PersistentIntMap<IntSet> groupsByUser;
+    private final PersistentIntMap<IntSet> parentGroupsByChild;
+    private final PersistentIntMap<IntSet> childGroupsByParent;
+    private final int maxDepth;
+    private final ForkJoinPool pool;
+
+    EffectiveMemberships(PersistentIntMap<IntSet> groupsByUser, PersistentIntMap<IntSet> parentGroupsByChild,
+                         PersistentIntMap<IntSet> childGroupsByParent, int maxDepth, ForkJoinPool pool) {
+        this.groupsByUser = groupsByUser;
+        this.parentGroupsByChild = parentGroupsByChild;
+        this.childGroupsByParent = childGroupsByParent;
+        this.maxDepth = maxDepth;
+        this.pool = pool;
+    }
+
+    /**
+     * @param users the ids of the users to compute the effective groups of
+     * @return the effective groups of each user, parallel to the ids
+     */
+    IntSet[] compute(final int[] users) {
+        final IntHashSet direct = new IntHashSet();
+        for (int user : users) {
+            direct.addAll(get(groupsByUser, user));
+        }
+        final IntSet[] ancestors = maxDepth == Integer.MAX_VALUE ? layered(direct) : bounded(direct);
+
+        final IntSet[] effective = new IntSet[users.length];
+        forEach(users.length, new IndexFunction() {
+            @Override
+            void apply(int index) {
+                IntSet groups = IntSet.EMPTY;
+                final PrimitiveIterator.OfInt iterator = get(groupsByUser, users[index]).iterator();
+                while (iterator.hasNext()) {
+                    groups = IntSet.or(groups, ancestors[iterator.nextInt()]);
+                }
+                effective[index] = groups;
+            }
+        });
+        return effective;
+    }
+
+    /**
+     * Computes the ancestors of the given groups, and of every group above them, layer by layer.
+     *
+     * @return the ancestors by group id, or {@code null} for the groups that were not needed
+     */
+    private IntSet[] layered(IntHashSet groups) {
+        final IntHashSet closure = new IntHashSet(groups.size());
+        for (int i = 0; i < groups.size(); i++) {
+            closure.add(groups.get(i));
+        }
+        int maxId = -1;
+        for (int i = 0; i < closure.size(); i++) {
+            final int group = closure.get(i);
+            maxId = Math.max(maxId, group);
+            closure.addAll(get(parentGroupsByChild, group));
+        }
+
+        final IntSet[] ancestors = new IntSet[maxId + 1];
+        // The parents of each group in the closure that are not yet done; every parent is in the closure too
+        final int[] remaining = new int[maxId + 1];
+        IntHashSet layer = new IntHashSet();
+        for (int i = 0; i < closure.size(); i++) {
+            final int group = closure.get(i);
+            remaining[group] = get(parentGroupsByChild, group).size();
+            if (remaining[group] == 0) {
+                layer.add(group);
+            }
+        }
+
+        while (!layer.isEmpty()) {
+            final int[] current = layer.toArray();
+            forEach(current.length, new IndexFunction() {
+                @Override
+                void apply(int index) {
+                    final int group = current[index];
+                    IntSet result = IntSet.of(group);
+                    final PrimitiveIterator.OfInt parents = get(parentGroupsByChild, group).iterator();
+                    while (parents.hasNext()) {
+                        result = IntSet.or(result, ancestors[parents.nextInt()]);
+                    }
+                    ancestors[group] = result;
+                }
+            });
+
+            layer = new IntHashSet();
+            for (int group : current) {
+                final PrimitiveIterator.OfInt children = get(childGroupsByParent, group).iterator();
+                while (children.hasNext()) {
+                    final int child = children.nextInt();
+                    if (child <= maxId && remaining[child] > 0 && --remaining[child] == 0) {
+                        layer.add(child);
+                    }
+                }
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * Computes the ancestors of each of the given groups up to the maximum depth, independently.
+     *
+     * @return the ancestors by group id, or {@code null} for the groups that were not needed
+     */
+    private IntSet[] bounded(IntHashSet groups) {
+        final int[] ids = groups.toArray();
+        int maxId = -1;
+        for (int id : ids) {
+            maxId = Math.max(maxId, id);
+        }
+        final IntSet[] ancestors = new IntSet[maxId + 1];
+        forEach(ids.length, new IndexFunction() {
+            @Override
+            void apply(int index) {
+                ancestors[ids[index]] = getAncestorsOf(ids[index]);
+            }
+        });
+        return ancestors;
+    }
+
+    /**
+     * Returns the given group together with every group that it is nested beneath, up to the maximum depth.
+     */
+    private IntSet getAncestorsOf(int group) {
+        final IntHashSet ancestors = new IntHashSet();
+        ancestors.add(group);
+        int depth = 0;
+        int levelEnd = 1;
+        for (int i = 0; i < ancestors.size(); i++) {
+            if (i == levelEnd) {
+                depth++;
+                levelEnd = ancestors.size();
+            }
+            if (depth < maxDepth) {
+                ancestors.addAll(get(parentGroupsByChild, ancestors.get(i)));
+            }
+        }
+        return IntSet.of(ancestors.toArray());
+    }
+
+    private static IntSet get(PersistentIntMap<IntSet> map, int key) {
+        final IntSet values = map.get(key);
+        return values == null ? IntSet.EMPTY : values;
+    }
+
+    /**
+     * Applies the function to every index below the size, in parallel if there are enough of them.
+     */
+    private void forEach(int size, IndexFunction function) {
+        final int grain = Math.max(MIN_GRAIN, size / (pool.getParallelism() * 4));
+        if (size <= grain) {
+            for (int i = 0; i < size; i++) {
+                function.apply(i);
+            }
+        } else {
+            pool.invoke(new Split(function, 0, size, grain));
+        }
+    }
+
+    /**
+     * The work for one group or user, by its index in an array.
+     */
+    private abstract static class IndexFunction {
+        abstract void apply(int index);
+    }
+
+    /**
+     * Splits a range of indexes in halves until each task has at most the grain.
+     */
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IndexFunction function;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Split(IndexFunction function, int from, int to, int grain) {
+            this.function = function;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; i++) {
+                    function.apply(i);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            final Split right = new Split(function, middle, to, grain);
+            right.fork();
+            new Split(function, from, middle, grain).compute();
+            right.join();
+        }
+    }
+}
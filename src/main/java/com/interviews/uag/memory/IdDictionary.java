@@ -0,0 +1,104 @@
+package com.interviews.uag.memory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * An immutable two-way mapping between users or groups and dense {@code int} ids.
+ * <p>
+ * The membership indexes refer to users and groups by these ids, so that an edge costs a couple of bytes in an
+ * {@link IntSet} instead of a boxed entry that references the object.  Ids are handed out consecutively, starting
+ * at zero, the first time that an object takes part in a relationship.
+ * </p>
+ * <p>
+ * The id of a removed object is handed out again before any new one, so the ids stay dense under churn.  An id
+ * must therefore only be removed once nothing refers to it any more.
+ * </p>
+ *
+ * @param <T> the type of the objects, which are identified by {@code equals}
+ */
+@ParametersAreNonnullByDefault
+final class IdDictionary<T> {
+    private static final IdDictionary<?> EMPTY = new IdDictionary<>(PersistentHashMap.<Object, Integer>empty(),
+            PersistentIntMap.empty(), 0, null);
+
+    private final PersistentHashMap<T, Integer> ids;
+    private final PersistentIntMap<T> values;
+    private final int nextId;
+    @Nullable
+    private final FreeId free;
+
+    private IdDictionary(PersistentHashMap<T, Integer> ids, PersistentIntMap<T> values, int nextId,
+                         @Nullable FreeId free) {
+        this.ids = ids;
+        this.values = values;
+        this.nextId = nextId;
+        this.free = free;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> IdDictionary<T> empty() {
+        return (IdDictionary<T>) EMPTY;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * Returns the id of the given object.
+     *
+     * @return the id, or {@code -1} if the object has not been assigned one
+     */
+    int idOf(Object value) {
+        final Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    @Nullable
+    T get(int id) {
+        return values.get(id);
+    }
+
+    /**
+     * Returns a dictionary in which the given object has an id.
+     *
+     * @return this dictionary if the object already had one
+     */
+    IdDictionary<T> plus(T value) {
+        if (ids.containsKey(value)) {
+            return this;
+        }
+        if (free != null) {
+            return new IdDictionary<>(ids.plus(value, free.id), values.plus(free.id, value), nextId, free.next);
+        }
+        return new IdDictionary<>(ids.plus(value, nextId), values.plus(nextId, value), nextId + 1, null);
+    }
+
+    /**
+     * Returns a dictionary in which the given object no longer has an id, so that its id can be reused.
+     *
+     * @return this dictionary if the object did not have one
+     */
+    IdDictionary<T> minus(Object value) {
+        final Integer id = ids.get(value);
+        if (id == null) {
+            return this;
+        }
+        return new IdDictionary<>(ids.minus(value), values.minus(id), nextId, new FreeId(id, free));
+    }
+
+    /**
+     * An immutable stack of the ids that were removed, shared between versions like the maps.
+     */
+    private static final class FreeId {
+        final int id;
+        @Nullable
+        final FreeId next;
+
+        FreeId(int id, @Nullable FreeId next) {
+            this.id = id;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.interviews.uag.memory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+
+/**
+ * A read-only {@link java.util.Set} of users or groups backed by a set of their ids.
+ * <p>
+ * Both the ids and the dictionary belong to one immutable snapshot, so the view never changes; objects are only
+ * materialized as the view is iterated.
+ * </p>
+ *
+ * @param <T> the type of the objects
+ */
+@ParametersAreNonnullByDefault
+final class IdSetView<T> extends AbstractSet<T> {
+    private final IntSet ids;
+    private final IdDictionary<T> dictionary;
+
+    IdSetView(IntSet ids, IdDictionary<T> dictionary) {
+        this.ids = ids;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o != null && ids.contains(dictionary.idOf(o));
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        final PrimitiveIterator.OfInt iterator = ids.iterator();
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return dictionary.get(iterator.nextInt());
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,120 @@
+package com.interviews.uag.memory;
+
+import java.util.Arrays;
+
+/**
+ * A mutable set of non-negative {@code int}s backed by an open-addressing hash table.
+ * <p>
+ * This is scratch space for walking the hierarchy.  Besides the hash table it keeps the values in insertion order,
+ * so a breadth-first walk can use the set as its own queue: {@link #get(int)} the values one by one while
+ * {@link #add(int)}ing newly discovered ones.
+ * </p>
+ */
+final class IntHashSet {
+    private static final int FREE = -1;
+
+    private int[] table;
+    private int[] values;
+    private int size;
+
+    IntHashSet() {
+        this(16);
+    }
+
+    IntHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        table = new int[capacity];
+        Arrays.fill(table, FREE);
+        values = new int[Math.max(expectedSize, 4)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the value that was added in the given position.
+     */
+    int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        return values[index];
+    }
+
+    boolean contains(int value) {
+        final int mask = table.length - 1;
+        for (int slot = mix(value) & mask; ; slot = (slot + 1) & mask) {
+            final int current = table[slot];
+            if (current == FREE) {
+                return false;
+            }
+            if (current == value) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds the value to the set.
+     *
+     * @return {@code true} if the value was not in the set yet
+     */
+    boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        final int mask = table.length - 1;
+        int slot = mix(value) & mask;
+        while (table[slot] != FREE) {
+            if (table[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    void addAll(IntSet set) {
+        for (int value : set.toArray()) {
+            add(value);
+        }
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, FREE);
+        final int mask = table.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = mix(values[i]) & mask;
+            while (table[slot] != FREE) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = values[i];
+        }
+    }
+
+    private static int mix(int value) {
+        final int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,638 @@
+package com.interviews.uag.memory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * An immutable, compressed bitmap of non-negative {@code int}s that is updated by copy-on-write of small blocks.
+ * <p>
+ * Values are split into a 16-bit high half, which selects a block, and a 16-bit low half, which is stored in that
+ * block.  A sparse block is a sorted {@code char} array, at two bytes per member; once a block holds more than
+ * {@value #MAX_ARRAY_SIZE} members it switches to a fixed 8&nbsp;KiB bitmap, at one bit per possible member.
+ * {@link #plus(int)} and {@link #minus(int)} copy only the one block that changes plus the (short) block index,
+ * sharing every other block with the original set.
+ * </p>
+ * <p>
+ * {@link #and(IntSet, IntSet)}, {@link #or(IntSet, IntSet)} and {@link #andNot(IntSet, IntSet)} combine sets block
+ * by block, 64 members at a time for bitmap blocks, and skip blocks that only one side has.  Iteration is in
+ * ascending order.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+final class IntSet {
+    static final IntSet EMPTY = new IntSet(new char[0], new Object[0], new int[0], 0);
+
+    private static final int MAX_ARRAY_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    /**
+     * The high halves of the values, in ascending order.
+     */
+    private final char[] keys;
+    /**
+     * One block per key: either a sorted {@code char[]} of low halves or a {@code long[]} bitmap of them.
+     */
+    private final Object[] blocks;
+    private final int[] cardinalities;
+    private final int size;
+
+    private IntSet(char[] keys, Object[] blocks, int[] cardinalities, int size) {
+        this.keys = keys;
+        this.blocks = blocks;
+        this.cardinalities = cardinalities;
+        this.size = size;
+    }
+
+    /**
+     * Creates a set with the given values, which may be in any order and may contain duplicates.
+     */
+    static IntSet of(int... values) {
+        if (values.length == 0) {
+            return EMPTY;
+        }
+        final int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        checkValue(sorted[0]);
+
+        final Builder builder = new Builder();
+        for (int value : sorted) {
+            builder.add(value);
+        }
+        return builder.build();
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        final int block = Arrays.binarySearch(keys, high(value));
+        return block >= 0 && contains(blocks[block], low(value));
+    }
+
+    /**
+     * Returns a set that also contains the given value.
+     *
+     * @return this set if it already contains the value
+     */
+    IntSet plus(int value) {
+        checkValue(value);
+        final char low = low(value);
+        final int block = Arrays.binarySearch(keys, high(value));
+        if (block < 0) {
+            final int insert = -block - 1;
+            return new IntSet(insert(keys, insert, high(value)), insert(blocks, insert, new char[]{low}),
+                    insert(cardinalities, insert, 1), size + 1);
+        }
+
+        final Object current = blocks[block];
+        if (contains(current, low)) {
+            return this;
+        }
+        final int cardinality = cardinalities[block] + 1;
+        final Object updated;
+        if (current instanceof long[]) {
+            final long[] bits = ((long[]) current).clone();
+            bits[low >>> 6] |= 1L << low;
+            updated = bits;
+        } else {
+            final char[] array = (char[]) current;
+            final char[] inserted = insert(array, -Arrays.binarySearch(array, low) - 1, low);
+            updated = cardinality > MAX_ARRAY_SIZE ? toBitmap(inserted, inserted.length) : inserted;
+        }
+        return new IntSet(keys, replace(blocks, block, updated), replace(cardinalities, block, cardinality), size + 1);
+    }
+
+    /**
+     * Returns a set that does not contain the given value.
+     *
+     * @return this set if it did not contain the value
+     */
+    IntSet minus(int value) {
+        if (value < 0) {
+            return this;
+        }
+        final char low = low(value);
+        final int block = Arrays.binarySearch(keys, high(value));
+        if (block < 0 || !contains(blocks[block], low)) {
+            return this;
+        }
+        if (size == 1) {
+            return EMPTY;
+        }
+        final int cardinality = cardinalities[block] - 1;
+        if (cardinality == 0) {
+            return new IntSet(remove(keys, block), remove(blocks, block), remove(cardinalities, block), size - 1);
+        }
+
+        final Object current = blocks[block];
+        final Object updated;
+        if (current instanceof long[]) {
+            final long[] bits = ((long[]) current).clone();
+            bits[low >>> 6] &= ~(1L << low);
+            updated = cardinality <= MAX_ARRAY_SIZE ? toArray(bits, cardinality) : bits;
+        } else {
+            final char[] array = (char[]) current;
+            updated = remove(array, Arrays.binarySearch(array, low));
+        }
+        return new IntSet(keys, replace(blocks, block, updated), replace(cardinalities, block, cardinality), size - 1);
+    }
+
+    /**
+     * Returns the values that are in both sets.
+     */
+    static IntSet and(IntSet left, IntSet right) {
+        if (left.isEmpty() || right.isEmpty()) {
+            return EMPTY;
+        }
+        final Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < left.keys.length && j < right.keys.length) {
+            if (left.keys[i] < right.keys[j]) {
+                i++;
+            } else if (left.keys[i] > right.keys[j]) {
+                j++;
+            } else {
+                builder.addBlock(left.keys[i], and(left.blocks[i], right.blocks[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the values that are in either set.
+     */
+    static IntSet or(IntSet left, IntSet right) {
+        if (left.isEmpty()) {
+            return right;
+        }
+        if (right.isEmpty()) {
+            return left;
+        }
+        final Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < left.keys.length || j < right.keys.length) {
+            if (j == right.keys.length || (i < left.keys.length && left.keys[i] < right.keys[j])) {
+                builder.addBlock(left.keys[i], left.blocks[i], left.cardinalities[i]);
+                i++;
+            } else if (i == left.keys.length || left.keys[i] > right.keys[j]) {
+                builder.addBlock(right.keys[j], right.blocks[j], right.cardinalities[j]);
+                j++;
+            } else {
+                builder.addBlock(left.keys[i], or(left.blocks[i], right.blocks[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the values of the left set that are not in the right set.
+     */
+    static IntSet andNot(IntSet left, IntSet right) {
+        if (left.isEmpty() || right.isEmpty()) {
+            return left;
+        }
+        final Builder builder = new Builder();
+        int j = 0;
+        for (int i = 0; i < left.keys.length; i++) {
+            while (j < right.keys.length && right.keys[j] < left.keys[i]) {
+                j++;
+            }
+            if (j < right.keys.length && right.keys[j] == left.keys[i]) {
+                builder.addBlock(left.keys[i], andNot(left.blocks[i], right.blocks[j]));
+            } else {
+                builder.addBlock(left.keys[i], left.blocks[i], left.cardinalities[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    int[] toArray() {
+        final int[] result = new int[size];
+        int i = 0;
+        final PrimitiveIterator.OfInt iterator = iterator();
+        while (iterator.hasNext()) {
+            result[i++] = iterator.nextInt();
+        }
+        return result;
+    }
+
+    PrimitiveIterator.OfInt iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * Returns an iterator over the values that are greater than or equal to {@code from}, in ascending order.
+     * Finding the starting point takes a binary search of the block index and of one block.
+     */
+    PrimitiveIterator.OfInt iterator(int from) {
+        checkValue(from);
+        final int start = Arrays.binarySearch(keys, high(from));
+        final int startBlock = start >= 0 ? start : -start - 1;
+        int startIndex = 0;
+        if (start >= 0) {
+            final Object block = blocks[start];
+            if (block instanceof char[]) {
+                final int found = Arrays.binarySearch((char[]) block, low(from));
+                startIndex = found >= 0 ? found : -found - 1;
+            } else {
+                startIndex = low(from);
+            }
+        }
+        return iterator(startBlock, startIndex);
+    }
+
+    private PrimitiveIterator.OfInt iterator(final int startBlock, final int startIndex) {
+        return new PrimitiveIterator.OfInt() {
+            private int block = startBlock;
+            private int index = startIndex;
+            private int next = advance();
+
+            /**
+             * Finds the next value at or after the current position, or returns {@code -1} at the end.
+             */
+            private int advance() {
+                while (block < keys.length) {
+                    final int high = keys[block] << 16;
+                    final Object current = blocks[block];
+                    if (current instanceof char[]) {
+                        final char[] array = (char[]) current;
+                        if (index < array.length) {
+                            return high | array[index++];
+                        }
+                    } else {
+                        final long[] bits = (long[]) current;
+                        while (index < BITMAP_WORDS << 6) {
+                            final long word = bits[index >>> 6] & (-1L << index);
+                            if (word != 0) {
+                                final int low = (index & ~63) | Long.numberOfTrailingZeros(word);
+                                index = low + 1;
+                                return high | low;
+                            }
+                            index = (index | 63) + 1;
+                        }
+                    }
+                    block++;
+                    index = 0;
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                final int result = next;
+                next = advance();
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof IntSet)) {
+            return false;
+        }
+        final IntSet other = (IntSet) obj;
+        return size == other.size && Arrays.equals(toArray(), other.toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private static int checkValue(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        return value;
+    }
+
+    private static char high(int value) {
+        return (char) (value >>> 16);
+    }
+
+    private static char low(int value) {
+        return (char) value;
+    }
+
+    private static boolean contains(Object block, char low) {
+        if (block instanceof long[]) {
+            return (((long[]) block)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) block, low) >= 0;
+    }
+
+    private static long[] toBitmap(char[] array, int length) {
+        final long[] bits = new long[BITMAP_WORDS];
+        for (int i = 0; i < length; i++) {
+            bits[array[i] >>> 6] |= 1L << array[i];
+        }
+        return bits;
+    }
+
+    private static char[] toArray(long[] bits, int cardinality) {
+        final char[] array = new char[cardinality];
+        int i = 0;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            long remaining = bits[word];
+            while (remaining != 0) {
+                array[i++] = (char) ((word << 6) | Long.numberOfTrailingZeros(remaining));
+                remaining &= remaining - 1;
+            }
+        }
+        return array;
+    }
+
+    private static Object and(Object left, Object right) {
+        if (left instanceof long[] && right instanceof long[]) {
+            final long[] a = (long[]) left;
+            final long[] b = (long[]) right;
+            final long[] bits = new long[BITMAP_WORDS];
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                bits[i] = a[i] & b[i];
+            }
+            return bits;
+        }
+        if (left instanceof long[]) {
+            return filter((char[]) right, (long[]) left, true);
+        }
+        if (right instanceof long[]) {
+            return filter((char[]) left, (long[]) right, true);
+        }
+        final char[] a = (char[]) left;
+        final char[] b = (char[]) right;
+        final char[] result = new char[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static Object or(Object left, Object right) {
+        if (left instanceof long[] || right instanceof long[]) {
+            final long[] bits = left instanceof long[] ? ((long[]) left).clone() : toBitmap((char[]) left,
+                    ((char[]) left).length);
+            if (right instanceof long[]) {
+                final long[] b = (long[]) right;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    bits[i] |= b[i];
+                }
+            } else {
+                for (char low : (char[]) right) {
+                    bits[low >>> 6] |= 1L << low;
+                }
+            }
+            return bits;
+        }
+        final char[] a = (char[]) left;
+        final char[] b = (char[]) right;
+        final char[] result = new char[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i == a.length || a[i] > b[j]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return count > MAX_ARRAY_SIZE ? toBitmap(result, count) : Arrays.copyOf(result, count);
+    }
+
+    private static Object andNot(Object left, Object right) {
+        if (left instanceof char[]) {
+            final char[] a = (char[]) left;
+            if (right instanceof long[]) {
+                return filter(a, (long[]) right, false);
+            }
+            final char[] b = (char[]) right;
+            final char[] result = new char[a.length];
+            int count = 0;
+            int j = 0;
+            for (char value : a) {
+                while (j < b.length && b[j] < value) {
+                    j++;
+                }
+                if (j == b.length || b[j] != value) {
+                    result[count++] = value;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+        final long[] bits = ((long[]) left).clone();
+        if (right instanceof long[]) {
+            final long[] b = (long[]) right;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                bits[i] &= ~b[i];
+            }
+        } else {
+            for (char low : (char[]) right) {
+                bits[low >>> 6] &= ~(1L << low);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Keeps the values of the array that are (or are not) in the bitmap.
+     */
+    private static char[] filter(char[] array, long[] bits, boolean keepMatches) {
+        final char[] result = new char[array.length];
+        int count = 0;
+        for (char low : array) {
+            if (((bits[low >>> 6] & (1L << low)) != 0) == keepMatches) {
+                result[count++] = low;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int cardinality(Object block) {
+        if (block instanceof char[]) {
+            return ((char[]) block).length;
+        }
+        int cardinality = 0;
+        for (long word : (long[]) block) {
+            cardinality += Long.bitCount(word);
+        }
+        return cardinality;
+    }
+
+    private static char[] insert(char[] array, int index, char value) {
+        final char[] copy = new char[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        copy[index] = value;
+        System.arraycopy(array, index, copy, index + 1, array.length - index);
+        return copy;
+    }
+
+    private static int[] insert(int[] array, int index, int value) {
+        final int[] copy = new int[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        copy[index] = value;
+        System.arraycopy(array, index, copy, index + 1, array.length - index);
+        return copy;
+    }
+
+    private static Object[] insert(Object[] array, int index, Object value) {
+        final Object[] copy = new Object[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        copy[index] = value;
+        System.arraycopy(array, index, copy, index + 1, array.length - index);
+        return copy;
+    }
+
+    private static char[] remove(char[] array, int index) {
+        final char[] copy = new char[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        System.arraycopy(array, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    private static int[] remove(int[] array, int index) {
+        final int[] copy = new int[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        System.arraycopy(array, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    private static Object[] remove(Object[] array, int index) {
+        final Object[] copy = new Object[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        System.arraycopy(array, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    private static Object[] replace(Object[] array, int index, Object value) {
+        final Object[] copy = array.clone();
+        copy[index] = value;
+        return copy;
+    }
+
+    private static int[] replace(int[] array, int index, int value) {
+        final int[] copy = array.clone();
+        copy[index] = value;
+        return copy;
+    }
+
+    /**
+     * Assembles a set from values or whole blocks that arrive in ascending order.
+     */
+    private static final class Builder {
+        private char[] keys = new char[4];
+        private Object[] blocks = new Object[4];
+        private int[] cardinalities = new int[4];
+        private int blockCount;
+        private int size;
+
+        private char[] pending = new char[16];
+        private int pendingCount;
+        private int pendingKey = -1;
+
+        /**
+         * Adds a value that is greater than or equal to the previous one; duplicates are ignored.
+         */
+        void add(int value) {
+            final char key = high(value);
+            if (key != pendingKey) {
+                flush();
+                pendingKey = key;
+            }
+            final char low = low(value);
+            if (pendingCount > 0 && pending[pendingCount - 1] == low) {
+                return;
+            }
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            pending[pendingCount++] = low;
+        }
+
+        void addBlock(char key, Object block) {
+            addBlock(key, block, cardinality(block));
+        }
+
+        void addBlock(char key, Object block, int cardinality) {
+            if (cardinality == 0) {
+                return;
+            }
+            if (block instanceof long[] && cardinality <= MAX_ARRAY_SIZE) {
+                block = toArray((long[]) block, cardinality);
+            }
+            if (blockCount == keys.length) {
+                keys = Arrays.copyOf(keys, blockCount * 2);
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+                cardinalities = Arrays.copyOf(cardinalities, blockCount * 2);
+            }
+            keys[blockCount] = key;
+            blocks[blockCount] = block;
+            cardinalities[blockCount++] = cardinality;
+            size += cardinality;
+        }
+
+        private void flush() {
+            if (pendingCount > 0) {
+                addBlock((char) pendingKey, pendingCount > MAX_ARRAY_SIZE ? toBitmap(pending, pendingCount)
+                        : Arrays.copyOf(pending, pendingCount), pendingCount);
+                pendingCount = 0;
+            }
+        }
+
+        IntSet build() {
+            flush();
+            if (size == 0) {
+                return EMPTY;
+            }
+            return new IntSet(Arrays.copyOf(keys, blockCount), Arrays.copyOf(blocks, blockCount),
+                    Arrays.copyOf(cardinalities, blockCount), size);
+        }
+    }
+}
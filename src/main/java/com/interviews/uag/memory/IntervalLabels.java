@@ -0,0 +1,203 @@
+package com.interviews.uag.memory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
+
+/**
+ * Immutable pre/post-order interval labels for the parts of the group hierarchy that are trees, so that most
+ * ancestry checks are a couple of comparisons instead of a traversal.
+ * <p>
+ * The labels cover a forest that is derived from the hierarchy: a group with exactly one parent hangs below that
+ * parent, and every other group is the root of its own tree.  Each group gets an interval {@code [pre, post]}
+ * within the number space of its tree, nested inside the interval of its parent, so a group is below another one
+ * in the forest exactly when its interval lies inside the other's.  Since every edge of the forest is an edge of
+ * the hierarchy, that is always a correct "yes".  It is also a correct "no" for a group whose tree root has no
+ * parents at all, because then the path through the forest is the group's only path upwards; for any other group,
+ * the caller has to fall back to a traversal.
+ * </p>
+ * <p>
+ * Intervals are numbered with gaps.  A new child takes a slice of the unused space at the end of its parent's
+ * interval, and only its own subtree is numbered, so changes cost time proportional to the subtree that moves.
+ * When a parent runs out of space, the whole tree that contains it is renumbered evenly.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+final class IntervalLabels {
+    static final IntervalLabels EMPTY = new IntervalLabels(PersistentIntMap.<Label>empty());
+
+    /**
+     * The number space of each tree.
+     */
+    private static final long SPACE = 1L << 62;
+    /**
+     * The most space that a later child takes per group in its subtree, so that its siblings can take slices too.
+     */
+    private static final long CHILD_SPAN = 1L << 24;
+
+    private final PersistentIntMap<Label> labels;
+
+    private IntervalLabels(PersistentIntMap<Label> labels) {
+        this.labels = labels;
+    }
+
+    /**
+     * Returns whether the labels show that the descendant is nested beneath the ancestor.
+     */
+    boolean isNested(int descendant, int ancestor) {
+        final Label d = labels.get(descendant);
+        final Label a = labels.get(ancestor);
+        return d != null && a != null && d.root == a.root && ((a.pre - d.pre) & (d.post - a.post - 1)) < 0;
+    }
+
+    /**
+     * Returns the root of the tree that the group is labelled in.
+     *
+     * @return the root, or {@code -1} if the group has no label because it has never been nested
+     */
+    int rootOf(int group) {
+        final Label label = labels.get(group);
+        return label == null ? -1 : label.root;
+    }
+
+    /**
+     * Moves a group, together with the groups below it in the forest, after its parents have changed.
+     *
+     * @param group    the group whose parents changed
+     * @param children the child groups by parent, as they are now
+     * @param parents  the parent groups by child, as they are now
+     * @return the updated labels
+     */
+    IntervalLabels parentsChanged(int group, PersistentIntMap<IntSet> children, PersistentIntMap<IntSet> parents) {
+        final IntSet groupParents = get(parents, group);
+        final Label current = labels.get(group);
+        if (groupParents.size() != 1) {
+            if (current != null && current.root == group) {
+                return this;
+            }
+            return new IntervalLabels(layout(labels, group, group, 0, SPACE, children, parents));
+        }
+
+        final int parent = groupParents.iterator().nextInt();
+        PersistentIntMap<Label> updated = labels;
+        Label parentLabel = labels.get(parent);
+        if (parentLabel == null) {
+            parentLabel = new Label(0, SPACE - 1, 0, parent);
+            updated = updated.plus(parent, parentLabel);
+        } else if (isNested(group, parent)) {
+            return this;
+        }
+
+        final int size = sizeOf(group, children, parents);
+        // The first child takes half of the space, so that long chains do not run out quickly
+        final long free = (parentLabel.post - parentLabel.end - 1) / 2;
+        final long span = parentLabel.end == parentLabel.pre ? free : Math.min(free, size * CHILD_SPAN);
+        if (span < 2L * size) {
+            int root = parent;
+            for (IntSet up = get(parents, root); up.size() == 1; up = get(parents, root)) {
+                root = up.iterator().nextInt();
+            }
+            return new IntervalLabels(layout(updated, root, root, 0, SPACE, children, parents));
+        }
+        final long start = parentLabel.end + 1;
+        updated = updated.plus(parent, new Label(parentLabel.pre, parentLabel.post, start + span - 1,
+                parentLabel.root));
+        return new IntervalLabels(layout(updated, group, parentLabel.root, start, span, children, parents));
+    }
+
+    /**
+     * Removes the label of a deleted group.  The groups below it must already have been moved.
+     */
+    IntervalLabels minus(int group) {
+        final PersistentIntMap<Label> updated = labels.minus(group);
+        return updated == labels ? this : new IntervalLabels(updated);
+    }
+
+    private static int sizeOf(int group, PersistentIntMap<IntSet> children, PersistentIntMap<IntSet> parents) {
+        final IntHashSet subtree = new IntHashSet();
+        subtree.add(group);
+        for (int i = 0; i < subtree.size(); i++) {
+            for (int child : get(children, subtree.get(i)).toArray()) {
+                if (get(parents, child).size() == 1) {
+                    subtree.add(child);
+                }
+            }
+        }
+        return subtree.size();
+    }
+
+    /**
+     * Numbers the subtree of the given group evenly within {@code [start, start + span)}, leaving the same
+     * amount of unused space at the end of every interval.
+     */
+    private static PersistentIntMap<Label> layout(PersistentIntMap<Label> labels, int group, int root, long start,
+                                                  long span, PersistentIntMap<IntSet> children,
+                                                  PersistentIntMap<IntSet> parents) {
+        // The subtree in breadth-first order, in which the children of each group are contiguous
+        final IntHashSet order = new IntHashSet();
+        order.add(group);
+        int[] parentIndex = new int[16];
+        parentIndex[0] = -1;
+        for (int i = 0; i < order.size(); i++) {
+            for (int child : get(children, order.get(i)).toArray()) {
+                if (get(parents, child).size() == 1 && order.add(child)) {
+                    if (order.size() > parentIndex.length) {
+                        parentIndex = Arrays.copyOf(parentIndex, parentIndex.length * 2);
+                    }
+                    parentIndex[order.size() - 1] = i;
+                }
+            }
+        }
+
+        final int count = order.size();
+        final long[] sizes = new long[count];
+        for (int i = count - 1; i >= 0; i--) {
+            sizes[i]++;
+            if (i > 0) {
+                sizes[parentIndex[i]] += sizes[i];
+            }
+        }
+
+        final long unit = span / (2 * sizes[0]);
+        final long[] positions = new long[count];
+        final long[] cursors = new long[count];
+        positions[0] = start;
+        PersistentIntMap<Label> updated = labels;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                final int parent = parentIndex[i];
+                positions[i] = cursors[parent];
+                cursors[parent] += 2 * sizes[i] * unit;
+            }
+            cursors[i] = positions[i] + unit;
+        }
+        for (int i = 0; i < count; i++) {
+            final long pre = positions[i];
+            final long post = i == 0 ? start + span - 1 : pre + 2 * sizes[i] * unit - 1;
+            final long end = sizes[i] > 1 ? cursors[i] - 1 : pre;
+            updated = updated.plus(order.get(i), new Label(pre, post, end, root));
+        }
+        return updated;
+    }
+
+    private static IntSet get(PersistentIntMap<IntSet> edges, int key) {
+        final IntSet values = edges.get(key);
+        return values == null ? IntSet.EMPTY : values;
+    }
+
+    private static final class Label {
+        final long pre;
+        final long post;
+        /**
+         * The last number that is used by the children; the numbers after it, up to {@link #post}, are free.
+         */
+        final long end;
+        final int root;
+
+        Label(long pre, long post, long end, int root) {
+            this.pre = pre;
+            this.post = post;
+            this.end = end;
+            this.root = root;
+        }
+    }
+}
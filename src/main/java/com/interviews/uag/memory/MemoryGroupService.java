@@ -2,26 +2,27 @@ package com.interviews.uag.memory;
 
 import com.interviews.uag.api.Group;
 import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.Page;
 import com.interviews.uag.core.AbstractService;
 import com.interviews.uag.core.Services;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collection;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * An implementation of the group service that stores all groups in memory.
+ * It is safe for concurrent use by multiple threads.
  */
 @ParametersAreNonnullByDefault
 public class MemoryGroupService extends AbstractService implements GroupService {
     private static final Logger LOG = LoggerFactory.getLogger(MemoryGroupService.class);
 
-    private final Map<String, Group> groups = new HashMap<>();
-
+    private final NameIndex<Group> groups = new NameIndex<>();
 
     public MemoryGroupService(Services services) {
         super(services);
@@ -32,15 +33,57 @@ public class MemoryGroupService extends AbstractService implements GroupService
         return groups.get(name);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The names are kept in sorted indexes, so each page is one range scan and costs time proportional to its
+     * size.  The cursor is the name of the last group on the previous page.
+     * </p>
+     */
+    public Page<Group> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+        requireNonNull(prefix, "prefix");
+        return groups.search(prefix, ignoreCase, cursor, pageSize);
+    }
+
     public void create(Group group) {
         requireNonNull(group, "group");
-        if (groups.containsKey(group.getName())) {
+        if (groups.putIfAbsent(group.getName(), group) != null) {
             throw new IllegalArgumentException("Group " + group.getName() + " already exists");
         }
-        groups.put(group.getName(), group);
         LOG.debug("Created group: {}", group.getName());
     }
 
+    /**
+     * Creates all of the given groups in one pass.
+     * This is the bulk path for loaders, so groups that already exist are left as they are rather than rejected.
+     *
+     * @param groups the groups to create
+     * @return the number of groups that were created
+     */
+    public int importGroups(Collection<Group> groups) {
+        requireNonNull(groups, "groups");
+        int created = 0;
+        for (Group group : groups) {
+            requireNonNull(group, "group");
+            if (this.groups.putIfAbsent(group.getName(), group) == null) {
+                created++;
+            }
+        }
+        LOG.debug("Imported {} groups", created);
+        return created;
+    }
+
+    /**
+     * Returns every group that exists, for writing backups.
+     * The collection is a read-only view that reflects concurrent changes, but never throws
+     * {@link java.util.ConcurrentModificationException}.
+     *
+     * @return the groups
+     */
+    public Collection<Group> getGroups() {
+        return groups.values();
+    }
+
     public void delete(Group group) {
         requireNonNull(group, "group");
         groups.remove(group.getName());
@@ -1,91 +1,374 @@
 package com.interviews.uag.memory;
 
 import com.interviews.uag.api.Group;
+import com.interviews.uag.api.MembershipQuery;
 import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
 import com.interviews.uag.api.User;
 import com.interviews.uag.core.AbstractService;
 import com.interviews.uag.core.Services;
+import com.interviews.uag.core.Traversal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * An implementation of the membership service that stores user and group relationships in memory.
+ * <p>
+ * Besides the direct relationships, this keeps a reverse index from every user to the groups that the user was
+ * added to, and an effective-membership index that maps every user to all of the groups that the user belongs to,
+ * either directly or through nested groups.  Both indexes are updated by each mutation so that
+ * {@link #isUserInGroup(User, Group)} is a single lookup regardless of how deep the hierarchy is, and so that a
+ * user's groups can be listed without scanning every group.
+ * </p>
+ * <p>
+ * This service is safe for concurrent use.  All of the relationships live in an immutable, versioned
+ * {@link Snapshot}.  Readers take no locks: every query reads the snapshot that is current when it starts and so
+ * never observes a half-applied change.  Writers are serialized; each one derives a new snapshot from the current
+ * one using persistent collections, which copy only the paths to the changed entries, and publishes it atomically.
+ * </p>
+ * <p>
+ * To keep the heap small for directories with tens of millions of memberships, the snapshot refers to users and
+ * groups by dense {@code int} ids from an {@link IdDictionary} and stores every relationship in an {@link IntSet},
+ * a compressed bitmap that costs at most two bytes per edge.  Users and groups are only materialized when a caller
+ * iterates a returned collection, and {@link #getUsersMatching(MembershipQuery)} combines the bitmaps directly.
+ * </p>
+ * <p>
+ * After changes to many memberships at once, such as {@link #importMemberships(Map, Map)}, the effective
+ * memberships of all affected users are rebuilt in one pass that is spread over a {@link ForkJoinPool}; see
+ * {@link #recomputeEffectiveMemberships()}.
+ * </p>
  */
 @ParametersAreNonnullByDefault
 public class MemoryMembershipService extends AbstractService implements MembershipService {
     private static final Logger LOG = LoggerFactory.getLogger(MemoryMembershipService.class);
 
-    private final Map<Group, Set<Group>> childGroupsByParent = new HashMap<>();
-    private final Map<Group, Set<User>> usersByGroup = new HashMap<>();
+    private final Object writeLock = new Object();
+    private final int maxDepth;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
 
     public MemoryMembershipService(Services services) {
+        this(services, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a service that only follows the group hierarchy to a limited depth.
+     * <p>
+     * A group counts as nested in another one only if it can be reached from it in at most {@code maxDepth}
+     * steps, and a user belongs to a group through nesting only if one of the user's direct groups is nested in it
+     * that way.  This bounds the cost of every traversal on hierarchies that are unexpectedly deep.
+     * </p>
+     *
+     * @param services the services to resolve users and groups with
+     * @param maxDepth the most levels of nesting to follow; must be positive
+     */
+    public MemoryMembershipService(Services services, int maxDepth) {
         super(services);
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth must be positive: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return the most levels of nesting that are followed, which is {@link Integer#MAX_VALUE} if there is no limit
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the version of the currently published relationships.
+     * The version increases by one with every change that is published.
+     *
+     * @return the current version, starting at {@code 0} for a new service
+     */
+    public long getVersion() {
+        return snapshot.version;
     }
 
     @Override
     public void addGroupToGroup(Group child, Group parent) {
-        requireExists(parent);
-        requireExists(child);
+        requireNonNull(parent, "parent");
+        requireNonNull(child, "child");
 
-        Set<Group> children = childGroupsByParent.get(parent);
-        if (children == null) {
-            children = new HashSet<>();
-            childGroupsByParent.put(parent, children);
+        synchronized (writeLock) {
+            requireExists(parent);
+            requireExists(child);
+            addGroups(Collections.singleton(child), parent);
         }
-        children.add(child);
 
         LOG.debug("Added child group " + child + " to parent group " + parent);
     }
 
+    @Override
+    public void addGroupsToGroup(Collection<Group> children, Group parent) {
+        requireNonNull(children, "children");
+        requireNonNull(parent, "parent");
+        final Set<Group> distinct = new LinkedHashSet<>(children);
+        for (Group child : distinct) {
+            requireNonNull(child, "child");
+        }
+
+        synchronized (writeLock) {
+            requireExists(parent);
+            for (Group child : distinct) {
+                requireExists(child);
+            }
+            addGroups(distinct, parent);
+        }
+
+        LOG.debug("Added {} child groups to parent group {}", distinct.size(), parent);
+    }
+
+    /**
+     * Nests the children in the parent without checking that they exist, for callers that have already checked
+     * and that keep the groups from being deleted meanwhile.  A cycle is still rejected, before anything changes;
+     * nothing else is.
+     */
+    void addCheckedGroupsToGroup(Collection<Group> children, Group parent) {
+        synchronized (writeLock) {
+            addGroups(children, parent);
+        }
+
+        LOG.debug("Added {} child groups to parent group {}", children.size(), parent);
+    }
+
     public void addUserToGroup(User user, Group group) {
-        requireExists(user);
-        requireExists(group);
+        requireNonNull(user, "user");
+        requireNonNull(group, "group");
 
-        Set<User> users = usersByGroup.get(group);
-        if (users == null) {
-            users = new HashSet<>();
-            usersByGroup.put(group, users);
+        synchronized (writeLock) {
+            requireExists(user);
+            requireExists(group);
+            addUsers(Collections.singleton(user), group);
         }
-        users.add(user);
 
         LOG.debug("Added user " + user + " to group " + group);
     }
 
+    @Override
+    public void addUsersToGroup(Collection<User> users, Group group) {
+        requireNonNull(users, "users");
+        requireNonNull(group, "group");
+        final Set<User> distinct = new LinkedHashSet<>(users);
+        for (User user : distinct) {
+            requireNonNull(user, "user");
+        }
+
+        synchronized (writeLock) {
+            requireExists(group);
+            for (User user : distinct) {
+                requireExists(user);
+            }
+            addUsers(distinct, group);
+        }
+
+        LOG.debug("Added {} users to group {}", distinct.size(), group);
+    }
+
+    /**
+     * Adds the users to the group without rejecting any, for callers that have already checked that they exist.
+     * A user or group that has been deleted since is skipped, as if it had been deleted just after the add.
+     */
+    void addCheckedUsersToGroup(Collection<User> users, Group group) {
+        final List<User> existing = new ArrayList<>(users.size());
+        synchronized (writeLock) {
+            if (services.getGroupService().findByName(group.getName()) != null) {
+                for (User user : users) {
+                    if (services.getUserService().findByName(user.getName()) != null) {
+                        existing.add(user);
+                    }
+                }
+                addUsers(existing, group);
+            }
+        }
+
+        LOG.debug("Added {} users to group {}", existing.size(), group);
+    }
+
+    /**
+     * Must be called while holding {@link #writeLock}, after checking that the groups exist under the same lock.
+     * {@link com.interviews.uag.api.GroupService#delete(Group)} removes the group's name before it removes the
+     * group's relationships, which also takes the lock, so a concurrent add either sees that the group is gone or
+     * publishes its change before the delete cleans up; otherwise the add would bring the deleted group back, with
+     * its edges, when a group of the same name is created again.
+     */
+    private void addGroups(Collection<Group> children, Group parent) {
+        final Update update = new Update(snapshot, maxDepth);
+        if (update.addGroupsToGroup(children, parent, true)) {
+            publish(update);
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #writeLock}, after checking that the users and the group exist under the
+     * same lock, for the same reason as {@link #addGroups(Collection, Group)}: users are deleted the same way.
+     */
+    private void addUsers(Collection<User> users, Group group) {
+        final Update update = new Update(snapshot, maxDepth);
+        if (update.addUsersToGroup(users, group)) {
+            publish(update);
+        }
+    }
+
     public boolean isUserInGroup(User user, Group group) {
         requireNonNull(user, "user");
         requireNonNull(group, "group");
 
-        boolean isInDirectGroup = getUsersInGroup(group).contains(user);
+        final Snapshot snapshot = this.snapshot;
+        final int userId = snapshot.users.idOf(user);
+        final int groupId = snapshot.groups.idOf(group);
+        return userId >= 0 && groupId >= 0 && snapshot.effectiveGroupsByUser.get(userId).contains(groupId);
+    }
 
-        if (isInDirectGroup)
-            return true;
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The user's effective groups are looked up once, in one snapshot, and each group is then one set probe.
+     * </p>
+     */
+    @Override
+    public boolean isUserInAnyGroup(User user, Collection<Group> groups) {
+        requireNonNull(user, "user");
+        requireNonNull(groups, "groups");
 
-        Collection<Group> children = getChildrenGroups(group);
-        for (Group child : children) {
-            if (isUserInGroup(user, child))
+        final Snapshot snapshot = this.snapshot;
+        final IntSet effective = snapshot.effectiveGroupsByUser.get(snapshot.users.idOf(user));
+        for (Group group : groups) {
+            requireNonNull(group, "group");
+            final int groupId = snapshot.groups.idOf(group);
+            if (groupId >= 0 && effective.contains(groupId)) {
                 return true;
+            }
         }
         return false;
     }
 
+    @Override
+    public boolean isUserInAllGroups(User user, Collection<Group> groups) {
+        requireNonNull(user, "user");
+        requireNonNull(groups, "groups");
+
+        final Snapshot snapshot = this.snapshot;
+        final IntSet effective = snapshot.effectiveGroupsByUser.get(snapshot.users.idOf(user));
+        for (Group group : groups) {
+            requireNonNull(group, "group");
+            final int groupId = snapshot.groups.idOf(group);
+            if (groupId < 0 || !effective.contains(groupId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public BitSet checkMany(User user, List<Group> groups) {
+        requireNonNull(user, "user");
+        requireNonNull(groups, "groups");
+
+        final Snapshot snapshot = this.snapshot;
+        final IntSet effective = snapshot.effectiveGroupsByUser.get(snapshot.users.idOf(user));
+        final BitSet result = new BitSet(groups.size());
+        int index = 0;
+        for (Group group : groups) {
+            requireNonNull(group, "group");
+            final int groupId = snapshot.groups.idOf(group);
+            if (groupId >= 0 && effective.contains(groupId)) {
+                result.set(index);
+            }
+            index++;
+        }
+        return result;
+    }
+
     public boolean isGroupInGroup(Group child, Group parent) {
         requireNonNull(child, "child");
         requireNonNull(parent, "parent");
 
-        boolean isInDirectGroup =  getChildrenGroups(parent).contains(child);
+        final Snapshot snapshot = this.snapshot;
+        final int childId = snapshot.groups.idOf(child);
+        final int parentId = snapshot.groups.idOf(parent);
+        if (childId < 0 || parentId < 0) {
+            return false;
+        }
+        if (maxDepth == Integer.MAX_VALUE) {
+            if (snapshot.labels.isNested(childId, parentId)) {
+                return true;
+            }
+            final int root = snapshot.labels.rootOf(childId);
+            if (root < 0 || snapshot.parentGroupsByChild.get(root).isEmpty()) {
+                return false;
+            }
+        }
+        return isGroupInGroup(snapshot, childId, parentId);
+    }
 
-        if (isInDirectGroup)
-            return true;
+    /**
+     * Searches from both ends at once: down from the parent through its children and up from the child through
+     * its parents, one whole level at a time, always advancing whichever frontier is smaller.  The search stops as
+     * soon as one side reaches a group that the other side has already seen, or when either side runs out of
+     * groups.
+     * <p>
+     * Each group is expanded at most once per side, and a narrow branch is explored from its narrow end, so the
+     * search usually touches a small part of both subgraphs.  Nothing is precomputed; the only state is the two
+     * visited sets, which live for the duration of the call.
+     * </p>
+     */
+    private boolean isGroupInGroup(Snapshot snapshot, int child, int parent) {
+        final IntHashSet down = new IntHashSet();
+        final IntHashSet up = new IntHashSet();
+        down.add(parent);
+        up.add(child);
+        int downStart = 0;
+        int upStart = 0;
+        int depth = 0;
+        int nodes = 0;
+        boolean found = false;
+        while (!found && depth < maxDepth) {
+            final int downEnd = down.size();
+            final int upEnd = up.size();
+            if (downStart == downEnd || upStart == upEnd) {
+                break;
+            }
+            depth++;
+            if (downEnd - downStart <= upEnd - upStart) {
+                for (int i = downStart; i < downEnd && !found; i++) {
+                    nodes++;
+                    found = expand(snapshot.childGroupsByParent.get(down.get(i)), down, up);
+                }
+                downStart = downEnd;
+            } else {
+                for (int i = upStart; i < upEnd && !found; i++) {
+                    nodes++;
+                    found = expand(snapshot.parentGroupsByChild.get(up.get(i)), up, down);
+                }
+                upStart = upEnd;
+            }
+        }
+        Traversal.record(depth, nodes);
+        return found;
+    }
 
-        Collection<Group> children = getChildrenGroups(parent);
-        for (Group childGroup : children) {
-            if (isGroupInGroup(child, childGroup))
+    /**
+     * Adds the neighbours of one group to the side that is being advanced.
+     *
+     * @return whether one of them has already been seen by the other side
+     */
+    private static boolean expand(IntSet neighbours, IntHashSet visited, IntHashSet other) {
+        final PrimitiveIterator.OfInt iterator = neighbours.iterator();
+        while (iterator.hasNext()) {
+            final int group = iterator.nextInt();
+            if (other.contains(group)) {
                 return true;
+            }
+            visited.add(group);
         }
         return false;
     }
@@ -93,9 +376,142 @@ public class MemoryMembershipService extends AbstractService implements Membersh
     public Collection<User> getUsersInGroup(Group group) {
         requireNonNull(group, "group");
 
-        final Collection<User> users = usersByGroup.get(group);
-        LOG.debug("Current users in group {}: {}", group.toString(), users == null ? "" : users.toString());
-        return users == null ? Collections.EMPTY_SET : users;
+        final Snapshot snapshot = this.snapshot;
+        final Set<User> users = new IdSetView<>(snapshot.usersByGroup.get(snapshot.groups.idOf(group)), snapshot.users);
+        LOG.debug("Current users in group {}: {}", group, users.size());
+        return users;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The users are ordered by their internal ids, which are assigned as users are first seen, and the cursor
+     * encodes the id to resume from.  Each page reads only its own users from the version that is current when it
+     * is requested, so its cost does not depend on the size of the group.
+     * </p>
+     */
+    @Override
+    public Page<User> getUsersInGroup(Group group, @Nullable String cursor, int pageSize) {
+        requireNonNull(group, "group");
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        final int from = cursor != null ? parseCursor(cursor) : 0;
+
+        final Snapshot snapshot = this.snapshot;
+        final PrimitiveIterator.OfInt ids = snapshot.usersByGroup.get(snapshot.groups.idOf(group)).iterator(from);
+        final List<User> users = new ArrayList<>(Math.min(pageSize, 1024));
+        int last = -1;
+        while (users.size() < pageSize && ids.hasNext()) {
+            last = ids.nextInt();
+            users.add(snapshot.users.get(last));
+        }
+        return new Page<>(users, ids.hasNext() ? Integer.toString(last + 1, Character.MAX_RADIX) : null);
+    }
+
+    private static int parseCursor(String cursor) {
+        try {
+            final int from = Integer.parseInt(cursor, Character.MAX_RADIX);
+            if (from >= 0) {
+                return from;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The users are read from the version that was current when this was called.  Besides the iterator's
+     * position, the walk only keeps the groups it has reached and one bit per user id to skip users that were
+     * already returned.
+     * </p>
+     */
+    @Override
+    public Iterator<User> getEffectiveUsersInGroup(Group group) {
+        requireNonNull(group, "group");
+
+        final Snapshot snapshot = this.snapshot;
+        final int groupId = snapshot.groups.idOf(group);
+        if (groupId < 0) {
+            return Collections.emptyIterator();
+        }
+        return new EffectiveUserIterator(snapshot, groupId, maxDepth);
+    }
+
+    @Override
+    public Collection<Group> getGroupsForUser(User user) {
+        requireNonNull(user, "user");
+
+        final Snapshot snapshot = this.snapshot;
+        return new IdSetView<>(snapshot.groupsByUser.get(snapshot.users.idOf(user)), snapshot.groups);
+    }
+
+    @Override
+    public Collection<Group> getEffectiveGroupsForUser(User user) {
+        requireNonNull(user, "user");
+
+        final Snapshot snapshot = this.snapshot;
+        return new IdSetView<>(snapshot.effectiveGroupsByUser.get(snapshot.users.idOf(user)), snapshot.groups);
+    }
+
+    @Override
+    public Collection<User> getUsersMatching(MembershipQuery query) {
+        requireNonNull(query, "query");
+
+        final Snapshot snapshot = this.snapshot;
+        final IntSet users = query.accept(new MembershipQuery.Visitor<IntSet>() {
+            @Override
+            public IntSet members(Group group, boolean effective) {
+                final int groupId = snapshot.groups.idOf(group);
+                return effective ? getEffectiveUsers(snapshot, groupId) : snapshot.usersByGroup.get(groupId);
+            }
+
+            @Override
+            public IntSet and(IntSet left, IntSet right) {
+                return IntSet.and(left, right);
+            }
+
+            @Override
+            public IntSet or(IntSet left, IntSet right) {
+                return IntSet.or(left, right);
+            }
+
+            @Override
+            public IntSet andNot(IntSet left, IntSet right) {
+                return IntSet.andNot(left, right);
+            }
+        });
+        return new IdSetView<>(users, snapshot.users);
+    }
+
+    /**
+     * Unites the direct members of the given group and of every group nested beneath it.
+     */
+    private IntSet getEffectiveUsers(Snapshot snapshot, int group) {
+        if (group < 0) {
+            return IntSet.EMPTY;
+        }
+        IntSet users = IntSet.EMPTY;
+        final IntHashSet visited = new IntHashSet();
+        visited.add(group);
+        int depth = 0;
+        int levelEnd = 1;
+        for (int i = 0; i < visited.size(); i++) {
+            if (i == levelEnd) {
+                depth++;
+                levelEnd = visited.size();
+            }
+            final int current = visited.get(i);
+            users = IntSet.or(users, snapshot.usersByGroup.get(current));
+            if (depth < maxDepth) {
+                visited.addAll(snapshot.childGroupsByParent.get(current));
+            }
+        }
+        Traversal.record(depth, visited.size());
+        return users;
     }
 
     @Override
@@ -103,23 +519,234 @@ public class MemoryMembershipService extends AbstractService implements Membersh
         requireNonNull(parent, "parent");
         requireNonNull(child, "child");
 
-        getChildrenGroups(parent).remove(child);
+        synchronized (writeLock) {
+            final Update update = new Update(snapshot, maxDepth);
+            if (update.removeGroupFromGroup(child, parent)) {
+                publish(update);
+            }
+        }
     }
 
     public void removeUserFromGroup(User user, Group group) {
         requireNonNull(user, "user");
         requireNonNull(group, "group");
 
-        getUsersInGroup(group).remove(user);
+        synchronized (writeLock) {
+            final Update update = new Update(snapshot, maxDepth);
+            if (update.removeUsersFromGroup(Collections.singleton(user), group)) {
+                publish(update);
+            }
+        }
         LOG.debug(String.format("Removed user %s from group %s", user, group));
     }
 
+    @Override
+    public void removeUsersFromGroup(Collection<User> users, Group group) {
+        requireNonNull(users, "users");
+        requireNonNull(group, "group");
+        final Set<User> distinct = new LinkedHashSet<>(users);
+        for (User user : distinct) {
+            requireNonNull(user, "user");
+        }
+
+        synchronized (writeLock) {
+            final Update update = new Update(snapshot, maxDepth);
+            if (update.removeUsersFromGroup(distinct, group)) {
+                publish(update);
+            }
+        }
+        LOG.debug("Removed {} users from group {}", distinct.size(), group);
+    }
+
     @Override
     public void removeGroup(Group group) {
         requireNonNull(group);
 
-        childGroupsByParent.remove(group);
-        usersByGroup.remove(group);
+        synchronized (writeLock) {
+            final Update update = new Update(snapshot, maxDepth);
+            if (update.removeGroup(group)) {
+                publish(update);
+            }
+        }
+    }
+
+    @Override
+    public void removeUser(User user) {
+        requireNonNull(user, "user");
+
+        synchronized (writeLock) {
+            final Update update = new Update(snapshot, maxDepth);
+            if (update.removeUser(user)) {
+                publish(update);
+            }
+        }
+        LOG.debug("Removed all memberships of user {}", user);
+    }
+
+    /**
+     * Adds nested groups and user memberships in bulk, as one atomic change.
+     * <p>
+     * This is the trusted path for loaders that have just created the users and groups themselves: unlike the
+     * methods of {@link MembershipService}, it does not check that they exist.  The nested groups are applied
+     * before the user memberships, and the effective memberships of every affected user are then rebuilt once, in
+     * parallel on the common {@link ForkJoinPool}.
+     * </p>
+     *
+     * @param childrenByParent the child groups to add to each parent group
+     * @param usersByGroup     the users to add to each group
+     */
+    public void importMemberships(Map<Group, ? extends Collection<Group>> childrenByParent,
+                                  Map<Group, ? extends Collection<User>> usersByGroup) {
+        requireNonNull(childrenByParent, "childrenByParent");
+        requireNonNull(usersByGroup, "usersByGroup");
+
+        synchronized (writeLock) {
+            final Update update = new Update(snapshot, maxDepth);
+            update.deferReindexing();
+            boolean changed = false;
+            for (Map.Entry<Group, ? extends Collection<Group>> entry : childrenByParent.entrySet()) {
+                changed |= update.addGroupsToGroup(entry.getValue(), entry.getKey(), false);
+            }
+            changed |= update.importUsers(usersByGroup);
+            if (changed) {
+                update.reindexPending(ForkJoinPool.commonPool());
+                publish(update);
+            }
+        }
+        LOG.debug("Imported memberships for {} groups", usersByGroup.size());
+    }
+
+    /**
+     * Rebuilds the effective memberships of every user from the direct relationships, using every thread of the
+     * common {@link ForkJoinPool}.
+     * <p>
+     * The effective memberships are kept up to date by every change, so this is not needed for correctness; it is
+     * for rebuilding them in one parallel pass after a large reorganisation.  The groups are processed in
+     * topological layers, and each group's ancestors are computed once from its parents' ancestors, so the cost is
+     * one union per edge of the hierarchy plus one per direct membership.
+     * </p>
+     */
+    public void recomputeEffectiveMemberships() {
+        recomputeEffectiveMemberships(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Rebuilds the effective memberships of every user from the direct relationships, as one change.  If they were
+     * all up to date, no new version is published.
+     *
+     * @param pool the pool to do the work on; the calling thread waits for it
+     */
+    public void recomputeEffectiveMemberships(ForkJoinPool pool) {
+        requireNonNull(pool, "pool");
+
+        final int changed;
+        synchronized (writeLock) {
+            final Update update = new Update(snapshot, maxDepth);
+            changed = update.reindexAll(pool);
+            if (changed > 0) {
+                publish(update);
+            }
+        }
+        LOG.debug("Recomputed the effective memberships of every user; {} changed", changed);
+    }
+
+    /**
+     * Rebuilds the effective memberships of the users in the given groups or in any group nested beneath them,
+     * which are the only users that a change to the groups' positions in the hierarchy can affect, using every
+     * thread of the common {@link ForkJoinPool}.
+     *
+     * @param groups the groups whose region of the hierarchy changed; unknown groups are ignored
+     */
+    public void recomputeEffectiveMemberships(Collection<Group> groups) {
+        recomputeEffectiveMemberships(groups, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Rebuilds the effective memberships of the users in the given groups or in any group nested beneath them,
+     * as one change.
+     *
+     * @param groups the groups whose region of the hierarchy changed; unknown groups are ignored
+     * @param pool   the pool to do the work on; the calling thread waits for it
+     */
+    public void recomputeEffectiveMemberships(Collection<Group> groups, ForkJoinPool pool) {
+        requireNonNull(groups, "groups");
+        requireNonNull(pool, "pool");
+        for (Group group : groups) {
+            requireNonNull(group, "group");
+        }
+
+        final int users;
+        synchronized (writeLock) {
+            final Update update = new Update(snapshot, maxDepth);
+            users = update.reindexUnder(groups, pool);
+            if (users > 0) {
+                publish(update);
+            }
+        }
+        LOG.debug("Recomputed the effective memberships of {} users under {} groups", users, groups.size());
+    }
+
+    /**
+     * Returns the current relationships as one consistent, immutable version, for writing backups.
+     * Taking the relationships is cheap; nothing is copied until they are visited.
+     *
+     * @return the relationships of the currently published version
+     */
+    public Relationships getRelationships() {
+        return new Relationships(snapshot);
+    }
+
+    /**
+     * Receives the direct relationships of one group.
+     */
+    public interface RelationshipVisitor {
+        /**
+         * @param group    the group
+         * @param children the groups that were added to the group directly
+         * @param users    the users that were added to the group directly
+         */
+        void visit(Group group, Set<Group> children, Set<User> users);
+    }
+
+    /**
+     * One immutable version of every direct relationship, as returned by {@link #getRelationships()}.
+     * The effective memberships are not included because they are derived from the direct ones.
+     */
+    public static final class Relationships {
+        private final Snapshot snapshot;
+
+        private Relationships(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        public long getVersion() {
+            return snapshot.version;
+        }
+
+        /**
+         * Visits every group that has direct members or nested groups, in no particular order.
+         *
+         * @param visitor the visitor to call for each group
+         */
+        public void forEach(final RelationshipVisitor visitor) {
+            requireNonNull(visitor, "visitor");
+            snapshot.childGroupsByParent.map.forEach(new PersistentIntMap.EntryConsumer<IntSet>() {
+                @Override
+                public void accept(int group, IntSet children) {
+                    visitor.visit(snapshot.groups.get(group), new IdSetView<>(children, snapshot.groups),
+                            new IdSetView<>(snapshot.usersByGroup.get(group), snapshot.users));
+                }
+            });
+            snapshot.usersByGroup.map.forEach(new PersistentIntMap.EntryConsumer<IntSet>() {
+                @Override
+                public void accept(int group, IntSet users) {
+                    if (snapshot.childGroupsByParent.get(group).isEmpty()) {
+                        visitor.visit(snapshot.groups.get(group), Collections.<Group>emptySet(),
+                                new IdSetView<>(users, snapshot.users));
+                    }
+                }
+            });
+        }
     }
 
     private void requireExists(User user) {
@@ -136,10 +763,622 @@ public class MemoryMembershipService extends AbstractService implements Membersh
         }
     }
 
-    private Collection<Group> getChildrenGroups(Group group) {
-        requireNonNull(group, "group");
+    /**
+     * Must be called while holding {@link #writeLock}.
+     */
+    private void publish(Update update) {
+        snapshot = update.toSnapshot();
+    }
+
+    /**
+     * A persistent multimap from ids to sets of ids.
+     */
+    private static final class Edges {
+        static final Edges EMPTY = new Edges(PersistentIntMap.<IntSet>empty());
+
+        final PersistentIntMap<IntSet> map;
+
+        private Edges(PersistentIntMap<IntSet> map) {
+            this.map = map;
+        }
+
+        /**
+         * Returns the ids related to the given id; an unknown or negative id has none.
+         */
+        IntSet get(int key) {
+            final IntSet values = map.get(key);
+            return values == null ? IntSet.EMPTY : values;
+        }
+
+        Edges plus(int key, int value) {
+            final IntSet values = get(key);
+            final IntSet updated = values.plus(value);
+            return updated == values ? this : new Edges(map.plus(key, updated));
+        }
+
+        Edges minus(int key, int value) {
+            final IntSet values = get(key);
+            final IntSet updated = values.minus(value);
+            return updated == values ? this : with(key, updated);
+        }
+
+        Edges with(int key, IntSet values) {
+            final PersistentIntMap<IntSet> updated = values.isEmpty() ? map.minus(key) : map.plus(key, values);
+            return updated == map ? this : new Edges(updated);
+        }
+
+        /**
+         * Replaces the values of many keys at once, which must be in ascending order.
+         */
+        Edges withAll(int[] keys, IntSet[] values) {
+            final IntSet[] entries = new IntSet[values.length];
+            for (int i = 0; i < values.length; i++) {
+                entries[i] = values[i].isEmpty() ? null : values[i];
+            }
+            final PersistentIntMap<IntSet> updated = map.withAll(keys, entries);
+            return updated == map ? this : new Edges(updated);
+        }
+    }
+
+    /**
+     * An immutable, versioned view of every relationship.  Readers hold on to one instance for the duration
+     * of a query.  Users and groups are referred to by the dense ids from {@link #users} and {@link #groups}.
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, IdDictionary.<User>empty(), IdDictionary.<Group>empty(),
+                Edges.EMPTY, Edges.EMPTY, Edges.EMPTY, Edges.EMPTY, Edges.EMPTY, IntervalLabels.EMPTY);
+
+        final long version;
+        final IdDictionary<User> users;
+        final IdDictionary<Group> groups;
+        final Edges childGroupsByParent;
+        final Edges parentGroupsByChild;
+        final Edges usersByGroup;
+        final Edges groupsByUser;
+        final Edges effectiveGroupsByUser;
+        /**
+         * Interval labels for the tree-shaped parts of the hierarchy; only maintained without a depth limit.
+         */
+        final IntervalLabels labels;
+
+        Snapshot(long version, IdDictionary<User> users, IdDictionary<Group> groups, Edges childGroupsByParent,
+                 Edges parentGroupsByChild, Edges usersByGroup, Edges groupsByUser, Edges effectiveGroupsByUser,
+                 IntervalLabels labels) {
+            this.version = version;
+            this.users = users;
+            this.groups = groups;
+            this.childGroupsByParent = childGroupsByParent;
+            this.parentGroupsByChild = parentGroupsByChild;
+            this.usersByGroup = usersByGroup;
+            this.groupsByUser = groupsByUser;
+            this.effectiveGroupsByUser = effectiveGroupsByUser;
+            this.labels = labels;
+        }
+    }
+
+    /**
+     * Walks the groups nested beneath one group breadth-first, one group at a time, and returns each of their
+     * direct members the first time it is seen.
+     */
+    private static final class EffectiveUserIterator implements Iterator<User> {
+        private final Snapshot snapshot;
+        private final int maxDepth;
+        private final IntHashSet groups = new IntHashSet();
+        private final BitSet returned = new BitSet();
+        private PrimitiveIterator.OfInt members;
+        private int nextGroup;
+        private int depth;
+        private int levelEnd = 1;
+        private int next = -1;
+
+        EffectiveUserIterator(Snapshot snapshot, int group, int maxDepth) {
+            this.snapshot = snapshot;
+            this.maxDepth = maxDepth;
+            groups.add(group);
+            members = IntSet.EMPTY.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next < 0) {
+                while (members.hasNext()) {
+                    final int user = members.nextInt();
+                    if (!returned.get(user)) {
+                        returned.set(user);
+                        next = user;
+                        return true;
+                    }
+                }
+                if (nextGroup == groups.size()) {
+                    return false;
+                }
+                if (nextGroup == levelEnd) {
+                    depth++;
+                    levelEnd = groups.size();
+                }
+                final int current = groups.get(nextGroup++);
+                if (depth < maxDepth) {
+                    groups.addAll(snapshot.childGroupsByParent.get(current));
+                }
+                members = snapshot.usersByGroup.get(current).iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public User next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final User user = snapshot.users.get(next);
+            next = -1;
+            return user;
+        }
+    }
+
+    /**
+     * Accumulates changes on top of a snapshot.  Each method reports whether it changed anything, so that
+     * no-op requests do not publish a new version.
+     */
+    private static final class Update {
+        private final long version;
+        private final int maxDepth;
+        private IdDictionary<User> users;
+        private IdDictionary<Group> groups;
+        private Edges childGroupsByParent;
+        private Edges parentGroupsByChild;
+        private Edges usersByGroup;
+        private Edges groupsByUser;
+        private Edges effectiveGroupsByUser;
+        private IntervalLabels labels;
+        /**
+         * The users and the moved groups whose reindexing was deferred, or {@code null} to reindex straight away.
+         */
+        @Nullable
+        private IntHashSet pendingUsers;
+        @Nullable
+        private IntHashSet pendingGroups;
+
+        Update(Snapshot base, int maxDepth) {
+            version = base.version;
+            this.maxDepth = maxDepth;
+            users = base.users;
+            groups = base.groups;
+            childGroupsByParent = base.childGroupsByParent;
+            parentGroupsByChild = base.parentGroupsByChild;
+            usersByGroup = base.usersByGroup;
+            groupsByUser = base.groupsByUser;
+            effectiveGroupsByUser = base.effectiveGroupsByUser;
+            labels = base.labels;
+        }
+
+        Snapshot toSnapshot() {
+            return new Snapshot(version + 1, users, groups, childGroupsByParent, parentGroupsByChild, usersByGroup,
+                    groupsByUser, effectiveGroupsByUser, labels);
+        }
+
+        private int idOf(User user) {
+            users = users.plus(user);
+            return users.idOf(user);
+        }
+
+        private int idOf(Group group) {
+            groups = groups.plus(group);
+            return groups.idOf(group);
+        }
+
+        /**
+         * Nests the children in the parent.  A child that the parent is already nested beneath, or the parent
+         * itself, would create a cycle; it is rejected if {@code strict} and skipped with a warning otherwise.
+         */
+        boolean addGroupsToGroup(Collection<Group> children, Group parent, boolean strict) {
+            final int parentId = idOf(parent);
+            final IntHashSet added = new IntHashSet();
+            for (Group child : children) {
+                final int childId = idOf(child);
+                if (isReachable(childId, parentId)) {
+                    if (strict) {
+                        throw new IllegalArgumentException("Adding group " + child + " to group " + parent
+                                + " would create a cycle");
+                    }
+                    LOG.warn("Skipped adding group {} to group {} because it would create a cycle", child, parent);
+                    continue;
+                }
+                final Edges updated = childGroupsByParent.plus(parentId, childId);
+                if (updated != childGroupsByParent) {
+                    childGroupsByParent = updated;
+                    parentGroupsByChild = parentGroupsByChild.plus(childId, parentId);
+                    added.add(childId);
+                }
+            }
+            if (added.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < added.size(); i++) {
+                relabel(added.get(i));
+            }
+            if (pendingGroups != null) {
+                for (int i = 0; i < added.size(); i++) {
+                    pendingGroups.add(added.get(i));
+                }
+            } else {
+                reindex(getUsersUnder(added));
+            }
+            return true;
+        }
+
+        boolean removeGroupFromGroup(Group child, Group parent) {
+            final int childId = groups.idOf(child);
+            final int parentId = groups.idOf(parent);
+            final Edges updated = childGroupsByParent.minus(parentId, childId);
+            if (updated == childGroupsByParent) {
+                return false;
+            }
+            childGroupsByParent = updated;
+            parentGroupsByChild = parentGroupsByChild.minus(childId, parentId);
+            relabel(childId);
+            reindex(getUsersUnder(childId));
+            return true;
+        }
+
+        /**
+         * Adds the users with one union of the group's bitmap.  Every added user gains the same groups, so their
+         * effective memberships are extended with the group's ancestors instead of being rebuilt one by one.
+         */
+        boolean addUsersToGroup(Collection<User> members, Group group) {
+            final int groupId = idOf(group);
+            final int[] userIds = new int[members.size()];
+            int count = 0;
+            for (User user : members) {
+                userIds[count++] = idOf(user);
+            }
+
+            final IntSet existing = usersByGroup.get(groupId);
+            final IntSet added = IntSet.andNot(IntSet.of(userIds), existing);
+            if (added.isEmpty()) {
+                return false;
+            }
+            usersByGroup = usersByGroup.with(groupId, IntSet.or(existing, added));
+
+            final IntSet inherited = getAncestorsOf(groupId);
+            for (int userId : added.toArray()) {
+                groupsByUser = groupsByUser.plus(userId, groupId);
+                effectiveGroupsByUser = effectiveGroupsByUser.with(userId,
+                        IntSet.or(effectiveGroupsByUser.get(userId), inherited));
+            }
+            return true;
+        }
+
+        /**
+         * Adds the users to their groups and then rebuilds the effective memberships of every affected user once,
+         * however many groups the user was added to.
+         */
+        boolean importUsers(Map<Group, ? extends Collection<User>> membersByGroup) {
+            long[] pairs = new long[16];
+            int count = 0;
+            for (Map.Entry<Group, ? extends Collection<User>> entry : membersByGroup.entrySet()) {
+                final int groupId = idOf(entry.getKey());
+                final int[] userIds = new int[entry.getValue().size()];
+                int i = 0;
+                for (User user : entry.getValue()) {
+                    userIds[i++] = idOf(user);
+                }
+
+                final IntSet existing = usersByGroup.get(groupId);
+                final IntSet added = IntSet.andNot(IntSet.of(userIds), existing);
+                if (added.isEmpty()) {
+                    continue;
+                }
+                usersByGroup = usersByGroup.with(groupId, IntSet.or(existing, added));
+                if (count + added.size() > pairs.length) {
+                    pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, count + added.size()));
+                }
+                for (int userId : added.toArray()) {
+                    pairs[count++] = (long) userId << 32 | groupId;
+                }
+            }
+            if (count == 0) {
+                return false;
+            }
+
+            Arrays.sort(pairs, 0, count);
+            final IntHashSet touched = new IntHashSet();
+            int start = 0;
+            while (start < count) {
+                final int userId = (int) (pairs[start] >>> 32);
+                int end = start;
+                while (end < count && (int) (pairs[end] >>> 32) == userId) {
+                    end++;
+                }
+                final int[] groupIds = new int[end - start];
+                for (int i = start; i < end; i++) {
+                    groupIds[i - start] = (int) pairs[i];
+                }
+                groupsByUser = groupsByUser.with(userId, IntSet.or(groupsByUser.get(userId), IntSet.of(groupIds)));
+                touched.add(userId);
+                start = end;
+            }
+            reindex(touched);
+            return true;
+        }
+
+        boolean removeUsersFromGroup(Collection<User> members, Group group) {
+            final int groupId = groups.idOf(group);
+            final int[] userIds = new int[members.size()];
+            int count = 0;
+            for (User user : members) {
+                final int userId = users.idOf(user);
+                if (userId >= 0) {
+                    userIds[count++] = userId;
+                }
+            }
+
+            final IntSet existing = usersByGroup.get(groupId);
+            final IntSet removed = IntSet.and(IntSet.of(Arrays.copyOf(userIds, count)), existing);
+            if (removed.isEmpty()) {
+                return false;
+            }
+            usersByGroup = usersByGroup.with(groupId, IntSet.andNot(existing, removed));
+            for (int userId : removed.toArray()) {
+                groupsByUser = groupsByUser.minus(userId, groupId);
+                reindex(userId);
+            }
+            return true;
+        }
+
+        /**
+         * Removes every edge of the group, using the reverse indexes to find the parents and members, and then
+         * releases its id.  Only the users nested beneath the group are reindexed.
+         */
+        boolean removeGroup(Group group) {
+            final int groupId = groups.idOf(group);
+            if (groupId < 0) {
+                return false;
+            }
+            final IntHashSet affected = getUsersUnder(groupId);
+            final IntSet children = childGroupsByParent.get(groupId);
+            for (int child : children.toArray()) {
+                parentGroupsByChild = parentGroupsByChild.minus(child, groupId);
+            }
+            childGroupsByParent = childGroupsByParent.with(groupId, IntSet.EMPTY);
+            for (int parent : parentGroupsByChild.get(groupId).toArray()) {
+                childGroupsByParent = childGroupsByParent.minus(parent, groupId);
+            }
+            parentGroupsByChild = parentGroupsByChild.with(groupId, IntSet.EMPTY);
+            for (int child : children.toArray()) {
+                relabel(child);
+            }
+            labels = labels.minus(groupId);
+            for (int user : usersByGroup.get(groupId).toArray()) {
+                groupsByUser = groupsByUser.minus(user, groupId);
+            }
+            usersByGroup = usersByGroup.with(groupId, IntSet.EMPTY);
+            reindex(affected);
+            groups = groups.minus(group);
+            return true;
+        }
+
+        /**
+         * Removes every membership of the user, using the user's own index to find the groups, and then releases
+         * its id.
+         */
+        boolean removeUser(User user) {
+            final int userId = users.idOf(user);
+            if (userId < 0) {
+                return false;
+            }
+            for (int group : groupsByUser.get(userId).toArray()) {
+                usersByGroup = usersByGroup.minus(group, userId);
+            }
+            groupsByUser = groupsByUser.with(userId, IntSet.EMPTY);
+            effectiveGroupsByUser = effectiveGroupsByUser.with(userId, IntSet.EMPTY);
+            users = users.minus(user);
+            return true;
+        }
+
+        private IntHashSet getUsersUnder(int group) {
+            final IntHashSet groups = new IntHashSet();
+            groups.add(group);
+            return getUsersUnder(groups);
+        }
+
+        /**
+         * Collects the direct members of the given groups and of every group nested beneath them.
+         * These are exactly the users whose effective memberships can change when the groups' positions in the
+         * hierarchy change.
+         */
+        private IntHashSet getUsersUnder(IntHashSet groups) {
+            final IntHashSet users = new IntHashSet();
+            final IntHashSet visited = new IntHashSet();
+            for (int i = 0; i < groups.size(); i++) {
+                visited.add(groups.get(i));
+            }
+            int depth = 0;
+            int levelEnd = visited.size();
+            for (int i = 0; i < visited.size(); i++) {
+                if (i == levelEnd) {
+                    depth++;
+                    levelEnd = visited.size();
+                }
+                final int current = visited.get(i);
+                users.addAll(usersByGroup.get(current));
+                for (int child : childGroupsByParent.get(current).toArray()) {
+                    visited.add(child);
+                }
+            }
+            Traversal.record(depth, visited.size());
+            return users;
+        }
+
+        /**
+         * Moves the interval labels of a group whose parents changed.  With a depth limit, the labels are not
+         * used, so they are not kept up to date either.
+         */
+        private void relabel(int group) {
+            if (maxDepth == Integer.MAX_VALUE) {
+                labels = labels.parentsChanged(group, childGroupsByParent.map, parentGroupsByChild.map);
+            }
+        }
+
+        /**
+         * Returns whether the target is the given group or is nested beneath it, however deep.
+         */
+        private boolean isReachable(int group, int target) {
+            if (group == target) {
+                return true;
+            }
+            final IntHashSet visited = new IntHashSet();
+            visited.add(group);
+            for (int i = 0; i < visited.size(); i++) {
+                final IntSet children = childGroupsByParent.get(visited.get(i));
+                if (children.contains(target)) {
+                    return true;
+                }
+                visited.addAll(children);
+            }
+            return false;
+        }
+
+        /**
+         * Returns the given group together with every group that it is nested beneath, up to the maximum depth.
+         */
+        private IntSet getAncestorsOf(int group) {
+            final IntHashSet ancestors = new IntHashSet();
+            ancestors.add(group);
+            int depth = 0;
+            int levelEnd = 1;
+            for (int i = 0; i < ancestors.size(); i++) {
+                if (i == levelEnd) {
+                    depth++;
+                    levelEnd = ancestors.size();
+                }
+                if (depth < maxDepth) {
+                    ancestors.addAll(parentGroupsByChild.get(ancestors.get(i)));
+                }
+            }
+            Traversal.record(depth, ancestors.size());
+            return IntSet.of(ancestors.toArray());
+        }
+
+        /**
+         * Collects the users to reindex instead of reindexing them, until {@link #reindexPending(ForkJoinPool)}
+         * reindexes them all in one parallel pass.
+         */
+        void deferReindexing() {
+            pendingUsers = new IntHashSet();
+            pendingGroups = new IntHashSet();
+        }
+
+        void reindexPending(ForkJoinPool pool) {
+            final IntHashSet users = getUsersUnder(pendingGroups);
+            for (int i = 0; i < pendingUsers.size(); i++) {
+                users.add(pendingUsers.get(i));
+            }
+            pendingUsers = null;
+            pendingGroups = null;
+            reindex(users.toArray(), pool);
+        }
+
+        /**
+         * Rebuilds the effective memberships of every user that has a direct group, and drops those of any other.
+         * Only the users whose effective memberships differ are replaced.
+         *
+         * @return the number of users whose effective memberships changed
+         */
+        int reindexAll(ForkJoinPool pool) {
+            final IntHashSet users = new IntHashSet(groupsByUser.map.size());
+            final PersistentIntMap.EntryConsumer<IntSet> collect = new PersistentIntMap.EntryConsumer<IntSet>() {
+                @Override
+                public void accept(int user, IntSet groups) {
+                    users.add(user);
+                }
+            };
+            groupsByUser.map.forEach(collect);
+            effectiveGroupsByUser.map.forEach(collect);
+            final int[] ids = users.toArray();
+            Arrays.sort(ids);
+            final IntSet[] effective = compute(ids, pool);
+
+            int changed = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (!effective[i].equals(effectiveGroupsByUser.get(ids[i]))) {
+                    ids[changed] = ids[i];
+                    effective[changed++] = effective[i];
+                }
+            }
+            effectiveGroupsByUser = effectiveGroupsByUser.withAll(Arrays.copyOf(ids, changed),
+                    Arrays.copyOf(effective, changed));
+            return changed;
+        }
+
+        /**
+         * Rebuilds the effective memberships of the users under the given groups.
+         *
+         * @return the number of users
+         */
+        int reindexUnder(Collection<Group> region, ForkJoinPool pool) {
+            final IntHashSet groupIds = new IntHashSet();
+            for (Group group : region) {
+                final int groupId = groups.idOf(group);
+                if (groupId >= 0) {
+                    groupIds.add(groupId);
+                }
+            }
+            final IntHashSet users = getUsersUnder(groupIds);
+            reindex(users.toArray(), pool);
+            return users.size();
+        }
+
+        private void reindex(int[] users, ForkJoinPool pool) {
+            Arrays.sort(users);
+            effectiveGroupsByUser = effectiveGroupsByUser.withAll(users, compute(users, pool));
+        }
 
-        final Collection<Group> children = childGroupsByParent.get(group);
-        return children == null ? Collections.EMPTY_SET : children;
+        private IntSet[] compute(int[] users, ForkJoinPool pool) {
+            return new EffectiveMemberships(groupsByUser.map, parentGroupsByChild.map, childGroupsByParent.map,
+                    maxDepth, pool).compute(users);
+        }
+
+        /**
+         * Rebuilds the effective memberships of the given users.  The ancestors of each direct group are computed
+         * once and shared by every user in that group.
+         */
+        private void reindex(IntHashSet users) {
+            if (pendingUsers != null) {
+                for (int i = 0; i < users.size(); i++) {
+                    pendingUsers.add(users.get(i));
+                }
+                return;
+            }
+            final Map<Integer, IntSet> ancestorsByGroup = new HashMap<>();
+            for (int i = 0; i < users.size(); i++) {
+                reindex(users.get(i), ancestorsByGroup);
+            }
+        }
+
+        private void reindex(int user) {
+            if (pendingUsers != null) {
+                pendingUsers.add(user);
+                return;
+            }
+            reindex(user, new HashMap<Integer, IntSet>());
+        }
+
+        /**
+         * Rebuilds the effective memberships of the given user as the union of the ancestors of each of the
+         * user's direct groups.
+         */
+        private void reindex(int user, Map<Integer, IntSet> ancestorsByGroup) {
+            IntSet effective = IntSet.EMPTY;
+            for (int group : groupsByUser.get(user).toArray()) {
+                IntSet ancestors = ancestorsByGroup.get(group);
+                if (ancestors == null) {
+                    ancestors = getAncestorsOf(group);
+                    ancestorsByGroup.put(group, ancestors);
+                }
+                effective = IntSet.or(effective, ancestors);
+            }
+            effectiveGroupsByUser = effectiveGroupsByUser.with(user, effective);
+        }
     }
 }
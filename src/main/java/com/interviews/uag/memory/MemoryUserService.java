@@ -1,5 +1,6 @@
 package com.interviews.uag.memory;
 
+import com.interviews.uag.api.Page;
 import com.interviews.uag.api.User;
 import com.interviews.uag.api.UserService;
 import com.interviews.uag.core.AbstractService;
@@ -7,20 +8,21 @@ import com.interviews.uag.core.Services;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collection;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * An implementation of the user service that stores all users in memory.
+ * It is safe for concurrent use by multiple threads.
  */
 @ParametersAreNonnullByDefault
 public class MemoryUserService extends AbstractService implements UserService {
     private static final Logger LOG = LoggerFactory.getLogger(MemoryUserService.class);
 
-    private final Map<String, User> users = new HashMap<>();
+    private final NameIndex<User> users = new NameIndex<>();
 
     public MemoryUserService(Services services) {
         super(services);
@@ -31,18 +33,61 @@ public class MemoryUserService extends AbstractService implements UserService {
         return users.get(name);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The names are kept in sorted indexes, so each page is one range scan and costs time proportional to its
+     * size.  The cursor is the name of the last user on the previous page.
+     * </p>
+     */
+    public Page<User> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+        requireNonNull(prefix, "prefix");
+        return users.search(prefix, ignoreCase, cursor, pageSize);
+    }
+
     public void create(User user) {
         requireNonNull(user, "user");
-        if (users.containsKey(user.getName())) {
+        if (users.putIfAbsent(user.getName(), user) != null) {
             throw new IllegalArgumentException("User " + user.getName() + " already exists");
         }
-        users.put(user.getName(), user);
         LOG.debug("Created user: {}", user.getName());
     }
 
+    /**
+     * Creates all of the given users in one pass.
+     * This is the bulk path for loaders, so users that already exist are left as they are rather than rejected.
+     *
+     * @param users the users to create
+     * @return the number of users that were created
+     */
+    public int importUsers(Collection<User> users) {
+        requireNonNull(users, "users");
+        int created = 0;
+        for (User user : users) {
+            requireNonNull(user, "user");
+            if (this.users.putIfAbsent(user.getName(), user) == null) {
+                created++;
+            }
+        }
+        LOG.debug("Imported {} users", created);
+        return created;
+    }
+
+    /**
+     * Returns every user that exists, for writing backups.
+     * The collection is a read-only view that reflects concurrent changes, but never throws
+     * {@link java.util.ConcurrentModificationException}.
+     *
+     * @return the users
+     */
+    public Collection<User> getUsers() {
+        return users.values();
+    }
+
     public void delete(User user) {
         requireNonNull(user, "user");
         users.remove(user.getName());
+        services.getMembershipService().removeUser(user);
         LOG.debug("Deleted user: {}", user.getName());
     }
 }
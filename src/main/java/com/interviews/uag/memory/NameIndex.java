@@ -0,0 +1,133 @@
+package com.interviews.uag.memory;
+
+import com.interviews.uag.api.Page;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Users or groups by name, with sorted indexes for prefix searches.
+ * <p>
+ * Exact lookups go to a hash map.  The names are also kept in a sorted set, and in a sorted map keyed by the
+ * case-folded name followed by the name itself, so that a prefix search is one range scan of either index and
+ * costs time proportional to the matches it returns.  The indexes only hold the name strings; the values are
+ * always looked up in the hash map, so an index entry left behind by a create racing with a delete of the same
+ * name is never returned.
+ * </p>
+ * <p>
+ * It is safe for concurrent use by multiple threads.
+ * </p>
+ *
+ * @param <T> the type of the values, which are identified by their names
+ */
+@ParametersAreNonnullByDefault
+final class NameIndex<T> {
+    /**
+     * Separates the folded name from the name in the keys of the folded index.  It sorts before every other
+     * character, so a name sorts before the longer names that it is a prefix of.
+     */
+    private static final char SEPARATOR = '\0';
+
+    private final ConcurrentMap<String, T> byName = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<String> names = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListMap<String, String> foldedNames = new ConcurrentSkipListMap<>();
+
+    static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static String foldedKey(String name) {
+        return fold(name) + SEPARATOR + name;
+    }
+
+    @Nullable
+    T get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * @return the value that already had that name, in which case nothing was added, or {@code null}
+     */
+    @Nullable
+    T putIfAbsent(String name, T value) {
+        final T existing = byName.putIfAbsent(name, value);
+        if (existing == null) {
+            names.add(name);
+            foldedNames.put(foldedKey(name), name);
+        }
+        return existing;
+    }
+
+    void remove(String name) {
+        if (byName.remove(name) != null) {
+            final String key = foldedKey(name);
+            names.remove(name);
+            foldedNames.remove(key);
+            if (byName.containsKey(name)) {
+                // Created again meanwhile, possibly before the removal from the indexes
+                names.add(name);
+                foldedNames.put(key, name);
+            }
+        }
+    }
+
+    Collection<T> values() {
+        return Collections.unmodifiableCollection(byName.values());
+    }
+
+    /**
+     * Returns one page of the values whose names start with the prefix, ordered by name, or by folded name and
+     * then name if the case is ignored.  The cursor is the name of the last value on the previous page.
+     */
+    Page<T> search(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        final String start = ignoreCase ? fold(prefix) : prefix;
+        if (cursor != null && !(ignoreCase ? fold(cursor) : cursor).startsWith(start)) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+
+        final Iterable<String> candidates;
+        if (ignoreCase) {
+            final NavigableMap<String, String> tail = cursor != null
+                    ? foldedNames.tailMap(foldedKey(cursor), false)
+                    : foldedNames.tailMap(start, true);
+            candidates = tail.values();
+        } else {
+            final NavigableSet<String> tail = cursor != null
+                    ? names.tailSet(cursor, false)
+                    : names.tailSet(start, true);
+            candidates = tail;
+        }
+
+        final List<T> items = new ArrayList<>(Math.min(pageSize, 1024));
+        String last = null;
+        for (String name : candidates) {
+            if (!(ignoreCase ? fold(name) : name).startsWith(start)) {
+                break;
+            }
+            final T value = byName.get(name);
+            if (value == null) {
+                continue;
+            }
+            if (items.size() == pageSize) {
+                return new Page<>(items, last);
+            }
+            items.add(value);
+            last = name;
+        }
+        return new Page<>(items, null);
+    }
+}
@@ -0,0 +1,363 @@
+package com.interviews.uag.memory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An immutable hash map that is updated by structural sharing.
+ * <p>
+ * This is a hash array mapped trie: {@link #plus(Object, Object)} and {@link #minus(Object)} return a new map
+ * that copies only the handful of nodes on the path to the changed entry and shares everything else with the
+ * original.  That lets the memory services publish a new version of a large index after every change without
+ * copying it, while readers of older versions are never affected.
+ * </p>
+ *
+ * @param <K> the type of the keys; they must have stable {@code hashCode} and {@code equals} implementations
+ * @param <V> the type of the values; {@code null} values are not permitted
+ */
+@ParametersAreNonnullByDefault
+final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(0, BitmapNode.EMPTY);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final int size;
+    private final Node root;
+
+    private PersistentHashMap(int size, Node root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        return (V) root.find(0, hash(key), key);
+    }
+
+    boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a map with the given key mapped to the given value.
+     *
+     * @return this map if the key is already mapped to that exact value instance
+     */
+    PersistentHashMap<K, V> plus(K key, V value) {
+        requireNonNull(key, "key");
+        requireNonNull(value, "value");
+        final boolean[] added = new boolean[1];
+        final Node newRoot = root.assoc(0, hash(key), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(added[0] ? size + 1 : size, newRoot);
+    }
+
+    /**
+     * Returns a map without the given key.
+     *
+     * @return this map if the key was not present
+     */
+    PersistentHashMap<K, V> minus(Object key) {
+        final Node newRoot = root.without(0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot == null) {
+            return empty();
+        }
+        return new PersistentHashMap<>(size - 1, newRoot);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<>(root);
+    }
+
+    Iterator<K> keyIterator() {
+        final Iterator<Map.Entry<K, V>> entries = iterator();
+        return new Iterator<K>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public K next() {
+                return entries.next().getKey();
+            }
+        };
+    }
+
+    private static int hash(Object key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static Object[] insertPair(Object[] array, int index, Object key, Object value) {
+        final Object[] copy = new Object[array.length + 2];
+        System.arraycopy(array, 0, copy, 0, 2 * index);
+        copy[2 * index] = key;
+        copy[2 * index + 1] = value;
+        System.arraycopy(array, 2 * index, copy, 2 * index + 2, array.length - 2 * index);
+        return copy;
+    }
+
+    private static Object[] removePair(Object[] array, int index) {
+        final Object[] copy = new Object[array.length - 2];
+        System.arraycopy(array, 0, copy, 0, 2 * index);
+        System.arraycopy(array, 2 * index + 2, copy, 2 * index, copy.length - 2 * index);
+        return copy;
+    }
+
+    private static Object[] replace(Object[] array, int slot, Object value) {
+        final Object[] copy = array.clone();
+        copy[slot] = value;
+        return copy;
+    }
+
+    /**
+     * A node of the trie.  Every node stores its entries as a flat array of key/value pairs; a pair with a
+     * {@code null} key holds a child node in place of the value.
+     */
+    private abstract static class Node {
+        final Object[] array;
+
+        Node(Object[] array) {
+            this.array = array;
+        }
+
+        @Nullable
+        abstract Object find(int shift, int hash, Object key);
+
+        abstract Node assoc(int shift, int hash, Object key, Object value, boolean[] added);
+
+        @Nullable
+        abstract Node without(int shift, int hash, Object key);
+    }
+
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            final int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            final int index = index(bit);
+            final Object k = array[2 * index];
+            final Object v = array[2 * index + 1];
+            if (k == null) {
+                return ((Node) v).find(shift + BITS, hash, key);
+            }
+            return key.equals(k) ? v : null;
+        }
+
+        @Override
+        Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            final int bit = bit(hash, shift);
+            final int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, insertPair(array, index, key, value));
+            }
+
+            final Object k = array[2 * index];
+            final Object v = array[2 * index + 1];
+            if (k == null) {
+                final Node child = ((Node) v).assoc(shift + BITS, hash, key, value, added);
+                return child == v ? this : new BitmapNode(bitmap, replace(array, 2 * index + 1, child));
+            }
+            if (key.equals(k)) {
+                return value == v ? this : new BitmapNode(bitmap, replace(array, 2 * index + 1, value));
+            }
+
+            added[0] = true;
+            final Node child = createNode(shift + BITS, k, v, key, hash, value);
+            final Object[] copy = array.clone();
+            copy[2 * index] = null;
+            copy[2 * index + 1] = child;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key) {
+            final int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            final int index = index(bit);
+            final Object k = array[2 * index];
+            final Object v = array[2 * index + 1];
+            if (k == null) {
+                final Node child = ((Node) v).without(shift + BITS, hash, key);
+                if (child == v) {
+                    return this;
+                }
+                if (child != null) {
+                    return new BitmapNode(bitmap, replace(array, 2 * index + 1, child));
+                }
+            } else if (!key.equals(k)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            return new BitmapNode(bitmap ^ bit, removePair(array, index));
+        }
+
+        private static Node createNode(int shift, Object key1, Object value1, Object key2, int hash2, Object value2) {
+            final int hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            final boolean[] added = new boolean[1];
+            return EMPTY.assoc(shift, hash1, key1, value1, added).assoc(shift, hash2, key2, value2, added);
+        }
+    }
+
+    /**
+     * Holds the entries whose keys have exactly the same hash.
+     */
+    private static final class CollisionNode extends Node {
+        final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i / 2;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            final int index = indexOf(key);
+            return index < 0 ? null : array[2 * index + 1];
+        }
+
+        @Override
+        Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                final Node wrapped = new BitmapNode(bit(this.hash, shift), new Object[]{null, this});
+                return wrapped.assoc(shift, hash, key, value, added);
+            }
+            final int index = indexOf(key);
+            if (index < 0) {
+                added[0] = true;
+                return new CollisionNode(hash, insertPair(array, array.length / 2, key, value));
+            }
+            return array[2 * index + 1] == value ? this : new CollisionNode(hash, replace(array, 2 * index + 1, value));
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key) {
+            final int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            return new CollisionNode(hash, removePair(array, index));
+        }
+    }
+
+    /**
+     * Walks the trie depth-first with an explicit stack; the depth is bounded by the 32-bit hash.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Node[] nodes = new Node[8];
+        private final int[] positions = new int[8];
+        private int depth;
+        private Map.Entry<K, V> next;
+
+        EntryIterator(Node root) {
+            nodes[0] = root;
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                final Node node = nodes[depth];
+                final int position = positions[depth];
+                if (position >= node.array.length) {
+                    depth--;
+                    continue;
+                }
+                positions[depth] = position + 2;
+                final Object key = node.array[position];
+                final Object value = node.array[position + 1];
+                if (key == null) {
+                    depth++;
+                    nodes[depth] = (Node) value;
+                    positions[depth] = 0;
+                } else {
+                    next = new AbstractMap.SimpleImmutableEntry<>((K) key, (V) value);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<K, V> result = next;
+            advance();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.interviews.uag.memory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An immutable map from small non-negative {@code int} keys to values, updated by structural sharing.
+ * <p>
+ * This is a radix trie with 32-way nodes that is indexed directly by the key, which suits the dense ids that
+ * {@link IdDictionary} hands out: a lookup is a few array reads, and an update copies only the nodes on the path to
+ * the key.
+ * </p>
+ *
+ * @param <V> the type of the values; {@code null} values are not permitted
+ */
+@ParametersAreNonnullByDefault
+final class PersistentIntMap<V> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(new Object[WIDTH], 0, 0);
+
+    /**
+     * Receives the entries of a map in ascending key order.
+     */
+    interface EntryConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    private final Object[] root;
+    private final int shift;
+    private final int size;
+
+    private PersistentIntMap(Object[] root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        if (key < 0 || (key >>> shift) >= WIDTH) {
+            return null;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(key >>> level) & MASK];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (V) node[key & MASK];
+    }
+
+    /**
+     * Returns a map with the given key mapped to the given value.
+     *
+     * @return this map if the key is already mapped to that exact value instance
+     */
+    PersistentIntMap<V> plus(int key, V value) {
+        requireNonNull(value, "value");
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+        if (get(key) == value) {
+            return this;
+        }
+
+        Object[] newRoot = root;
+        int newShift = shift;
+        while ((key >>> newShift) >= WIDTH) {
+            final Object[] grown = new Object[WIDTH];
+            grown[0] = newRoot;
+            newRoot = grown;
+            newShift += BITS;
+        }
+        final boolean[] added = new boolean[1];
+        newRoot = assoc(newRoot, newShift, key, value, added);
+        return new PersistentIntMap<>(newRoot, newShift, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map without the given key.
+     *
+     * @return this map if the key was not present
+     */
+    PersistentIntMap<V> minus(int key) {
+        if (get(key) == null) {
+            return this;
+        }
+        final Object[] newRoot = dissoc(root, shift, key);
+        return new PersistentIntMap<>(newRoot == null ? new Object[WIDTH] : newRoot, shift, size - 1);
+    }
+
+    /**
+     * Returns a map with each of the given keys mapped to the value at the same index, or removed if that value is
+     * {@code null}.  Every node on the paths to the keys is copied once, however many of the keys it leads to, so
+     * this is much cheaper than one {@link #plus(int, Object)} per key for large batches.
+     *
+     * @param keys   the keys, in ascending order and without duplicates
+     * @param values the values, parallel to the keys
+     */
+    PersistentIntMap<V> withAll(int[] keys, V[] values) {
+        requireNonNull(keys, "keys");
+        requireNonNull(values, "values");
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys but " + values.length + " values");
+        }
+        if (keys.length == 0) {
+            return this;
+        }
+        if (keys[0] < 0) {
+            throw new IllegalArgumentException("Negative key: " + keys[0]);
+        }
+        for (int i = 1; i < keys.length; i++) {
+            if (keys[i] <= keys[i - 1]) {
+                throw new IllegalArgumentException("Keys are not ascending at index " + i);
+            }
+        }
+
+        Object[] newRoot = root;
+        int newShift = shift;
+        while ((keys[keys.length - 1] >>> newShift) >= WIDTH) {
+            final Object[] grown = new Object[WIDTH];
+            grown[0] = newRoot;
+            newRoot = grown;
+            newShift += BITS;
+        }
+        final int[] delta = new int[1];
+        newRoot = assocAll(newRoot, newShift, keys, values, 0, keys.length, delta);
+        return new PersistentIntMap<>(newRoot == null ? new Object[WIDTH] : newRoot, newShift, size + delta[0]);
+    }
+
+    /**
+     * Passes every entry to the given consumer in ascending key order.
+     */
+    void forEach(EntryConsumer<? super V> consumer) {
+        forEach(root, shift, 0, consumer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void forEach(Object[] node, int level, int base, EntryConsumer<? super V> consumer) {
+        for (int i = 0; i < WIDTH; i++) {
+            final Object child = node[i];
+            if (child == null) {
+                continue;
+            }
+            final int key = base | (i << level);
+            if (level == 0) {
+                consumer.accept(key, (V) child);
+            } else {
+                forEach((Object[]) child, level - BITS, key, consumer);
+            }
+        }
+    }
+
+    private static Object[] assoc(@Nullable Object[] node, int level, int key, Object value, boolean[] added) {
+        final Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        final int index = (key >>> level) & MASK;
+        if (level == 0) {
+            added[0] = copy[index] == null;
+            copy[index] = value;
+        } else {
+            copy[index] = assoc((Object[]) copy[index], level - BITS, key, value, added);
+        }
+        return copy;
+    }
+
+    /**
+     * Applies the keys in {@code [from, to)}, which all fall under this node, to one copy of it.
+     *
+     * @return the copy, or {@code null} if that leaves the node empty
+     */
+    @Nullable
+    private static Object[] assocAll(@Nullable Object[] node, int level, int[] keys, Object[] values, int from,
+                                     int to, int[] delta) {
+        final Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int start = from;
+        while (start < to) {
+            final int index = (keys[start] >>> level) & MASK;
+            int end = start + 1;
+            while (end < to && ((keys[end] >>> level) & MASK) == index) {
+                end++;
+            }
+            if (level == 0) {
+                final Object value = values[start];
+                if (copy[index] == null) {
+                    delta[0] += value == null ? 0 : 1;
+                } else {
+                    delta[0] -= value == null ? 1 : 0;
+                }
+                copy[index] = value;
+            } else {
+                copy[index] = assocAll((Object[]) copy[index], level - BITS, keys, values, start, end, delta);
+            }
+            start = end;
+        }
+        for (Object child : copy) {
+            if (child != null) {
+                return copy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the node without the key, or {@code null} if that leaves the node empty.
+     */
+    @Nullable
+    private static Object[] dissoc(Object[] node, int level, int key) {
+        final Object[] copy = node.clone();
+        final int index = (key >>> level) & MASK;
+        copy[index] = level == 0 ? null : dissoc((Object[]) copy[index], level - BITS, key);
+        for (Object child : copy) {
+            if (child != null) {
+                return copy;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,470 @@
+package com.interviews.uag.memory;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.MembershipQuery;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import com.interviews.uag.core.AbstractService;
+import com.interviews.uag.core.Services;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An implementation of the membership service that partitions the users over several independent
+ * {@link MemoryMembershipService} shards, so that writes about different users rarely contend for the same lock
+ * and each shard's indexes stay a fraction of the size.
+ * <p>
+ * Every user, with all of its direct and effective memberships, lives in the shard that its name hashes to.
+ * The group hierarchy is needed by every shard to resolve effective memberships, so it is replicated: nesting
+ * changes are applied to every shard in the same order, and each shard updates the effective memberships of its
+ * own users in parallel.
+ * </p>
+ * <p>
+ * Questions about one user are answered by that user's shard alone.  Questions about a group, such as its members
+ * or a {@link MembershipQuery}, are fanned out to every shard with fork-join and the results are concatenated;
+ * since a query only ever combines the memberships of each user separately, and every user is in exactly one
+ * shard, no merging beyond that is needed.
+ * </p>
+ * <p>
+ * A bulk change that spans several shards is checked up front and is then all-or-nothing, but it is applied to
+ * each shard separately, so a concurrent reader can see it in some shards before others.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+public class ShardedMembershipService extends AbstractService implements MembershipService {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedMembershipService.class);
+
+    private final MemoryMembershipService[] shards;
+    /**
+     * Held while a nesting change is applied to every shard, so that they all see the same order of changes.
+     */
+    private final Object hierarchyLock = new Object();
+
+    /**
+     * Creates a service with the given number of shards.
+     *
+     * @param services   the services to resolve users and groups with
+     * @param shardCount the number of shards; must be positive
+     */
+    public ShardedMembershipService(Services services, int shardCount) {
+        super(services);
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        shards = new MemoryMembershipService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new MemoryMembershipService(services);
+        }
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public void addUserToGroup(User user, Group group) {
+        requireNonNull(user, "user");
+        shardOf(user).addUserToGroup(user, group);
+    }
+
+    @Override
+    public void addUsersToGroup(Collection<User> users, final Group group) {
+        requireNonNull(users, "users");
+        requireExists(group);
+        final List<List<User>> byShard = partition(users);
+        for (List<User> shardUsers : byShard) {
+            for (User user : shardUsers) {
+                requireExists(user);
+            }
+        }
+        fanOut(new ShardFunction<Void>() {
+            @Override
+            public Void apply(int shard) {
+                if (!byShard.get(shard).isEmpty()) {
+                    shards[shard].addCheckedUsersToGroup(byShard.get(shard), group);
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void addGroupToGroup(Group child, Group parent) {
+        requireNonNull(child, "child");
+        addGroupsToGroup(Collections.singleton(child), parent);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The groups are checked once, and the first shard then applies the change, rejecting it before anything
+     * changes if it would create a cycle.  Since every shard holds the same hierarchy, the others then accept it
+     * too, so the shards never disagree about the hierarchy.
+     * </p>
+     */
+    @Override
+    public void addGroupsToGroup(Collection<Group> children, final Group parent) {
+        requireNonNull(children, "children");
+        synchronized (hierarchyLock) {
+            requireExists(parent);
+            final Set<Group> distinct = new LinkedHashSet<>(children);
+            for (Group child : distinct) {
+                requireExists(child);
+            }
+            shards[0].addCheckedGroupsToGroup(distinct, parent);
+            fanOutToOthers(new ShardFunction<Void>() {
+                @Override
+                public Void apply(int shard) {
+                    shards[shard].addCheckedGroupsToGroup(distinct, parent);
+                    return null;
+                }
+            });
+        }
+    }
+
+    @Override
+    public boolean isUserInGroup(User user, Group group) {
+        requireNonNull(user, "user");
+        return shardOf(user).isUserInGroup(user, group);
+    }
+
+    @Override
+    public boolean isUserInAnyGroup(User user, Collection<Group> groups) {
+        requireNonNull(user, "user");
+        return shardOf(user).isUserInAnyGroup(user, groups);
+    }
+
+    @Override
+    public boolean isUserInAllGroups(User user, Collection<Group> groups) {
+        requireNonNull(user, "user");
+        return shardOf(user).isUserInAllGroups(user, groups);
+    }
+
+    @Override
+    public BitSet checkMany(User user, List<Group> groups) {
+        requireNonNull(user, "user");
+        return shardOf(user).checkMany(user, groups);
+    }
+
+    @Override
+    public boolean isGroupInGroup(Group child, Group parent) {
+        return shards[0].isGroupInGroup(child, parent);
+    }
+
+    @Override
+    public Collection<User> getUsersInGroup(final Group group) {
+        requireNonNull(group, "group");
+        final Set<User> users = fanOut(new ShardFunction<Set<User>>() {
+            @Override
+            public Set<User> apply(int shard) {
+                return new LinkedHashSet<>(shards[shard].getUsersInGroup(group));
+            }
+
+            @Override
+            public Set<User> merge(Set<User> left, Set<User> right) {
+                left.addAll(right);
+                return left;
+            }
+        });
+        LOG.debug("Current users in group {}: {}", group, users.size());
+        return Collections.unmodifiableSet(users);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The users are returned shard by shard, and the cursor records the shard along with that shard's own cursor.
+     * </p>
+     */
+    @Override
+    public Page<User> getUsersInGroup(Group group, @Nullable String cursor, int pageSize) {
+        requireNonNull(group, "group");
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        int shard = 0;
+        String shardCursor = null;
+        if (cursor != null) {
+            final int separator = cursor.indexOf('.');
+            shard = separator > 0 ? parseShard(cursor.substring(0, separator)) : -1;
+            if (shard < 0 || shard >= shards.length) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            shardCursor = cursor.substring(separator + 1);
+        }
+
+        final List<User> users = new ArrayList<>(Math.min(pageSize, 1024));
+        for (; shard < shards.length; shard++, shardCursor = null) {
+            final Page<User> page = shards[shard].getUsersInGroup(group, shardCursor, pageSize - users.size());
+            users.addAll(page.getItems());
+            if (page.hasNext()) {
+                return new Page<>(users, Integer.toString(shard, Character.MAX_RADIX) + '.' + page.getNextCursor());
+            }
+            if (users.size() == pageSize) {
+                final int next = nextShardWithUsersIn(group, shard + 1);
+                return new Page<>(users, next < shards.length
+                        ? Integer.toString(next, Character.MAX_RADIX) + ".0" : null);
+            }
+        }
+        return new Page<>(users, null);
+    }
+
+    /**
+     * Returns the first shard from the given one on that has users directly in the group, so that a full page
+     * only has a cursor if there is more to come.
+     *
+     * @return the shard, or the number of shards if there is none
+     */
+    private int nextShardWithUsersIn(Group group, int from) {
+        int shard = from;
+        while (shard < shards.length && shards[shard].getUsersInGroup(group, null, 1).getItems().isEmpty()) {
+            shard++;
+        }
+        return shard;
+    }
+
+    private static int parseShard(String shard) {
+        try {
+            return Integer.parseInt(shard, Character.MAX_RADIX);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The shards are walked one after the other, each lazily, so the first users come from the first shard
+     * without waiting for the others.
+     * </p>
+     */
+    @Override
+    public Iterator<User> getEffectiveUsersInGroup(final Group group) {
+        requireNonNull(group, "group");
+        return new Iterator<User>() {
+            private int shard;
+            private Iterator<User> current = shards[0].getEffectiveUsersInGroup(group);
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (++shard == shards.length) {
+                        return false;
+                    }
+                    current = shards[shard].getEffectiveUsersInGroup(group);
+                }
+                return true;
+            }
+
+            @Override
+            public User next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    @Override
+    public Collection<Group> getGroupsForUser(User user) {
+        requireNonNull(user, "user");
+        return shardOf(user).getGroupsForUser(user);
+    }
+
+    @Override
+    public Collection<Group> getEffectiveGroupsForUser(User user) {
+        requireNonNull(user, "user");
+        return shardOf(user).getEffectiveGroupsForUser(user);
+    }
+
+    @Override
+    public Collection<User> getUsersMatching(final MembershipQuery query) {
+        requireNonNull(query, "query");
+        return Collections.unmodifiableList(fanOut(new ShardFunction<List<User>>() {
+            @Override
+            public List<User> apply(int shard) {
+                return new ArrayList<>(shards[shard].getUsersMatching(query));
+            }
+
+            @Override
+            public List<User> merge(List<User> left, List<User> right) {
+                left.addAll(right);
+                return left;
+            }
+        }));
+    }
+
+    @Override
+    public void removeUserFromGroup(User user, Group group) {
+        requireNonNull(user, "user");
+        shardOf(user).removeUserFromGroup(user, group);
+    }
+
+    @Override
+    public void removeUsersFromGroup(Collection<User> users, final Group group) {
+        requireNonNull(users, "users");
+        requireNonNull(group, "group");
+        final List<List<User>> byShard = partition(users);
+        fanOut(new ShardFunction<Void>() {
+            @Override
+            public Void apply(int shard) {
+                if (!byShard.get(shard).isEmpty()) {
+                    shards[shard].removeUsersFromGroup(byShard.get(shard), group);
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void removeGroupFromGroup(final Group child, final Group parent) {
+        requireNonNull(child, "child");
+        requireNonNull(parent, "parent");
+        synchronized (hierarchyLock) {
+            fanOut(new ShardFunction<Void>() {
+                @Override
+                public Void apply(int shard) {
+                    shards[shard].removeGroupFromGroup(child, parent);
+                    return null;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void removeGroup(final Group group) {
+        requireNonNull(group, "group");
+        synchronized (hierarchyLock) {
+            fanOut(new ShardFunction<Void>() {
+                @Override
+                public Void apply(int shard) {
+                    shards[shard].removeGroup(group);
+                    return null;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void removeUser(User user) {
+        requireNonNull(user, "user");
+        shardOf(user).removeUser(user);
+    }
+
+    private MemoryMembershipService shardOf(User user) {
+        return shards[shardIndex(user)];
+    }
+
+    int shardIndex(User user) {
+        final int hash = user.hashCode();
+        return ((hash ^ (hash >>> 16)) & 0x7fffffff) % shards.length;
+    }
+
+    private List<List<User>> partition(Collection<User> users) {
+        final List<List<User>> byShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            byShard.add(new ArrayList<User>());
+        }
+        for (User user : new LinkedHashSet<>(users)) {
+            byShard.get(shardIndex(requireNonNull(user, "user"))).add(user);
+        }
+        return byShard;
+    }
+
+    private void requireExists(User user) {
+        requireNonNull(user, "user");
+        if (services.getUserService().findByName(user.getName()) == null) {
+            throw new IllegalArgumentException("User '" + user + "' does not exist!");
+        }
+    }
+
+    private void requireExists(Group group) {
+        requireNonNull(group, "group");
+        if (services.getGroupService().findByName(group.getName()) == null) {
+            throw new IllegalArgumentException("Group '" + group + "' does not exist!");
+        }
+    }
+
+    /**
+     * Applies the function to every shard in parallel, and merges the results.
+     */
+    private <T> T fanOut(ShardFunction<T> function) {
+        if (shards.length == 1) {
+            return function.apply(0);
+        }
+        return ForkJoinPool.commonPool().invoke(new FanOut<>(function, 0, shards.length));
+    }
+
+    /**
+     * Applies the function to every shard but the first, in parallel.
+     */
+    private void fanOutToOthers(ShardFunction<Void> function) {
+        if (shards.length > 1) {
+            ForkJoinPool.commonPool().invoke(new FanOut<>(function, 1, shards.length));
+        }
+    }
+
+    /**
+     * A call to one shard, and how to combine the results of two ranges of shards.
+     */
+    private abstract static class ShardFunction<T> {
+        abstract T apply(int shard);
+
+        /**
+         * Combines the result of a range of shards with that of the range after it.
+         */
+        T merge(T left, T right) {
+            return left;
+        }
+    }
+
+    /**
+     * Splits a range of shards in halves until each task has one shard.
+     */
+    private static final class FanOut<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final ShardFunction<T> function;
+        private final int from;
+        private final int to;
+
+        FanOut(ShardFunction<T> function, int from, int to) {
+            this.function = function;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected T compute() {
+            if (to - from == 1) {
+                return function.apply(from);
+            }
+            final int middle = (from + to) >>> 1;
+            final FanOut<T> right = new FanOut<>(function, middle, to);
+            right.fork();
+            final T left = new FanOut<>(function, from, middle).compute();
+            return function.merge(left, right.join());
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.interviews.uag.metrics;
+
+import javax.annotation.Nonnull;
+import java.beans.ConstructorProperties;
+
+/**
+ * The number of queries about one group.
+ */
+public final class GroupCount {
+    private final String group;
+    private final long calls;
+
+    @ConstructorProperties({"group", "calls"})
+    public GroupCount(String group, long calls) {
+        this.group = group;
+        this.calls = calls;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        return group + '=' + calls;
+    }
+}
@@ -0,0 +1,526 @@
+package com.interviews.uag.metrics;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.MembershipQuery;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import com.interviews.uag.api.UserService;
+import com.interviews.uag.core.Services;
+import com.interviews.uag.core.Traversal;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Wraps any {@link Services} to record, for every method of every service, a latency histogram, the number of
+ * calls and of failures, and how deep and how wide the hierarchy traversals of each call were.  It also counts how
+ * often each group is queried.
+ * <p>
+ * The figures are kept in lock-free counters and read through {@link #getMetrics()}.  Recording a call costs two
+ * {@link System#nanoTime()} calls, a thread-local lookup and a few atomic increments, plus a map lookup for queries
+ * about a group, so the instrumentation can stay on under full load.  Traversal figures are only available from
+ * services that report them through {@link Traversal}, such as the memory-based ones; for other services they are
+ * zero.
+ * </p>
+ * <pre><code>
+ *     final InstrumentedServices services = InstrumentedServices.wrap(ServiceFactory.createServices());
+ *     services.getMetrics().register("directory");
+ * </code></pre>
+ */
+@ParametersAreNonnullByDefault
+public class InstrumentedServices implements Services {
+    private final ServiceMetrics metrics = new ServiceMetrics();
+    private final UserService userService;
+    private final GroupService groupService;
+    private final MembershipService membershipService;
+
+    private InstrumentedServices(Services services) {
+        userService = new InstrumentedUserService(services.getUserService());
+        groupService = new InstrumentedGroupService(services.getGroupService());
+        membershipService = new InstrumentedMembershipService(services.getMembershipService());
+    }
+
+    /**
+     * Wraps the given services.
+     *
+     * @param services the services to instrument
+     * @return the instrumented services, which record their own metrics
+     */
+    public static InstrumentedServices wrap(Services services) {
+        requireNonNull(services, "services");
+        return new InstrumentedServices(services);
+    }
+
+    public ServiceMetrics getMetrics() {
+        return metrics;
+    }
+
+    public GroupService getGroupService() {
+        return groupService;
+    }
+
+    public UserService getUserService() {
+        return userService;
+    }
+
+    public MembershipService getMembershipService() {
+        return membershipService;
+    }
+
+    private static long begin() {
+        Traversal.start();
+        return System.nanoTime();
+    }
+
+    private static void end(OperationMetrics operation, long start) {
+        final long elapsed = System.nanoTime() - start;
+        operation.record(elapsed, Traversal.stop());
+    }
+
+    private final class InstrumentedUserService implements UserService {
+        private final UserService delegate;
+        private final OperationMetrics findByName = metrics.operation("UserService.findByName");
+        private final OperationMetrics findByNamePrefix = metrics.operation("UserService.findByNamePrefix");
+        private final OperationMetrics create = metrics.operation("UserService.create");
+        private final OperationMetrics delete = metrics.operation("UserService.delete");
+
+        InstrumentedUserService(UserService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Nullable
+        @Override
+        public User findByName(String name) {
+            final long start = begin();
+            try {
+                return delegate.findByName(name);
+            } catch (RuntimeException e) {
+                findByName.failed();
+                throw e;
+            } finally {
+                end(findByName, start);
+            }
+        }
+
+        @Override
+        public Page<User> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+            final long start = begin();
+            try {
+                return delegate.findByNamePrefix(prefix, ignoreCase, cursor, pageSize);
+            } catch (RuntimeException e) {
+                findByNamePrefix.failed();
+                throw e;
+            } finally {
+                end(findByNamePrefix, start);
+            }
+        }
+
+        @Override
+        public void create(User user) {
+            final long start = begin();
+            try {
+                delegate.create(user);
+            } catch (RuntimeException e) {
+                create.failed();
+                throw e;
+            } finally {
+                end(create, start);
+            }
+        }
+
+        @Override
+        public void delete(User user) {
+            final long start = begin();
+            try {
+                delegate.delete(user);
+            } catch (RuntimeException e) {
+                delete.failed();
+                throw e;
+            } finally {
+                end(delete, start);
+            }
+        }
+    }
+
+    private final class InstrumentedGroupService implements GroupService {
+        private final GroupService delegate;
+        private final OperationMetrics findByName = metrics.operation("GroupService.findByName");
+        private final OperationMetrics findByNamePrefix = metrics.operation("GroupService.findByNamePrefix");
+        private final OperationMetrics create = metrics.operation("GroupService.create");
+        private final OperationMetrics delete = metrics.operation("GroupService.delete");
+
+        InstrumentedGroupService(GroupService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Nullable
+        @Override
+        public Group findByName(String name) {
+            final long start = begin();
+            try {
+                return delegate.findByName(name);
+            } catch (RuntimeException e) {
+                findByName.failed();
+                throw e;
+            } finally {
+                end(findByName, start);
+            }
+        }
+
+        @Override
+        public Page<Group> findByNamePrefix(String prefix, boolean ignoreCase, @Nullable String cursor, int pageSize) {
+            final long start = begin();
+            try {
+                return delegate.findByNamePrefix(prefix, ignoreCase, cursor, pageSize);
+            } catch (RuntimeException e) {
+                findByNamePrefix.failed();
+                throw e;
+            } finally {
+                end(findByNamePrefix, start);
+            }
+        }
+
+        @Override
+        public void create(Group group) {
+            final long start = begin();
+            try {
+                delegate.create(group);
+            } catch (RuntimeException e) {
+                create.failed();
+                throw e;
+            } finally {
+                end(create, start);
+            }
+        }
+
+        @Override
+        public void delete(Group group) {
+            final long start = begin();
+            try {
+                delegate.delete(group);
+            } catch (RuntimeException e) {
+                delete.failed();
+                throw e;
+            } finally {
+                end(delete, start);
+            }
+        }
+    }
+
+    private final class InstrumentedMembershipService implements MembershipService {
+        private final MembershipService delegate;
+        private final OperationMetrics addUserToGroup = metrics.operation("MembershipService.addUserToGroup");
+        private final OperationMetrics addUsersToGroup = metrics.operation("MembershipService.addUsersToGroup");
+        private final OperationMetrics addGroupToGroup = metrics.operation("MembershipService.addGroupToGroup");
+        private final OperationMetrics addGroupsToGroup = metrics.operation("MembershipService.addGroupsToGroup");
+        private final OperationMetrics isUserInGroup = metrics.operation("MembershipService.isUserInGroup");
+        private final OperationMetrics isUserInAnyGroup = metrics.operation("MembershipService.isUserInAnyGroup");
+        private final OperationMetrics isUserInAllGroups = metrics.operation("MembershipService.isUserInAllGroups");
+        private final OperationMetrics checkMany = metrics.operation("MembershipService.checkMany");
+        private final OperationMetrics isGroupInGroup = metrics.operation("MembershipService.isGroupInGroup");
+        private final OperationMetrics getUsersInGroup = metrics.operation("MembershipService.getUsersInGroup");
+        private final OperationMetrics getUsersInGroupPage = metrics.operation("MembershipService.getUsersInGroupPage");
+        private final OperationMetrics getEffectiveUsersInGroup =
+                metrics.operation("MembershipService.getEffectiveUsersInGroup");
+        private final OperationMetrics getGroupsForUser = metrics.operation("MembershipService.getGroupsForUser");
+        private final OperationMetrics getEffectiveGroupsForUser =
+                metrics.operation("MembershipService.getEffectiveGroupsForUser");
+        private final OperationMetrics getUsersMatching = metrics.operation("MembershipService.getUsersMatching");
+        private final OperationMetrics removeUserFromGroup = metrics.operation("MembershipService.removeUserFromGroup");
+        private final OperationMetrics removeUsersFromGroup =
+                metrics.operation("MembershipService.removeUsersFromGroup");
+        private final OperationMetrics removeGroupFromGroup =
+                metrics.operation("MembershipService.removeGroupFromGroup");
+        private final OperationMetrics removeGroup = metrics.operation("MembershipService.removeGroup");
+        private final OperationMetrics removeUser = metrics.operation("MembershipService.removeUser");
+
+        InstrumentedMembershipService(MembershipService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void addUserToGroup(User user, Group group) {
+            final long start = begin();
+            try {
+                delegate.addUserToGroup(user, group);
+            } catch (RuntimeException e) {
+                addUserToGroup.failed();
+                throw e;
+            } finally {
+                end(addUserToGroup, start);
+            }
+        }
+
+        @Override
+        public void addUsersToGroup(Collection<User> users, Group group) {
+            final long start = begin();
+            try {
+                delegate.addUsersToGroup(users, group);
+            } catch (RuntimeException e) {
+                addUsersToGroup.failed();
+                throw e;
+            } finally {
+                end(addUsersToGroup, start);
+            }
+        }
+
+        @Override
+        public void addGroupToGroup(Group child, Group parent) {
+            final long start = begin();
+            try {
+                delegate.addGroupToGroup(child, parent);
+            } catch (RuntimeException e) {
+                addGroupToGroup.failed();
+                throw e;
+            } finally {
+                end(addGroupToGroup, start);
+            }
+        }
+
+        @Override
+        public void addGroupsToGroup(Collection<Group> children, Group parent) {
+            final long start = begin();
+            try {
+                delegate.addGroupsToGroup(children, parent);
+            } catch (RuntimeException e) {
+                addGroupsToGroup.failed();
+                throw e;
+            } finally {
+                end(addGroupsToGroup, start);
+            }
+        }
+
+        @Override
+        public boolean isUserInGroup(User user, Group group) {
+            final long start = begin();
+            try {
+                metrics.queried(requireNonNull(group, "group"));
+                return delegate.isUserInGroup(user, group);
+            } catch (RuntimeException e) {
+                isUserInGroup.failed();
+                throw e;
+            } finally {
+                end(isUserInGroup, start);
+            }
+        }
+
+        @Override
+        public boolean isUserInAnyGroup(User user, Collection<Group> groups) {
+            final long start = begin();
+            try {
+                queried(groups);
+                return delegate.isUserInAnyGroup(user, groups);
+            } catch (RuntimeException e) {
+                isUserInAnyGroup.failed();
+                throw e;
+            } finally {
+                end(isUserInAnyGroup, start);
+            }
+        }
+
+        @Override
+        public boolean isUserInAllGroups(User user, Collection<Group> groups) {
+            final long start = begin();
+            try {
+                queried(groups);
+                return delegate.isUserInAllGroups(user, groups);
+            } catch (RuntimeException e) {
+                isUserInAllGroups.failed();
+                throw e;
+            } finally {
+                end(isUserInAllGroups, start);
+            }
+        }
+
+        @Override
+        public BitSet checkMany(User user, List<Group> groups) {
+            final long start = begin();
+            try {
+                queried(groups);
+                return delegate.checkMany(user, groups);
+            } catch (RuntimeException e) {
+                checkMany.failed();
+                throw e;
+            } finally {
+                end(checkMany, start);
+            }
+        }
+
+        private void queried(Collection<Group> groups) {
+            for (Group group : requireNonNull(groups, "groups")) {
+                metrics.queried(requireNonNull(group, "group"));
+            }
+        }
+
+        @Override
+        public boolean isGroupInGroup(Group child, Group parent) {
+            final long start = begin();
+            try {
+                metrics.queried(requireNonNull(parent, "parent"));
+                return delegate.isGroupInGroup(child, parent);
+            } catch (RuntimeException e) {
+                isGroupInGroup.failed();
+                throw e;
+            } finally {
+                end(isGroupInGroup, start);
+            }
+        }
+
+        @Override
+        public Collection<User> getUsersInGroup(Group group) {
+            final long start = begin();
+            try {
+                metrics.queried(requireNonNull(group, "group"));
+                return delegate.getUsersInGroup(group);
+            } catch (RuntimeException e) {
+                getUsersInGroup.failed();
+                throw e;
+            } finally {
+                end(getUsersInGroup, start);
+            }
+        }
+
+        @Override
+        public Page<User> getUsersInGroup(Group group, @Nullable String cursor, int pageSize) {
+            final long start = begin();
+            try {
+                metrics.queried(requireNonNull(group, "group"));
+                return delegate.getUsersInGroup(group, cursor, pageSize);
+            } catch (RuntimeException e) {
+                getUsersInGroupPage.failed();
+                throw e;
+            } finally {
+                end(getUsersInGroupPage, start);
+            }
+        }
+
+        /**
+         * Only the creation of the iterator is timed; the groups are expanded as the caller advances it.
+         */
+        @Override
+        public Iterator<User> getEffectiveUsersInGroup(Group group) {
+            final long start = begin();
+            try {
+                metrics.queried(requireNonNull(group, "group"));
+                return delegate.getEffectiveUsersInGroup(group);
+            } catch (RuntimeException e) {
+                getEffectiveUsersInGroup.failed();
+                throw e;
+            } finally {
+                end(getEffectiveUsersInGroup, start);
+            }
+        }
+
+        @Override
+        public Collection<Group> getGroupsForUser(User user) {
+            final long start = begin();
+            try {
+                return delegate.getGroupsForUser(user);
+            } catch (RuntimeException e) {
+                getGroupsForUser.failed();
+                throw e;
+            } finally {
+                end(getGroupsForUser, start);
+            }
+        }
+
+        @Override
+        public Collection<Group> getEffectiveGroupsForUser(User user) {
+            final long start = begin();
+            try {
+                return delegate.getEffectiveGroupsForUser(user);
+            } catch (RuntimeException e) {
+                getEffectiveGroupsForUser.failed();
+                throw e;
+            } finally {
+                end(getEffectiveGroupsForUser, start);
+            }
+        }
+
+        @Override
+        public Collection<User> getUsersMatching(MembershipQuery query) {
+            final long start = begin();
+            try {
+                return delegate.getUsersMatching(query);
+            } catch (RuntimeException e) {
+                getUsersMatching.failed();
+                throw e;
+            } finally {
+                end(getUsersMatching, start);
+            }
+        }
+
+        @Override
+        public void removeUserFromGroup(User user, Group group) {
+            final long start = begin();
+            try {
+                delegate.removeUserFromGroup(user, group);
+            } catch (RuntimeException e) {
+                removeUserFromGroup.failed();
+                throw e;
+            } finally {
+                end(removeUserFromGroup, start);
+            }
+        }
+
+        @Override
+        public void removeUsersFromGroup(Collection<User> users, Group group) {
+            final long start = begin();
+            try {
+                delegate.removeUsersFromGroup(users, group);
+            } catch (RuntimeException e) {
+                removeUsersFromGroup.failed();
+                throw e;
+            } finally {
+                end(removeUsersFromGroup, start);
+            }
+        }
+
+        @Override
+        public void removeGroupFromGroup(Group child, Group parent) {
+            final long start = begin();
+            try {
+                delegate.removeGroupFromGroup(child, parent);
+            } catch (RuntimeException e) {
+                removeGroupFromGroup.failed();
+                throw e;
+            } finally {
+                end(removeGroupFromGroup, start);
+            }
+        }
+
+        @Override
+        public void removeGroup(Group group) {
+            final long start = begin();
+            try {
+                delegate.removeGroup(group);
+            } catch (RuntimeException e) {
+                removeGroup.failed();
+                throw e;
+            } finally {
+                end(removeGroup, start);
+            }
+        }
+
+        @Override
+        public void removeUser(User user) {
+            final long start = begin();
+            try {
+                delegate.removeUser(user);
+            } catch (RuntimeException e) {
+                removeUser.failed();
+                throw e;
+            } finally {
+                end(removeUser, start);
+            }
+        }
+    }
+}
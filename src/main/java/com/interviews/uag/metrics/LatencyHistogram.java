@@ -0,0 +1,86 @@
+package com.interviews.uag.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, with log-linear buckets.
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} buckets, so a recorded value is known to within 12.5%
+ * whatever its magnitude, and the whole range of {@code long} fits in {@value #BUCKETS} counters.  Recording is a
+ * few shifts and one atomic increment, and never allocates.
+ * </p>
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        counts.incrementAndGet(indexOf(nanos));
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Returns the largest value that falls into the given bucket.
+     */
+    static long upperBoundOf(int index) {
+        final int bucket = index >>> SUB_BITS;
+        if (bucket == 0) {
+            return index;
+        }
+        final long lower = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << (bucket - 1);
+        return lower + (1L << (bucket - 1)) - 1;
+    }
+
+    /**
+     * Copies the counts, so that several percentiles can be read from one consistent set.
+     */
+    long[] counts() {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the value below which the given fraction of the recorded values fall, to within the bucket width.
+     *
+     * @param counts   the counts returned by {@link #counts()}
+     * @param fraction the fraction, between {@code 0} and {@code 1}
+     * @return the percentile, or {@code 0} if nothing was recorded
+     */
+    static long percentile(long[] counts, double fraction) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(counts.length - 1);
+    }
+}
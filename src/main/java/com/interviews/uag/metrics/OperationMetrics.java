@@ -0,0 +1,78 @@
+package com.interviews.uag.metrics;
+
+import com.interviews.uag.core.Traversal;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * The figures recorded for one service method.  Every field is updated without locks.
+ */
+final class OperationMetrics {
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(MAX, 0);
+    private final LongAdder totalDepth = new LongAdder();
+    private final LongAccumulator maxDepth = new LongAccumulator(MAX, 0);
+    private final LongAdder totalNodes = new LongAdder();
+    private final LongAccumulator maxNodes = new LongAccumulator(MAX, 0);
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void record(long nanos, Traversal traversal) {
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        latency.record(nanos);
+        if (traversal.getNodes() > 0) {
+            totalDepth.add(traversal.getDepth());
+            maxDepth.accumulate(traversal.getDepth());
+            totalNodes.add(traversal.getNodes());
+            maxNodes.accumulate(traversal.getNodes());
+        }
+    }
+
+    void failed() {
+        errors.increment();
+    }
+
+    void reset() {
+        errors.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        latency.reset();
+        totalDepth.reset();
+        maxDepth.reset();
+        totalNodes.reset();
+        maxNodes.reset();
+    }
+
+    OperationSnapshot snapshot() {
+        final long[] counts = latency.counts();
+        long calls = 0;
+        for (long count : counts) {
+            calls += count;
+        }
+        final double perCall = calls == 0 ? 0 : 1.0 / calls;
+        return new OperationSnapshot(name, calls, errors.sum(), totalNanos.sum() * perCall,
+                LatencyHistogram.percentile(counts, 0.5), LatencyHistogram.percentile(counts, 0.9),
+                LatencyHistogram.percentile(counts, 0.99), LatencyHistogram.percentile(counts, 0.999),
+                maxNanos.get(), totalDepth.sum() * perCall, maxDepth.get(), totalNodes.sum() * perCall,
+                maxNodes.get());
+    }
+}
@@ -0,0 +1,118 @@
+package com.interviews.uag.metrics;
+
+import javax.annotation.Nonnull;
+import java.beans.ConstructorProperties;
+
+/**
+ * The figures recorded for one service method, as of the moment that they were read.
+ * Latencies are in nanoseconds; percentiles are accurate to within 12.5%.
+ */
+public final class OperationSnapshot {
+    private final String name;
+    private final long calls;
+    private final long errors;
+    private final double meanNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+    private final double meanDepth;
+    private final long maxDepth;
+    private final double meanNodes;
+    private final long maxNodes;
+
+    @ConstructorProperties({"name", "calls", "errors", "meanNanos", "p50Nanos", "p90Nanos", "p99Nanos",
+            "p999Nanos", "maxNanos", "meanDepth", "maxDepth", "meanNodes", "maxNodes"})
+    public OperationSnapshot(String name, long calls, long errors, double meanNanos, long p50Nanos, long p90Nanos,
+                             long p99Nanos, long p999Nanos, long maxNanos, double meanDepth, long maxDepth,
+                             double meanNodes, long maxNodes) {
+        this.name = name;
+        this.calls = calls;
+        this.errors = errors;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+        this.meanDepth = meanDepth;
+        this.maxDepth = maxDepth;
+        this.meanNodes = meanNodes;
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * @return the name of the method, such as {@code MembershipService.isUserInGroup}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of calls, including those that failed
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return the number of calls that threw an exception
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getMeanNanos() {
+        return meanNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return the mean number of hierarchy levels that a call explored, over all calls
+     */
+    public double getMeanDepth() {
+        return meanDepth;
+    }
+
+    public long getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return the mean number of groups that a call visited, over all calls
+     */
+    public double getMeanNodes() {
+        return meanNodes;
+    }
+
+    public long getMaxNodes() {
+        return maxNodes;
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        return String.format("%s: calls=%d errors=%d mean=%.0fns p50=%dns p99=%dns max=%dns depth=%.1f nodes=%.1f",
+                name, calls, errors, meanNanos, p50Nanos, p99Nanos, maxNanos, meanDepth, meanNodes);
+    }
+}
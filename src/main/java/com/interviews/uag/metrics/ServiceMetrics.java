@@ -0,0 +1,161 @@
+package com.interviews.uag.metrics;
+
+import com.interviews.uag.api.Group;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The figures recorded by {@link InstrumentedServices}: per-method latency histograms, call and error counts,
+ * the depth and breadth of the hierarchy traversals, and how often each group is queried.
+ * <p>
+ * Read them with {@link #getOperations()}, or publish them over JMX with {@link #register(String)}.
+ * </p>
+ */
+@ParametersAreNonnullByDefault
+public class ServiceMetrics implements ServiceMetricsMXBean {
+    /**
+     * The most groups whose queries are counted, so that lookups of many groups that do not exist cannot exhaust
+     * memory.
+     */
+    private static final int MAX_TRACKED_GROUPS = 100000;
+    private static final int HOT_GROUPS = 10;
+
+    private final List<OperationMetrics> operations = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<Group, LongAdder> groupCalls = new ConcurrentHashMap<>();
+
+    ServiceMetrics() {
+    }
+
+    OperationMetrics operation(String name) {
+        final OperationMetrics operation = new OperationMetrics(name);
+        operations.add(operation);
+        return operation;
+    }
+
+    void queried(Group group) {
+        LongAdder calls = groupCalls.get(group);
+        if (calls == null) {
+            if (groupCalls.size() >= MAX_TRACKED_GROUPS) {
+                return;
+            }
+            final LongAdder created = new LongAdder();
+            calls = groupCalls.putIfAbsent(group, created);
+            if (calls == null) {
+                calls = created;
+            }
+        }
+        calls.increment();
+    }
+
+    @Override
+    public List<OperationSnapshot> getOperations() {
+        final List<OperationSnapshot> snapshots = new ArrayList<>(operations.size());
+        for (OperationMetrics operation : operations) {
+            snapshots.add(operation.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Returns the figures for one method.
+     *
+     * @param name the name of the method, such as {@code MembershipService.isUserInGroup}
+     * @return the figures, or {@code null} if no such method is instrumented
+     */
+    @Nullable
+    public OperationSnapshot getOperation(String name) {
+        requireNonNull(name, "name");
+        for (OperationMetrics operation : operations) {
+            if (operation.getName().equals(name)) {
+                return operation.snapshot();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<GroupCount> getHotGroups() {
+        return getHotGroups(HOT_GROUPS);
+    }
+
+    /**
+     * Returns the groups that were queried most often.
+     *
+     * @param limit the most groups to return
+     * @return the groups, most often queried first
+     */
+    public List<GroupCount> getHotGroups(int limit) {
+        final List<GroupCount> counts = new ArrayList<>(groupCalls.size());
+        for (Map.Entry<Group, LongAdder> entry : groupCalls.entrySet()) {
+            counts.add(new GroupCount(entry.getKey().getName(), entry.getValue().sum()));
+        }
+        Collections.sort(counts, new Comparator<GroupCount>() {
+            @Override
+            public int compare(GroupCount left, GroupCount right) {
+                return Long.compare(right.getCalls(), left.getCalls());
+            }
+        });
+        return counts.size() > limit ? new ArrayList<>(counts.subList(0, limit)) : counts;
+    }
+
+    @Override
+    public void reset() {
+        for (OperationMetrics operation : operations) {
+            operation.reset();
+        }
+        groupCalls.clear();
+    }
+
+    /**
+     * Publishes these metrics with the platform MBean server, as
+     * {@code com.interviews.uag:type=ServiceMetrics,name=<name>}.
+     *
+     * @param name the name that distinguishes these services from others in the same process
+     * @return the name under which the metrics were registered
+     * @throws IllegalStateException if the metrics cannot be registered, for example because the name is taken
+     */
+    public ObjectName register(String name) {
+        requireNonNull(name, "name");
+        try {
+            final ObjectName objectName = new ObjectName("com.interviews.uag:type=ServiceMetrics,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics as " + name, e);
+        }
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server.
+     *
+     * @param objectName the name returned by {@link #register(String)}
+     */
+    public void unregister(ObjectName objectName) {
+        requireNonNull(objectName, "objectName");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister " + objectName, e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.interviews.uag.metrics;
+
+import java.util.List;
+
+/**
+ * The management interface through which {@link ServiceMetrics} are published over JMX.
+ */
+public interface ServiceMetricsMXBean {
+    /**
+     * @return the figures for every instrumented method, including those that were never called
+     */
+    List<OperationSnapshot> getOperations();
+
+    /**
+     * @return the ten groups that were queried most often, most often first
+     */
+    List<GroupCount> getHotGroups();
+
+    /**
+     * Discards everything recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,164 @@
+package com.interviews.uag.async;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import com.interviews.uag.core.ServiceFactory;
+import com.interviews.uag.core.Services;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncServicesTest {
+    private static final User ALICE = new User("alice");
+    private static final User BOB = new User("bob");
+    private static final Group ADMINS = new Group("admins");
+    private static final Group PEOPLE = new Group("people");
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final Executor manual = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    private Services services;
+
+    @Before
+    public void setUp() {
+        services = ServiceFactory.createServices();
+        services.getUserService().create(ALICE);
+        services.getUserService().create(BOB);
+        services.getGroupService().create(ADMINS);
+        services.getGroupService().create(PEOPLE);
+        services.getMembershipService().addGroupToGroup(ADMINS, PEOPLE);
+        services.getMembershipService().addUserToGroup(ALICE, ADMINS);
+    }
+
+    @Test
+    public void testIdenticalReadsInFlightAreCombined() throws Exception {
+        final AsyncMembershipService membershipService = AsyncServices.wrap(services, manual).getMembershipService();
+        final CompletableFuture<Boolean> first = membershipService.isUserInGroup(ALICE, PEOPLE);
+        final CompletableFuture<Boolean> second = membershipService.isUserInGroup(ALICE, PEOPLE);
+        assertEquals(1, tasks.size());
+        assertNotSame(first, second);
+
+        runTasks();
+        assertTrue(first.get());
+        assertTrue(second.get());
+
+        // Once finished, the same read runs again
+        final CompletableFuture<Boolean> third = membershipService.isUserInGroup(ALICE, PEOPLE);
+        assertEquals(1, tasks.size());
+        runTasks();
+        assertTrue(third.get());
+    }
+
+    @Test
+    public void testDifferentReadsAreNotCombined() throws Exception {
+        final AsyncMembershipService membershipService = AsyncServices.wrap(services, manual).getMembershipService();
+        final CompletableFuture<Boolean> alice = membershipService.isUserInGroup(ALICE, PEOPLE);
+        final CompletableFuture<Boolean> bob = membershipService.isUserInGroup(BOB, PEOPLE);
+        final CompletableFuture<Boolean> group = membershipService.isGroupInGroup(ADMINS, PEOPLE);
+        assertEquals(3, tasks.size());
+
+        runTasks();
+        assertTrue(alice.get());
+        assertFalse(bob.get());
+        assertTrue(group.get());
+    }
+
+    @Test
+    public void testReadsAfterAWriteDoNotJoinEarlierReads() throws Exception {
+        final AsyncMembershipService membershipService = AsyncServices.wrap(services, manual).getMembershipService();
+        final CompletableFuture<Boolean> stale = membershipService.isUserInGroup(BOB, PEOPLE);
+        final CompletableFuture<Void> write = membershipService.addUserToGroup(BOB, ADMINS);
+        tasks.remove(1).run();
+        write.get();
+
+        final CompletableFuture<Boolean> fresh = membershipService.isUserInGroup(BOB, PEOPLE);
+        assertEquals(2, tasks.size());
+        assertFalse(stale.isDone());
+        tasks.remove(1).run();
+        assertTrue(fresh.get());
+
+        runTasks();
+        assertTrue(stale.isDone());
+    }
+
+    @Test
+    public void testCancellingOneCallerDoesNotAffectOthers() throws Exception {
+        final AsyncMembershipService membershipService = AsyncServices.wrap(services, manual).getMembershipService();
+        final CompletableFuture<Boolean> first = membershipService.isUserInGroup(ALICE, PEOPLE);
+        final CompletableFuture<Boolean> second = membershipService.isUserInGroup(ALICE, PEOPLE);
+        first.cancel(false);
+
+        runTasks();
+        assertTrue(second.get());
+    }
+
+    @Test
+    public void testIteratorsAreNotShared() throws Exception {
+        final AsyncMembershipService membershipService = AsyncServices.wrap(services, manual).getMembershipService();
+        final CompletableFuture<Iterator<User>> first = membershipService.getEffectiveUsersInGroup(PEOPLE);
+        final CompletableFuture<Iterator<User>> second = membershipService.getEffectiveUsersInGroup(PEOPLE);
+        assertEquals(2, tasks.size());
+
+        runTasks();
+        assertNotSame(first.get(), second.get());
+        assertEquals(ALICE, first.get().next());
+        assertEquals(ALICE, second.get().next());
+    }
+
+    @Test
+    public void testWritesAreApplied() throws Exception {
+        try (AsyncServices async = AsyncServices.wrap(services)) {
+            async.getMembershipService().addUsersToGroup(singletonList(BOB), ADMINS).get(10, TimeUnit.SECONDS);
+            assertTrue(async.getMembershipService().isUserInGroup(BOB, PEOPLE).get(10, TimeUnit.SECONDS));
+            async.getUserService().delete(BOB).get(10, TimeUnit.SECONDS);
+            assertEquals(null, async.getUserService().findByName("bob").get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testFailuresArePassedOn() throws Exception {
+        final AsyncMembershipService membershipService = AsyncServices.wrap(services, manual).getMembershipService();
+        final CompletableFuture<Page<User>> first = membershipService.getUsersInGroup(ADMINS, "!", 10);
+        final CompletableFuture<Page<User>> second = membershipService.getUsersInGroup(ADMINS, "!", 10);
+        assertEquals(1, tasks.size());
+        runTasks();
+        assertTrue(first.isCompletedExceptionally());
+
+        thrown.expect(ExecutionException.class);
+        thrown.expectCause(instanceOf(IllegalArgumentException.class));
+        second.get();
+    }
+
+    private void runTasks() {
+        final List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        for (Runnable task : pending) {
+            task.run();
+        }
+    }
+}
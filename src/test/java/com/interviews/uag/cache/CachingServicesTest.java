@@ -0,0 +1,137 @@
+package com.interviews.uag.cache;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.User;
+import com.interviews.uag.core.ServiceFactory;
+import com.interviews.uag.metrics.InstrumentedServices;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CachingServicesTest {
+    private static final User ALICE = new User("alice");
+    private static final User BOB = new User("bob");
+    private static final Group STUDENTS = new Group("students");
+    private static final Group SCIENCE = new Group("science");
+    private static final Group PHYSICS = new Group("physics");
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private InstrumentedServices backend;
+    private CachingServices services;
+    private MembershipService membershipService;
+
+    @Before
+    public void setUp() {
+        backend = InstrumentedServices.wrap(ServiceFactory.createServices());
+        services = CachingServices.wrap(backend);
+        for (User user : asList(ALICE, BOB)) {
+            services.getUserService().create(user);
+        }
+        for (Group group : asList(STUDENTS, SCIENCE, PHYSICS)) {
+            services.getGroupService().create(group);
+        }
+        membershipService = services.getMembershipService();
+        membershipService.addGroupToGroup(SCIENCE, STUDENTS);
+        membershipService.addUserToGroup(ALICE, SCIENCE);
+    }
+
+    @Test
+    public void testRepeatedAnswersAreCached() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(membershipService.isUserInGroup(ALICE, STUDENTS));
+            assertFalse(membershipService.isUserInGroup(BOB, STUDENTS));
+            assertTrue(membershipService.isGroupInGroup(SCIENCE, STUDENTS));
+        }
+        assertEquals(2, calls("MembershipService.isUserInGroup"));
+        assertEquals(1, calls("MembershipService.isGroupInGroup"));
+        assertEquals(12, services.getHits());
+        assertEquals(3, services.getMisses());
+    }
+
+    @Test
+    public void testUserMembershipChangeOnlyInvalidatesThatUser() {
+        assertTrue(membershipService.isUserInGroup(ALICE, STUDENTS));
+        assertFalse(membershipService.isUserInGroup(BOB, STUDENTS));
+
+        membershipService.addUserToGroup(BOB, SCIENCE);
+        assertTrue(membershipService.isUserInGroup(BOB, STUDENTS));
+        assertTrue(membershipService.isUserInGroup(ALICE, STUDENTS));
+        assertEquals(3, calls("MembershipService.isUserInGroup"));
+
+        membershipService.removeUsersFromGroup(asList(ALICE, BOB), SCIENCE);
+        assertFalse(membershipService.isUserInGroup(ALICE, STUDENTS));
+        assertFalse(membershipService.isUserInGroup(BOB, STUDENTS));
+    }
+
+    @Test
+    public void testHierarchyChangeInvalidatesMemberships() {
+        assertFalse(membershipService.isUserInGroup(ALICE, PHYSICS));
+        assertFalse(membershipService.isGroupInGroup(SCIENCE, PHYSICS));
+
+        membershipService.addGroupToGroup(STUDENTS, PHYSICS);
+        assertTrue(membershipService.isUserInGroup(ALICE, PHYSICS));
+        assertTrue(membershipService.isGroupInGroup(SCIENCE, PHYSICS));
+
+        membershipService.removeGroupFromGroup(SCIENCE, STUDENTS);
+        assertFalse(membershipService.isUserInGroup(ALICE, PHYSICS));
+        assertFalse(membershipService.isGroupInGroup(SCIENCE, PHYSICS));
+    }
+
+    @Test
+    public void testDeletesInvalidateNamesAndMemberships() {
+        assertTrue(membershipService.isUserInGroup(ALICE, STUDENTS));
+        assertEquals(SCIENCE, services.getGroupService().findByName("science"));
+
+        services.getGroupService().delete(SCIENCE);
+        assertNull(services.getGroupService().findByName("science"));
+        assertFalse(membershipService.isUserInGroup(ALICE, STUDENTS));
+
+        membershipService.addUserToGroup(ALICE, STUDENTS);
+        assertTrue(membershipService.isUserInGroup(ALICE, STUDENTS));
+        services.getUserService().delete(ALICE);
+        assertFalse(membershipService.isUserInGroup(ALICE, STUDENTS));
+    }
+
+    @Test
+    public void testNegativeNameLookupIsCachedUntilCreated() {
+        assertNull(services.getUserService().findByName("carol"));
+        assertNull(services.getUserService().findByName("carol"));
+        assertEquals(1, calls("UserService.findByName"));
+
+        services.getUserService().create(new User("carol"));
+        assertEquals(new User("carol"), services.getUserService().findByName("carol"));
+        assertEquals(2, calls("UserService.findByName"));
+    }
+
+    @Test
+    public void testFailedWriteStillInvalidates() {
+        assertFalse(membershipService.isGroupInGroup(STUDENTS, PHYSICS));
+        try {
+            membershipService.addGroupsToGroup(asList(STUDENTS, new Group("missing")), PHYSICS);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertFalse(membershipService.isGroupInGroup(STUDENTS, PHYSICS));
+        assertEquals(2, calls("MembershipService.isGroupInGroup"));
+    }
+
+    @Test
+    public void testInvalidCapacity() {
+        thrown.expect(IllegalArgumentException.class);
+        CachingServices.wrap(backend, 0);
+    }
+
+    private long calls(String operation) {
+        return backend.getMetrics().getOperation(operation).getCalls();
+    }
+}
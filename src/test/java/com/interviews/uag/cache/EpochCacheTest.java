@@ -0,0 +1,150 @@
+package com.interviews.uag.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EpochCacheTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testStaleStampReloads() {
+        final EpochCache<String, String> cache = new EpochCache<>(10);
+        final AtomicInteger loads = new AtomicInteger();
+        assertEquals("v1", cache.get("key", 1, counting(loads)));
+        assertEquals("v1", cache.get("key", 1, counting(loads)));
+        assertEquals("v2", cache.get("key", 2, counting(loads)));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testNullValuesAreCached() {
+        final EpochCache<String, String> cache = new EpochCache<>(10);
+        final AtomicInteger loads = new AtomicInteger();
+        final EpochCache.Loader<String> loader = new EpochCache.Loader<String>() {
+            @Override
+            public String load() {
+                loads.incrementAndGet();
+                return null;
+            }
+        };
+        assertNull(cache.get("key", 0, loader));
+        assertNull(cache.get("key", 0, loader));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        final EpochCache<Integer, String> cache = new EpochCache<>(1);
+        final AtomicInteger loads = new AtomicInteger();
+        cache.get(1, 0, counting(loads));
+        cache.get(2, 0, counting(loads));
+        assertEquals(1, cache.size());
+        cache.get(1, 0, counting(loads));
+        assertEquals(3, loads.get());
+
+        final EpochCache<Integer, String> larger = new EpochCache<>(100);
+        for (int i = 0; i < 1000; i++) {
+            larger.get(i, 0, counting(loads));
+        }
+        assertEquals(100, larger.size());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        final EpochCache<String, String> cache = new EpochCache<>(10);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final EpochCache.Loader<String> loader = new EpochCache.Loader<String>() {
+            @Override
+            public String load() {
+                loads.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "value";
+            }
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(get(cache, loader)));
+            started.await();
+            for (int i = 0; i < 7; i++) {
+                results.add(executor.submit(get(cache, loader)));
+            }
+            // Give the other callers time to join the load before it finishes
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("value", result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(8, cache.getMisses());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() {
+        final EpochCache<String, String> cache = new EpochCache<>(10);
+        try {
+            cache.get("key", 0, new EpochCache.Loader<String>() {
+                @Override
+                public String load() {
+                    throw new IllegalArgumentException("failed");
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        final AtomicInteger loads = new AtomicInteger();
+        assertEquals("v1", cache.get("key", 0, counting(loads)));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testInvalidCapacity() {
+        thrown.expect(IllegalArgumentException.class);
+        new EpochCache<String, String>(0);
+    }
+
+    private static EpochCache.Loader<String> counting(final AtomicInteger loads) {
+        return new EpochCache.Loader<String>() {
+            @Override
+            public String load() {
+                return "v" + loads.incrementAndGet();
+            }
+        };
+    }
+
+    private static Callable<String> get(final EpochCache<String, String> cache,
+                                        final EpochCache.Loader<String> loader) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return cache.get("key", 0, loader);
+            }
+        };
+    }
+}
@@ -0,0 +1,276 @@
+package com.interviews.uag.durable;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.User;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DurableServicesTest {
+    private static final User ALICE = new User("alice");
+    private static final User BOB = new User("bob");
+    private static final Group STAFF = new Group("staff");
+    private static final Group ADMINS = new Group("admins");
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOperationRoundTrip() throws IOException {
+        final List<Operation> operations = asList(
+                Operation.createUser(ALICE),
+                Operation.deleteGroup(new Group("ünïcode")),
+                Operation.addUsersToGroup(asList(ALICE, BOB), STAFF),
+                Operation.removeGroupFromGroup(ADMINS, STAFF),
+                Operation.removeUser(BOB));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (Operation operation : operations) {
+            operation.writeTo(out);
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (Operation operation : operations) {
+            assertEquals(operation, Operation.readFrom(in));
+        }
+    }
+
+    @Test
+    public void testStateSurvivesRestart() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DurableServices services = DurableServices.open(directory)) {
+            populate(services);
+        }
+
+        try (DurableServices services = DurableServices.open(directory)) {
+            assertPopulated(services);
+        }
+    }
+
+    @Test
+    public void testRestartFromSnapshotAndLogTail() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DurableServices services = DurableServices.open(directory)) {
+            populate(services);
+            services.checkpoint();
+            services.getUserService().create(new User("carol"));
+            services.getMembershipService().addUserToGroup(new User("carol"), STAFF);
+        }
+        assertEquals(1, count(directory, "snapshot-"));
+
+        try (DurableServices services = DurableServices.open(directory)) {
+            assertNotNull(services.getUserService().findByName("carol"));
+            assertEquals(new HashSet<>(asList(BOB, new User("carol"))),
+                    services.getMembershipService().getUsersInGroup(STAFF));
+        }
+    }
+
+    @Test
+    public void testCheckpointDeletesCoveredSegments() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DurableServices services = DurableServices.open(directory, 10)) {
+            services.getGroupService().create(STAFF);
+            for (int i = 0; i < 100; i++) {
+                final User user = new User("user" + i);
+                services.getUserService().create(user);
+                services.getMembershipService().addUserToGroup(user, STAFF);
+            }
+            services.checkpoint();
+        }
+        assertEquals(1, count(directory, "snapshot-"));
+        assertTrue(count(directory, "log-") <= 2);
+
+        try (DurableServices services = DurableServices.open(directory)) {
+            assertEquals(100, services.getMembershipService().getUsersInGroup(STAFF).size());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DurableServices services = DurableServices.open(directory)) {
+            populate(services);
+            services.getUserService().create(new User("carol"));
+        }
+        final File segment = lastSegment(directory);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        try (DurableServices services = DurableServices.open(directory)) {
+            assertPopulated(services);
+            assertNull(services.getUserService().findByName("carol"));
+            services.getUserService().create(new User("dave"));
+        }
+        try (DurableServices services = DurableServices.open(directory)) {
+            assertNotNull(services.getUserService().findByName("dave"));
+        }
+    }
+
+    @Test
+    public void testRejectedOperationIsNotLogged() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (DurableServices services = DurableServices.open(directory)) {
+            services.getGroupService().create(STAFF);
+            try {
+                services.getMembershipService().addUserToGroup(ALICE, STAFF);
+            } catch (IllegalArgumentException expected) {
+                // alice does not exist
+            }
+        }
+
+        try (DurableServices services = DurableServices.open(directory)) {
+            assertFalse(services.getMembershipService().isUserInGroup(ALICE, STAFF));
+            services.getUserService().create(ALICE);
+            thrown.expect(IllegalArgumentException.class);
+            services.getUserService().create(ALICE);
+        }
+    }
+
+    @Test
+    public void testWritesAreRejectedAfterLogFailure() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        final DurableServices services = DurableServices.open(directory);
+        services.getUserService().create(ALICE);
+        // Closing the log makes the next sync fail, as a full disk would
+        services.close();
+        assertFalse("the failed write is reported", writes(services, Operation.createUser(BOB)));
+        assertNotNull("but bob was already visible", services.getUserService().findByName("bob"));
+        assertFalse("later writes are rejected", writes(services, Operation.createGroup(STAFF)));
+        assertNull("before they are applied", services.getGroupService().findByName("staff"));
+
+        try (DurableServices reopened = DurableServices.open(directory)) {
+            assertNotNull(reopened.getUserService().findByName("alice"));
+            assertNull(reopened.getUserService().findByName("bob"));
+            reopened.getUserService().create(BOB);
+        }
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final int threads = 8;
+        final int perThread = 200;
+        try (final DurableServices services = DurableServices.open(directory, 500)) {
+            services.getGroupService().create(STAFF);
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < perThread; i++) {
+                            final User user = new User("user-" + thread + '-' + i);
+                            services.getUserService().create(user);
+                            services.getMembershipService().addUserToGroup(user, STAFF);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+        }
+
+        try (DurableServices services = DurableServices.open(directory)) {
+            final MembershipService membershipService = services.getMembershipService();
+            assertEquals(threads * perThread, membershipService.getUsersInGroup(STAFF).size());
+            for (int t = 0; t < threads; t++) {
+                for (int i = 0; i < perThread; i++) {
+                    assertNotNull(services.getUserService().findByName("user-" + t + '-' + i));
+                }
+            }
+        }
+    }
+
+    private static void populate(DurableServices services) {
+        services.getUserService().create(ALICE);
+        services.getUserService().create(BOB);
+        services.getUserService().create(new User("deleted"));
+        services.getUserService().delete(new User("deleted"));
+        services.getGroupService().create(STAFF);
+        services.getGroupService().create(ADMINS);
+        services.getMembershipService().addGroupToGroup(ADMINS, STAFF);
+        services.getMembershipService().addUsersToGroup(asList(ALICE, BOB), ADMINS);
+        services.getMembershipService().removeUserFromGroup(BOB, ADMINS);
+        services.getMembershipService().addUserToGroup(BOB, STAFF);
+    }
+
+    private static void assertPopulated(DurableServices services) {
+        assertNotNull(services.getUserService().findByName("alice"));
+        assertNotNull(services.getUserService().findByName("bob"));
+        assertNull(services.getUserService().findByName("deleted"));
+        assertNotNull(services.getGroupService().findByName("admins"));
+
+        final MembershipService membershipService = services.getMembershipService();
+        assertTrue(membershipService.isGroupInGroup(ADMINS, STAFF));
+        assertTrue(membershipService.isUserInGroup(ALICE, STAFF));
+        assertFalse(membershipService.isUserInGroup(BOB, ADMINS));
+        assertEquals(new HashSet<>(asList(ALICE)), membershipService.getUsersInGroup(ADMINS));
+        assertEquals(new HashSet<>(asList(BOB)), membershipService.getUsersInGroup(STAFF));
+    }
+
+    private static int count(Path directory, String prefix) {
+        final String[] names = directory.toFile().list();
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static File lastSegment(Path directory) {
+        File last = null;
+        for (File file : directory.toFile().listFiles()) {
+            if (file.getName().startsWith("log-") && file.length() > 0
+                    && (last == null || file.getName().compareTo(last.getName()) > 0)) {
+                last = file;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return whether the operation was written, or {@code false} if writing it failed
+     */
+    private static boolean writes(DurableServices services, Operation operation) {
+        try {
+            operation.applyTo(services);
+            return true;
+        } catch (UncheckedIOException e) {
+            return false;
+        }
+    }
+}
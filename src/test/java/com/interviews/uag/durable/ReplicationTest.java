@@ -0,0 +1,183 @@
+package com.interviews.uag.durable;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicationTest {
+    private static final User ALICE = new User("alice");
+    private static final User BOB = new User("bob");
+    private static final Group STAFF = new Group("staff");
+    private static final Group ADMINS = new Group("admins");
+    private static final User CAROL = new User("carol");
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DurableServices leader;
+
+    @Before
+    public void setUp() throws IOException {
+        leader = DurableServices.open(folder.getRoot().toPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        leader.close();
+    }
+
+    @Test
+    public void testReplicaFollowsLeader() throws Exception {
+        final ReplicationServer server = leader.startReplication(loopback());
+        try (ReplicaServices replica = ReplicaServices.connect(server.getAddress())) {
+            leader.getUserService().create(ALICE);
+            leader.getUserService().create(BOB);
+            leader.getGroupService().create(STAFF);
+            leader.getGroupService().create(ADMINS);
+            leader.getMembershipService().addGroupToGroup(ADMINS, STAFF);
+            leader.getMembershipService().addUsersToGroup(asList(ALICE, BOB), ADMINS);
+            assertTrue(replica.awaitSequence(leader.getLastSequence(), 10, TimeUnit.SECONDS));
+
+            assertNotNull(replica.getUserService().findByName("alice"));
+            assertTrue(replica.getMembershipService().isUserInGroup(BOB, STAFF));
+            assertEquals(new HashSet<>(asList(ALICE, BOB)),
+                    new HashSet<>(replica.getMembershipService().getUsersInGroup(ADMINS)));
+            assertEquals(1, server.getFollowerCount());
+
+            leader.getMembershipService().removeUserFromGroup(BOB, ADMINS);
+            assertTrue(replica.awaitSequence(leader.getLastSequence(), 10, TimeUnit.SECONDS));
+            assertFalse(replica.getMembershipService().isUserInGroup(BOB, STAFF));
+            assertEquals(leader.getLastSequence(), replica.getAppliedSequence());
+        }
+    }
+
+    @Test
+    public void testLateReplicaCatchesUpFromSnapshot() throws Exception {
+        leader.getGroupService().create(STAFF);
+        final ReplicationServer server = leader.startReplication(loopback(), 4);
+        for (int i = 0; i < 50; i++) {
+            final User user = new User("user" + i);
+            leader.getUserService().create(user);
+            leader.getMembershipService().addUserToGroup(user, STAFF);
+        }
+        try (ReplicaServices replica = ReplicaServices.connect(server.getAddress())) {
+            assertTrue(replica.awaitSequence(leader.getLastSequence(), 10, TimeUnit.SECONDS));
+            assertEquals(50, replica.getMembershipService().getUsersInGroup(STAFF).size());
+
+            leader.getUserService().create(ALICE);
+            assertTrue(replica.awaitSequence(leader.getLastSequence(), 10, TimeUnit.SECONDS));
+            assertNotNull(replica.getUserService().findByName("alice"));
+        }
+    }
+
+    @Test
+    public void testReplicaResumesAfterLeaderRestart() throws Exception {
+        ReplicationServer server = leader.startReplication(loopback());
+        final InetSocketAddress address = server.getAddress();
+        try (ReplicaServices replica = ReplicaServices.connect(address)) {
+            leader.getUserService().create(ALICE);
+            assertTrue(replica.awaitSequence(leader.getLastSequence(), 10, TimeUnit.SECONDS));
+
+            leader.close();
+            leader = DurableServices.open(folder.getRoot().toPath());
+            leader.getUserService().create(BOB);
+            server = leader.startReplication(address);
+
+            assertTrue(replica.awaitSequence(leader.getLastSequence(), 10, TimeUnit.SECONDS));
+            assertNotNull(replica.getUserService().findByName("alice"));
+            assertNotNull(replica.getUserService().findByName("bob"));
+            assertEquals(2, replica.getAppliedSequence());
+        }
+    }
+
+    @Test
+    public void testUnsyncedOperationsAreNotShipped() throws Exception {
+        ReplicationServer server = new ReplicationServer(emptyState(), loopback(), 0, 16);
+        final InetSocketAddress address = server.getAddress();
+        try (ReplicaServices replica = ReplicaServices.connect(address)) {
+            server.append(1, Operation.createUser(ALICE));
+            server.append(2, Operation.createUser(BOB));
+            server.durable(1);
+            assertTrue(replica.awaitSequence(1, 10, TimeUnit.SECONDS));
+            assertFalse(replica.awaitSequence(2, 100, TimeUnit.MILLISECONDS));
+
+            // The leader crashes before syncing bob, and reuses his sequence number when it comes back
+            server.close();
+            server = new ReplicationServer(emptyState(), address, 1, 16);
+            server.append(2, Operation.createUser(CAROL));
+            server.durable(2);
+
+            assertTrue(replica.awaitSequence(2, 10, TimeUnit.SECONDS));
+            assertNotNull(replica.getUserService().findByName("carol"));
+            assertNull(replica.getUserService().findByName("bob"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testReplicaKeepsStateAfterClose() throws Exception {
+        final ReplicationServer server = leader.startReplication(loopback());
+        final ReplicaServices replica = ReplicaServices.connect(server.getAddress());
+        leader.getUserService().create(ALICE);
+        assertTrue(replica.awaitSequence(leader.getLastSequence(), 10, TimeUnit.SECONDS));
+        replica.close();
+
+        leader.getUserService().create(BOB);
+        assertFalse(replica.awaitSequence(leader.getLastSequence(), 100, TimeUnit.MILLISECONDS));
+        assertNotNull(replica.getUserService().findByName("alice"));
+        assertNull(replica.getUserService().findByName("bob"));
+    }
+
+    @Test
+    public void testReplicaRejectsWrites() throws Exception {
+        final ReplicationServer server = leader.startReplication(loopback());
+        try (ReplicaServices replica = ReplicaServices.connect(server.getAddress())) {
+            thrown.expect(UnsupportedOperationException.class);
+            replica.getUserService().create(ALICE);
+        }
+    }
+
+    @Test
+    public void testStartReplicationTwice() throws Exception {
+        leader.startReplication(loopback());
+        thrown.expect(IllegalStateException.class);
+        leader.startReplication(loopback());
+    }
+
+    private static ReplicationServer.State emptyState() {
+        return new ReplicationServer.State() {
+            @Override
+            public ReplicationServer.Snapshot capture() {
+                return new ReplicationServer.Snapshot(0, Collections.<User>emptyList(),
+                        Collections.<Group>emptyList(), new Backing().membershipService.getRelationships());
+            }
+        };
+    }
+
+    private static InetSocketAddress loopback() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    }
+}
@@ -0,0 +1,267 @@
+package com.interviews.uag.jdbc;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.interviews.uag.api.MembershipQuery.directMembersOf;
+import static com.interviews.uag.api.MembershipQuery.membersOf;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JdbcServicesTest {
+    private static final User ALICE = new User("alice");
+    private static final User BOB = new User("bob");
+    private static final User FRED = new User("fred");
+    private static final Group STUDENTS = new Group("students");
+    private static final Group SCIENCE = new Group("science");
+    private static final Group HISTORY = new Group("history");
+    private static final Group PHYSICS = new Group("physics");
+    private static final Group PHYSICS_CAPITALIZED = new Group("Physics");
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JdbcServices services;
+    private MembershipService membershipService;
+
+    @Before
+    public void setUp() throws Exception {
+        services = JdbcServices.open("jdbc:h2:mem:" + UUID.randomUUID());
+        for (User user : asList(ALICE, BOB, FRED)) {
+            services.getUserService().create(user);
+        }
+        for (Group group : asList(STUDENTS, SCIENCE, HISTORY, PHYSICS)) {
+            services.getGroupService().create(group);
+        }
+        membershipService = services.getMembershipService();
+        membershipService.addGroupsToGroup(asList(SCIENCE, HISTORY), STUDENTS);
+        membershipService.addGroupToGroup(PHYSICS, SCIENCE);
+        membershipService.addUserToGroup(ALICE, PHYSICS);
+        membershipService.addUserToGroup(BOB, HISTORY);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        services.close();
+    }
+
+    @Test
+    public void testCreateAndFindUsersAndGroups() {
+        assertEquals(ALICE, services.getUserService().findByName("alice"));
+        assertEquals(SCIENCE, services.getGroupService().findByName("science"));
+        assertNull(services.getUserService().findByName("nobody"));
+        assertNull(services.getGroupService().findByName("nothing"));
+    }
+
+    @Test
+    public void testCreateDuplicateUser() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("alice already exists");
+        services.getUserService().create(new User("alice"));
+    }
+
+    @Test
+    public void testNestedMemberships() {
+        assertTrue(membershipService.isUserInGroup(ALICE, PHYSICS));
+        assertTrue(membershipService.isUserInGroup(ALICE, STUDENTS));
+        assertFalse(membershipService.isUserInGroup(ALICE, HISTORY));
+        assertFalse(membershipService.isUserInGroup(FRED, STUDENTS));
+        assertTrue(membershipService.isGroupInGroup(PHYSICS, STUDENTS));
+        assertFalse(membershipService.isGroupInGroup(STUDENTS, PHYSICS));
+        assertFalse(membershipService.isGroupInGroup(PHYSICS, PHYSICS));
+
+        assertEquals(singletonList(PHYSICS), new ArrayList<>(membershipService.getGroupsForUser(ALICE)));
+        assertEquals(new HashSet<>(asList(PHYSICS, SCIENCE, STUDENTS)),
+                new HashSet<>(membershipService.getEffectiveGroupsForUser(ALICE)));
+        assertEquals(new HashSet<>(asList(ALICE, BOB)), toSet(membershipService.getEffectiveUsersInGroup(STUDENTS)));
+        assertEquals(new HashSet<>(singletonList(BOB)),
+                new HashSet<>(membershipService.getUsersMatching(membersOf(STUDENTS).andNot(membersOf(SCIENCE)))));
+        assertTrue(membershipService.getUsersMatching(directMembersOf(STUDENTS)).isEmpty());
+    }
+
+    @Test
+    public void testAddGroupToGroup_rejectsCycle() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("would create a cycle");
+        membershipService.addGroupsToGroup(asList(HISTORY, STUDENTS), PHYSICS);
+    }
+
+    @Test
+    public void testAddGroupsToGroup_cycleAddsNone() {
+        try {
+            membershipService.addGroupsToGroup(asList(HISTORY, STUDENTS), PHYSICS);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertFalse(membershipService.isGroupInGroup(HISTORY, PHYSICS));
+    }
+
+    @Test
+    public void testAddUsersToGroup_missingUserAddsNone() {
+        try {
+            membershipService.addUsersToGroup(asList(FRED, new User("nobody")), HISTORY);
+        } catch (IllegalArgumentException e) {
+            assertEquals("User 'nobody' does not exist!", e.getMessage());
+        }
+        assertFalse(membershipService.isUserInGroup(FRED, HISTORY));
+    }
+
+    @Test
+    public void testDeleteCascades() {
+        services.getUserService().delete(ALICE);
+        assertTrue(membershipService.getGroupsForUser(ALICE).isEmpty());
+        services.getUserService().create(ALICE);
+        assertFalse(membershipService.isUserInGroup(ALICE, STUDENTS));
+
+        services.getGroupService().delete(SCIENCE);
+        assertFalse(membershipService.isGroupInGroup(PHYSICS, STUDENTS));
+        assertTrue(membershipService.isGroupInGroup(HISTORY, STUDENTS));
+    }
+
+    @Test
+    public void testRemoveMemberships() {
+        membershipService.removeGroupFromGroup(SCIENCE, STUDENTS);
+        assertFalse(membershipService.isUserInGroup(ALICE, STUDENTS));
+        membershipService.removeUserFromGroup(BOB, HISTORY);
+        assertFalse(membershipService.isUserInGroup(BOB, HISTORY));
+        membershipService.removeGroup(PHYSICS);
+        assertTrue(membershipService.getUsersInGroup(PHYSICS).isEmpty());
+        assertNotNull(services.getGroupService().findByName("physics"));
+    }
+
+    @Test
+    public void testPagingAndIteratingManyUsers() {
+        final List<User> users = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            final User user = new User("user" + i);
+            services.getUserService().create(user);
+            users.add(user);
+        }
+        membershipService.addUsersToGroup(users, PHYSICS);
+
+        final Set<User> paged = new HashSet<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            final Page<User> page = membershipService.getUsersInGroup(PHYSICS, cursor, 1000);
+            paged.addAll(page.getItems());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+        assertEquals(3, pages);
+        assertEquals(2501, paged.size());
+
+        assertEquals(2502, toSet(membershipService.getEffectiveUsersInGroup(STUDENTS)).size());
+    }
+
+    @Test
+    public void testDeepChain() {
+        final List<Group> chain = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final Group group = new Group("level" + i);
+            services.getGroupService().create(group);
+            if (i > 0) {
+                membershipService.addGroupToGroup(group, chain.get(i - 1));
+            }
+            chain.add(group);
+        }
+        membershipService.addUserToGroup(FRED, chain.get(chain.size() - 1));
+
+        assertTrue(membershipService.isUserInGroup(FRED, chain.get(0)));
+        assertTrue(membershipService.isGroupInGroup(chain.get(chain.size() - 1), chain.get(0)));
+        assertEquals(500, membershipService.getEffectiveGroupsForUser(FRED).size());
+    }
+
+    @Test
+    public void testFindByNamePrefix() {
+        for (String name : asList("Frank", "frida", "fr", "george", "FRED2")) {
+            services.getUserService().create(new User(name));
+        }
+        services.getGroupService().create(PHYSICS_CAPITALIZED);
+
+        final Page<User> first = services.getUserService().findByNamePrefix("fr", false, null, 2);
+        assertEquals(asList(new User("fr"), new User("fred")), first.getItems());
+        final Page<User> second = services.getUserService().findByNamePrefix("fr", false, first.getNextCursor(), 2);
+        assertEquals(singletonList(new User("frida")), second.getItems());
+        assertNull(second.getNextCursor());
+
+        final List<User> found = new ArrayList<>();
+        String cursor = null;
+        do {
+            final Page<User> page = services.getUserService().findByNamePrefix("FR", true, cursor, 2);
+            found.addAll(page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(asList(new User("fr"), new User("Frank"), new User("fred"), new User("FRED2"),
+                new User("frida")), found);
+
+        assertEquals(asList(PHYSICS_CAPITALIZED, PHYSICS),
+                services.getGroupService().findByNamePrefix("phy", true, null, 10).getItems());
+        assertEquals(singletonList(PHYSICS), services.getGroupService().findByNamePrefix("phy", false, null, 10)
+                .getItems());
+    }
+
+    @Test
+    public void testBatchChecks() {
+        final List<Group> candidates = asList(HISTORY, STUDENTS, SCIENCE, new Group("nogroup"), PHYSICS);
+        final BitSet expected = new BitSet();
+        expected.set(1);
+        expected.set(2);
+        expected.set(4);
+        assertEquals(expected, membershipService.checkMany(ALICE, candidates));
+        assertTrue(membershipService.isUserInAnyGroup(ALICE, candidates));
+        assertFalse(membershipService.isUserInAllGroups(ALICE, candidates));
+        assertTrue(membershipService.isUserInAllGroups(ALICE, asList(STUDENTS, SCIENCE, PHYSICS, PHYSICS)));
+        assertFalse(membershipService.isUserInAnyGroup(FRED, candidates));
+        assertTrue(membershipService.isUserInAllGroups(FRED, Collections.<Group>emptyList()));
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("directory");
+        try (JdbcServices first = JdbcServices.open(file)) {
+            first.getUserService().create(ALICE);
+            first.getGroupService().create(STUDENTS);
+            first.getGroupService().create(SCIENCE);
+            first.getMembershipService().addGroupToGroup(SCIENCE, STUDENTS);
+            first.getMembershipService().addUserToGroup(ALICE, SCIENCE);
+        }
+        try (JdbcServices second = JdbcServices.open(file)) {
+            assertTrue(second.getMembershipService().isUserInGroup(ALICE, STUDENTS));
+        }
+    }
+
+    private static <T> Set<T> toSet(Iterator<T> iterator) {
+        final Set<T> set = new HashSet<>();
+        while (iterator.hasNext()) {
+            assertTrue(set.add(iterator.next()));
+        }
+        return set;
+    }
+}
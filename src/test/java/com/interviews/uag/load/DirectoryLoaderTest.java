@@ -0,0 +1,201 @@
+package com.interviews.uag.load;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.User;
+import com.interviews.uag.api.UserService;
+import com.interviews.uag.core.ServiceFactory;
+import com.interviews.uag.core.Services;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryLoaderTest {
+    private static final User ALICE = new User("alice");
+    private static final User BOB = new User("bob");
+    private static final User CAROL = new User("carol, jr");
+    private static final Group ENGINEERING = new Group("engineering");
+    private static final Group BACKEND = new Group("backend");
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Services services;
+    private MembershipService membershipService;
+
+    @Before
+    public void setUp() {
+        services = ServiceFactory.createServices();
+        membershipService = services.getMembershipService();
+    }
+
+    @Test
+    public void testLoadCsv() throws IOException {
+        final Path file = write("users.csv",
+                "# exported users",
+                "user,alice",
+                "user,bob",
+                "user,\"carol, jr\"",
+                "",
+                "group,engineering",
+                "group,backend",
+                "subgroup,backend,engineering",
+                "member,alice,engineering",
+                "member,bob,backend",
+                "member,\"carol, jr\",backend");
+
+        final DirectoryLoader.Result result = DirectoryLoader.of(services).loadCsv(file);
+
+        assertEquals(3, result.getUsers());
+        assertEquals(2, result.getGroups());
+        assertEquals(3, result.getMemberships());
+        assertEquals(1, result.getNestings());
+        assertNotNull(services.getUserService().findByName("carol, jr"));
+        assertNotNull(services.getGroupService().findByName("backend"));
+        assertTrue(membershipService.isUserInGroup(ALICE, ENGINEERING));
+        assertTrue(membershipService.isUserInGroup(BOB, ENGINEERING));
+        assertTrue(membershipService.isUserInGroup(CAROL, ENGINEERING));
+        assertFalse(membershipService.isUserInGroup(ALICE, BACKEND));
+        assertTrue(membershipService.isGroupInGroup(BACKEND, ENGINEERING));
+    }
+
+    @Test
+    public void testLoadCsvInParallelWithSmallBatches() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add("group,all");
+        for (int g = 0; g < 50; g++) {
+            lines.add("group,g" + g);
+            lines.add("subgroup,g" + g + ",all");
+        }
+        for (int u = 0; u < 2000; u++) {
+            lines.add("user,u" + u);
+            lines.add("member,u" + u + ",g" + (u % 50));
+        }
+        final Path file = write("large.csv", lines.toArray(new String[lines.size()]));
+
+        final DirectoryLoader.Result result = DirectoryLoader.of(services)
+                .withParallelism(4)
+                .withBatchSize(100)
+                .loadCsv(file);
+
+        assertEquals(2000, result.getUsers());
+        assertEquals(2000, result.getMemberships());
+        final Group all = new Group("all");
+        for (int u = 0; u < 2000; u++) {
+            final User user = new User("u" + u);
+            assertNotNull(services.getUserService().findByName(user.getName()));
+            assertTrue(membershipService.isUserInGroup(user, new Group("g" + (u % 50))));
+            assertTrue(membershipService.isUserInGroup(user, all));
+        }
+    }
+
+    @Test
+    public void testLoadCsvRejectsUnknownRecords() throws IOException {
+        final Path file = write("bad.csv", "user,alice", "owner,alice,engineering");
+
+        thrown.expect(IOException.class);
+        thrown.expectMessage("at byte 11");
+        DirectoryLoader.of(services).loadCsv(file);
+    }
+
+    @Test
+    public void testLoadLdif() throws IOException {
+        final Path file = write("directory.ldif",
+                "version: 1",
+                "",
+                "# people",
+                "dn: cn=alice,ou=people,dc=example,dc=com",
+                "objectClass: inetOrgPerson",
+                "cn: alice",
+                "",
+                "dn: cn=bob,ou=people,dc=example,dc=com",
+                "objectClass: person",
+                "",
+                "dn:: Y249Y2Fyb2xcLCBqcixvdT1wZW9wbGUsZGM9ZXhhbXBsZSxkYz1jb20=",
+                "objectClass: person",
+                "",
+                "dn: cn=engineering,ou=groups,dc=example,dc=com",
+                "objectClass: groupOfNames",
+                "member: cn=backend, OU=Groups, dc=example, dc=com",
+                "member: cn=alice,ou=people,dc=exa",
+                " mple,dc=com",
+                "",
+                "dn: cn=backend,ou=groups,dc=example,dc=com",
+                "objectClass: groupOfNames",
+                "member: cn=bob,ou=people,dc=example,dc=com",
+                "member: cn=carol\\, jr,ou=people,dc=example,dc=com",
+                "",
+                "dn: cn=posix,ou=groups,dc=example,dc=com",
+                "objectClass: posixGroup",
+                "memberUid: bob");
+
+        final DirectoryLoader.Result result = DirectoryLoader.of(services).withParallelism(3).loadLdif(file);
+
+        assertEquals(3, result.getUsers());
+        assertEquals(3, result.getGroups());
+        assertEquals(4, result.getMemberships());
+        assertEquals(1, result.getNestings());
+        assertNotNull(services.getUserService().findByName("carol, jr"));
+        assertTrue(membershipService.isGroupInGroup(BACKEND, ENGINEERING));
+        assertTrue(membershipService.isUserInGroup(ALICE, ENGINEERING));
+        assertTrue(membershipService.isUserInGroup(CAROL, BACKEND));
+        assertTrue(membershipService.isUserInGroup(BOB, new Group("posix")));
+        assertEquals(new HashSet<>(asList(BOB, CAROL)), membershipService.getUsersInGroup(BACKEND));
+    }
+
+    @Test
+    public void testNormalizeDn() {
+        assertEquals("cn=bob,ou=people", LdifParser.normalize(" CN = Bob , ou=People"));
+        assertEquals("cn=a\\, b,ou=x", LdifParser.normalize("cn=A\\, B, ou=X"));
+    }
+
+    @Test
+    public void testOfRequiresMemoryServices() {
+        final Services other = new Services() {
+            @Override
+            public GroupService getGroupService() {
+                return services.getGroupService();
+            }
+
+            @Override
+            public UserService getUserService() {
+                return null;
+            }
+
+            @Override
+            public MembershipService getMembershipService() {
+                return membershipService;
+            }
+        };
+
+        thrown.expect(IllegalArgumentException.class);
+        DirectoryLoader.of(other);
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        final File file = folder.newFile(name);
+        Files.write(file.toPath(), asList(lines), UTF_8);
+        return file.toPath();
+    }
+}
@@ -0,0 +1,50 @@
+package com.interviews.uag.memory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class IdDictionaryTest {
+    @Test
+    public void testPlus() {
+        final IdDictionary<String> dictionary = IdDictionary.<String>empty().plus("a").plus("b");
+        assertEquals(0, dictionary.idOf("a"));
+        assertEquals(1, dictionary.idOf("b"));
+        assertEquals(-1, dictionary.idOf("c"));
+        assertEquals("b", dictionary.get(1));
+        assertSame(dictionary, dictionary.plus("a"));
+    }
+
+    @Test
+    public void testMinusReusesIds() {
+        final IdDictionary<String> original = IdDictionary.<String>empty().plus("a").plus("b").plus("c");
+        final IdDictionary<String> removed = original.minus("b").minus("a");
+        assertEquals(1, removed.size());
+        assertEquals(-1, removed.idOf("a"));
+        assertNull(removed.get(1));
+        assertSame(removed, removed.minus("a"));
+
+        final IdDictionary<String> reused = removed.plus("d").plus("e").plus("f");
+        assertEquals("most recently freed first", 0, reused.idOf("d"));
+        assertEquals(1, reused.idOf("e"));
+        assertEquals(3, reused.idOf("f"));
+        assertEquals("older versions are unaffected", 1, original.idOf("b"));
+    }
+
+    @Test
+    public void testChurnKeepsIdsDense() {
+        IdDictionary<String> dictionary = IdDictionary.empty();
+        for (int i = 0; i < 100_000; i++) {
+            dictionary = dictionary.plus("name" + i);
+            if (i >= 10) {
+                dictionary = dictionary.minus("name" + (i - 10));
+            }
+        }
+        assertEquals(10, dictionary.size());
+        for (int i = 99_990; i < 100_000; i++) {
+            assertEquals(true, dictionary.idOf("name" + i) < 11);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.interviews.uag.memory;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IntSetTest {
+    @Test
+    public void testPlusAndMinus_matchTreeSet() {
+        final Random random = new Random(7);
+        final TreeSet<Integer> expected = new TreeSet<>();
+        IntSet actual = IntSet.EMPTY;
+        for (int i = 0; i < 50_000; i++) {
+            final int value = random.nextInt(300_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(value);
+                actual = actual.minus(value);
+            } else {
+                expected.add(value);
+                actual = actual.plus(value);
+            }
+        }
+
+        assertEquals(expected.size(), actual.size());
+        assertArrayEquals(toArray(expected), actual.toArray());
+        for (int value = 0; value < 300_000; value += 97) {
+            assertEquals("contains " + value, expected.contains(value), actual.contains(value));
+        }
+    }
+
+    @Test
+    public void testOf() {
+        final IntSet set = IntSet.of(70_000, 3, 3, 1, 65_536, 1);
+        assertArrayEquals(new int[]{1, 3, 65_536, 70_000}, set.toArray());
+        assertEquals(set, IntSet.EMPTY.plus(65_536).plus(1).plus(70_000).plus(3));
+        assertSame(IntSet.EMPTY, IntSet.of());
+    }
+
+    @Test
+    public void testIterator() {
+        final IntSet set = IntSet.of(5, 200_000, 2);
+        final List<Integer> iterated = new ArrayList<>();
+        final PrimitiveIterator.OfInt iterator = set.iterator();
+        while (iterator.hasNext()) {
+            iterated.add(iterator.nextInt());
+        }
+        assertEquals(asList(2, 5, 200_000), iterated);
+    }
+
+    @Test
+    public void testIteratorFrom_matchesTreeSet() {
+        final Random random = new Random(11);
+        final TreeSet<Integer> expected = new TreeSet<>();
+        IntSet actual = IntSet.EMPTY;
+        for (int i = 0; i < 10_000; i++) {
+            // Dense values below 65536 make a bitmap block; the rest are sparse
+            final int value = i % 2 == 0 ? random.nextInt(8_000) : 65_536 + random.nextInt(1_000_000);
+            expected.add(value);
+            actual = actual.plus(value);
+        }
+
+        for (int from = 0; from < 1_100_000; from += 4_099) {
+            final PrimitiveIterator.OfInt iterator = actual.iterator(from);
+            for (int value : expected.tailSet(from).headSet(from + 20_000)) {
+                assertTrue("has " + value + " from " + from, iterator.hasNext());
+                assertEquals(value, iterator.nextInt());
+            }
+        }
+        assertFalse(actual.iterator(expected.last() + 1).hasNext());
+        assertEquals(expected.last().intValue(), actual.iterator(expected.last()).nextInt());
+    }
+
+    @Test
+    public void testOlderVersionsAreUnaffected() {
+        final IntSet before = IntSet.of(1, 2);
+        final IntSet after = before.plus(3).minus(1);
+        assertTrue(before.contains(1));
+        assertFalse(before.contains(3));
+        assertArrayEquals(new int[]{2, 3}, after.toArray());
+        assertSame(before, before.plus(2));
+        assertSame(before, before.minus(9));
+        assertFalse(before.contains(-1));
+    }
+
+    @Test
+    public void testDenseBlocks() {
+        IntSet set = IntSet.EMPTY;
+        for (int value = 0; value < 10_000; value++) {
+            set = set.plus(value);
+        }
+        assertEquals(10_000, set.size());
+        assertTrue(set.contains(9_999));
+        assertFalse(set.contains(10_000));
+
+        for (int value = 0; value < 10_000; value += 2) {
+            set = set.minus(value);
+        }
+        assertEquals(5_000, set.size());
+        assertTrue(set.contains(9_999));
+        assertFalse(set.contains(9_998));
+        assertEquals(1, set.toArray()[0]);
+    }
+
+    @Test
+    public void testSetAlgebra_matchTreeSet() {
+        final Random random = new Random(3);
+        for (int round = 0; round < 20; round++) {
+            final TreeSet<Integer> left = randomSet(random);
+            final TreeSet<Integer> right = randomSet(random);
+            final IntSet a = IntSet.of(toArray(left));
+            final IntSet b = IntSet.of(toArray(right));
+
+            final TreeSet<Integer> and = new TreeSet<>(left);
+            and.retainAll(right);
+            assertArrayEquals("and", toArray(and), IntSet.and(a, b).toArray());
+
+            final TreeSet<Integer> or = new TreeSet<>(left);
+            or.addAll(right);
+            assertArrayEquals("or", toArray(or), IntSet.or(a, b).toArray());
+
+            final TreeSet<Integer> andNot = new TreeSet<>(left);
+            andNot.removeAll(right);
+            assertArrayEquals("andNot", toArray(andNot), IntSet.andNot(a, b).toArray());
+            assertEquals(andNot.size(), IntSet.andNot(a, b).size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeValues() {
+        IntSet.EMPTY.plus(-1);
+    }
+
+    /**
+     * Mixes sparse and dense regions so that every combination of block representations is exercised.
+     */
+    private static TreeSet<Integer> randomSet(Random random) {
+        final TreeSet<Integer> set = new TreeSet<>();
+        for (int block = 0; block < 4; block++) {
+            final int base = block << 16;
+            final int count = random.nextBoolean() ? random.nextInt(100) : 5_000 + random.nextInt(20_000);
+            for (int i = 0; i < count; i++) {
+                set.add(base + random.nextInt(1 << 16));
+            }
+        }
+        return set;
+    }
+
+    private static int[] toArray(TreeSet<Integer> set) {
+        final int[] result = new int[set.size()];
+        int i = 0;
+        for (int value : set) {
+            result[i++] = value;
+        }
+        return result;
+    }
+}
@@ -2,6 +2,7 @@ package com.interviews.uag.memory;
 
 import com.interviews.uag.api.Group;
 import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.Page;
 import com.interviews.uag.core.ServiceFactory;
 import com.interviews.uag.core.Services;
 import org.junit.Before;
@@ -9,6 +10,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
@@ -76,4 +78,19 @@ public class MemoryGroupServiceTest {
         groupService.delete(hackers);
         assertNull("hackers should be deleted", groupService.findByName("hackers"));
     }
+
+    @Test
+    public void testFindByNamePrefix() {
+        for (String name : asList("hackers", "Hackathon", "hats", "admins")) {
+            groupService.create(new Group(name));
+        }
+
+        assertEquals(asList(new Group("hackers"), new Group("hats")),
+                groupService.findByNamePrefix("ha", false, null, 10).getItems());
+        final Page<Group> first = groupService.findByNamePrefix("HA", true, null, 2);
+        assertEquals(asList(new Group("Hackathon"), new Group("hackers")), first.getItems());
+        final Page<Group> second = groupService.findByNamePrefix("HA", true, first.getNextCursor(), 2);
+        assertEquals(asList(new Group("hats")), second.getItems());
+        assertNull(second.getNextCursor());
+    }
 }
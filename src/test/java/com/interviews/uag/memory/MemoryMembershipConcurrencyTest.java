@@ -0,0 +1,283 @@
+package com.interviews.uag.memory;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.GroupService;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.User;
+import com.interviews.uag.api.UserService;
+import com.interviews.uag.core.ServiceFactory;
+import com.interviews.uag.core.Services;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryMembershipConcurrencyTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryMembershipConcurrencyTest.class);
+
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int USERS_PER_THREAD = 500;
+    private static final Group EVERYONE = new Group("everyone");
+
+    private Services services;
+    private UserService userService;
+    private GroupService groupService;
+    private MembershipService membershipService;
+
+    @Before
+    public void setUp() {
+        services = ServiceFactory.createServices();
+        userService = services.getUserService();
+        groupService = services.getGroupService();
+        membershipService = services.getMembershipService();
+        groupService.create(EVERYONE);
+    }
+
+    @Test
+    public void testConcurrentWritesToDifferentGroups() throws Exception {
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final Group team = new Group("team" + thread);
+                    groupService.create(team);
+                    membershipService.addGroupToGroup(team, EVERYONE);
+                    for (int i = 0; i < USERS_PER_THREAD; i++) {
+                        final User user = new User("user" + thread + "-" + i);
+                        userService.create(user);
+                        membershipService.addUserToGroup(user, team);
+                        if (i % 2 == 1) {
+                            membershipService.removeUserFromGroup(user, team);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+
+        for (int t = 0; t < THREADS; t++) {
+            final Group team = new Group("team" + t);
+            assertEquals("half of the users stay in team" + t, USERS_PER_THREAD / 2,
+                    membershipService.getUsersInGroup(team).size());
+            for (int i = 0; i < USERS_PER_THREAD; i++) {
+                final User user = new User("user" + t + "-" + i);
+                assertEquals(user + " membership in everyone", i % 2 == 0,
+                        membershipService.isUserInGroup(user, EVERYONE));
+            }
+        }
+    }
+
+    @Test
+    public void testReadsDuringHierarchyChanges() throws Exception {
+        final User stable = new User("stable");
+        final User moving = new User("moving");
+        final Group team = new Group("team");
+        userService.create(stable);
+        userService.create(moving);
+        groupService.create(team);
+        membershipService.addUserToGroup(stable, EVERYONE);
+        membershipService.addUserToGroup(moving, team);
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        membershipService.addGroupToGroup(team, EVERYONE);
+                        membershipService.removeGroupFromGroup(team, EVERYONE);
+                    }
+                } finally {
+                    done.set(true);
+                }
+                return null;
+            }
+        });
+        for (int t = 1; t < THREADS; t++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    while (!done.get()) {
+                        assertTrue("direct members never disappear", membershipService.isUserInGroup(stable, EVERYONE));
+                        assertTrue("moving stays in team", membershipService.isUserInGroup(moving, team));
+                        membershipService.isUserInGroup(moving, EVERYONE);
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+
+        assertFalse("the last change removed team from everyone", membershipService.isUserInGroup(moving, EVERYONE));
+    }
+
+    /**
+     * Measures read throughput at increasing thread counts.  The numbers are logged rather than asserted because
+     * shared build machines are too noisy for a reliable threshold; the point is that reads never contend.
+     */
+    @Test
+    public void testReadThroughputScaling() throws Exception {
+        final int users = 1000;
+        Group parent = EVERYONE;
+        for (int level = 0; level < 8; level++) {
+            final Group child = new Group("level" + level);
+            groupService.create(child);
+            membershipService.addGroupToGroup(child, parent);
+            parent = child;
+        }
+        final Group deepest = parent;
+        for (int i = 0; i < users; i++) {
+            final User user = new User("reader" + i);
+            userService.create(user);
+            membershipService.addUserToGroup(user, deepest);
+        }
+
+        double singleThreaded = 0;
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads <<= 1) {
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            final int checksPerThread = 200_000;
+            for (int t = 0; t < threads; t++) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < checksPerThread; i++) {
+                            assertTrue(membershipService.isUserInGroup(new User("reader" + (i % users)), EVERYONE));
+                        }
+                        return null;
+                    }
+                });
+            }
+            final long start = System.nanoTime();
+            runAll(tasks);
+            final double opsPerSecond = (double) threads * checksPerThread * TimeUnit.SECONDS.toNanos(1)
+                    / (System.nanoTime() - start);
+            if (threads == 1) {
+                singleThreaded = opsPerSecond;
+            }
+            LOG.info(String.format("%d thread(s): %.0f isUserInGroup/s (%.1fx)", threads, opsPerSecond,
+                    opsPerSecond / singleThreaded));
+        }
+    }
+
+    @Test
+    public void testDeletedUsersKeepNoMemberships() throws Exception {
+        final int count = 2000;
+        final List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            users.add(new User("doomed" + i));
+            userService.create(users.get(i));
+        }
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (User user : users) {
+                    try {
+                        membershipService.addUserToGroup(user, EVERYONE);
+                    } catch (IllegalArgumentException e) {
+                        // Deleted first
+                    }
+                }
+                return null;
+            }
+        });
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (User user : users) {
+                    userService.delete(user);
+                }
+                return null;
+            }
+        });
+        runAll(tasks);
+
+        assertTrue("every user was deleted, along with the memberships",
+                membershipService.getUsersInGroup(EVERYONE).isEmpty());
+    }
+
+    @Test
+    public void testDeletedGroupsDoNotComeBack() throws Exception {
+        final int count = 2000;
+        final User member = new User("member");
+        userService.create(member);
+        final List<Group> groups = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            groups.add(new Group("doomed" + i));
+            groupService.create(groups.get(i));
+        }
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (Group group : groups) {
+                    try {
+                        membershipService.addUserToGroup(member, group);
+                        membershipService.addGroupToGroup(group, EVERYONE);
+                    } catch (IllegalArgumentException e) {
+                        // Deleted first
+                    }
+                }
+                return null;
+            }
+        });
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (Group group : groups) {
+                    groupService.delete(group);
+                }
+                return null;
+            }
+        });
+        runAll(tasks);
+
+        for (Group group : groups) {
+            groupService.create(group);
+            assertTrue("a new " + group + " has no members", membershipService.getUsersInGroup(group).isEmpty());
+            assertFalse("a new " + group + " is not nested", membershipService.isGroupInGroup(group, EVERYONE));
+        }
+        assertFalse(membershipService.isUserInGroup(member, EVERYONE));
+    }
+
+    private static void runAll(List<Callable<Void>> tasks) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            final CountDownLatch ready = new CountDownLatch(tasks.size());
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (final Callable<Void> task : tasks) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        ready.countDown();
+                        ready.await();
+                        return task.call();
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
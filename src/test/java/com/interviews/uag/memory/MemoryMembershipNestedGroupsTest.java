@@ -7,15 +7,26 @@ import com.interviews.uag.api.User;
 import com.interviews.uag.api.UserService;
 import com.interviews.uag.core.ServiceFactory;
 import com.interviews.uag.core.Services;
+import com.interviews.uag.core.Traversal;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import static com.interviews.uag.api.MembershipQuery.directMembersOf;
+import static com.interviews.uag.api.MembershipQuery.membersOf;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -36,11 +47,12 @@ public class MemoryMembershipNestedGroupsTest {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
 
+    private Services services;
     private MembershipService membershipService;
 
     @Before
     public void setUp() {
-        final Services services = ServiceFactory.createServices();
+        services = ServiceFactory.createServices();
 
         final UserService userService = services.getUserService();
         userService.create(EVAN);
@@ -152,4 +164,526 @@ public class MemoryMembershipNestedGroupsTest {
         final Set<User> actualPeople = new HashSet<>(membershipService.getUsersInGroup(PEOPLE));
         assertEquals(expectedPeople, actualPeople);
     }
+
+    @Test
+    public void testInheritedMembership_groupAddedAfterUser() {
+        assertFalse("george is not an admin yet", membershipService.isUserInGroup(GEORGE, ADMINS));
+
+        membershipService.addGroupToGroup(HACKERS, DB_ADMINS);
+        assertTrue("hackers are now db admins", membershipService.isUserInGroup(GEORGE, DB_ADMINS));
+        assertTrue("db admins are admins", membershipService.isUserInGroup(GEORGE, ADMINS));
+        assertTrue("admins are people", membershipService.isUserInGroup(GEORGE, PEOPLE));
+    }
+
+    @Test
+    public void testInheritedMembership_deepChain() {
+        final GroupService groupService = services.getGroupService();
+        Group parent = PEOPLE;
+        for (int i = 0; i < 100; i++) {
+            final Group child = new Group("level" + i);
+            groupService.create(child);
+            membershipService.addGroupToGroup(child, parent);
+            parent = child;
+        }
+        membershipService.addUserToGroup(GEORGE, parent);
+
+        assertTrue("george inherits the top of the chain", membershipService.isUserInGroup(GEORGE, PEOPLE));
+        assertTrue("george inherits the middle of the chain",
+                membershipService.isUserInGroup(GEORGE, new Group("level50")));
+
+        membershipService.removeGroupFromGroup(new Group("level50"), new Group("level49"));
+        assertFalse("the chain is broken", membershipService.isUserInGroup(GEORGE, new Group("level49")));
+        assertTrue("below the break is still intact",
+                membershipService.isUserInGroup(GEORGE, new Group("level50")));
+    }
+
+    @Test
+    public void testInheritedMembership_removeUserFromNestedGroup() {
+        membershipService.removeUserFromGroup(ALEX, DB_ADMINS);
+        assertFalse("alex is no longer a db admin", membershipService.isUserInGroup(ALEX, DB_ADMINS));
+        assertFalse("alex is no longer an admin", membershipService.isUserInGroup(ALEX, ADMINS));
+        assertFalse("alex is no longer a person", membershipService.isUserInGroup(ALEX, PEOPLE));
+    }
+
+    @Test
+    public void testInheritedMembership_multiplePaths() {
+        membershipService.addUserToGroup(ALEX, HACKERS);
+        membershipService.removeGroupFromGroup(DB_ADMINS, ADMINS);
+        assertFalse("alex is no longer an admin", membershipService.isUserInGroup(ALEX, ADMINS));
+        assertTrue("alex is still a person through hackers", membershipService.isUserInGroup(ALEX, PEOPLE));
+    }
+
+    @Test
+    public void testInheritedMembership_deletedGroup() {
+        services.getGroupService().delete(ADMINS);
+        assertFalse("fred is no longer an admin", membershipService.isUserInGroup(FRED, ADMINS));
+        assertFalse("alex no longer reaches admins", membershipService.isUserInGroup(ALEX, ADMINS));
+        assertTrue("fred is still a person", membershipService.isUserInGroup(FRED, PEOPLE));
+    }
+
+    @Test
+    public void testInheritedMembership_deletedGroupLeavesItsParents() {
+        services.getGroupService().delete(ADMINS);
+        services.getGroupService().create(ADMINS);
+        assertFalse("a new admins group is not nested", membershipService.isGroupInGroup(ADMINS, PEOPLE));
+        assertFalse("db_admins are no longer people", membershipService.isGroupInGroup(DB_ADMINS, PEOPLE));
+        assertEquals(new HashSet<>(asList(EVAN, FRED, GEORGE)),
+                new HashSet<>(membershipService.getUsersMatching(membersOf(PEOPLE))));
+        assertEquals(new HashSet<>(asList(DB_ADMINS)),
+                new HashSet<>(membershipService.getEffectiveGroupsForUser(ALEX)));
+    }
+
+    @Test
+    public void testDeletedUsersAndGroupsDoNotLinger() {
+        for (int i = 0; i < 1000; i++) {
+            final User user = new User("temp" + i);
+            final Group group = new Group("temp" + i);
+            services.getUserService().create(user);
+            services.getGroupService().create(group);
+            membershipService.addGroupToGroup(group, ADMINS);
+            membershipService.addUsersToGroup(asList(user, GEORGE), group);
+            services.getUserService().delete(user);
+            services.getGroupService().delete(group);
+        }
+        assertEquals(new HashSet<>(asList(HACKERS, PEOPLE)),
+                new HashSet<>(membershipService.getEffectiveGroupsForUser(GEORGE)));
+        assertEquals(new HashSet<>(asList(FRED, ALEX)),
+                new HashSet<>(membershipService.getUsersMatching(membersOf(ADMINS))));
+        assertEquals(new HashSet<>(asList(ADMINS, PEOPLE)), new HashSet<>(membershipService.getGroupsForUser(FRED)));
+    }
+
+    @Test
+    public void testGetGroupsForUser() {
+        assertEquals(new HashSet<>(asList(ADMINS, PEOPLE)), new HashSet<>(membershipService.getGroupsForUser(FRED)));
+        assertEquals(new HashSet<>(asList(DB_ADMINS)), new HashSet<>(membershipService.getGroupsForUser(ALEX)));
+        assertTrue("nobody has no groups", membershipService.getGroupsForUser(NOBODY).isEmpty());
+    }
+
+    @Test
+    public void testGetEffectiveGroupsForUser() {
+        assertEquals(new HashSet<>(asList(DB_ADMINS, ADMINS, PEOPLE)),
+                new HashSet<>(membershipService.getEffectiveGroupsForUser(ALEX)));
+        assertEquals(new HashSet<>(asList(HACKERS, PEOPLE)),
+                new HashSet<>(membershipService.getEffectiveGroupsForUser(GEORGE)));
+
+        membershipService.removeGroupFromGroup(HACKERS, PEOPLE);
+        assertEquals(new HashSet<>(asList(HACKERS)),
+                new HashSet<>(membershipService.getEffectiveGroupsForUser(GEORGE)));
+        assertTrue("nobody has no groups", membershipService.getEffectiveGroupsForUser(NOBODY).isEmpty());
+    }
+
+    @Test
+    public void testGetUsersMatching_effective() {
+        membershipService.addUserToGroup(GEORGE, ADMINS);
+
+        assertEquals(new HashSet<>(asList(EVAN, FRED, GEORGE, ALEX)),
+                new HashSet<>(membershipService.getUsersMatching(membersOf(PEOPLE))));
+        assertEquals(new HashSet<>(asList(GEORGE)),
+                new HashSet<>(membershipService.getUsersMatching(membersOf(ADMINS).and(membersOf(HACKERS)))));
+        assertEquals(new HashSet<>(asList(FRED, ALEX)),
+                new HashSet<>(membershipService.getUsersMatching(membersOf(ADMINS).andNot(membersOf(HACKERS)))));
+        assertEquals(new HashSet<>(asList(GEORGE, ALEX)),
+                new HashSet<>(membershipService.getUsersMatching(membersOf(HACKERS).or(membersOf(DB_ADMINS)))));
+    }
+
+    @Test
+    public void testGetUsersMatching_direct() {
+        assertEquals(new HashSet<>(asList(EVAN)), new HashSet<>(membershipService.getUsersMatching(
+                directMembersOf(PEOPLE).andNot(directMembersOf(ADMINS)))));
+        assertTrue("nogroup has no members", membershipService.getUsersMatching(membersOf(NOGROUP)).isEmpty());
+        assertEquals(new HashSet<>(asList(EVAN, FRED)), new HashSet<>(membershipService.getUsersMatching(
+                directMembersOf(PEOPLE).or(membersOf(NOGROUP)))));
+    }
+
+    @Test
+    public void testAddGroupsToGroup() {
+        membershipService.addGroupsToGroup(asList(HACKERS, DB_ADMINS), ADMINS);
+        assertTrue("hackers are now admins", membershipService.isGroupInGroup(HACKERS, ADMINS));
+        assertTrue("george is a hacker, and hackers are admins", membershipService.isUserInGroup(GEORGE, ADMINS));
+        assertTrue("alex is still an admin", membershipService.isUserInGroup(ALEX, ADMINS));
+    }
+
+    @Test
+    public void testAddGroupsToGroup_noSuchGroup() {
+        thrown.expect(IllegalArgumentException.class);
+        membershipService.addGroupsToGroup(asList(HACKERS, NOGROUP), ADMINS);
+    }
+
+    @Test
+    public void testAddUsersToGroup_inherited() {
+        membershipService.addUsersToGroup(asList(EVAN, GEORGE), DB_ADMINS);
+        assertTrue("evan is a db admin, and db admins are admins", membershipService.isUserInGroup(EVAN, ADMINS));
+        assertTrue("george is a db admin, and db admins are admins", membershipService.isUserInGroup(GEORGE, ADMINS));
+
+        membershipService.removeUsersFromGroup(asList(EVAN, GEORGE), DB_ADMINS);
+        assertFalse("evan is no longer an admin", membershipService.isUserInGroup(EVAN, ADMINS));
+        assertTrue("george is still a person through hackers", membershipService.isUserInGroup(GEORGE, PEOPLE));
+    }
+
+    @Test
+    public void addGroupToGroup_self() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("cycle");
+        membershipService.addGroupToGroup(PEOPLE, PEOPLE);
+    }
+
+    @Test
+    public void addGroupToGroup_cycle() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("cycle");
+        membershipService.addGroupToGroup(PEOPLE, DB_ADMINS);
+    }
+
+    @Test
+    public void addGroupsToGroup_cycleIsAtomic() {
+        try {
+            membershipService.addGroupsToGroup(asList(HACKERS, PEOPLE), ADMINS);
+        } catch (IllegalArgumentException expected) {
+            // people contains admins
+        }
+        assertFalse("hackers were not added either", membershipService.isGroupInGroup(HACKERS, ADMINS));
+        assertFalse("people are not admins", membershipService.isGroupInGroup(PEOPLE, ADMINS));
+    }
+
+    @Test
+    public void testDiamonds() {
+        final GroupService groupService = services.getGroupService();
+        Group top = PEOPLE;
+        for (int i = 0; i < 40; i++) {
+            final Group left = new Group("left" + i);
+            final Group right = new Group("right" + i);
+            final Group bottom = new Group("bottom" + i);
+            groupService.create(left);
+            groupService.create(right);
+            groupService.create(bottom);
+            membershipService.addGroupsToGroup(asList(left, right), top);
+            membershipService.addGroupToGroup(bottom, left);
+            membershipService.addGroupToGroup(bottom, right);
+            top = bottom;
+        }
+        membershipService.addUserToGroup(GEORGE, top);
+
+        assertTrue("the bottom reaches the top by 2^40 paths", membershipService.isGroupInGroup(top, PEOPLE));
+        assertFalse("but not the other way around", membershipService.isGroupInGroup(PEOPLE, top));
+        assertFalse("nor across", membershipService.isGroupInGroup(HACKERS, top));
+        assertTrue("george inherits the top", membershipService.isUserInGroup(GEORGE, PEOPLE));
+        assertEquals(new HashSet<>(asList(EVAN, FRED, GEORGE, ALEX)),
+                new HashSet<>(membershipService.getUsersMatching(membersOf(PEOPLE))));
+    }
+
+    @Test
+    public void testVeryDeepChain() {
+        final GroupService groupService = services.getGroupService();
+        Group parent = PEOPLE;
+        for (int i = 0; i < 10000; i++) {
+            final Group child = new Group("level" + i);
+            groupService.create(child);
+            membershipService.addGroupToGroup(child, parent);
+            parent = child;
+        }
+        membershipService.addUserToGroup(GEORGE, parent);
+
+        assertTrue("the bottom is nested in the top", membershipService.isGroupInGroup(parent, PEOPLE));
+        assertTrue("the middle is nested in the middle",
+                membershipService.isGroupInGroup(new Group("level6000"), new Group("level5000")));
+        assertFalse("but not the other way around",
+                membershipService.isGroupInGroup(new Group("level5000"), new Group("level6000")));
+        assertTrue("george inherits the top of the chain", membershipService.isUserInGroup(GEORGE, PEOPLE));
+        assertTrue("george is one of the people",
+                membershipService.getUsersMatching(membersOf(PEOPLE)).contains(GEORGE));
+    }
+
+    @Test
+    public void testMaxDepth() {
+        final Services limited = ServiceFactory.createServices();
+        final MemoryMembershipService membershipService = new MemoryMembershipService(limited, 2);
+        final Group a = new Group("a");
+        final Group b = new Group("b");
+        final Group c = new Group("c");
+        final Group d = new Group("d");
+        for (Group group : asList(a, b, c, d)) {
+            limited.getGroupService().create(group);
+        }
+        limited.getUserService().create(GEORGE);
+        membershipService.addGroupToGroup(b, a);
+        membershipService.addGroupToGroup(c, b);
+        membershipService.addGroupToGroup(d, c);
+        membershipService.addUserToGroup(GEORGE, d);
+
+        assertTrue("c is two levels below a", membershipService.isGroupInGroup(c, a));
+        assertFalse("d is three levels below a", membershipService.isGroupInGroup(d, a));
+        assertTrue("d is two levels below b", membershipService.isUserInGroup(GEORGE, b));
+        assertFalse("george is too far below a", membershipService.isUserInGroup(GEORGE, a));
+        assertEquals(new HashSet<>(asList(b, c, d)),
+                new HashSet<>(membershipService.getEffectiveGroupsForUser(GEORGE)));
+        assertTrue("george is too far below a", membershipService.getUsersMatching(membersOf(a)).isEmpty());
+        assertEquals(new HashSet<>(asList(GEORGE)),
+                new HashSet<>(membershipService.getUsersMatching(membersOf(b))));
+
+        thrown.expect(IllegalArgumentException.class);
+        membershipService.addGroupToGroup(a, d);
+    }
+
+    @Test
+    public void testMaxDepth_invalid() {
+        thrown.expect(IllegalArgumentException.class);
+        new MemoryMembershipService(services, 0);
+    }
+
+    @Test
+    public void testGetEffectiveUsersInGroup() {
+        membershipService.addUserToGroup(ALEX, HACKERS);
+
+        final List<User> people = new ArrayList<>();
+        final Iterator<User> iterator = membershipService.getEffectiveUsersInGroup(PEOPLE);
+        while (iterator.hasNext()) {
+            people.add(iterator.next());
+        }
+        assertEquals("alex is only returned once", 4, people.size());
+        assertEquals(new HashSet<>(asList(EVAN, FRED, GEORGE, ALEX)), new HashSet<>(people));
+        assertEquals("direct members come first", new HashSet<>(asList(EVAN, FRED)),
+                new HashSet<>(people.subList(0, 2)));
+
+        thrown.expect(NoSuchElementException.class);
+        iterator.next();
+    }
+
+    @Test
+    public void testGetEffectiveUsersInGroup_snapshot() {
+        final Iterator<User> iterator = membershipService.getEffectiveUsersInGroup(ADMINS);
+        membershipService.removeGroupFromGroup(DB_ADMINS, ADMINS);
+        membershipService.addUserToGroup(EVAN, ADMINS);
+
+        final Set<User> admins = new HashSet<>();
+        while (iterator.hasNext()) {
+            admins.add(iterator.next());
+        }
+        assertEquals(new HashSet<>(asList(FRED, ALEX)), admins);
+        assertFalse("nogroup has no members", membershipService.getEffectiveUsersInGroup(NOGROUP).hasNext());
+    }
+
+    @Test
+    public void testIsGroupInGroup_searchesFromTheNarrowEnd() {
+        final GroupService groupService = services.getGroupService();
+        final List<Group> departments = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            final Group department = new Group("department" + i);
+            groupService.create(department);
+            departments.add(department);
+        }
+        membershipService.addGroupsToGroup(departments, PEOPLE);
+        final Group team = new Group("team");
+        groupService.create(team);
+        membershipService.addGroupToGroup(team, departments.get(1234));
+        // A second parent means the interval labels cannot answer, so this exercises the traversal
+        membershipService.addGroupToGroup(team, departments.get(1235));
+
+        Traversal.start();
+        assertTrue("the team is in a department of people", membershipService.isGroupInGroup(team, PEOPLE));
+        assertFalse("the team is not in admins", membershipService.isGroupInGroup(team, ADMINS));
+        final Traversal traversal = Traversal.stop();
+        assertTrue("expanded " + traversal.getNodes() + " groups", traversal.getNodes() < 10);
+    }
+
+    @Test
+    public void testIsGroupInGroup_matchesClosure() {
+        final GroupService groupService = services.getGroupService();
+        final int count = 200;
+        final Group[] groups = new Group[count];
+        for (int i = 0; i < count; i++) {
+            groups[i] = new Group("dag" + i);
+            groupService.create(groups[i]);
+        }
+        // Edges only go from lower to higher indexes, which keeps the graph acyclic
+        final boolean[][] reachable = new boolean[count][count];
+        final Random random = new Random(3);
+        for (int edge = 0; edge < 400; edge++) {
+            final int parent = random.nextInt(count - 1);
+            final int child = parent + 1 + random.nextInt(Math.min(20, count - parent - 1));
+            membershipService.addGroupToGroup(groups[child], groups[parent]);
+            reachable[parent][child] = true;
+        }
+        for (int via = 0; via < count; via++) {
+            for (int from = 0; from < count; from++) {
+                if (reachable[from][via]) {
+                    for (int to = 0; to < count; to++) {
+                        reachable[from][to] |= reachable[via][to];
+                    }
+                }
+            }
+        }
+
+        for (int parent = 0; parent < count; parent++) {
+            for (int child = 0; child < count; child++) {
+                assertEquals(groups[child] + " in " + groups[parent], reachable[parent][child],
+                        membershipService.isGroupInGroup(groups[child], groups[parent]));
+            }
+        }
+    }
+
+    @Test
+    public void testIsGroupInGroup_labelsMatchTraversalUnderChurn() {
+        final Services fresh = ServiceFactory.createServices();
+        final MembershipService labelled = fresh.getMembershipService();
+        // Any depth limit turns the interval labels off
+        final MembershipService traversed = new MemoryMembershipService(fresh, Integer.MAX_VALUE - 1);
+        final int count = 60;
+        final Group[] groups = new Group[count];
+        for (int i = 0; i < count; i++) {
+            groups[i] = new Group("churn" + i);
+            fresh.getGroupService().create(groups[i]);
+        }
+
+        final Random random = new Random(5);
+        for (int step = 1; step <= 3000; step++) {
+            final Group child = groups[random.nextInt(count)];
+            final Group parent = groups[random.nextInt(count)];
+            final int action = random.nextInt(20);
+            if (action < 12) {
+                // Mostly tree-shaped: only occasionally give a group a second parent
+                if (action == 0 || !hasParent(labelled, child, groups)) {
+                    try {
+                        labelled.addGroupToGroup(child, parent);
+                        traversed.addGroupToGroup(child, parent);
+                    } catch (IllegalArgumentException cycle) {
+                        // Both services hold the same hierarchy, so the traversal would reject it too
+                    }
+                }
+            } else if (action < 19) {
+                labelled.removeGroupFromGroup(child, parent);
+                traversed.removeGroupFromGroup(child, parent);
+            } else {
+                labelled.removeGroup(child);
+                traversed.removeGroup(child);
+            }
+
+            if (step % 100 == 0) {
+                for (Group a : groups) {
+                    for (Group b : groups) {
+                        assertEquals(a + " in " + b + " after " + step + " steps", traversed.isGroupInGroup(a, b),
+                                labelled.isGroupInGroup(a, b));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRecomputeEffectiveMemberships_matchesIncremental() {
+        assertRecomputeMatchesIncremental(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testRecomputeEffectiveMemberships_maxDepth() {
+        assertRecomputeMatchesIncremental(3);
+    }
+
+    @Test
+    public void testRecomputeEffectiveMemberships_region() {
+        final MemoryMembershipService memory = (MemoryMembershipService) membershipService;
+        final long version = memory.getVersion();
+
+        memory.recomputeEffectiveMemberships(asList(ADMINS, NOGROUP));
+        assertEquals("fred and alex are under admins", version + 1, memory.getVersion());
+        assertEquals(new HashSet<>(asList(ADMINS, DB_ADMINS, PEOPLE)),
+                new HashSet<>(memory.getEffectiveGroupsForUser(ALEX)));
+        assertTrue(memory.isUserInGroup(GEORGE, PEOPLE));
+
+        memory.recomputeEffectiveMemberships(asList(NOGROUP));
+        assertEquals("nobody is under an unknown group", version + 1, memory.getVersion());
+    }
+
+    @Test
+    public void testRecomputeEffectiveMemberships_unchanged() {
+        final MemoryMembershipService memory = (MemoryMembershipService) membershipService;
+        final long version = memory.getVersion();
+        final Set<Group> groups = new HashSet<>(memory.getEffectiveGroupsForUser(ALEX));
+
+        memory.recomputeEffectiveMemberships();
+        assertEquals("the effective memberships were up to date", version, memory.getVersion());
+        assertEquals(groups, new HashSet<>(memory.getEffectiveGroupsForUser(ALEX)));
+    }
+
+    @Test
+    public void testRecomputeEffectiveMemberships_nullGroup() {
+        thrown.expect(NullPointerException.class);
+        ((MemoryMembershipService) membershipService).recomputeEffectiveMemberships(asList(ADMINS, null));
+    }
+
+    /**
+     * Builds the same random hierarchy, full of diamonds, in one service by single changes and in another by one
+     * import, and checks that both agree with each other and with full rebuilds on one and several threads.
+     */
+    private static void assertRecomputeMatchesIncremental(int maxDepth) {
+        final Services fresh = ServiceFactory.createServices();
+        final MemoryMembershipService incremental = new MemoryMembershipService(fresh, maxDepth);
+        final MemoryMembershipService imported = new MemoryMembershipService(fresh, maxDepth);
+        final Random random = new Random(17);
+        final Group[] groups = new Group[150];
+        final Map<Group, List<Group>> childrenByParent = new HashMap<>();
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = new Group("layer" + i);
+            fresh.getGroupService().create(groups[i]);
+        }
+        // Edges only go from lower to higher indexes, which keeps the graph acyclic
+        for (int edge = 0; edge < 400; edge++) {
+            final int parent = random.nextInt(groups.length - 1);
+            final int child = parent + 1 + random.nextInt(Math.min(10, groups.length - parent - 1));
+            incremental.addGroupToGroup(groups[child], groups[parent]);
+            if (!childrenByParent.containsKey(groups[parent])) {
+                childrenByParent.put(groups[parent], new ArrayList<Group>());
+            }
+            childrenByParent.get(groups[parent]).add(groups[child]);
+        }
+        final User[] users = new User[2000];
+        final Map<Group, List<User>> usersByGroup = new HashMap<>();
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new User("member" + i);
+            fresh.getUserService().create(users[i]);
+            for (int j = random.nextInt(3); j >= 0; j--) {
+                final Group group = groups[random.nextInt(groups.length)];
+                incremental.addUserToGroup(users[i], group);
+                if (!usersByGroup.containsKey(group)) {
+                    usersByGroup.put(group, new ArrayList<User>());
+                }
+                usersByGroup.get(group).add(users[i]);
+            }
+        }
+        imported.importMemberships(childrenByParent, usersByGroup);
+
+        final List<Set<Group>> expected = new ArrayList<>();
+        for (User user : users) {
+            expected.add(new HashSet<>(incremental.getEffectiveGroupsForUser(user)));
+        }
+        assertEffectiveGroups("imported", expected, users, imported);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            imported.recomputeEffectiveMemberships(pool);
+            assertEffectiveGroups("recomputed on 4 threads", expected, users, imported);
+            incremental.recomputeEffectiveMemberships(single);
+            assertEffectiveGroups("recomputed on 1 thread", expected, users, incremental);
+        } finally {
+            pool.shutdown();
+            single.shutdown();
+        }
+    }
+
+    private static void assertEffectiveGroups(String message, List<Set<Group>> expected, User[] users,
+                                              MembershipService membershipService) {
+        for (int i = 0; i < users.length; i++) {
+            assertEquals(message + ": " + users[i], expected.get(i),
+                    new HashSet<>(membershipService.getEffectiveGroupsForUser(users[i])));
+        }
+    }
+
+    private static boolean hasParent(MembershipService membershipService, Group child, Group[] groups) {
+        for (Group group : groups) {
+            if (group != child && membershipService.isGroupInGroup(child, group)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
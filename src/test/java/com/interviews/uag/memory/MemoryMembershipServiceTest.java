@@ -3,6 +3,7 @@ package com.interviews.uag.memory;
 import com.interviews.uag.api.Group;
 import com.interviews.uag.api.GroupService;
 import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
 import com.interviews.uag.api.User;
 import com.interviews.uag.core.ServiceFactory;
 import com.interviews.uag.core.Services;
@@ -12,6 +13,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -145,5 +147,151 @@ public class MemoryMembershipServiceTest {
 
     }
 
+    @Test
+    public void testGetUsersInGroupIsASnapshot() {
+        membershipService.addUserToGroup(FRED, ADMINS);
+        final Collection<User> before = membershipService.getUsersInGroup(ADMINS);
+
+        membershipService.addUserToGroup(GEORGE, ADMINS);
+        membershipService.removeUserFromGroup(FRED, ADMINS);
+
+        assertEquals(asList(FRED), sorted(before));
+        assertEquals(asList(GEORGE), sorted(membershipService.getUsersInGroup(ADMINS)));
+    }
+
+    @Test
+    public void testGetUsersInGroupIsReadOnly() {
+        membershipService.addUserToGroup(FRED, ADMINS);
+
+        thrown.expect(UnsupportedOperationException.class);
+        membershipService.getUsersInGroup(ADMINS).remove(FRED);
+    }
+
+    @Test
+    public void addUsersToGroup_ok() {
+        membershipService.addUserToGroup(FRED, HACKERS);
+        membershipService.addUsersToGroup(asList(FRED, GEORGE, GEORGE), HACKERS);
+
+        assertEquals(asList(FRED, GEORGE), sorted(membershipService.getUsersInGroup(HACKERS)));
+        assertTrue("george is a hacker", membershipService.isUserInGroup(GEORGE, HACKERS));
+    }
+
+    @Test
+    public void addUsersToGroup_isAtomic() {
+        try {
+            membershipService.addUsersToGroup(asList(FRED, NOBODY, GEORGE), HACKERS);
+        } catch (IllegalArgumentException expected) {
+            assertTrue("nobody was added", membershipService.getUsersInGroup(HACKERS).isEmpty());
+            return;
+        }
+        throw new AssertionError("nobody does not exist");
+    }
+
+    @Test
+    public void addUsersToGroup_npeUser() {
+        thrown.expect(NullPointerException.class);
+        membershipService.addUsersToGroup(asList(FRED, null), HACKERS);
+    }
+
+    @Test
+    public void removeUsersFromGroup_ok() {
+        membershipService.addUsersToGroup(asList(FRED, GEORGE), ADMINS);
+        membershipService.removeUsersFromGroup(asList(FRED, NOBODY), ADMINS);
+
+        assertEquals(asList(GEORGE), sorted(membershipService.getUsersInGroup(ADMINS)));
+        assertFalse("fred is not an admin anymore", membershipService.isUserInGroup(FRED, ADMINS));
+    }
+
+    @Test
+    public void testGetUsersInGroup_paged() {
+        final Services services = ServiceFactory.createServices();
+        final List<User> users = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final User user = new User("user" + i);
+            services.getUserService().create(user);
+            users.add(user);
+        }
+        services.getGroupService().create(HACKERS);
+        final MembershipService membershipService = services.getMembershipService();
+        membershipService.addUsersToGroup(users, HACKERS);
+
+        final List<User> paged = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            final Page<User> page = membershipService.getUsersInGroup(HACKERS, cursor, 64);
+            paged.addAll(page.getItems());
+            cursor = page.getNextCursor();
+            pages++;
+            if (pages == 5) {
+                membershipService.removeUserFromGroup(users.get(999), HACKERS);
+                membershipService.removeUserFromGroup(users.get(0), HACKERS);
+            }
+        } while (cursor != null);
+
+        assertEquals(16, pages);
+        assertEquals(users.subList(0, 999), paged);
+    }
+
+    @Test
+    public void testGetUsersInGroup_pagedEmpty() {
+        final Page<User> page = membershipService.getUsersInGroup(NOGROUP, null, 10);
+        assertTrue("nogroup has no members", page.getItems().isEmpty());
+        assertFalse("there is nothing more", page.hasNext());
+    }
+
+    @Test
+    public void testGetUsersInGroup_pageIsReadOnly() {
+        membershipService.addUserToGroup(FRED, HACKERS);
+        thrown.expect(UnsupportedOperationException.class);
+        membershipService.getUsersInGroup(HACKERS, null, 10).getItems().add(GEORGE);
+    }
+
+    @Test
+    public void testGetUsersInGroup_invalidCursor() {
+        thrown.expect(IllegalArgumentException.class);
+        membershipService.getUsersInGroup(HACKERS, "-not a cursor", 10);
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void testGetUsersInGroup_invalidPageSize() {
+        thrown.expect(IllegalArgumentException.class);
+        membershipService.getUsersInGroup(HACKERS, null, 0);
+    }
+
+    @Test
+    public void batchChecks_nested() {
+        final Group staff = new Group("staff");
+        groupService.create(staff);
+        membershipService.addGroupToGroup(ADMINS, staff);
+        membershipService.addUserToGroup(FRED, ADMINS);
+
+        final List<Group> candidates = asList(HACKERS, staff, NOGROUP, ADMINS);
+        final BitSet expected = new BitSet();
+        expected.set(1);
+        expected.set(3);
+        assertEquals(expected, membershipService.checkMany(FRED, candidates));
+        assertTrue(membershipService.isUserInAnyGroup(FRED, candidates));
+        assertFalse(membershipService.isUserInAllGroups(FRED, candidates));
+        assertTrue(membershipService.isUserInAllGroups(FRED, asList(ADMINS, staff)));
+
+        assertTrue(membershipService.checkMany(GEORGE, candidates).isEmpty());
+        assertFalse(membershipService.isUserInAnyGroup(GEORGE, candidates));
+        assertFalse(membershipService.isUserInAnyGroup(NOBODY, candidates));
+    }
+
+    @Test
+    public void batchChecks_noGroups() {
+        membershipService.addUserToGroup(FRED, ADMINS);
+
+        assertFalse(membershipService.isUserInAnyGroup(FRED, Collections.<Group>emptyList()));
+        assertTrue(membershipService.isUserInAllGroups(FRED, Collections.<Group>emptyList()));
+        assertTrue(membershipService.checkMany(FRED, Collections.<Group>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void batchChecks_npe() {
+        thrown.expect(NullPointerException.class);
+        membershipService.isUserInAnyGroup(FRED, asList(ADMINS, null));
+    }
+}
@@ -1,5 +1,7 @@
 package com.interviews.uag.memory;
 
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.Page;
 import com.interviews.uag.api.User;
 import com.interviews.uag.api.UserService;
 import com.interviews.uag.core.ServiceFactory;
@@ -9,8 +11,15 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class MemoryUserServiceTest {
     @Rule
@@ -77,4 +86,68 @@ public class MemoryUserServiceTest {
         userService.delete(fred);
         assertNull("fred should be deleted", userService.findByName("fred"));
     }
+
+    @Test
+    public void testDeleteUser_removesMemberships() {
+        final Services services = ServiceFactory.createServices();
+        final User fred = new User("fred");
+        final Group admins = new Group("admins");
+        services.getUserService().create(fred);
+        services.getGroupService().create(admins);
+        services.getMembershipService().addUserToGroup(fred, admins);
+
+        services.getUserService().delete(fred);
+        assertTrue("admins has no members", services.getMembershipService().getUsersInGroup(admins).isEmpty());
+
+        services.getUserService().create(fred);
+        assertFalse("a new fred is not an admin", services.getMembershipService().isUserInGroup(fred, admins));
+        assertTrue("a new fred has no groups", services.getMembershipService().getGroupsForUser(fred).isEmpty());
+    }
+
+    @Test
+    public void testFindByNamePrefix_pages() {
+        for (String name : asList("fred", "Frank", "frida", "fr", "george", "FRED2")) {
+            userService.create(new User(name));
+        }
+
+        final Page<User> first = userService.findByNamePrefix("fr", false, null, 2);
+        assertEquals(asList(new User("fr"), new User("fred")), first.getItems());
+        final Page<User> second = userService.findByNamePrefix("fr", false, first.getNextCursor(), 2);
+        assertEquals(singletonList(new User("frida")), second.getItems());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    public void testFindByNamePrefix_ignoreCase() {
+        for (String name : asList("fred", "Frank", "frida", "fr", "george", "FRED2")) {
+            userService.create(new User(name));
+        }
+
+        final List<User> found = new ArrayList<>();
+        String cursor = null;
+        do {
+            final Page<User> page = userService.findByNamePrefix("FR", true, cursor, 1);
+            found.addAll(page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(asList(new User("fr"), new User("Frank"), new User("fred"), new User("FRED2"),
+                new User("frida")), found);
+    }
+
+    @Test
+    public void testFindByNamePrefix_deleted() {
+        userService.create(new User("fred"));
+        userService.create(new User("frida"));
+        userService.delete(new User("fred"));
+
+        assertEquals(singletonList(new User("frida")), userService.findByNamePrefix("f", false, null, 10).getItems());
+        assertTrue(userService.findByNamePrefix("fred", true, null, 10).getItems().isEmpty());
+    }
+
+    @Test
+    public void testFindByNamePrefix_invalidCursor() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Invalid cursor: george");
+        userService.findByNamePrefix("fr", false, "george", 10);
+    }
 }
@@ -0,0 +1,94 @@
+package com.interviews.uag.memory;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PersistentHashMapTest {
+    @Test
+    public void testPlusAndMinus_matchHashMap() {
+        final Random random = new Random(42);
+        final Map<Integer, String> expected = new HashMap<>();
+        PersistentHashMap<Integer, String> actual = PersistentHashMap.empty();
+        for (int i = 0; i < 20_000; i++) {
+            final int key = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                actual = actual.minus(key);
+            } else {
+                final String value = "v" + i;
+                expected.put(key, value);
+                actual = actual.plus(key, value);
+            }
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int key = 0; key < 5_000; key++) {
+            assertEquals("value for " + key, expected.get(key), actual.get(key));
+        }
+        final Map<Integer, String> iterated = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : actual) {
+            iterated.put(entry.getKey(), entry.getValue());
+        }
+        assertEquals(expected, iterated);
+    }
+
+    @Test
+    public void testHashCollisions() {
+        PersistentHashMap<Colliding, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < 10; i++) {
+            map = map.plus(new Colliding(i), "v" + i);
+        }
+        assertEquals(10, map.size());
+        assertEquals("v7", map.get(new Colliding(7)));
+
+        map = map.minus(new Colliding(7));
+        assertEquals(9, map.size());
+        assertNull(map.get(new Colliding(7)));
+        assertEquals("v8", map.get(new Colliding(8)));
+    }
+
+    @Test
+    public void testOlderVersionsAreUnaffected() {
+        final PersistentHashMap<String, String> before = PersistentHashMap.<String, String>empty().plus("a", "1");
+        final PersistentHashMap<String, String> after = before.plus("b", "2").minus("a");
+
+        assertEquals("1", before.get("a"));
+        assertFalse(before.containsKey("b"));
+        assertNull(after.get("a"));
+        assertEquals("2", after.get("b"));
+    }
+
+    @Test
+    public void testNoOpUpdatesReturnSameInstance() {
+        final String value = "1";
+        final PersistentHashMap<String, String> map = PersistentHashMap.<String, String>empty().plus("a", value);
+        assertSame(map, map.plus("a", value));
+        assertSame(map, map.minus("b"));
+    }
+
+    private static final class Colliding {
+        private final int id;
+
+        Colliding(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 17;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Colliding && ((Colliding) obj).id == id;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.interviews.uag.memory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PersistentIntMapTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testPlusAndMinus_matchTreeMap() {
+        final Random random = new Random(11);
+        final TreeMap<Integer, String> expected = new TreeMap<>();
+        PersistentIntMap<String> actual = PersistentIntMap.empty();
+        for (int i = 0; i < 20_000; i++) {
+            final int key = random.nextInt(100_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                actual = actual.minus(key);
+            } else {
+                expected.put(key, "v" + i);
+                actual = actual.plus(key, "v" + i);
+            }
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int key = 0; key < 100_000; key++) {
+            assertEquals("value for " + key, expected.get(key), actual.get(key));
+        }
+
+        final Map<Integer, String> iterated = new TreeMap<>();
+        actual.forEach(new PersistentIntMap.EntryConsumer<String>() {
+            @Override
+            public void accept(int key, String value) {
+                iterated.put(key, value);
+            }
+        });
+        assertEquals(expected, iterated);
+    }
+
+    @Test
+    public void testWithAll_matchesTreeMap() {
+        final Random random = new Random(13);
+        final TreeMap<Integer, String> expected = new TreeMap<>();
+        PersistentIntMap<String> actual = PersistentIntMap.empty();
+        for (int batch = 0; batch < 50; batch++) {
+            final TreeMap<Integer, String> changes = new TreeMap<>();
+            for (int i = 0; i < 500; i++) {
+                changes.put(random.nextInt(batch < 25 ? 5_000 : 200_000), random.nextInt(3) == 0 ? null : "v" + i);
+            }
+            final int[] keys = new int[changes.size()];
+            final String[] values = new String[changes.size()];
+            int index = 0;
+            for (Map.Entry<Integer, String> change : changes.entrySet()) {
+                keys[index] = change.getKey();
+                values[index++] = change.getValue();
+                if (change.getValue() == null) {
+                    expected.remove(change.getKey());
+                } else {
+                    expected.put(change.getKey(), change.getValue());
+                }
+            }
+            final PersistentIntMap<String> before = actual;
+            final int sizeBefore = before.size();
+            actual = actual.withAll(keys, values);
+            assertEquals("the previous version is unaffected", sizeBefore, before.size());
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int key = 0; key < 200_000; key++) {
+            assertEquals("value for " + key, expected.get(key), actual.get(key));
+        }
+    }
+
+    @Test
+    public void testWithAll_unsortedKeys() {
+        thrown.expect(IllegalArgumentException.class);
+        PersistentIntMap.<String>empty().withAll(new int[]{2, 1}, new String[]{"a", "b"});
+    }
+
+    @Test
+    public void testOlderVersionsAreUnaffected() {
+        final PersistentIntMap<String> before = PersistentIntMap.<String>empty().plus(1, "a");
+        final PersistentIntMap<String> after = before.plus(1_000_000, "b").minus(1);
+
+        assertEquals("a", before.get(1));
+        assertNull(before.get(1_000_000));
+        assertNull(after.get(1));
+        assertEquals("b", after.get(1_000_000));
+        assertSame(before, before.minus(2));
+        assertNull(before.get(-1));
+    }
+}
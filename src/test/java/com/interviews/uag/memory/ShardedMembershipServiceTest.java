@@ -0,0 +1,204 @@
+package com.interviews.uag.memory;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.Page;
+import com.interviews.uag.api.User;
+import com.interviews.uag.core.ServiceFactory;
+import com.interviews.uag.core.Services;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.interviews.uag.api.MembershipQuery.membersOf;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardedMembershipServiceTest {
+    private static final Group STUDENTS = new Group("students");
+    private static final Group SCIENCE = new Group("science");
+    private static final Group HISTORY = new Group("history");
+    private static final Group PHYSICS = new Group("physics");
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private Services services;
+    private MembershipService membershipService;
+    private final List<User> users = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        services = ServiceFactory.createShardedServices(4);
+        membershipService = services.getMembershipService();
+        for (Group group : asList(STUDENTS, SCIENCE, HISTORY, PHYSICS)) {
+            services.getGroupService().create(group);
+        }
+        for (int i = 0; i < 100; i++) {
+            final User user = new User("user" + i);
+            services.getUserService().create(user);
+            users.add(user);
+        }
+        membershipService.addGroupsToGroup(asList(SCIENCE, HISTORY), STUDENTS);
+        membershipService.addGroupToGroup(PHYSICS, SCIENCE);
+    }
+
+    @Test
+    public void testMembershipsAcrossShards() {
+        membershipService.addUsersToGroup(users.subList(0, 60), PHYSICS);
+        membershipService.addUsersToGroup(users.subList(40, 100), HISTORY);
+
+        assertTrue(membershipService instanceof ShardedMembershipService);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(membershipService.isUserInGroup(users.get(i), STUDENTS));
+            assertEquals(i < 60, membershipService.isUserInGroup(users.get(i), SCIENCE));
+        }
+        assertTrue(membershipService.isGroupInGroup(PHYSICS, STUDENTS));
+        assertEquals(60, membershipService.getUsersInGroup(PHYSICS).size());
+        assertEquals(100, toSet(membershipService.getEffectiveUsersInGroup(STUDENTS)).size());
+        assertEquals(new HashSet<>(users.subList(40, 60)),
+                new HashSet<>(membershipService.getUsersMatching(membersOf(SCIENCE).and(membersOf(HISTORY)))));
+        assertEquals(new HashSet<>(asList(PHYSICS, SCIENCE, STUDENTS)),
+                new HashSet<>(membershipService.getEffectiveGroupsForUser(users.get(0))));
+    }
+
+    @Test
+    public void testPagesCoverEveryShard() {
+        membershipService.addUsersToGroup(users, PHYSICS);
+        final Set<User> paged = new HashSet<>();
+        String cursor = null;
+        do {
+            final Page<User> page = membershipService.getUsersInGroup(PHYSICS, cursor, 7);
+            for (User user : page.getItems()) {
+                assertTrue(paged.add(user));
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(new HashSet<>(users), paged);
+    }
+
+    @Test
+    public void testNoCursorBeforeTrailingEmptyShards() {
+        final List<User> firstShard = new ArrayList<>();
+        for (User user : users) {
+            if (((ShardedMembershipService) membershipService).shardIndex(user) == 0) {
+                firstShard.add(user);
+            }
+        }
+        membershipService.addUsersToGroup(firstShard, PHYSICS);
+
+        final Page<User> all = membershipService.getUsersInGroup(PHYSICS, null, firstShard.size());
+        assertEquals(new HashSet<>(firstShard), new HashSet<>(all.getItems()));
+        assertNull(all.getNextCursor());
+
+        String cursor = null;
+        int paged = 0;
+        do {
+            final Page<User> page = membershipService.getUsersInGroup(PHYSICS, cursor, 1);
+            assertEquals(1, page.getItems().size());
+            paged++;
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(firstShard.size(), paged);
+    }
+
+    @Test
+    public void testInvalidCursor() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Invalid cursor");
+        membershipService.getUsersInGroup(PHYSICS, "zz.0", 10);
+    }
+
+    @Test
+    public void testCycleLeavesEveryShardUnchanged() {
+        membershipService.addUsersToGroup(users, HISTORY);
+        try {
+            membershipService.addGroupsToGroup(asList(HISTORY, STUDENTS), PHYSICS);
+            fail("The cycle was not rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        for (User user : users) {
+            assertFalse(membershipService.isUserInGroup(user, PHYSICS));
+        }
+    }
+
+    @Test
+    public void testMissingUserAddsNone() {
+        final List<User> batch = new ArrayList<>(users);
+        batch.add(new User("nobody"));
+        try {
+            membershipService.addUsersToGroup(batch, PHYSICS);
+            fail("The missing user was not rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("User 'nobody' does not exist!", e.getMessage());
+        }
+        assertTrue(membershipService.getUsersInGroup(PHYSICS).isEmpty());
+    }
+
+    @Test
+    public void testDeletes() {
+        membershipService.addUsersToGroup(users, PHYSICS);
+        services.getUserService().delete(users.get(0));
+        assertFalse(membershipService.isUserInGroup(users.get(0), STUDENTS));
+        services.getGroupService().delete(SCIENCE);
+        for (User user : users) {
+            assertFalse(membershipService.isUserInGroup(user, STUDENTS));
+        }
+        assertEquals(99, membershipService.getUsersInGroup(PHYSICS).size());
+    }
+
+    @Test
+    public void testMatchesSingleShardOnRandomChanges() {
+        final Services oracle = ServiceFactory.createServices();
+        for (Group group : asList(STUDENTS, SCIENCE, HISTORY, PHYSICS)) {
+            oracle.getGroupService().create(group);
+        }
+        for (User user : users) {
+            oracle.getUserService().create(user);
+        }
+        oracle.getMembershipService().addGroupsToGroup(asList(SCIENCE, HISTORY), STUDENTS);
+        oracle.getMembershipService().addGroupToGroup(PHYSICS, SCIENCE);
+
+        final List<Group> groups = asList(STUDENTS, SCIENCE, HISTORY, PHYSICS);
+        final Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            final User user = users.get(random.nextInt(users.size()));
+            final Group group = groups.get(random.nextInt(groups.size()));
+            final boolean remove = random.nextInt(3) == 0;
+            for (MembershipService service : asList(membershipService, oracle.getMembershipService())) {
+                if (remove) {
+                    service.removeUserFromGroup(user, group);
+                } else {
+                    service.addUserToGroup(user, group);
+                }
+            }
+        }
+        for (Group group : groups) {
+            assertEquals(new HashSet<>(oracle.getMembershipService().getUsersInGroup(group)),
+                    new HashSet<>(membershipService.getUsersInGroup(group)));
+            assertEquals(toSet(oracle.getMembershipService().getEffectiveUsersInGroup(group)),
+                    toSet(membershipService.getEffectiveUsersInGroup(group)));
+        }
+    }
+
+    private static Set<User> toSet(Iterator<User> iterator) {
+        final Set<User> set = new HashSet<>();
+        while (iterator.hasNext()) {
+            assertTrue(set.add(iterator.next()));
+        }
+        return set;
+    }
+}
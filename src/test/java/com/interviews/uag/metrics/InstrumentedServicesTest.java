@@ -0,0 +1,165 @@
+package com.interviews.uag.metrics;
+
+import com.interviews.uag.api.Group;
+import com.interviews.uag.api.MembershipService;
+import com.interviews.uag.api.User;
+import com.interviews.uag.core.ServiceFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentedServicesTest {
+    private static final User ALICE = new User("alice");
+    private static final Group A = new Group("a");
+    private static final Group B = new Group("b");
+    private static final Group C = new Group("c");
+    private static final Group D = new Group("d");
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private InstrumentedServices services;
+    private MembershipService membershipService;
+
+    @Before
+    public void setUp() {
+        services = InstrumentedServices.wrap(ServiceFactory.createServices());
+        services.getUserService().create(ALICE);
+        for (Group group : new Group[]{A, B, C, D}) {
+            services.getGroupService().create(group);
+        }
+        membershipService = services.getMembershipService();
+        membershipService.addGroupToGroup(B, A);
+        membershipService.addGroupToGroup(C, B);
+        membershipService.addGroupToGroup(D, C);
+        membershipService.addUserToGroup(ALICE, D);
+    }
+
+    @Test
+    public void testCountsCalls() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(membershipService.isUserInGroup(ALICE, A));
+        }
+        services.getUserService().findByName("alice");
+
+        final OperationSnapshot isUserInGroup = services.getMetrics().getOperation("MembershipService.isUserInGroup");
+        assertNotNull(isUserInGroup);
+        assertEquals(5, isUserInGroup.getCalls());
+        assertEquals(0, isUserInGroup.getErrors());
+        assertTrue(isUserInGroup.getMaxNanos() > 0);
+        assertTrue(isUserInGroup.getP50Nanos() <= isUserInGroup.getP999Nanos());
+        assertEquals(1, services.getMetrics().getOperation("UserService.findByName").getCalls());
+        assertEquals(1, services.getMetrics().getOperation("UserService.create").getCalls());
+        assertNull(services.getMetrics().getOperation("UserService.rename"));
+    }
+
+    @Test
+    public void testCountsErrors() {
+        try {
+            services.getUserService().create(ALICE);
+        } catch (IllegalArgumentException expected) {
+            // alice exists
+        }
+
+        final OperationSnapshot create = services.getMetrics().getOperation("UserService.create");
+        assertEquals(2, create.getCalls());
+        assertEquals(1, create.getErrors());
+    }
+
+    @Test
+    public void testRethrowsErrors() {
+        thrown.expect(NullPointerException.class);
+        thrown.expectMessage("group");
+        membershipService.isUserInGroup(ALICE, null);
+    }
+
+    @Test
+    public void testRecordsTraversals() {
+        // A second parent takes d out of the tree-shaped part of the hierarchy, so it is found by a traversal
+        final Group e = new Group("e");
+        services.getGroupService().create(e);
+        membershipService.addGroupToGroup(D, e);
+
+        assertTrue(membershipService.isGroupInGroup(D, A));
+        assertFalse("answered by the interval labels", membershipService.isGroupInGroup(A, D));
+
+        final OperationSnapshot isGroupInGroup = services.getMetrics().getOperation("MembershipService.isGroupInGroup");
+        assertEquals(3, isGroupInGroup.getMaxDepth());
+        assertEquals(3, isGroupInGroup.getMaxNodes());
+        assertEquals(1.5, isGroupInGroup.getMeanNodes(), 0.001);
+    }
+
+    @Test
+    public void testHotGroups() {
+        for (int i = 0; i < 3; i++) {
+            membershipService.isUserInGroup(ALICE, B);
+        }
+        membershipService.getUsersInGroup(C);
+
+        assertEquals("b", services.getMetrics().getHotGroups().get(0).getGroup());
+        assertEquals(3, services.getMetrics().getHotGroups().get(0).getCalls());
+        assertEquals(2, services.getMetrics().getHotGroups().size());
+        assertEquals(1, services.getMetrics().getHotGroups(1).size());
+    }
+
+    @Test
+    public void testReset() {
+        membershipService.isUserInGroup(ALICE, B);
+        services.getMetrics().reset();
+
+        assertEquals(0, services.getMetrics().getOperation("MembershipService.isUserInGroup").getCalls());
+        assertTrue(services.getMetrics().getHotGroups().isEmpty());
+    }
+
+    @Test
+    public void testPublishesOverJmx() throws Exception {
+        membershipService.isUserInGroup(ALICE, A);
+        final ObjectName name = services.getMetrics().register("test");
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final CompositeData[] operations = (CompositeData[]) server.getAttribute(name, "Operations");
+            boolean found = false;
+            for (CompositeData operation : operations) {
+                if ("MembershipService.isUserInGroup".equals(operation.get("name"))) {
+                    assertEquals(1L, operation.get("calls"));
+                    found = true;
+                }
+            }
+            assertTrue(found);
+        } finally {
+            services.getMetrics().unregister(name);
+        }
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        long previous = -1;
+        for (long value = 0; value < 100000; value++) {
+            final int index = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(index));
+            assertTrue(index == 0 || value > LatencyHistogram.upperBoundOf(index - 1));
+            assertTrue(LatencyHistogram.upperBoundOf(index) >= previous);
+            previous = LatencyHistogram.upperBoundOf(index);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        final long median = LatencyHistogram.percentile(histogram.counts(), 0.5);
+        assertTrue(median >= 500000 && median <= 500000 * 1.125);
+    }
+}